@@ -0,0 +1,97 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two JMH JSON reports, e.g. the one of the last release against target/jmh-result.json,
+ * and prints the change of every benchmark run in both. A change is marked with * when it is
+ * larger than the errors of both scores together, smaller ones are noise.
+ *
+ * Run with `mvn -P benchmark test-compile exec:exec@diff-reports -Djmh.baseline=old.json`.
+ */
+public final class BenchmarkReportDiff {
+
+  private BenchmarkReportDiff() {
+    throw new java.lang.UnsupportedOperationException("Utility class cannot be instantiated");
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: BenchmarkReportDiff <baseline.json> <result.json>");
+      System.exit(2);
+    }
+    Map<String, JsonObject> baseline = read(args[0]);
+    Map<String, JsonObject> result = read(args[1]);
+
+    System.out.println(String.format("%-80s %14s %14s %9s", "Benchmark", "Baseline", "Result", "Change"));
+    for (Map.Entry<String, JsonObject> entry : result.entrySet()) {
+      JsonObject before = baseline.get(entry.getKey());
+      JsonObject after = entry.getValue();
+      if (before == null) {
+        System.out.println(String.format("%-80s %14s %14.3f %9s", entry.getKey(), "-",
+            after.get("score").getAsDouble(), "new"));
+        continue;
+      }
+      double beforeScore = before.get("score").getAsDouble();
+      double afterScore = after.get("score").getAsDouble();
+      double noise = errorOf(before) + errorOf(after);
+      double change = (beforeScore == 0) ? 0 : (afterScore - beforeScore) / beforeScore * 100;
+      System.out.println(String.format("%-80s %14.3f %14.3f %+8.1f%%%s %s", entry.getKey(), beforeScore,
+          afterScore, change, (Math.abs(afterScore - beforeScore) > noise) ? "*" : " ",
+          after.get("scoreUnit").getAsString()));
+    }
+    for (String missing : baseline.keySet()) {
+      if (!result.containsKey(missing)) {
+        System.out.println(String.format("%-80s %14s", missing, "removed"));
+      }
+    }
+  }
+
+  /** Returns the primary metric of every benchmark in the report, keyed by name and parameters. */
+  private static Map<String, JsonObject> read(String path) throws IOException {
+    Map<String, JsonObject> metrics = new LinkedHashMap<>();
+    try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+      for (JsonElement element : JsonParser.parseReader(reader).getAsJsonArray()) {
+        JsonObject run = element.getAsJsonObject();
+        StringBuilder key = new StringBuilder(run.get("benchmark").getAsString());
+        JsonObject params = run.getAsJsonObject("params");
+        if (params != null) {
+          for (Map.Entry<String, JsonElement> param : params.entrySet()) {
+            key.append(' ').append(param.getKey()).append('=').append(param.getValue().getAsString());
+          }
+        }
+        metrics.put(key.toString(), run.getAsJsonObject("primaryMetric"));
+      }
+    }
+    return metrics;
+  }
+
+  /** Returns the error of a score, 0 when JMH could not compute it from a single iteration. */
+  private static double errorOf(JsonObject metric) {
+    double error = metric.get("scoreError").getAsDouble();
+    return Double.isNaN(error) ? 0 : error;
+  }
+}
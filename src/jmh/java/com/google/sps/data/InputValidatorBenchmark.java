@@ -0,0 +1,79 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the validators of UpdateVendorServlet compiling their Pattern on every call, the
+ * precompiled Patterns and the InputValidator scans, on the inputs of one request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InputValidatorBenchmark {
+  private static final Pattern ONLY_LETTERS = Pattern.compile("\\p{L}+");
+  private static final Pattern ONLY_NUMBERS = Pattern.compile("[0-9]+");
+
+  private String firstName = "Mariana";
+  private String lastName = "Núñez";
+  private String phoneNumber = "8118022347";
+  private String startTime = "08:30";
+
+  @Benchmark
+  public boolean vendorInputsCompiledPerCall() {
+    return Pattern.compile("\\p{L}+").matcher(firstName).matches()
+        && Pattern.compile("\\p{L}+").matcher(lastName).matches()
+        && Pattern.compile("[0-9]+").matcher(phoneNumber).matches();
+  }
+
+  @Benchmark
+  public boolean vendorInputsPrecompiled() {
+    return ONLY_LETTERS.matcher(firstName).matches()
+        && ONLY_LETTERS.matcher(lastName).matches()
+        && ONLY_NUMBERS.matcher(phoneNumber).matches();
+  }
+
+  @Benchmark
+  public boolean vendorInputs() {
+    return InputValidator.hasOnlyLetters(firstName)
+        && InputValidator.hasOnlyLetters(lastName)
+        && InputValidator.hasOnlyNumbers(phoneNumber);
+  }
+
+  @Benchmark
+  public LocalTime parseTimeLocalTime() {
+    return LocalTime.parse(startTime);
+  }
+
+  @Benchmark
+  public LocalTime parseTime() {
+    return InputValidator.parseTime(startTime);
+  }
+}
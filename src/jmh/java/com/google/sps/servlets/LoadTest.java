@@ -0,0 +1,438 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.gson.GsonBuilder;
+import com.google.sps.COMMONS;
+import com.google.sps.data.VendorCache;
+import com.google.sps.utility.RangeResultCache;
+import com.google.sps.utility.SyntheticVendors;
+import com.google.sps.utility.VendorIndex;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Drives the search, vendor and salecard servlets with concurrent users against the local
+ * datastore, blobstore and memcache stubs. Reports the throughput, the latency percentiles and
+ * the bytes allocated per request of every operation. The stubs answer in microseconds, so the
+ * numbers are those of the servlet code, not of a deployed app: compare runs with each other,
+ * not with production.
+ *
+ * Run with `mvn -P benchmark test-compile exec:exec@load-test -Dload.args="--users=16"`.
+ * Options, with their defaults:
+ *   --vendors=10000  vendors seeded on a 20km wide square, each one owned by a user
+ *   --users=8        concurrent users, each one a thread sending requests back to back
+ *   --warmup=5       seconds of requests before measuring
+ *   --seconds=20     seconds measured
+ *   --mix=search:50,pins:20,vendor:25,update:5  weights of the operations
+ *   --distance=1000  radius of the searches in meters
+ *   --index          search the in-memory VendorIndex
+ *   --search-cache   reuse range results between searches
+ *   --report=target/load-test-result.json  where the JSON report is written
+ */
+public final class LoadTest {
+  private static final String USER_ID_KEY = "com.google.appengine.api.users.UserService.user_id_key";
+  private static final String UPLOADED_BLOBKEYS = "com.google.appengine.api.blobstore.upload.blobkeys";
+  private static final int SEED_BATCH_SIZE = 500;
+  private static final long NANOS_PER_SECOND = 1000L * 1000 * 1000;
+
+  private static final GetNearbyVendorsServlet getNearbyVendorsServlet = new GetNearbyVendorsServlet();
+  private static final GetVendorServlet getVendorServlet = new GetVendorServlet();
+  private static final UpdateSaleCardServlet updateSaleCardServlet = new UpdateSaleCardServlet();
+
+  /** The operations a user picks from, by their weight in the mix. */
+  private enum Operation {
+    SEARCH, PINS, VENDOR, UPDATE
+  }
+
+  private final Map<String, String> options;
+  private final SyntheticVendors vendors;
+  private final Operation[] mix;
+  private final int distance;
+
+  private LoadTest(Map<String, String> options) {
+    this.options = options;
+    this.vendors = SyntheticVendors.generate(intOption("vendors", 10000));
+    this.mix = parseMix(options.getOrDefault("mix", "search:50,pins:20,vendor:25,update:5"));
+    this.distance = intOption("distance", 1000);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("Unknown argument " + arg);
+      }
+      int equals = arg.indexOf('=');
+      options.put((equals < 0) ? arg.substring(2) : arg.substring(2, equals),
+          (equals < 0) ? "true" : arg.substring(equals + 1));
+    }
+
+    LoadTest loadTest = new LoadTest(options);
+    LocalServiceTestHelper helper = new LocalServiceTestHelper(
+        new LocalDatastoreServiceTestConfig(),
+        new LocalBlobstoreServiceTestConfig(),
+        new LocalMemcacheServiceTestConfig(),
+        new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true),
+        new LocalUserServiceTestConfig())
+        .setEnvIsLoggedIn(true)
+        .setEnvEmail("load@example.com")
+        .setEnvAuthDomain("example.com");
+    helper.setUp();
+    try {
+      loadTest.run();
+    } finally {
+      helper.tearDown();
+    }
+    // The stubs leave non-daemon threads behind
+    System.exit(0);
+  }
+
+  private void run() throws Exception {
+    System.setProperty(COMMONS.VENDOR_INDEX_PROPERTY, options.getOrDefault("index", "false"));
+    System.setProperty(COMMONS.SEARCH_CACHE_PROPERTY, options.getOrDefault("search-cache", "false"));
+    VendorCache.getInstance().clear();
+    VendorIndex.getInstance().clear();
+    RangeResultCache.getInstance().clear();
+    seed();
+
+    int users = intOption("users", 8);
+    System.out.println("Warming up " + users + " users for " + intOption("warmup", 5) + "s");
+    drive(users, intOption("warmup", 5));
+    System.out.println("Measuring for " + intOption("seconds", 20) + "s");
+    long startNanos = System.nanoTime();
+    List<Recorder> recorders = drive(users, intOption("seconds", 20));
+    double elapsedSeconds = (System.nanoTime() - startNanos) / (double) NANOS_PER_SECOND;
+
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("options", options);
+    report.put("vendors", vendors.size());
+    report.put("users", users);
+    report.put("seconds", elapsedSeconds);
+    Map<String, Object> results = new LinkedHashMap<>();
+    System.out.println(String.format("%-8s %9s %9s %8s %8s %8s %8s %11s %7s", "Op", "Requests",
+        "Req/s", "p50 ms", "p95 ms", "p99 ms", "max ms", "KB/request", "Errors"));
+    for (Operation operation : Operation.values()) {
+      Recorder merged = Recorder.merge(recorders, operation);
+      if (merged.count == 0) continue;
+      Map<String, Object> result = merged.summary(elapsedSeconds);
+      results.put(operation.name().toLowerCase(), result);
+      System.out.println(String.format("%-8s %9d %9.1f %8.2f %8.2f %8.2f %8.2f %11.1f %7d",
+          operation.name().toLowerCase(), merged.count, result.get("throughput"),
+          result.get("p50Millis"), result.get("p95Millis"), result.get("p99Millis"),
+          result.get("maxMillis"), result.get("allocatedKilobytesPerRequest"), merged.errors));
+    }
+    report.put("results", results);
+
+    String reportPath = options.getOrDefault("report", "target/load-test-result.json");
+    Files.write(Paths.get(reportPath),
+        new GsonBuilder().setPrettyPrinting().create().toJson(report).getBytes(StandardCharsets.UTF_8));
+    System.out.println("Report written to " + reportPath);
+  }
+
+  /** Puts every vendor in datastore with batched puts. */
+  private void seed() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    List<Entity> batch = new ArrayList<>(SEED_BATCH_SIZE);
+    for (int i = 0; i < vendors.size(); i++) {
+      batch.add(vendors.entity(i));
+      if (batch.size() == SEED_BATCH_SIZE || i == vendors.size() - 1) {
+        datastore.put(batch);
+        batch.clear();
+      }
+    }
+    System.out.println("Seeded " + vendors.size() + " vendors");
+  }
+
+  /** Runs every user on its own thread for the given seconds and returns what they recorded. */
+  private List<Recorder> drive(int users, int seconds) throws Exception {
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    ExecutorService executor = Executors.newFixedThreadPool(users);
+    CountDownLatch startGate = new CountDownLatch(1);
+    List<Future<Recorder>> futures = new ArrayList<>();
+    for (int user = 0; user < users; user++) {
+      // Every user owns a different vendor, the one whose salecard it updates
+      int owned = (int) ((long) user * vendors.size() / users);
+      Random random = new Random(user);
+      futures.add(executor.submit(() -> {
+        ApiProxy.setEnvironmentForCurrentThread(asUser(environment, SyntheticVendors.vendorId(owned)));
+        try {
+          startGate.await();
+          return runUser(owned, random, System.nanoTime() + seconds * NANOS_PER_SECOND);
+        } finally {
+          ApiProxy.clearEnvironmentForCurrentThread();
+        }
+      }));
+    }
+    startGate.countDown();
+    List<Recorder> recorders = new ArrayList<>();
+    for (Future<Recorder> future : futures) {
+      recorders.add(future.get());
+    }
+    executor.shutdown();
+    return recorders;
+  }
+
+  /** Sends requests back to back until the deadline. */
+  private Recorder runUser(int owned, Random random, long deadlineNanos) {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    Recorder recorder = new Recorder();
+    int updates = 0;
+    while (System.nanoTime() < deadlineNanos) {
+      Operation operation = mix[random.nextInt(mix.length)];
+      FakeResponse response = new FakeResponse();
+      long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+      long startNanos = System.nanoTime();
+      try {
+        switch (operation) {
+          case SEARCH:
+          case PINS:
+            getNearbyVendorsServlet.doPost(searchRequest(random, operation == Operation.PINS),
+                response.proxy());
+            break;
+          case VENDOR:
+            getVendorServlet.doGet(request(Collections.singletonMap("vendorId",
+                SyntheticVendors.vendorId(random.nextInt(vendors.size())))), response.proxy());
+            break;
+          default:
+            updateSaleCardServlet.doPost(updateRequest(owned, updates++), response.proxy());
+        }
+      } catch (IOException | RuntimeException e) {
+        System.err.println(operation + " failed: " + e);
+        response.status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+      }
+      long latencyNanos = System.nanoTime() - startNanos;
+      recorder.record(operation, latencyNanos,
+          threads.getThreadAllocatedBytes(threadId) - allocatedBefore, response.status >= 400);
+    }
+    return recorder;
+  }
+
+  /** Returns a search around a random vendor, for its cards or its pins. */
+  private HttpServletRequest searchRequest(Random random, boolean pins) {
+    GeoPt center = vendors.salePoint(random.nextInt(vendors.size()));
+    Map<String, String> parameters = new HashMap<>();
+    parameters.put("lat", Float.toString(center.getLatitude()));
+    parameters.put("lng", Float.toString(center.getLongitude()));
+    parameters.put("distance", Integer.toString(distance));
+    parameters.put("currentTime", "12:00");
+    parameters.put("onlyOpenNow", Boolean.toString(random.nextBoolean()));
+    parameters.put("view", pins ? "pins" : "cards");
+    return request(parameters);
+  }
+
+  /** Returns a rewrite of the salecard of the vendor the user owns, keeping its place and picture. */
+  private HttpServletRequest updateRequest(int owned, int update) {
+    GeoPt salePoint = vendors.salePoint(owned);
+    Map<String, String> parameters = new HashMap<>();
+    parameters.put("businessName", "Business " + owned + " update " + update);
+    parameters.put("description", "Fresh produce and more");
+    parameters.put("startTime", "08:00");
+    parameters.put("endTime", "16:00");
+    parameters.put("radius", "100");
+    parameters.put("lat", Float.toString(salePoint.getLatitude()));
+    parameters.put("lng", Float.toString(salePoint.getLongitude()));
+    parameters.put("altText", "Stall " + owned);
+    parameters.put("blobKey", "picture" + owned);
+    return request(parameters);
+  }
+
+  /** Returns a request with the parameters and nothing uploaded. */
+  private static HttpServletRequest request(Map<String, String> parameters) {
+    return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+        new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getParameter":
+              return parameters.get(args[0]);
+            case "getAttribute":
+              return UPLOADED_BLOBKEYS.equals(args[0]) ? Collections.emptyMap() : null;
+            default:
+              return defaultValue(method.getReturnType());
+          }
+        });
+  }
+
+  /** Returns the environment of the helper, logged in as the given user. */
+  private static ApiProxy.Environment asUser(ApiProxy.Environment environment, String userId) {
+    Map<String, Object> attributes = new HashMap<>(environment.getAttributes());
+    attributes.put(USER_ID_KEY, userId);
+    return (ApiProxy.Environment) Proxy.newProxyInstance(
+        ApiProxy.Environment.class.getClassLoader(), new Class<?>[] {ApiProxy.Environment.class},
+        (proxy, method, args) -> method.getName().equals("getAttributes")
+            ? attributes
+            : method.invoke(environment, args));
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) return false;
+    if (type == int.class) return 0;
+    if (type == long.class) return 0L;
+    return null;
+  }
+
+  private int intOption(String name, int defaultValue) {
+    return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+  }
+
+  /** Expands "search:50,update:5" into an array where every operation appears its weight times. */
+  private static Operation[] parseMix(String mix) {
+    List<Operation> operations = new ArrayList<>();
+    for (String entry : mix.split(",")) {
+      String[] weighted = entry.split(":");
+      Operation operation = Operation.valueOf(weighted[0].trim().toUpperCase());
+      operations.addAll(Collections.nCopies(Integer.parseInt(weighted[1].trim()), operation));
+    }
+    if (operations.isEmpty()) {
+      throw new IllegalArgumentException("The mix has no operations");
+    }
+    return operations.toArray(new Operation[0]);
+  }
+
+  /** A response that drops its body and keeps its status. */
+  private static final class FakeResponse {
+    private static final PrintWriter DISCARD = new PrintWriter(new Writer() {
+      @Override
+      public void write(char[] buffer, int offset, int length) {}
+
+      @Override
+      public void flush() {}
+
+      @Override
+      public void close() {}
+    });
+
+    private int status = HttpServletResponse.SC_OK;
+
+    HttpServletResponse proxy() {
+      return (HttpServletResponse) Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(),
+          new Class<?>[] {HttpServletResponse.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getWriter":
+                return DISCARD;
+              case "setStatus":
+              case "sendError":
+                status = (Integer) args[0];
+                return null;
+              case "sendRedirect":
+                status = HttpServletResponse.SC_FOUND;
+                return null;
+              default:
+                return defaultValue(method.getReturnType());
+            }
+          });
+    }
+  }
+
+  /** Latencies and allocations of the requests a user sent, by operation. */
+  private static final class Recorder {
+    private final Map<Operation, long[]> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, Integer> counts = new EnumMap<>(Operation.class);
+    private final Map<Operation, Long> allocatedBytes = new EnumMap<>(Operation.class);
+    private final Map<Operation, Integer> errorCounts = new EnumMap<>(Operation.class);
+    // Only set on the merged recorders of an operation
+    private long[] sortedLatencies;
+    private int count;
+    private long allocated;
+    private int errors;
+
+    void record(Operation operation, long latencyNanos, long allocatedByRequest, boolean error) {
+      int index = counts.getOrDefault(operation, 0);
+      long[] operationLatencies = latencies.computeIfAbsent(operation, key -> new long[1024]);
+      if (index == operationLatencies.length) {
+        operationLatencies = Arrays.copyOf(operationLatencies, index * 2);
+        latencies.put(operation, operationLatencies);
+      }
+      operationLatencies[index] = latencyNanos;
+      counts.put(operation, index + 1);
+      allocatedBytes.merge(operation, allocatedByRequest, Long::sum);
+      if (error) {
+        errorCounts.merge(operation, 1, Integer::sum);
+      }
+    }
+
+    static Recorder merge(List<Recorder> recorders, Operation operation) {
+      Recorder merged = new Recorder();
+      for (Recorder recorder : recorders) {
+        merged.count += recorder.counts.getOrDefault(operation, 0);
+      }
+      merged.sortedLatencies = new long[merged.count];
+      int next = 0;
+      for (Recorder recorder : recorders) {
+        int count = recorder.counts.getOrDefault(operation, 0);
+        if (count == 0) continue;
+        System.arraycopy(recorder.latencies.get(operation), 0, merged.sortedLatencies, next, count);
+        next += count;
+        merged.allocated += recorder.allocatedBytes.get(operation);
+        merged.errors += recorder.errorCounts.getOrDefault(operation, 0);
+      }
+      Arrays.sort(merged.sortedLatencies);
+      return merged;
+    }
+
+    Map<String, Object> summary(double elapsedSeconds) {
+      Map<String, Object> summary = new LinkedHashMap<>();
+      summary.put("requests", count);
+      summary.put("errors", errors);
+      summary.put("throughput", count / elapsedSeconds);
+      summary.put("p50Millis", percentileMillis(50));
+      summary.put("p95Millis", percentileMillis(95));
+      summary.put("p99Millis", percentileMillis(99));
+      summary.put("maxMillis", sortedLatencies[count - 1] / 1e6);
+      summary.put("allocatedKilobytesPerRequest", allocated / 1024.0 / count);
+      summary.put("allocatedMegabytesPerSecond", allocated / 1024.0 / 1024.0 / elapsedSeconds);
+      return summary;
+    }
+
+    /** Returns the nearest-rank percentile of the latencies. */
+    private double percentileMillis(int percentile) {
+      int rank = (int) Math.ceil(percentile / 100.0 * count);
+      return sortedLatencies[Math.max(0, rank - 1)] / 1e6;
+    }
+  }
+}
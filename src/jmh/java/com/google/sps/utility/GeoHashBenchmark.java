@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.sps.data.HttpServletUtils;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the legacy String geohash code with LongGeoHash and the GeoHash wrapper around it,
+ * and measures the distance every vendor read by a search is checked with.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeoHashBenchmark {
+  private static final int POINTS = 1024;
+  private static final int SEARCH_DISTANCE = 1000;
+  private static final int SEARCH_PRECISION = GeoHash.determinePrecision(SEARCH_DISTANCE);
+
+  private final double[] lats = new double[POINTS];
+  private final double[] lngs = new double[POINTS];
+  private final String[] searchCells = new String[POINTS];
+  private final long[] searchLongCells = new long[POINTS];
+  private final GeoPt[] searchPoints = new GeoPt[POINTS];
+  private int next;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    for (int i = 0; i < POINTS; i++) {
+      lats[i] = random.nextFloat() * 180 - 90;
+      lngs[i] = random.nextFloat() * 360 - 180;
+      searchCells[i] = LegacyGeoHash.encode(lats[i], lngs[i], SEARCH_DISTANCE);
+      searchLongCells[i] = LongGeoHash.fromBase32(searchCells[i]);
+      searchPoints[i] = new GeoPt((float) lats[i], (float) lngs[i]);
+    }
+  }
+
+  private int nextPoint() {
+    next = (next + 1) & (POINTS - 1);
+    return next;
+  }
+
+  @Benchmark
+  public String encodeVendorLegacy() {
+    int i = nextPoint();
+    return LegacyGeoHash.encodeVendor(lats[i], lngs[i]);
+  }
+
+  @Benchmark
+  public String encodeVendor() {
+    int i = nextPoint();
+    return GeoHash.encodeVendor(lats[i], lngs[i]);
+  }
+
+  @Benchmark
+  public long encodeLong() {
+    int i = nextPoint();
+    return LongGeoHash.encode(lats[i], lngs[i], 9);
+  }
+
+  @Benchmark
+  public float computeGeoDistance() {
+    int i = nextPoint();
+    return HttpServletUtils.computeGeoDistance(searchPoints[i], searchPoints[(i + 1) & (POINTS - 1)]);
+  }
+
+  @Benchmark
+  public List<String> neighbourCellsLegacy() {
+    return LegacyGeoHash.getNeighbourCells(searchCells[nextPoint()]);
+  }
+
+  @Benchmark
+  public List<String> neighbourCells() {
+    return GeoHash.getNeighbourCells(searchCells[nextPoint()]);
+  }
+
+  @Benchmark
+  public long[] neighbourCellsLong() {
+    return LongGeoHash.neighbours(searchLongCells[nextPoint()], SEARCH_PRECISION);
+  }
+
+  @Benchmark
+  public List<String> hashesToQueryLegacy() {
+    int i = nextPoint();
+    return LegacyGeoHash.getHashesToQuery(lats[i], lngs[i], SEARCH_DISTANCE);
+  }
+
+  @Benchmark
+  public List<String> hashesToQuery() {
+    int i = nextPoint();
+    return GeoHash.getHashesToQuery(lats[i], lngs[i], SEARCH_DISTANCE);
+  }
+}
@@ -0,0 +1,246 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import static com.google.sps.utility.NearbyVendorsQueryTest.createEntityFromVendor;
+import static com.google.sps.utility.NearbyVendorsQueryTest.createLocation;
+import static com.google.sps.utility.NearbyVendorsQueryTest.createSaleCard;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.data.Vendor;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares querying the nine cells of a search one after another against starting them all at
+ * once, and against searching the in-memory vendor index, on the local Datastore stub with a
+ * simulated round trip time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class NearbyVendorsQueryBenchmark {
+  private static final GeoPt GEO_PT_NL = new GeoPt(0, 0);
+  private static final LocalTime TIME_1200 = LocalTime.parse("12:00");
+  private static final int DISTANCE = 1000;
+
+  // Round trip added to every Datastore call, the local stub alone answers in microseconds.
+  @Param({"0", "20"})
+  private int roundTripMillis;
+
+  @Param({"100", "1000"})
+  private int vendors;
+
+  private LocalServiceTestHelper datastoreHelper;
+  private ApiProxy.Delegate<?> stubDelegate;
+  private NearbyVendorsQuery nearbyVendorsQuery;
+  private List<String> geoHashesToQuery;
+  private List<GeoHashRange> geoHashRanges;
+  private List<GeoHashRange> coverRanges;
+  private VendorIndex vendorIndex;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    datastoreHelper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+    datastoreHelper.setUp();
+    fillDatastore();
+    vendorIndex = VendorIndex.getInstance();
+    vendorIndex.load();
+
+    stubDelegate = ApiProxy.getDelegate();
+    ApiProxy.setDelegate(new RoundTripDelegate(stubDelegate, roundTripMillis));
+
+    nearbyVendorsQuery = new NearbyVendorsQuery();
+    geoHashesToQuery = GeoHash.getHashesToQuery(0, 0, DISTANCE);
+    geoHashRanges = new ArrayList<>();
+    for (String prefixGeoHash : geoHashesToQuery) {
+      geoHashRanges.add(GeoHashRange.ofPrefix(prefixGeoHash));
+    }
+    coverRanges = GeoHashCoverer.cover(0, 0, DISTANCE);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    // The helper expects its own delegate back to stop it
+    ApiProxy.setDelegate(stubDelegate);
+    vendorIndex.clear();
+    datastoreHelper.tearDown();
+  }
+
+  @Benchmark
+  public List<Vendor> cellByCell() {
+    List<Vendor> nearbyVendors = new ArrayList<>();
+    for (String prefixGeoHash : geoHashesToQuery) {
+      nearbyVendors.addAll(
+          nearbyVendorsQuery.query(prefixGeoHash, false, false, GEO_PT_NL, DISTANCE, TIME_1200));
+    }
+    return nearbyVendors;
+  }
+
+  @Benchmark
+  public List<Vendor> fanOut() {
+    return nearbyVendorsQuery.queryAll(geoHashRanges, false, false, GEO_PT_NL, DISTANCE, TIME_1200);
+  }
+
+  /** The 10 closest vendors, sorted by distance. */
+  @Benchmark
+  public List<Vendor> nearest() {
+    return nearbyVendorsQuery.queryNearest(coverRanges, false, false, GEO_PT_NL, DISTANCE, TIME_1200, 10);
+  }
+
+  @Benchmark
+  public List<Vendor> index() {
+    return nearbyVendorsQuery.queryIndex(vendorIndex, coverRanges, false, false, GEO_PT_NL, DISTANCE, TIME_1200);
+  }
+
+  /** Only the in-memory part of index(), without reading the vendors found. */
+  @Benchmark
+  public List<String> indexSearch() {
+    return vendorIndex.search(coverRanges, false, false, GEO_PT_NL, DISTANCE, TIME_1200);
+  }
+
+  /** Spreads vendors on a 2km wide square around null island so every cell has some of them. */
+  private void fillDatastore() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Random random = new Random(42);
+    List<Entity> entities = new ArrayList<>();
+    for (int i = 1; i <= vendors; i++) {
+      float latLng = (random.nextFloat() - 0.5f) * 0.018f;
+      Vendor vendor = new Vendor(Integer.toString(i), "Vendor", "V", null, null, null,
+          createSaleCard(i, "V" + i, false, false, TIME_1200.minusHours(4), TIME_1200.plusHours(4),
+              createLocation(i, latLng)));
+      entities.add(createEntityFromVendor(vendor));
+    }
+    datastore.put(entities);
+  }
+
+  /** Delegate that makes every datastore call take at least the given round trip time. */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static final class RoundTripDelegate implements ApiProxy.Delegate<ApiProxy.Environment> {
+    private static final String DATASTORE_PACKAGE = "datastore_v3";
+
+    private final ApiProxy.Delegate delegate;
+    private final long roundTripNanos;
+
+    RoundTripDelegate(ApiProxy.Delegate delegate, int roundTripMillis) {
+      this.delegate = delegate;
+      this.roundTripNanos = TimeUnit.MILLISECONDS.toNanos(roundTripMillis);
+    }
+
+    @Override
+    public byte[] makeSyncCall(ApiProxy.Environment environment, String packageName, String methodName,
+        byte[] request) {
+      long readyAt = System.nanoTime() + delayFor(packageName);
+      byte[] response = delegate.makeSyncCall(environment, packageName, methodName, request);
+      waitUntil(readyAt);
+      return response;
+    }
+
+    @Override
+    public Future<byte[]> makeAsyncCall(ApiProxy.Environment environment, String packageName,
+        String methodName, byte[] request, ApiProxy.ApiConfig apiConfig) {
+      long readyAt = System.nanoTime() + delayFor(packageName);
+      Future<byte[]> response =
+          delegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+      return new Future<byte[]>() {
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+          return response.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+          return response.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+          return System.nanoTime() >= readyAt && response.isDone();
+        }
+
+        @Override
+        public byte[] get() throws InterruptedException, ExecutionException {
+          waitUntil(readyAt);
+          return response.get();
+        }
+
+        @Override
+        public byte[] get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+          waitUntil(readyAt);
+          return response.get(timeout, unit);
+        }
+      };
+    }
+
+    @Override
+    public void log(ApiProxy.Environment environment, ApiProxy.LogRecord record) {
+      delegate.log(environment, record);
+    }
+
+    @Override
+    public void flushLogs(ApiProxy.Environment environment) {
+      delegate.flushLogs(environment);
+    }
+
+    @Override
+    public List<Thread> getRequestThreads(ApiProxy.Environment environment) {
+      return delegate.getRequestThreads(environment);
+    }
+
+    private long delayFor(String packageName) {
+      return DATASTORE_PACKAGE.equals(packageName) ? roundTripNanos : 0;
+    }
+
+    private static void waitUntil(long readyAt) {
+      long remaining = readyAt - System.nanoTime();
+      if (remaining > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.stream.JsonWriter;
+import com.google.sps.data.HttpServletUtils;
+import com.google.sps.data.Vendor;
+import com.google.sps.data.VendorPin;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the in-memory steps of a nearby search at different vendor densities, from a small
+ * town to a large city: the distance check of every vendor the ranges read, building the
+ * vendors found from their entities, and writing them or their pins as JSON the way
+ * GetNearbyVendorsServlet does. No datastore is involved, the entities are built in setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class SearchPathBenchmark {
+  private static final GeoPt GEO_PT_NL = new GeoPt(0, 0);
+  private static final LocalTime TIME_1200 = LocalTime.parse("12:00");
+  private static final int DISTANCE = 1000;
+
+  // Vendors on the 20km wide square, 0.25, 25 and 2500 per km²
+  @Param({"100", "10000", "1000000"})
+  private int vendors;
+
+  private LocalServiceTestHelper datastoreHelper;
+  private NearbyVendorsQuery nearbyVendorsQuery;
+  private GeoPt[] candidatePoints;
+  private List<Entity> candidateEntities;
+  private List<Vendor> vendorsFound;
+  private List<VendorPin> pinsFound;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    // Nothing is read from it, NearbyVendorsQuery only needs the service to be there
+    datastoreHelper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+    datastoreHelper.setUp();
+
+    SyntheticVendors dataset = SyntheticVendors.generate(vendors);
+    int[] candidates = dataset.inRanges(GeoHashCoverer.cover(0, 0, DISTANCE));
+    candidatePoints = new GeoPt[candidates.length];
+    for (int i = 0; i < candidates.length; i++) {
+      candidatePoints[i] = dataset.salePoint(candidates[i]);
+    }
+    candidateEntities = dataset.entities(candidates);
+
+    nearbyVendorsQuery = new NearbyVendorsQuery();
+    vendorsFound = nearbyVendorsQuery.createVendorsList(candidateEntities, GEO_PT_NL, DISTANCE, false, TIME_1200);
+    pinsFound = new ArrayList<>(vendorsFound.size());
+    for (Vendor vendor : vendorsFound) {
+      pinsFound.add(new VendorPin(vendor.getId(), vendor.getSaleCard().getBusinessName(),
+          vendor.getSaleCard().getLocation().getSalePoint(),
+          vendor.getSaleCard().getDistanceFromClient(), true));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    datastoreHelper.tearDown();
+  }
+
+  /** HttpServletUtils.computeGeoDistance for every vendor the ranges read. */
+  @Benchmark
+  public int distanceCheck() {
+    int within = 0;
+    for (GeoPt point : candidatePoints) {
+      if (HttpServletUtils.computeGeoDistance(GEO_PT_NL, point) <= DISTANCE) {
+        within++;
+      }
+    }
+    return within;
+  }
+
+  /** The same check through GeoDistanceFilter, built once per search like NearbyVendorsQuery does. */
+  @Benchmark
+  public int distanceFilter() {
+    GeoDistanceFilter distanceFilter = new GeoDistanceFilter(GEO_PT_NL, DISTANCE);
+    int within = 0;
+    for (GeoPt point : candidatePoints) {
+      if (distanceFilter.mayContain(point) && distanceFilter.distanceTo(point) <= DISTANCE) {
+        within++;
+      }
+    }
+    return within;
+  }
+
+  @Benchmark
+  public List<Vendor> createVendorsList() {
+    return nearbyVendorsQuery.createVendorsList(candidateEntities, GEO_PT_NL, DISTANCE, false, TIME_1200);
+  }
+
+  @Benchmark
+  public List<Vendor> createVendorsListOpenNow() {
+    return nearbyVendorsQuery.createVendorsList(candidateEntities, GEO_PT_NL, DISTANCE, true, TIME_1200);
+  }
+
+  @Benchmark
+  public int writeVendors() throws IOException {
+    StringWriter body = new StringWriter();
+    JsonWriter jsonWriter = new JsonWriter(body);
+    jsonWriter.beginArray();
+    for (Vendor vendor : vendorsFound) {
+      HttpServletUtils.GSON.toJson(vendor, Vendor.class, jsonWriter);
+    }
+    jsonWriter.endArray();
+    jsonWriter.flush();
+    return body.getBuffer().length();
+  }
+
+  @Benchmark
+  public int writePins() throws IOException {
+    StringWriter body = new StringWriter();
+    JsonWriter jsonWriter = new JsonWriter(body);
+    jsonWriter.beginArray();
+    for (VendorPin pin : pinsFound) {
+      HttpServletUtils.GSON.toJson(pin, VendorPin.class, jsonWriter);
+    }
+    jsonWriter.endArray();
+    jsonWriter.flush();
+    return body.getBuffer().length();
+  }
+
+  /** The whole vendor list at once, what the servlet did before streaming. */
+  @Benchmark
+  public String toJsonVendors() {
+    return HttpServletUtils.GSON.toJson(vendorsFound);
+  }
+}
@@ -0,0 +1,135 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.sps.COMMONS;
+import com.google.sps.data.HttpServletUtils;
+import com.google.sps.data.OpeningHours;
+import com.google.sps.data.VendorVersion;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Vendors spread uniformly on a square about 20km wide around null island, the same ones for a
+ * given count. Only their points are kept, their entities are built on demand, so a million of
+ * them fit in a benchmark fork.
+ */
+public final class SyntheticVendors {
+  public static final float SIDE_DEGREES = 0.18f;
+  private static final long SEED = 42;
+  // The children of a salecard written by UpdateSaleCardServlet
+  private static final long CHILD_ID = 1;
+
+  private final float[] latitudes;
+  private final float[] longitudes;
+  private final long[] cells;
+
+  private SyntheticVendors(int count) {
+    latitudes = new float[count];
+    longitudes = new float[count];
+    cells = new long[count];
+    Random random = new Random(SEED);
+    for (int i = 0; i < count; i++) {
+      latitudes[i] = (random.nextFloat() - 0.5f) * SIDE_DEGREES;
+      longitudes[i] = (random.nextFloat() - 0.5f) * SIDE_DEGREES;
+      cells[i] = LongGeoHash.encode(latitudes[i], longitudes[i], COMMONS.MAX_GEOHASH_PRECISION);
+    }
+  }
+
+  public static SyntheticVendors generate(int count) {
+    return new SyntheticVendors(count);
+  }
+
+  public int size() {
+    return latitudes.length;
+  }
+
+  public GeoPt salePoint(int i) {
+    return new GeoPt(latitudes[i], longitudes[i]);
+  }
+
+  /** Returns the positions of the vendors a search reading the ranges gets from datastore. */
+  public int[] inRanges(List<GeoHashRange> geoHashRanges) {
+    int[] found = new int[size()];
+    int count = 0;
+    for (int i = 0; i < size(); i++) {
+      for (GeoHashRange range : geoHashRanges) {
+        if (cells[i] >= range.getStart() && cells[i] < range.getEnd()) {
+          found[count++] = i;
+          break;
+        }
+      }
+    }
+    return Arrays.copyOf(found, count);
+  }
+
+  /** Returns the id of the vendor at the position, also the user id of its owner. */
+  public static String vendorId(int i) {
+    return "vendor" + i;
+  }
+
+  /**
+   * Returns the vendor at the position as UpdateSaleCardServlet stores it, half of them with
+   * delivery and their hours shifted through the day so an open-now filter keeps some of them.
+   */
+  public Entity entity(int i) {
+    Entity vendorEntity = new Entity("Vendor", vendorId(i));
+    Key saleCardKey = KeyFactory.createKey(vendorEntity.getKey(), "SaleCard", CHILD_ID);
+
+    Entity picture = new Entity("Picture", CHILD_ID, saleCardKey);
+    picture.setProperty("blobKey", new BlobKey("picture" + i));
+    picture.setProperty("altText", "Stall " + i);
+
+    Entity location = new Entity("LocationData", CHILD_ID, saleCardKey);
+    location.setProperty("salePoint", salePoint(i));
+    location.setProperty("geoHash", GeoHash.encodeVendor(latitudes[i], longitudes[i]));
+    location.setProperty("radius", 0f);
+
+    LocalTime start = LocalTime.of(i % 24, (i * 7) % 60);
+    Entity saleCard = new Entity(saleCardKey);
+    saleCard.setProperty("businessName", "Business " + i);
+    saleCard.setProperty("description", "Fresh produce and more, stall " + i);
+    saleCard.setProperty("hasDelivery", i % 2 == 0);
+    saleCard.setProperty("isTemporarilyClosed", i % 10 == 0);
+    OpeningHours.setOpeningHours(saleCard, start, start.plusHours(8));
+    saleCard.setProperty("picture", HttpServletUtils.createEmbeddedEntity(picture));
+    saleCard.setIndexedProperty("location", HttpServletUtils.createEmbeddedEntity(location));
+
+    vendorEntity.setProperty("firstName", "Vendor");
+    vendorEntity.setProperty("lastName", "V" + i);
+    vendorEntity.setProperty("email", vendorId(i) + "@example.com");
+    vendorEntity.setProperty("phoneNumber", "8110000000");
+    vendorEntity.setIndexedProperty("saleCard", HttpServletUtils.createEmbeddedEntity(saleCard));
+    VendorVersion.bump(vendorEntity);
+    return vendorEntity;
+  }
+
+  /** Returns the stored entities of the vendors at the positions. */
+  public List<Entity> entities(int[] positions) {
+    List<Entity> entities = new ArrayList<>(positions.length);
+    for (int i : positions) {
+      entities.add(entity(i));
+    }
+    return entities;
+  }
+}
@@ -23,10 +23,54 @@ public interface COMMONS {
   int MAX_DISTANCE_VENDOR = 2 * 1000; // 3 kilometers
   int MIN_DISTANCE = 0;
 
+  // Nearby vendors search
+  double SEARCH_DEADLINE_SECONDS = 5.0; // Deadline of a whole search, checked between its batches
+  int SEARCH_BATCH_SIZE = 500; // Vendors fetched per round trip of a cell query
+  int SEARCH_RINGS = 4; // Rings of doubling radius read one after another by a nearest search
+  int MAX_NEARBY_LIMIT = 500; // Max vendors a nearest search can ask for
+  String VENDOR_INDEX_PROPERTY = "sps.vendorIndex.enabled"; // System property to search in memory
+  long VENDOR_INDEX_MAX_AGE_MILLIS = 60 * 1000; // Reload to see the writes of other instances
+  String SEARCH_CACHE_PROPERTY = "sps.searchCache.enabled"; // System property to reuse range results
+  long SEARCH_CACHE_TTL_MILLIS = 5 * 1000; // Writes of other instances are seen after this
+  int SEARCH_CACHE_MAX_RANGES = 256; // Cell results kept in memory, each up to SEARCH_BATCH_SIZE vendors
+  int SEARCH_CACHE_MAX_PRECISION = 6; // Finest cells cached, about 1.2 x 0.6 km
+  int SEARCH_CACHE_MIN_PRECISION = 5; // Coarsest cells cached, about 4.9 x 4.9 km
+  int SEARCH_CACHE_MAX_CELLS = 16; // Cells read by a cached search, larger searches are not cached
+  long SEARCH_CACHE_OVERSIZE_TTL_MILLIS = 60 * 1000; // Cells too large to cache are queried by the search ranges
+  String OPEN_HOURS_FILTER_PROPERTY = "sps.openHoursFilter.enabled"; // System property to filter open vendors by hour
+
+  // Datastore
+  int DATASTORE_TRANSACTION_RETRIES = 3; // Retries of a transaction colliding with another write
+  int BLOB_CLEANUP_RETRIES = 10; // Retries of a task deleting an unreferenced blob
+  int BLOB_CLEANUP_MIN_BACKOFF_SECONDS = 10;
+  int BLOB_SWEEP_GRACE_HOURS = 24; // Blobs younger than this may still get their picture written
+  int BLOB_SWEEP_PAGE_SIZE = 500; // Blobs read per request of a sweep
+  int BLOB_SWEEP_BATCH_SIZE = 30; // Blob keys checked per picture query, the most an IN filter takes
+  int BLOB_SWEEP_MAX_DELETES = 100; // Orphans deleted per request of a sweep
+  int BLOB_SWEEP_PAGE_DELAY_SECONDS = 10; // Pause between the requests of a sweep
+  int OPENING_HOURS_BACKFILL_PAGE_SIZE = 200; // Vendors read per request of the opening hours backfill
+
+  // Vendor cache
+  int VENDOR_CACHE_MAX_ENTRIES = 1000; // Vendors kept in the memory of each instance
+  long VENDOR_CACHE_LOCAL_TTL_MILLIS = 10 * 1000; // Writes of other instances are only seen in memcache
+  int VENDOR_CACHE_MEMCACHE_TTL_SECONDS = 60 * 60;
+  long VENDOR_CACHE_NO_READD_MILLIS = 30 * 1000; // Longer than a read of datastore filling memcache
+
+  // Pictures
+  int IMAGE_VARIANT_QUALITY = 80; // JPEG and WEBP quality of the resized pictures
+  int IMAGE_VARIANT_MAX_BYTES = 1000 * 1000; // Largest variant memcache can hold
+
+  // Request metrics and logging
+  String METRICS_LOG_PROPERTY = "sps.metrics.log"; // System property to log one JSON line per request
+  String METRICS_OTHER_ENDPOINT = "other"; // Requests no servlet is mapped to, e.g. 404s
+  String LOG_LEVEL_PROPERTY = "sps.log.level"; // System property with the least severe level logged
+  int LOG_QUEUE_CAPACITY = 4096; // Log events waiting to be written, newer ones are dropped
+
   // Geohash
   String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz"; // (geohash-specific) Base32 map
   int MAX_GEOHASH_PRECISION = 9; // Max precision stored in datastore.
   int MAX_GEOHASH_HEIGHT = 5000 * 1000; // 5000km
+  int GEOHASH_MAX_COVER_CELLS = 16; // Max cells covering a search circle (each range is one query)
   List<String> GEOHASH_DIRECTIONS =
           Arrays.asList("n","ne","e","se","s","sw","w","nw");
 }
\ No newline at end of file
@@ -27,14 +27,24 @@ import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.GeoPt;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.gson.Gson;
+import com.google.sps.COMMONS;
+import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Function;
 import javax.servlet.http.HttpServletRequest;
 
 /** Servlets Utility Class. */
 public final class HttpServletUtils {
+  /** Gson is thread-safe, every servlet shares this one instead of building its own per request. */
+  public static final Gson GSON = new Gson();
+  /** Thread-safe too, shared by every servlet serving requests concurrently. */
+  public static final DatastoreService DATASTORE = DatastoreServiceFactory.getDatastoreService();
+  public static final BlobstoreService BLOBSTORE = BlobstoreServiceFactory.getBlobstoreService();
+
   private HttpServletUtils() {
     throw new java.lang.UnsupportedOperationException("Utility class cannot be instantiated");
   }
@@ -67,7 +77,7 @@ public final class HttpServletUtils {
    * @return a BlobKey representing the uploaded file, or null if not a valid file
    */
   public static BlobKey getUploadedFileBlobKey(HttpServletRequest request, String formInput) {
-    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+    BlobstoreService blobstoreService = BLOBSTORE;
     Map<String, List<BlobKey>> blobs = blobstoreService.getUploads(request);
     List<BlobKey> blobKeys = blobs.get(formInput);
 
@@ -100,46 +110,98 @@ public final class HttpServletUtils {
    * Return true if the string contains only Unicode letters and at least one, otherwise false.
    * @param string a String to check
    * @return a boolean indicating if the string contains only Unicode letters and at least one
+   * @see InputValidator#hasOnlyLetters
    */
   public static boolean hasOnlyLetters(String string) {
-    if (string == null) return false;
-    Pattern validCharacters = Pattern.compile("\\p{L}+");
-    Matcher validInputChecker = validCharacters.matcher(string);
-
-    return validInputChecker.matches();
+    return InputValidator.hasOnlyLetters(string);
   }
 
   /** 
    * Returns true if the string contains only numbers and at least one, otherwise false.
    * @param string a String to check
    * @return a boolean indicating if the string contains only numbers and at least one
+   * @see InputValidator#hasOnlyNumbers
    */
   public static boolean hasOnlyNumbers(String string) {
-    if (string == null) return false;
-    Pattern validCharacters = Pattern.compile("[0-9]+");
-    Matcher validInputChecker = validCharacters.matcher(string);
+    return InputValidator.hasOnlyNumbers(string);
+  }
 
-    return validInputChecker.matches();
+  /**
+   * Returns true if the If-None-Match header of a conditional GET lists the ETag, or is "*".
+   * Weak tags match too, a GET only needs the same content.
+   * @param ifNoneMatch the If-None-Match header, or null if the request has none
+   * @param eTag the quoted ETag of the current response
+   * @return a boolean indicating if the client already has the response
+   */
+  public static boolean matchesETag(String ifNoneMatch, String eTag) {
+    if (ifNoneMatch == null) return false;
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals("*") || candidate.equals(eTag)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /** 
-   * Returns a vendor Entity if it exists in datastore, otherwise a null.
+   * Returns a vendor Entity if it exists in datastore, otherwise a null. Read through VendorCache,
+   * the Entity is a copy the caller can modify. It may be a few seconds old, a vendor about to be
+   * written is read with the transaction instead.
    * @param vendorId a String specifying the id of a vendor
    * @return a Entity found in datastore with the specified id, or null if not found
    */
   public static Entity getVendorEntity(String vendorId) {
-    Key vendorKey = KeyFactory.createKey("Vendor", vendorId);
-    Entity vendorEntity;
+    return VendorCache.getInstance().get(vendorId);
+  }
+
+  /**
+   * Returns a vendor Entity read from datastore in the transaction, otherwise a null. The commit
+   * of the transaction fails if the vendor is written by someone else after this read.
+   * @param datastore the datastore service of the transaction
+   * @param transaction the transaction writing the vendor
+   * @param vendorId a String specifying the id of a vendor
+   * @return a Entity found in datastore with the specified id, or null if not found
+   */
+  public static Entity getVendorEntity(DatastoreService datastore, Transaction transaction, String vendorId) {
     try {
-      DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-      vendorEntity = datastore.get(vendorKey);
-      return vendorEntity;
+      return datastore.get(transaction, KeyFactory.createKey("Vendor", vendorId));
     } catch (EntityNotFoundException e) {
-      System.out.println(e);
       return null;
     }
   }
 
+  /**
+   * Runs the work in a cross-group transaction and commits it, so either all of its writes are
+   * applied or none. Retried COMMONS.DATASTORE_TRANSACTION_RETRIES times if another write to the
+   * same entity groups gets first, the work must not have other side effects.
+   * @param datastore the datastore service to write with
+   * @param work the reads and writes to run with the transaction
+   * @return the result of the work
+   * @throws ConcurrentModificationException if every attempt collided with another write
+   */
+  public static <T> T runInTransaction(DatastoreService datastore, Function<Transaction, T> work) {
+    ConcurrentModificationException collision = null;
+    for (int attempt = 0; attempt <= COMMONS.DATASTORE_TRANSACTION_RETRIES; attempt++) {
+      Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        T result = work.apply(transaction);
+        transaction.commit();
+        return result;
+      } catch (ConcurrentModificationException e) {
+        collision = e;
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+    throw collision;
+  }
+
   /** 
    * Computes the distance between two geographical points using Haversine formula.
    * @param pointA a geographical point {latitude, longitude} representing A
@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.time.LocalTime;
+
+/**
+ * Checks the inputs of the requests. Every check scans the characters or compares the numbers
+ * itself, so validating a request allocates nothing besides the values it returns.
+ */
+public final class InputValidator {
+  private static final int HOURS_PER_DAY = 24;
+  private static final int MINUTES_PER_HOUR = 60;
+
+  private InputValidator() {
+    throw new java.lang.UnsupportedOperationException("Utility class cannot be instantiated");
+  }
+
+  /**
+   * Returns true if the string contains only Unicode letters and at least one, otherwise false.
+   * Same as matching \p{L}+, letters outside the BMP included.
+   * @param string a String to check
+   * @return a boolean indicating if the string contains only Unicode letters and at least one
+   */
+  public static boolean hasOnlyLetters(String string) {
+    if (string == null || string.isEmpty()) return false;
+    for (int i = 0; i < string.length(); ) {
+      int codePoint = string.codePointAt(i);
+      if (!Character.isLetter(codePoint)) {
+        return false;
+      }
+      i += Character.charCount(codePoint);
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if the string contains only the digits 0-9 and at least one, otherwise false.
+   * @param string a String to check
+   * @return a boolean indicating if the string contains only digits and at least one
+   */
+  public static boolean hasOnlyNumbers(String string) {
+    if (string == null || string.isEmpty()) return false;
+    for (int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if a free text input, like a business name, a description or an alt text, was
+   * given, otherwise false.
+   * @param string a String to check
+   * @return a boolean indicating if the string has at least one character
+   */
+  public static boolean hasText(String string) {
+    return string != null && !string.isEmpty();
+  }
+
+  /**
+   * Parses a time of the day like LocalTime.parse. The "HH:mm" the forms send is read directly,
+   * any other format goes through LocalTime.parse.
+   * @param time a String with a time of the day
+   * @return the LocalTime of the string
+   * @throws java.time.format.DateTimeParseException if the string is not a time of the day
+   */
+  public static LocalTime parseTime(String time) {
+    if (time != null && time.length() == 5 && time.charAt(2) == ':') {
+      int hour = twoDigits(time, 0);
+      int minute = twoDigits(time, 3);
+      if (hour >= 0 && hour < HOURS_PER_DAY && minute >= 0 && minute < MINUTES_PER_HOUR) {
+        return LocalTime.of(hour, minute);
+      }
+    }
+    return LocalTime.parse(time);
+  }
+
+  /** Returns true if the latitude in degrees is inside [-90, 90], false for NaN. */
+  public static boolean isLatitude(double latitude) {
+    return latitude >= -90 && latitude <= 90;
+  }
+
+  /** Returns true if the longitude in degrees is inside [-180, 180], false for NaN. */
+  public static boolean isLongitude(double longitude) {
+    return longitude >= -180 && longitude <= 180;
+  }
+
+  /**
+   * Returns true if the distance is inside [minDistance, maxDistance], false for NaN.
+   * @param distance a distance or radius in meters
+   * @param minDistance the smallest distance allowed, like COMMONS.MIN_DISTANCE
+   * @param maxDistance the largest distance allowed, like COMMONS.MAX_DISTANCE_VENDOR
+   */
+  public static boolean isDistance(double distance, int minDistance, int maxDistance) {
+    return distance >= minDistance && distance <= maxDistance;
+  }
+
+  /** Returns the number of the two digits at the index, or -1 if they are not digits. */
+  private static int twoDigits(String string, int index) {
+    int tens = string.charAt(index) - '0';
+    int units = string.charAt(index + 1) - '0';
+    if (tens < 0 || tens > 9 || units < 0 || units > 9) {
+      return -1;
+    }
+    return tens * 10 + units;
+  }
+}
@@ -40,7 +40,8 @@ public final class LocationData {
     this.id = (long) embeddedLocation.getKey().getId();
     this.salePoint = (GeoPt) embeddedLocation.getProperty("salePoint");
     this.geoHash = (String) embeddedLocation.getProperty("geoHash");
-    this.radius = ((Double) embeddedLocation.getProperty("radius")).floatValue();
+    // Double once read from datastore, Float on an entity that was just written
+    this.radius = ((Number) embeddedLocation.getProperty("radius")).floatValue();
   }
 
   public long getId() {
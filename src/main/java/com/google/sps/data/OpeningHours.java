@@ -0,0 +1,121 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.PropertyContainer;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opening hours of a salecard stored as minutes of the day. Besides the "HH:mm" Strings, a
+ * salecard keeps its hours as startMinute and endMinute, and the hours of the day it is open
+ * during as openHours. A window going past midnight is split there when written, so "is it open
+ * at this hour" is a single equality filter on openHours, and the exact check is done on
+ * primitives without parsing anything.
+ */
+public final class OpeningHours {
+  public static final int MINUTES_PER_DAY = 24 * 60;
+  private static final long NANOS_PER_MINUTE = 60L * 1000 * 1000 * 1000;
+
+  private OpeningHours() {
+    throw new java.lang.UnsupportedOperationException("Utility class cannot be instantiated");
+  }
+
+  /** Returns the minute of the day of a time, its seconds are dropped. */
+  public static int toMinuteOfDay(LocalTime time) {
+    return time.getHour() * 60 + time.getMinute();
+  }
+
+  /**
+   * Writes the opening hours of a salecard, to the minute.
+   * @param saleCard the salecard entity, or its embedded entity
+   * @param start the opening time
+   * @param end the closing time, before start if the salecard closes after midnight
+   */
+  public static void setOpeningHours(PropertyContainer saleCard, LocalTime start, LocalTime end) {
+    int startMinute = toMinuteOfDay(start);
+    int endMinute = toMinuteOfDay(end);
+    saleCard.setProperty("startTime", start.truncatedTo(ChronoUnit.MINUTES).toString());
+    saleCard.setProperty("endTime", end.truncatedTo(ChronoUnit.MINUTES).toString());
+    saleCard.setProperty("startMinute", startMinute);
+    saleCard.setProperty("endMinute", endMinute);
+    saleCard.setProperty("openHours", openHours(startMinute, endMinute));
+  }
+
+  /**
+   * Returns the opening minute of a salecard. Salecards written before the minutes were stored
+   * only have the String, it is parsed instead.
+   */
+  public static int getStartMinute(PropertyContainer saleCard) {
+    return getMinute(saleCard, "startMinute", "startTime");
+  }
+
+  /** Returns the closing minute of a salecard, see getStartMinute. */
+  public static int getEndMinute(PropertyContainer saleCard) {
+    return getMinute(saleCard, "endMinute", "endTime");
+  }
+
+  /** Returns the time of a minute of the day. */
+  public static LocalTime toLocalTime(int minuteOfDay) {
+    return LocalTime.ofSecondOfDay(minuteOfDay * 60L);
+  }
+
+  /**
+   * Returns the hours of the day, from 0 to 23, with at least one moment inside the opening
+   * window (startMinute, endMinute). It wraps at midnight if startMinute is after endMinute.
+   */
+  public static List<Long> openHours(int startMinute, int endMinute) {
+    List<Long> openHours = new ArrayList<>();
+    if (startMinute < endMinute) {
+      addHours(openHours, startMinute, endMinute);
+    } else if (startMinute > endMinute) {
+      addHours(openHours, startMinute, MINUTES_PER_DAY);
+      addHours(openHours, 0, endMinute);
+    }
+    return openHours;
+  }
+
+  /**
+   * Returns true if the time is strictly inside the opening window, the same check as comparing
+   * LocalTimes: (start, end), or (start, 24:00) and [00:00, end) if start is after end.
+   */
+  public static boolean isOpen(int startMinute, int endMinute, LocalTime requestTime) {
+    long start = startMinute * NANOS_PER_MINUTE;
+    long end = endMinute * NANOS_PER_MINUTE;
+    long request = requestTime.toNanoOfDay();
+    return (start > end)
+        ? request > start || request < end
+        : request > start && request < end;
+  }
+
+  /** Adds the hours with a moment inside (fromMinute, toMinute), fromMinute before toMinute. */
+  private static void addHours(List<Long> openHours, int fromMinute, int toMinute) {
+    if (toMinute == 0) return;
+    for (long hour = fromMinute / 60; hour <= (toMinute - 1) / 60; hour++) {
+      openHours.add(hour);
+    }
+  }
+
+  private static int getMinute(PropertyContainer saleCard, String minuteProperty, String timeProperty) {
+    Object minute = saleCard.getProperty(minuteProperty);
+    if (minute != null) {
+      // Long once read from datastore, Integer on an entity that was just written
+      return ((Number) minute).intValue();
+    }
+    return toMinuteOfDay(LocalTime.parse((CharSequence) saleCard.getProperty(timeProperty)));
+  }
+}
@@ -56,10 +56,8 @@ public final class SaleCard {
     this.hasDelivery = (boolean) embeddedSaleCard.getProperty("hasDelivery");
     this.isTemporarilyClosed = (boolean) embeddedSaleCard.getProperty("isTemporarilyClosed");
 
-    CharSequence start = (CharSequence) embeddedSaleCard.getProperty("startTime");
-    this.startTime = LocalTime.parse(start);
-    CharSequence end = (CharSequence) embeddedSaleCard.getProperty("endTime");
-    this.endTime = LocalTime.parse(end);
+    this.startTime = OpeningHours.toLocalTime(OpeningHours.getStartMinute(embeddedSaleCard));
+    this.endTime = OpeningHours.toLocalTime(OpeningHours.getEndMinute(embeddedSaleCard));
     
     EmbeddedEntity embeddedLocation = (EmbeddedEntity) embeddedSaleCard.getProperty("location");
     this.location = (embeddedLocation == null) ? null : new LocationData(embeddedLocation);
@@ -0,0 +1,201 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.sps.COMMONS;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Read-through cache of the vendor entities by id, in two tiers: a small LRU in the memory of
+ * the instance, then memcache, shared by every instance, then datastore. Every servlet writing a
+ * vendor invalidates it right after the write. Other instances only see that in memcache, so the
+ * in-memory entries expire after COMMONS.VENDOR_CACHE_LOCAL_TTL_MILLIS.
+ *
+ * A read racing with a write may get the vendor from datastore before the write and cache it
+ * after the invalidation. To keep that stale copy out, memcache is only filled if it has no
+ * entry and an invalidation blocks that for COMMONS.VENDOR_CACHE_NO_READD_MILLIS, and the memory
+ * of the instance is not filled if any vendor was invalidated while it was being read.
+ *
+ * The cache is for reads only. Writes read the vendor from datastore in their transaction.
+ *
+ * Entities are mutable, every caller gets its own copy. Vendors not found are not cached.
+ */
+public final class VendorCache {
+  private static final VendorCache INSTANCE = new VendorCache();
+  private static final String MEMCACHE_NAMESPACE = "vendors";
+
+  // Access ordered, the eldest entry is the least recently used one
+  private final Map<String, LocalEntry> localEntries = new LinkedHashMap<String, LocalEntry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, LocalEntry> eldest) {
+      if (size() <= COMMONS.VENDOR_CACHE_MAX_ENTRIES) return false;
+      evictions.incrementAndGet();
+      return true;
+    }
+  };
+
+  // Incremented by every invalidation of this instance
+  private final AtomicLong invalidations = new AtomicLong();
+
+  private final AtomicLong localHits = new AtomicLong();
+  private final AtomicLong memcacheHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  private VendorCache() {}
+
+  public static VendorCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns a copy of the vendor with the given id, reading datastore only if neither tier has it.
+   * @return the vendor entity, or null if there is no vendor with the id
+   */
+  public Entity get(String vendorId) {
+    Entity vendorEntity = getLocal(vendorId);
+    if (vendorEntity != null) {
+      localHits.incrementAndGet();
+      return vendorEntity.clone();
+    }
+
+    // A memcache error is a miss, the vendor is read from datastore
+    long invalidationsBeforeRead = invalidations.get();
+    vendorEntity = (Entity) memcache().get(vendorId);
+    if (vendorEntity != null) {
+      memcacheHits.incrementAndGet();
+      putLocalUnlessInvalidated(vendorId, vendorEntity, invalidationsBeforeRead);
+      return vendorEntity.clone();
+    }
+
+    misses.incrementAndGet();
+    try {
+      DatastoreService datastore = HttpServletUtils.DATASTORE;
+      vendorEntity = datastore.get(KeyFactory.createKey("Vendor", vendorId));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+    fill(vendorId, vendorEntity, invalidationsBeforeRead);
+    return vendorEntity.clone();
+  }
+
+  /**
+   * Drops a vendor from both tiers, called right after it is written to or deleted from datastore.
+   * Memcache refuses to add it again for COMMONS.VENDOR_CACHE_NO_READD_MILLIS.
+   */
+  public void invalidate(String vendorId) {
+    invalidations.incrementAndGet();
+    synchronized (localEntries) {
+      localEntries.remove(vendorId);
+    }
+    memcache().delete(vendorId, COMMONS.VENDOR_CACHE_NO_READD_MILLIS);
+  }
+
+  /** Returns the number of invalidations of this instance, read before a vendor is read. */
+  long getInvalidations() {
+    return invalidations.get();
+  }
+
+  /**
+   * Caches a vendor read from datastore, never replacing an entry already there: it may have
+   * been read after a write this one was read before.
+   * @param invalidationsBeforeRead getInvalidations before the vendor was read
+   */
+  void fill(String vendorId, Entity vendorEntity, long invalidationsBeforeRead) {
+    memcache().put(vendorId, vendorEntity, Expiration.byDeltaSeconds(COMMONS.VENDOR_CACHE_MEMCACHE_TTL_SECONDS),
+        SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    putLocalUnlessInvalidated(vendorId, vendorEntity, invalidationsBeforeRead);
+  }
+
+  /** Drops every vendor of this instance and resets the counters, memcache is left as it is. */
+  public void clear() {
+    synchronized (localEntries) {
+      localEntries.clear();
+    }
+    localHits.set(0);
+    memcacheHits.set(0);
+    misses.set(0);
+    evictions.set(0);
+  }
+
+  /** Returns the number of vendors served from the memory of this instance. */
+  public long getLocalHits() {
+    return localHits.get();
+  }
+
+  /** Returns the number of vendors served from memcache. */
+  public long getMemcacheHits() {
+    return memcacheHits.get();
+  }
+
+  /** Returns the number of vendors read from datastore. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Returns the number of vendors dropped from the memory of this instance to make room. */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  private Entity getLocal(String vendorId) {
+    synchronized (localEntries) {
+      LocalEntry entry = localEntries.get(vendorId);
+      if (entry == null) return null;
+      if (System.currentTimeMillis() - entry.cachedAtMillis > COMMONS.VENDOR_CACHE_LOCAL_TTL_MILLIS) {
+        localEntries.remove(vendorId);
+        return null;
+      }
+      return entry.vendorEntity;
+    }
+  }
+
+  private void putLocalUnlessInvalidated(String vendorId, Entity vendorEntity, long invalidationsBeforeRead) {
+    synchronized (localEntries) {
+      // Any vendor, not only this one, the next read caches it instead
+      if (invalidations.get() != invalidationsBeforeRead) return;
+      localEntries.put(vendorId, new LocalEntry(vendorEntity, System.currentTimeMillis()));
+    }
+  }
+
+  private static MemcacheService memcache() {
+    MemcacheService memcache = MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE);
+    memcache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.WARNING));
+    return memcache;
+  }
+
+  /** A vendor kept in memory, never handed out without copying it. */
+  private static final class LocalEntry {
+    private final Entity vendorEntity;
+    private final long cachedAtMillis;
+
+    LocalEntry(Entity vendorEntity, long cachedAtMillis) {
+      this.vendorEntity = vendorEntity;
+      this.cachedAtMillis = cachedAtMillis;
+    }
+  }
+}
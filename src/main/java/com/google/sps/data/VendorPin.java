@@ -0,0 +1,81 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.GeoPt;
+import java.util.Objects;
+
+/**
+ * The few fields of a vendor the map needs to draw its pin. The full vendor is read through
+ * /get-vendor when the pin is tapped.
+ */
+public final class VendorPin {
+  private final String id;
+  private final String businessName;
+  private final GeoPt salePoint;
+  private final float distanceFromClient;
+  private final boolean isOpenNow;
+
+  public VendorPin(String id, String businessName, GeoPt salePoint, float distanceFromClient, boolean isOpenNow) {
+    this.id = id;
+    this.businessName = businessName;
+    this.salePoint = salePoint;
+    this.distanceFromClient = distanceFromClient;
+    this.isOpenNow = isOpenNow;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getBusinessName() {
+    return businessName;
+  }
+
+  public GeoPt getSalePoint() {
+    return salePoint;
+  }
+
+  public float getDistanceFromClient() {
+    return distanceFromClient;
+  }
+
+  public boolean isOpenNow() {
+    return isOpenNow;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) return true;
+    if (!(obj instanceof VendorPin)) {
+      return false;
+    }
+    VendorPin pin = (VendorPin) obj;
+    return Objects.equals(id, pin.id) && Objects.equals(businessName, pin.businessName) &&
+        Objects.equals(salePoint, pin.salePoint) && distanceFromClient == pin.distanceFromClient &&
+        isOpenNow == pin.isOpenNow;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(id, businessName, salePoint, distanceFromClient, isOpenNow);
+  }
+
+  @Override
+  public String toString() {
+    return "VendorPin{" + id + ", " + businessName + ", " + salePoint + ", " + distanceFromClient + "m, " +
+        (isOpenNow ? "open" : "closed") + "}";
+  }
+}
@@ -0,0 +1,50 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+
+/**
+ * Version stamp of a vendor entity, bumped by every servlet writing the vendor or its salecard
+ * right before the put. Clients get it as the ETag of the vendor, so a vendor that didn't change
+ * is answered with a 304 without building the Vendor or its JSON.
+ *
+ * Versions are the write time in milliseconds, or one more than the previous version if that is
+ * later, so two writes racing from the same previous version still get different versions.
+ */
+public final class VendorVersion {
+  private static final String PROPERTY = "version";
+
+  private VendorVersion() {
+    throw new java.lang.UnsupportedOperationException("Utility class cannot be instantiated");
+  }
+
+  /** Sets a version newer than the current one on the vendor entity about to be written. */
+  public static void bump(Entity vendorEntity) {
+    long version = Math.max(get(vendorEntity) + 1, System.currentTimeMillis());
+    vendorEntity.setUnindexedProperty(PROPERTY, version);
+  }
+
+  /** Returns the version of the vendor entity, 0 if it was written before versions existed. */
+  public static long get(Entity vendorEntity) {
+    Object version = vendorEntity.getProperty(PROPERTY);
+    return (version == null) ? 0 : (long) version;
+  }
+
+  /** Returns the ETag of the vendor entity, a quoted version. */
+  public static String getETag(Entity vendorEntity) {
+    return "\"" + get(vendorEntity) + "\"";
+  }
+}
@@ -10,18 +10,13 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
 import com.google.sps.data.AuthStatus;
+import com.google.sps.data.HttpServletUtils;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -60,20 +55,16 @@ public class AuthServlet extends HttpServlet {
       authStatus.setRegistrationStatus(false);
     }
     
-    response.getWriter().println(new Gson().toJson(authStatus));
+    response.getWriter().println(HttpServletUtils.GSON.toJson(authStatus));
   }
 
   public boolean isUserRegistered(String id) throws IOException {
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Key vendorKey = KeyFactory.createKey("Vendor", id);
-    
-    try {
-      Entity vendor = datastore.get(vendorKey);
-      String phoneNumber = (String) vendor.getProperty("phoneNumber");
-      
-      return (phoneNumber == null || phoneNumber.isEmpty()) ? false : true;
-    } catch (EntityNotFoundException e) {
+    Entity vendor = HttpServletUtils.getVendorEntity(id);
+    if (vendor == null) {
       return false;
     }
+    String phoneNumber = (String) vendor.getProperty("phoneNumber");
+      
+    return (phoneNumber == null || phoneNumber.isEmpty()) ? false : true;
   }
 }
@@ -0,0 +1,92 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.COMMONS;
+import com.google.sps.data.HttpServletUtils;
+import com.google.sps.utility.AppLog;
+import com.google.sps.utility.OpeningHoursBackfill;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes the opening hours of the salecards saved before they were stored as minutes, one page
+ * per request, see OpeningHoursBackfill.
+ * GET: Started once by an admin, before COMMONS.OPEN_HOURS_FILTER_PROPERTY is turned on
+ * POST: Next pages of the backfill, added to the task queue by the previous page
+ */
+@WebServlet(BackfillOpeningHoursServlet.PATH)
+public class BackfillOpeningHoursServlet extends HttpServlet {
+  static final String PATH = "/tasks/backfill-opening-hours";
+  private static final String PARAM_CURSOR = "cursor";
+  // Set by App Engine on task requests only, it is removed from requests coming from outside
+  private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      AppLog.info("Opening hours can only be backfilled by an admin.");
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    backfill(request, response);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (request.getHeader(QUEUE_NAME_HEADER) == null) {
+      AppLog.info("Backfill pages can only be continued from the task queue.");
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    backfill(request, response);
+  }
+
+  private void backfill(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String cursor = HttpServletUtils.getParameter(request, PARAM_CURSOR, "");
+    Cursor after;
+    try {
+      after = cursor.isEmpty() ? null : Cursor.fromWebSafeString(cursor);
+    } catch (RuntimeException e) {
+      // Anything the cursor parser throws on a bad cursor is a bad request, not a failure
+      AppLog.info("Bad backfill cursor", e);
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    OpeningHoursBackfill.Page page = new OpeningHoursBackfill().backfill(after);
+    AppLog.info("Opening hours backfill after '" + cursor + "': " + page.getScanned() + " scanned, "
+        + page.getRewritten() + " rewritten");
+
+    if (page.getNextCursor() != null) {
+      QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(PATH)
+          .param(PARAM_CURSOR, page.getNextCursor()));
+    } else {
+      AppLog.info("Opening hours backfill done, " + COMMONS.OPEN_HOURS_FILTER_PROPERTY + " can be turned on.");
+    }
+
+    response.setContentType("application/json;");
+    response.getWriter().println(HttpServletUtils.GSON.toJson(page));
+  }
+}
@@ -16,8 +16,8 @@ package com.google.sps.servlets;
 
 import com.google.appengine.api.blobstore.BlobstoreFailureException;
 import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.sps.data.HttpServletUtils;
+import com.google.sps.utility.AppLog;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -40,17 +40,17 @@ public class BlobstoreUploadUrlServlet extends HttpServlet {
     }
 
     try {
-      BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+      BlobstoreService blobstoreService = HttpServletUtils.BLOBSTORE;
       String uploadUrl = blobstoreService.createUploadUrl(formHandler);
 
       response.setContentType("text/html");
       response.getWriter().println(uploadUrl);
     } catch (BlobstoreFailureException e) {
-      System.out.println("Problems communicating with Blobstore: " + e);
+      AppLog.error("Problems communicating with Blobstore", e);
       response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
       return;
     } catch (IllegalArgumentException e) {
-      System.out.println("Invalid URL for form handler:" + e);
+      AppLog.info("Invalid URL for form handler", e);
       response.sendError(HttpServletResponse.SC_BAD_REQUEST);
       return;
     }
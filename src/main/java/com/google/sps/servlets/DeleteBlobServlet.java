@@ -0,0 +1,78 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.RetryOptions;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.sps.COMMONS;
+import com.google.sps.data.HttpServletUtils;
+import com.google.sps.utility.AppLog;
+import com.google.sps.utility.ImageVariantCache;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Deletes a blob no entity references anymore, run from the task queue so the requests replacing
+ * or deleting a picture don't wait for blobstore. A failed delete answers an error and the queue
+ * retries it, deleting a blob twice does nothing.
+ */
+@WebServlet(DeleteBlobServlet.PATH)
+public class DeleteBlobServlet extends HttpServlet {
+  static final String PATH = "/tasks/delete-blob";
+  private static final String PARAM_BLOB_KEY = "blobKey";
+  // Set by App Engine on task requests only, it is removed from requests coming from outside
+  private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+
+  /**
+   * Adds a task deleting the blob, the task only runs if the transaction commits.
+   * @param transaction the transaction removing the last reference to the blob
+   * @param blobKey the blob to delete
+   */
+  public static void enqueue(Transaction transaction, BlobKey blobKey) {
+    QueueFactory.getDefaultQueue().add(transaction, TaskOptions.Builder.withUrl(PATH)
+        .param(PARAM_BLOB_KEY, blobKey.getKeyString())
+        .retryOptions(RetryOptions.Builder
+            .withTaskRetryLimit(COMMONS.BLOB_CLEANUP_RETRIES)
+            .minBackoffSeconds(COMMONS.BLOB_CLEANUP_MIN_BACKOFF_SECONDS)));
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (request.getHeader(QUEUE_NAME_HEADER) == null) {
+      AppLog.info("Blobs can only be deleted from the task queue.");
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    String blobKey = HttpServletUtils.getParameter(request, PARAM_BLOB_KEY, "");
+    if (blobKey.isEmpty()) {
+      // Retrying would not fix it, answer OK so the queue drops the task
+      AppLog.info("Task without a blob to delete.");
+      return;
+    }
+
+    // A BlobstoreFailureException answers an error and the task is retried
+    BlobstoreService blobstoreService = HttpServletUtils.BLOBSTORE;
+    blobstoreService.delete(new BlobKey(blobKey));
+    ImageVariantCache.getInstance().invalidate(new BlobKey(blobKey));
+  }
+}
@@ -14,10 +14,9 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreFailureException;
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
@@ -25,7 +24,14 @@ import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.sps.data.HttpServletUtils;
 import com.google.sps.data.Vendor;
+import com.google.sps.data.VendorCache;
+import com.google.sps.data.VendorVersion;
+import com.google.sps.utility.AppLog;
+import com.google.sps.utility.RangeResultCache;
+import com.google.sps.utility.VendorIndex;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -42,44 +48,78 @@ public class DeleteSaleCardServlet extends HttpServlet {
     UserService userService = UserServiceFactory.getUserService();
     
     if (!userService.isUserLoggedIn()) {
-      System.out.println("User is not logged in.");
+      AppLog.info("User is not logged in.");
       response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "User is not logged in.");
       return;
     }
 
     String vendorId = userService.getCurrentUser().getUserId();
     Key vendorKey = KeyFactory.createKey("Vendor", vendorId);
-    Entity vendorEntity = HttpServletUtils.getVendorEntity(vendorId);
-    if (vendorEntity == null) {
-      System.out.println("User is not registered.");
+    // Only checks the request, the vendor written is read again in the transaction
+    Entity cachedVendorEntity = HttpServletUtils.getVendorEntity(vendorId);
+    if (cachedVendorEntity == null) {
+      AppLog.info("User is not registered.");
       response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "User is not registered.");
       return;
     }
-    Vendor vendorObject = new Vendor(vendorEntity);
 
-    if (vendorObject.getSaleCard() == null) {
-      System.out.println("Vendor does not have a salecard.");
+    if (new Vendor(cachedVendorEntity).getSaleCard() == null) {
+      AppLog.info("Vendor does not have a salecard.");
       response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Vendor does not have a salecard.");
       return;
     }
 
-    // Delete salecard's picture from blobstore
-    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-    blobstoreService.delete(vendorObject.getSaleCard().getPicture().getBlobKey());
+    // Delete the salecard and update the vendor together, the picture is deleted from blobstore
+    // by a task added only if they commit. The vendor is read in the transaction, a write made
+    // since then makes the commit fail instead of being overwritten.
+    DatastoreService datastore = HttpServletUtils.DATASTORE;
+    Vendor vendorObject;
+    try {
+      vendorObject = HttpServletUtils.runInTransaction(datastore, transaction -> {
+        Entity vendorEntity = HttpServletUtils.getVendorEntity(datastore, transaction, vendorId);
+        if (vendorEntity == null) return null;
+        Vendor previousVendor = new Vendor(vendorEntity);
+        if (previousVendor.getSaleCard() == null) return null;
 
-    // Generate Keys to delete from datastore
-    Key saleCardKey = KeyFactory.createKey(vendorKey, "SaleCard", vendorObject.getSaleCard().getId());
-    Key pictureKey = KeyFactory.createKey(saleCardKey, "Picture", vendorObject.getSaleCard().getPicture().getId());
-    Key locationKey = KeyFactory.createKey(saleCardKey, "LocationData", vendorObject.getSaleCard().getLocation().getId());
+        // Generate Keys to delete from datastore
+        Key saleCardKey = KeyFactory.createKey(vendorKey, "SaleCard", previousVendor.getSaleCard().getId());
+        Key pictureKey = KeyFactory.createKey(saleCardKey, "Picture", previousVendor.getSaleCard().getPicture().getId());
+        Key locationKey = KeyFactory.createKey(saleCardKey, "LocationData", previousVendor.getSaleCard().getLocation().getId());
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    datastore.delete(locationKey);    
-    datastore.delete(pictureKey);
-    datastore.delete(saleCardKey);
+        // Update vendor's embedded salecard
+        vendorEntity.setProperty("saleCard", null);
+        VendorVersion.bump(vendorEntity);
 
-    // Update vendor's embedded salecard
-    vendorEntity.setProperty("saleCard", null);
-    datastore.put(vendorEntity);
+        datastore.delete(transaction, Arrays.asList(locationKey, pictureKey, saleCardKey));
+        datastore.put(transaction, vendorEntity);
+        DeleteBlobServlet.enqueue(transaction, previousVendor.getSaleCard().getPicture().getBlobKey());
+        return previousVendor;
+      });
+    } catch (ConcurrentModificationException e) {
+      AppLog.warning("The salecard could not be deleted", e);
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    } catch (DatastoreFailureException | DatastoreTimeoutException e) {
+      // The commit may have been applied
+      AppLog.warning("The salecard may not have been deleted", e);
+      VendorCache.getInstance().invalidate(vendorId);
+      // Searches stop showing it until the index reloads
+      VendorIndex.getInstance().remove(vendorId);
+      RangeResultCache.getInstance().invalidate(
+          new Vendor(cachedVendorEntity).getSaleCard().getLocation().getGeoHash());
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    }
+
+    if (vendorObject == null) {
+      // Deleted since the check above
+      AppLog.info("Vendor does not have a salecard.");
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Vendor does not have a salecard.");
+      return;
+    }
+    VendorCache.getInstance().invalidate(vendorId);
+    VendorIndex.getInstance().remove(vendorId);
+    RangeResultCache.getInstance().invalidate(vendorObject.getSaleCard().getLocation().getGeoHash());
       
     response.sendRedirect("/");
   }
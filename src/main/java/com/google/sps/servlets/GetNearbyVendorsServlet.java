@@ -14,75 +14,203 @@
 
 package com.google.sps.servlets;
 
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.appengine.api.datastore.GeoPt;
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import com.google.sps.COMMONS;
 import com.google.sps.data.HttpServletUtils;
+import com.google.sps.data.InputValidator;
 import com.google.sps.data.Vendor;
-import com.google.sps.utility.GeoHash;
+import com.google.sps.data.VendorPin;
+import com.google.sps.utility.AppLog;
+import com.google.sps.utility.GeoHashCoverer;
+import com.google.sps.utility.GeoHashRange;
+import com.google.sps.utility.NearbyVendorsPage;
 import com.google.sps.utility.NearbyVendorsQuery;
+import com.google.sps.utility.PageToken;
+import com.google.sps.utility.RequestTrace;
+import com.google.sps.utility.VendorIndex;
 import java.io.IOException;
 import java.time.LocalTime;
 import java.time.format.DateTimeParseException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that looks for nearby vendors */
+/**
+ * Servlet that looks for nearby vendors. The vendors are streamed as a JSON array while they are
+ * found. A search that runs out of time before anything is sent gets a 503. Once the first
+ * vendors are sent the status is already 200, so the array is closed with the element
+ * {"error":"DEADLINE_EXCEEDED"} last: the body is still valid JSON, and the client must drop that
+ * element and not use the rest as the full result.
+ */
 @WebServlet("/get-nearby-vendors")
 public class GetNearbyVendorsServlet extends HttpServlet {
+  // Response header with the token of the next page of a paged search
+  private static final String NEXT_PAGE_TOKEN_HEADER = "X-Next-Page-Token";
+  // Last element of the array of a response cut short by the search deadline
+  static final String INCOMPLETE_ERROR = "DEADLINE_EXCEEDED";
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     boolean hasDelivery = Boolean.parseBoolean(HttpServletUtils.getParameter(request, "hasDelivery", "false"));
     boolean onlyOpenNow = Boolean.parseBoolean(HttpServletUtils.getParameter(request, "onlyOpenNow", "false"));
+    String sortBy = HttpServletUtils.getParameter(request, "sortBy", "");
+    // "cards" returns the full vendors, "pins" only what the map needs to draw them
+    String view = HttpServletUtils.getParameter(request, "view", "cards");
     LocalTime currentTime;
     float latitude ,longitude;
     int distance = 0;
+    int limit = 0;
+    int pageSize = 0;
     GeoPt clientLocation = new GeoPt(0f, 0f);
-    List<String> geoHashesToQuery;
+    List<GeoHashRange> geoHashRanges;
+    PageToken pageToken;
     try {
-      currentTime = LocalTime.parse(HttpServletUtils.getParameter(request, "currentTime", ""));
+      currentTime = InputValidator.parseTime(HttpServletUtils.getParameter(request, "currentTime", ""));
       distance = Integer.parseInt(HttpServletUtils.getParameter(request, "distance", "1000"));
+      // 0 means no limit
+      limit = Integer.parseInt(HttpServletUtils.getParameter(request, "limit", "0"));
+      // 0 means no paging
+      pageSize = Integer.parseInt(HttpServletUtils.getParameter(request, "pageSize", "0"));
       // If not provided, we set them to 360 to throw an error when trying to use them to create a GeoPt
       latitude = Float.parseFloat(HttpServletUtils.getParameter(request, "lat", "360"));
       longitude = Float.parseFloat(HttpServletUtils.getParameter(request, "lng", "360"));
       clientLocation = new GeoPt(latitude, longitude);
-      geoHashesToQuery = GeoHash.getHashesToQuery(latitude, longitude, distance);
+      long coverStartNanos = System.nanoTime();
+      geoHashRanges = GeoHashCoverer.cover(latitude, longitude, distance);
+      RequestTrace.addNanos(RequestTrace.Stage.COVER, System.nanoTime() - coverStartNanos);
+      String encodedPageToken = HttpServletUtils.getParameter(request, "pageToken", "");
+      pageToken = encodedPageToken.isEmpty() ? null : PageToken.decode(encodedPageToken);
     } catch (DateTimeParseException e) {
-      System.err.println("Bad format to parse: " + e);
+      AppLog.info("Bad format to parse", e);
       response.sendError(HttpServletResponse.SC_BAD_REQUEST);
       return;
     } catch (NumberFormatException e) {
-      System.err.println("The string is not a parsable int/float: " + e);
+      AppLog.info("The string is not a parsable int/float", e);
       response.sendError(HttpServletResponse.SC_BAD_REQUEST);
       return;
     } catch (IllegalArgumentException e) {
-      System.err.println("Latitude and/or longitude outside legal range: " + e);
+      AppLog.info("Latitude, longitude and/or distance outside legal range or bad page token", e);
       response.sendError(HttpServletResponse.SC_BAD_REQUEST);
       return;
     }
 
     // Check values exist and are in the range
-    if (geoHashesToQuery.isEmpty() || distance > COMMONS.MAX_DISTANCE_CLIENT || distance < COMMONS.MIN_DISTANCE) {
-      System.err.println("The values do not exist and/or are outside the range.");
+    if (geoHashRanges.isEmpty() || distance > COMMONS.MAX_DISTANCE_CLIENT || distance < COMMONS.MIN_DISTANCE ||
+        limit < 0 || limit > COMMONS.MAX_NEARBY_LIMIT || !(sortBy.isEmpty() || sortBy.equals("distance")) ||
+        !(view.equals("cards") || view.equals("pins")) ||
+        pageSize < 0 || pageSize > COMMONS.MAX_NEARBY_LIMIT ||
+        (pageToken != null && (pageSize == 0 ||
+            !pageToken.belongsTo(geoHashRanges, hasDelivery, onlyOpenNow, currentTime)))) {
+      AppLog.info("The values do not exist and/or are outside the range.");
       response.sendError(HttpServletResponse.SC_BAD_REQUEST);
       return;
     }
 
-    NearbyVendorsQuery nearbyVendorsQuery = new NearbyVendorsQuery();
-    List<Vendor> nearbyVendors = new ArrayList<>();
-    for(String prefixGeoHash : geoHashesToQuery) {
-      List<Vendor> vendorsRetrieved = nearbyVendorsQuery.query(
-          prefixGeoHash, hasDelivery, onlyOpenNow, clientLocation, distance, currentTime);
-      nearbyVendors.addAll(vendorsRetrieved);
+    // A limit always returns the closest vendors, sorted by distance
+    boolean nearestOnly = limit > 0 || sortBy.equals("distance");
+    int nearestLimit = (limit > 0) ? limit : Integer.MAX_VALUE;
+
+    // Pages follow the order of the ranges, they cannot be sorted by distance
+    if (pageSize > 0 && nearestOnly) {
+      AppLog.info("A paged search cannot be limited or sorted by distance.");
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    // Pins are small enough to send all of them at once
+    boolean pinsOnly = view.equals("pins");
+    if (pageSize > 0 && pinsOnly) {
+      AppLog.info("A search of pins cannot be paged.");
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
     }
 
-    Gson gson = new Gson();
+    NearbyVendorsQuery nearbyVendorsQuery = new NearbyVendorsQuery();
     response.setContentType("application/json;");
     response.setCharacterEncoding("UTF-8");
-    response.getWriter().println(gson.toJson(nearbyVendors));
+    // Vendors are written one by one as they are found, the response is never built as one String
+    JsonWriter jsonWriter = new JsonWriter(response.getWriter());
+    Consumer<Vendor> vendorWriter = vendor -> {
+      long writeStartNanos = System.nanoTime();
+      HttpServletUtils.GSON.toJson(vendor, Vendor.class, jsonWriter);
+      RequestTrace.addNanos(RequestTrace.Stage.SERIALIZE, System.nanoTime() - writeStartNanos);
+    };
+    Consumer<VendorPin> pinWriter = pin -> {
+      long writeStartNanos = System.nanoTime();
+      HttpServletUtils.GSON.toJson(pin, VendorPin.class, jsonWriter);
+      RequestTrace.addNanos(RequestTrace.Stage.SERIALIZE, System.nanoTime() - writeStartNanos);
+    };
+    // Filtering is the time of the search not spent waiting on datastore or writing
+    long searchStartNanos = System.nanoTime();
+    long stageNanosBefore = RequestTrace.totalStageNanos();
+    try {
+      jsonWriter.beginArray();
+      if (pinsOnly && nearestOnly) {
+        nearbyVendorsQuery.queryNearestPins(geoHashRanges, hasDelivery, onlyOpenNow, clientLocation,
+            distance, currentTime, nearestLimit).forEach(pinWriter);
+      } else if (pinsOnly) {
+        nearbyVendorsQuery.queryPins(
+            geoHashRanges, hasDelivery, onlyOpenNow, clientLocation, distance, currentTime, pinWriter);
+      } else if (pageSize > 0) {
+        NearbyVendorsPage nearbyVendorsPage;
+        try {
+          nearbyVendorsPage = nearbyVendorsQuery.queryPage(geoHashRanges, hasDelivery,
+              onlyOpenNow, clientLocation, distance, currentTime, pageSize, pageToken);
+        } catch (IllegalArgumentException e) {
+          // Nothing but the opening bracket is written before the page is read
+          AppLog.info("Bad page token", e);
+          response.resetBuffer();
+          response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+          return;
+        }
+        if (nearbyVendorsPage.getNextPageToken() != null) {
+          response.setHeader(NEXT_PAGE_TOKEN_HEADER, nearbyVendorsPage.getNextPageToken());
+        }
+        nearbyVendorsPage.getVendors().forEach(vendorWriter);
+      } else if (VendorIndex.isEnabled() && VendorIndex.getInstance().isLoaded()) {
+        // Until its first load is done the index is skipped, the search goes to datastore. It is
+        // reloaded by VendorIndexListener, never by a search
+        VendorIndex vendorIndex = VendorIndex.getInstance();
+        List<Vendor> nearbyVendors = (nearestOnly)
+            ? nearbyVendorsQuery.queryIndexNearest(vendorIndex, geoHashRanges, hasDelivery, onlyOpenNow,
+                clientLocation, distance, currentTime, nearestLimit)
+            : nearbyVendorsQuery.queryIndex(
+                vendorIndex, geoHashRanges, hasDelivery, onlyOpenNow, clientLocation, distance, currentTime);
+        nearbyVendors.forEach(vendorWriter);
+      } else if (nearestOnly) {
+        nearbyVendorsQuery.queryNearest(geoHashRanges, hasDelivery, onlyOpenNow, clientLocation,
+            distance, currentTime, nearestLimit).forEach(vendorWriter);
+      } else {
+        nearbyVendorsQuery.queryAll(
+            geoHashRanges, hasDelivery, onlyOpenNow, clientLocation, distance, currentTime, vendorWriter);
+      }
+      jsonWriter.endArray();
+      jsonWriter.flush();
+      RequestTrace.addNanos(RequestTrace.Stage.FILTER, System.nanoTime() - searchStartNanos
+          - (RequestTrace.totalStageNanos() - stageNanosBefore));
+    } catch (DatastoreTimeoutException e) {
+      AppLog.warning("Nearby vendors search exceeded its deadline", e);
+      // Once the first bytes are sent the status cannot change, the array is marked as cut short
+      if (!response.isCommitted()) {
+        response.resetBuffer();
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      } else {
+        endIncomplete(jsonWriter);
+        response.getWriter().println();
+      }
+      return;
+    }
+    response.getWriter().println();
+  }
+
+  /** Closes an array cut short with the element telling the client it is incomplete. */
+  static void endIncomplete(JsonWriter jsonWriter) throws IOException {
+    jsonWriter.beginObject().name("error").value(INCOMPLETE_ERROR).endObject();
+    jsonWriter.endArray();
+    jsonWriter.flush();
   }
 }
@@ -18,9 +18,10 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.GeoPt;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
 import com.google.sps.data.HttpServletUtils;
 import com.google.sps.data.Vendor;
+import com.google.sps.data.VendorVersion;
+import com.google.sps.utility.AppLog;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -29,7 +30,10 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * Retrieve all the vendor information, including saleCard and profile picture
- * GET: For clients wanting info of a specific vendor
+ * GET: For clients wanting info of a specific vendor. The response carries the version of the
+ *     vendor as ETag, a client sending it back in If-None-Match gets a 304 until the vendor
+ *     changes. Clients compute their distance to the vendor, lat and lng are optional and only
+ *     fill distanceFromClient for older clients, those responses are not given an ETag.
  * POST: For vendors wanting to see their info
  */
 @WebServlet("/get-vendor")
@@ -38,39 +42,54 @@ public class GetVendorServlet extends HttpServlet {
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String vendorId = HttpServletUtils.getParameter(request, "vendorId", "");
-    float latitude, longitude;
-    GeoPt clientLocation;
-    try {
-      // If not provided, we set them to 360 to throw an error when trying to use them to create a GeoPt
-      latitude = Float.parseFloat(HttpServletUtils.getParameter(request, "lat", "360"));
-      longitude = Float.parseFloat(HttpServletUtils.getParameter(request, "lng", "360"));
-      clientLocation = new GeoPt(latitude, longitude);
-    } catch (NumberFormatException e) {
-      System.out.println("The string is not a parsable float: " + e);
-      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Wrong format of parameters");
-      return;
-    } catch (IllegalArgumentException e) {
-      System.out.println(e);
-      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Latitude and/or longitude outside range");
-      return;
+    String latitudeParam = HttpServletUtils.getParameter(request, "lat", "");
+    String longitudeParam = HttpServletUtils.getParameter(request, "lng", "");
+    GeoPt clientLocation = null;
+    if (!latitudeParam.isEmpty() || !longitudeParam.isEmpty()) {
+      try {
+        // If only one is provided, we set the other to 360 to throw an error when trying to use them to create a GeoPt
+        float latitude = Float.parseFloat(latitudeParam.isEmpty() ? "360" : latitudeParam);
+        float longitude = Float.parseFloat(longitudeParam.isEmpty() ? "360" : longitudeParam);
+        clientLocation = new GeoPt(latitude, longitude);
+      } catch (NumberFormatException e) {
+        AppLog.info("The string is not a parsable float", e);
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Wrong format of parameters");
+        return;
+      } catch (IllegalArgumentException e) {
+        AppLog.info("Latitude and/or longitude outside range", e);
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Latitude and/or longitude outside range");
+        return;
+      }
     }
 
     if (vendorId.isEmpty()) {
-      System.out.println("No vendor provided");
+      AppLog.info("No vendor provided");
       response.sendError(HttpServletResponse.SC_BAD_REQUEST, "No vendor provided.");
       return;
     }
 
     Entity vendorEntity = HttpServletUtils.getVendorEntity(vendorId);
     if (vendorEntity == null) {
-      System.out.println("Vendor Account does not exist");
+      AppLog.info("Vendor Account does not exist");
       response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Vendor Account does not exist");
       return;
     }
 
+    // Responses are stored by the browser, but checked with the server before every use. The
+    // version doesn't cover the distance to the client, a response carrying it has no ETag.
+    response.setHeader("Cache-Control", "private, no-cache");
+    if (clientLocation == null) {
+      String eTag = VendorVersion.getETag(vendorEntity);
+      response.setHeader("ETag", eTag);
+      if (HttpServletUtils.matchesETag(request.getHeader("If-None-Match"), eTag)) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+    }
+
     Vendor vendorObject = new Vendor(vendorEntity);
     // Add the distance between client and vendor's business
-    if (vendorObject.getSaleCard() != null) {
+    if (vendorObject.getSaleCard() != null && clientLocation != null) {
       float distanceClientVendor = HttpServletUtils.computeGeoDistance(
           clientLocation, vendorObject.getSaleCard().getLocation().getSalePoint());
       vendorObject.getSaleCard().setDistanceFromClient(distanceClientVendor);
@@ -78,7 +97,7 @@ public class GetVendorServlet extends HttpServlet {
 
     response.setContentType("application/json;");
     response.setCharacterEncoding("UTF-8");
-    response.getWriter().println(new Gson().toJson(vendorObject));
+    response.getWriter().println(HttpServletUtils.GSON.toJson(vendorObject));
   }
 
   @Override
@@ -86,14 +105,14 @@ public class GetVendorServlet extends HttpServlet {
     UserService userService = UserServiceFactory.getUserService();
     
     if (!userService.isUserLoggedIn()) {
-      System.out.println("User is not logged in.");
+      AppLog.info("User is not logged in.");
       response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "User is not logged in.");
       return;
     }
 
     Entity vendorEntity = HttpServletUtils.getVendorEntity(userService.getCurrentUser().getUserId());
     if (vendorEntity == null) {
-      System.out.println("Vendor Account does not exist");
+      AppLog.info("Vendor Account does not exist");
       response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Vendor Account does not exist");
       return;
     }
@@ -101,6 +120,6 @@ public class GetVendorServlet extends HttpServlet {
     Vendor vendorObject = new Vendor(vendorEntity);
     response.setContentType("application/json;");
     response.setCharacterEncoding("UTF-8");
-    response.getWriter().println(new Gson().toJson(vendorObject));
+    response.getWriter().println(HttpServletUtils.GSON.toJson(vendorObject));
   }
 }
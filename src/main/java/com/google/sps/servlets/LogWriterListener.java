@@ -0,0 +1,37 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.utility.AsyncLogAppender;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Starts the thread writing the log when the instance starts, and writes the events still queued
+ * when it stops.
+ */
+@WebListener
+public class LogWriterListener implements ServletContextListener {
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    AsyncLogAppender.getInstance().start();
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    AsyncLogAppender.getInstance().stop();
+  }
+}
@@ -0,0 +1,105 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.COMMONS;
+import com.google.sps.utility.AppLog;
+import com.google.sps.utility.DatastoreCallCounter;
+import com.google.sps.utility.RequestMetrics;
+import com.google.sps.utility.RequestTrace;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Traces every request: its latency, its datastore calls and its stages go to RequestMetrics
+ * and, when COMMONS.METRICS_LOG_PROPERTY is set, to one JSON line in the request log. Requests
+ * are counted by the path of the servlet serving them, every other path counts as
+ * COMMONS.METRICS_OTHER_ENDPOINT so random URLs do not grow the metrics.
+ *
+ * The trace also gives the request the id its log lines share: the trace id App Engine sets in
+ * the X-Cloud-Trace-Context header, or one made up by the instance when it is missing.
+ */
+@WebFilter("/*")
+public class MetricsFilter implements Filter {
+  private static final String TRACE_HEADER = "X-Cloud-Trace-Context";
+  private static final int MAX_REQUEST_ID_LENGTH = 64;
+
+  private final Set<String> endpoints = new HashSet<>();
+  private final String instancePrefix = Long.toHexString(ThreadLocalRandom.current().nextLong()) + "-";
+  private final AtomicLong requests = new AtomicLong();
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    for (ServletRegistration registration : filterConfig.getServletContext().getServletRegistrations().values()) {
+      for (String mapping : registration.getMappings()) {
+        if (mapping.startsWith("/") && !mapping.contains("*")) {
+          endpoints.add(mapping);
+        }
+      }
+    }
+    DatastoreCallCounter.install();
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    String servletPath = httpRequest.getServletPath();
+    RequestTrace trace = RequestTrace.begin(requestId(httpRequest),
+        endpoints.contains(servletPath) ? servletPath : COMMONS.METRICS_OTHER_ENDPOINT);
+    boolean failed = true;
+    try {
+      chain.doFilter(request, response);
+      failed = false;
+    } finally {
+      trace.end();
+      int status = (failed) ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+          : ((HttpServletResponse) response).getStatus();
+      RequestMetrics.getInstance().record(trace, status);
+      if (Boolean.getBoolean(COMMONS.METRICS_LOG_PROPERTY)) {
+        AppLog.log(AppLog.Level.INFO, trace, "request metrics", trace.toLogFields(status));
+      }
+    }
+  }
+
+  /** Returns the trace id of the header, "TRACE_ID/SPAN_ID;o=OPTIONS", or a new id. */
+  private String requestId(HttpServletRequest request) {
+    String traceContext = request.getHeader(TRACE_HEADER);
+    if (traceContext != null) {
+      int end = traceContext.indexOf('/');
+      String traceId = (end < 0) ? traceContext : traceContext.substring(0, end);
+      if (!traceId.isEmpty() && traceId.length() <= MAX_REQUEST_ID_LENGTH) return traceId;
+    }
+    return instancePrefix + Long.toHexString(requests.incrementAndGet());
+  }
+
+  @Override
+  public void destroy() {
+    DatastoreCallCounter.uninstall();
+  }
+}
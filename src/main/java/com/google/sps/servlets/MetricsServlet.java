@@ -0,0 +1,49 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.HttpServletUtils;
+import com.google.sps.utility.AppLog;
+import com.google.sps.utility.RequestMetrics;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Returns the request metrics of the instance serving it as JSON, for admins only. Each instance
+ * has its own, repeated calls may reach different instances.
+ */
+@WebServlet("/admin/metrics")
+public class MetricsServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      AppLog.info("Metrics can only be read by an admin.");
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    response.setHeader("Cache-Control", "no-store");
+    response.setContentType("application/json;");
+    response.setCharacterEncoding("UTF-8");
+    response.getWriter().println(HttpServletUtils.GSON.toJson(RequestMetrics.getInstance().snapshot()));
+  }
+}
@@ -14,12 +14,20 @@
 
 package com.google.sps.servlets;
 
+import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreFailureException;
 import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.blobstore.ByteRange;
+import com.google.appengine.api.blobstore.RangeFormatException;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFailureException;
 import com.google.sps.data.HttpServletUtils;
+import com.google.sps.utility.AppLog;
+import com.google.sps.utility.ImageVariant;
+import com.google.sps.utility.ImageVariantCache;
 import java.io.IOException;
+import java.util.Locale;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -27,29 +35,157 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * Servlet that serves a blob from a blobKey, e.g. <img src="/serve-blob?blobKey=${blobKey}">
+ * Pictures can be asked resized with size=thumbnail or size=card, recompressed to the format
+ * parameter: jpeg (default), png or webp. size=full (default) serves the blob as uploaded.
+ *
+ * A blob never changes, a new picture is uploaded to a new blobKey, so the responses are cached
+ * for good by browsers and proxies. The ETag names the blob and the variant, If-None-Match is
+ * answered with a 304 once the blob or the variant is known to exist, without sending it. Errors
+ * are not cached. Range requests return the bytes asked for.
  */
 @WebServlet("/serve-blob")
 public class ServeBlobServlet extends HttpServlet {
+  private static final String CACHE_CONTROL = "public, max-age=31536000, immutable"; // A year
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String blobString = HttpServletUtils.getParameter(request, "blobKey", "");
     
-    if (blobString.isEmpty()) {
-      System.out.println("BlobKey provided is empty");
+    if (blobString.isEmpty() || blobString.indexOf('"') >= 0) {
+      // A quote would end the ETag made from it
+      AppLog.info("BlobKey provided is empty or not valid");
       response.sendError(HttpServletResponse.SC_BAD_REQUEST);
       return;
     }
 
+    ImageVariant variant;
+    ImagesService.OutputEncoding encoding;
     try {
-      BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+      variant = ImageVariant.fromParameter(HttpServletUtils.getParameter(request, "size", "full"));
+      encoding = ImagesService.OutputEncoding.valueOf(
+          HttpServletUtils.getParameter(request, "format", "jpeg").toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      AppLog.info("Unknown picture size or format", e);
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    BlobKey blobKey = new BlobKey(blobString);
+
+    // The cache headers say the blob or the variant exists, they are set once it is known to
+    if (variant != ImageVariant.FULL) {
+      byte[] imageData;
+      try {
+        imageData = ImageVariantCache.getInstance().get(blobKey, variant, encoding);
+      } catch (IllegalArgumentException e) {
+        AppLog.info("The blob does not exist or is not a picture", e);
+        sendUncachedError(response, HttpServletResponse.SC_NOT_FOUND);
+        return;
+      } catch (ImagesServiceFailureException e) {
+        AppLog.error("The picture could not be resized", e);
+        sendUncachedError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        return;
+      }
+      String eTag = "\"" + blobString + "/" + variant + "/" + encoding + "\"";
+      if (setCacheHeaders(request, response, eTag)) {
+        return;
+      }
+      response.setContentType("image/" + encoding.name().toLowerCase(Locale.ROOT));
+      writeRange(request.getHeader("Range"), imageData, response);
+      return;
+    }
+
+    if (new BlobInfoFactory().loadBlobInfo(blobKey) == null) {
+      AppLog.info("Blob does not exist");
+      sendUncachedError(response, HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    if (setCacheHeaders(request, response, "\"" + blobString + "\"")) {
+      return;
+    }
 
-      BlobKey blobKey = new BlobKey(blobString);
-      blobstoreService.serve(blobKey, response);
+    try {
+      BlobstoreService blobstoreService = HttpServletUtils.BLOBSTORE;
+
+      ByteRange byteRange;
+      try {
+        byteRange = blobstoreService.getByteRange(request);
+      } catch (RangeFormatException e) {
+        // A Range header that can't be parsed is ignored, the whole blob is served
+        AppLog.info("Bad range header", e);
+        byteRange = null;
+      }
+      if (byteRange == null) {
+        blobstoreService.serve(blobKey, response);
+      } else {
+        blobstoreService.serve(blobKey, byteRange, response);
+      }
     } catch (BlobstoreFailureException e) {
-      System.out.println("Problems communicating with Blobstore: " + e);
-      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      AppLog.error("Problems communicating with Blobstore", e);
+      sendUncachedError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      return;
+    }
+  }
+
+  /**
+   * Sets the headers caching the blob or the variant for good. Returns true when If-None-Match
+   * names it and the 304 was sent instead of the body.
+   */
+  private static boolean setCacheHeaders(HttpServletRequest request, HttpServletResponse response,
+      String eTag) {
+    response.setHeader("ETag", eTag);
+    response.setHeader("Cache-Control", CACHE_CONTROL);
+    response.setHeader("Accept-Ranges", "bytes");
+    if (HttpServletUtils.matchesETag(request.getHeader("If-None-Match"), eTag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+    return false;
+  }
+
+  /** Sends an error the cache headers set for the blob don't apply to. */
+  private static void sendUncachedError(HttpServletResponse response, int status) throws IOException {
+    response.setHeader("Cache-Control", "no-store");
+    response.sendError(status);
+  }
+
+  /**
+   * Writes the bytes the Range header asks for, or all of them without a Range header or with one
+   * that can't be parsed. A range starting past the end is not satisfiable.
+   */
+  private static void writeRange(String rangeHeader, byte[] data, HttpServletResponse response)
+      throws IOException {
+    ByteRange byteRange = null;
+    if (rangeHeader != null) {
+      try {
+        byteRange = ByteRange.parse(rangeHeader);
+      } catch (RangeFormatException e) {
+        AppLog.info("Bad range header", e);
+      }
+    }
+    if (byteRange == null) {
+      response.setContentLength(data.length);
+      response.getOutputStream().write(data);
       return;
     }
+
+    long start, end;
+    if (byteRange.getStart() < 0) {
+      // Suffix range, the last bytes
+      start = Math.max(0, data.length + byteRange.getStart());
+      end = data.length - 1;
+    } else {
+      start = byteRange.getStart();
+      end = (byteRange.hasEnd()) ? Math.min(byteRange.getEnd(), data.length - 1) : data.length - 1;
+    }
+    if (start >= data.length || start > end) {
+      response.setHeader("Content-Range", "bytes */" + data.length);
+      sendUncachedError(response, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    }
+
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+    response.setContentLength((int) (end - start + 1));
+    response.getOutputStream().write(data, (int) start, (int) (end - start + 1));
   }
 }
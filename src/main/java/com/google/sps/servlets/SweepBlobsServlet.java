@@ -0,0 +1,94 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.COMMONS;
+import com.google.sps.data.HttpServletUtils;
+import com.google.sps.utility.AppLog;
+import com.google.sps.utility.BlobSweepReport;
+import com.google.sps.utility.OrphanBlobSweeper;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Deletes the blobs no picture references, one page per request.
+ * GET: Started by cron (see cron.xml), or by an admin with dryRun=true to only see the report
+ * POST: Next pages of a sweep, added to the task queue by the previous page
+ * A sweep that deletes keeps going from the task queue, a page every
+ * COMMONS.BLOB_SWEEP_PAGE_DELAY_SECONDS. A dry run answers one page, with the key to continue
+ * from in the "after" parameter.
+ */
+@WebServlet(SweepBlobsServlet.PATH)
+public class SweepBlobsServlet extends HttpServlet {
+  static final String PATH = "/tasks/sweep-blobs";
+  private static final String PARAM_AFTER = "after";
+  private static final String PARAM_DRY_RUN = "dryRun";
+  // Set by App Engine on cron and task requests only, they are removed from requests coming from outside
+  private static final String CRON_HEADER = "X-Appengine-Cron";
+  private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    boolean isAdmin = userService.isUserLoggedIn() && userService.isUserAdmin();
+    if (request.getHeader(CRON_HEADER) == null && !isAdmin) {
+      AppLog.info("Blobs can only be swept by cron or an admin.");
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    sweep(request, response);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (request.getHeader(QUEUE_NAME_HEADER) == null) {
+      AppLog.info("Sweep pages can only be continued from the task queue.");
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    sweep(request, response);
+  }
+
+  private void sweep(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String after = HttpServletUtils.getParameter(request, PARAM_AFTER, "");
+    boolean dryRun = Boolean.parseBoolean(HttpServletUtils.getParameter(request, PARAM_DRY_RUN, "false"));
+    Date uploadedBefore = new Date(
+        System.currentTimeMillis() - TimeUnit.HOURS.toMillis(COMMONS.BLOB_SWEEP_GRACE_HOURS));
+
+    BlobSweepReport report = new OrphanBlobSweeper()
+        .sweep(after.isEmpty() ? null : new BlobKey(after), uploadedBefore, dryRun);
+    AppLog.info("Blob sweep after '" + after + "': " + report.getScanned() + " scanned, "
+        + report.getOrphans().size() + ((dryRun) ? " orphans found" : " orphans deleted"));
+
+    if (!dryRun && report.getNextBlobKey() != null) {
+      QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(PATH)
+          .param(PARAM_AFTER, report.getNextBlobKey())
+          .countdownMillis(TimeUnit.SECONDS.toMillis(COMMONS.BLOB_SWEEP_PAGE_DELAY_SECONDS)));
+    }
+
+    response.setContentType("application/json;");
+    response.getWriter().println(HttpServletUtils.GSON.toJson(report));
+  }
+}
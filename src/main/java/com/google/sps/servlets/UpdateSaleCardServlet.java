@@ -18,9 +18,9 @@ import com.google.appengine.api.blobstore.BlobInfo;
 import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreFailureException;
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.appengine.api.datastore.EmbeddedEntity;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
@@ -31,11 +31,20 @@ import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.sps.COMMONS;
 import com.google.sps.data.HttpServletUtils;
+import com.google.sps.data.InputValidator;
+import com.google.sps.data.OpeningHours;
 import com.google.sps.data.Vendor;
+import com.google.sps.data.VendorCache;
+import com.google.sps.data.VendorVersion;
+import com.google.sps.utility.AppLog;
 import com.google.sps.utility.GeoHash;
+import com.google.sps.utility.RangeResultCache;
+import com.google.sps.utility.VendorIndex;
 import java.io.IOException;
 import java.time.LocalTime;
 import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Map;
 import javax.servlet.annotation.WebServlet;
@@ -49,26 +58,26 @@ import javax.servlet.http.HttpServletResponse;
  */
 @WebServlet("/update-salecard")
 public class UpdateSaleCardServlet extends HttpServlet {
+  private static final long NEW_CHILD_ID = 1;
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     UserService userService = UserServiceFactory.getUserService();
     
     if (!userService.isUserLoggedIn()) {
-      System.out.println("User is not logged in.");
+      AppLog.info("User is not logged in.");
       response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "User is not logged in.");
       return;
     }
 
     String vendorId = userService.getCurrentUser().getUserId();
     Key vendorKey = KeyFactory.createKey("Vendor", vendorId);
-    Entity vendorEntity = HttpServletUtils.getVendorEntity(vendorId);
-    if (vendorEntity == null) {
-      System.out.println("User is not registered.");
+    // Only checks the vendor exists, the vendor written is read again in the transaction
+    if (HttpServletUtils.getVendorEntity(vendorId) == null) {
+      AppLog.info("User is not registered.");
       response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "User is not registered.");
       return;
     }
-    Vendor vendorObject = new Vendor(vendorEntity);
 
     String businessName = HttpServletUtils.getParameter(request, "businessName", "");
     boolean hasDelivery = Boolean.parseBoolean(HttpServletUtils.getParameter(request, "hasDelivery", "false"));
@@ -82,24 +91,28 @@ public class UpdateSaleCardServlet extends HttpServlet {
     LocalTime start, end;
     // Check values are valid format
     try {
-      start = LocalTime.parse(startTime);
-      end = LocalTime.parse(endTime);
+      start = InputValidator.parseTime(startTime);
+      end = InputValidator.parseTime(endTime);
       radius = Float.parseFloat(HttpServletUtils.getParameter(request, "radius", "1000"));
       // If not provided, we set them to 360 to throw an error when trying to use them to create a GeoPt
       latitude = Float.parseFloat(HttpServletUtils.getParameter(request, "lat", "360"));
       longitude = Float.parseFloat(HttpServletUtils.getParameter(request, "lng", "360"));
+      // GeoPt lets NaN through
+      if (!InputValidator.isLatitude(latitude) || !InputValidator.isLongitude(longitude)) {
+        throw new IllegalArgumentException("Latitude and/or longitude outside legal range");
+      }
       vendorLocation = new GeoPt(latitude, longitude);
       geoHash = GeoHash.encodeVendor(latitude, longitude);
     } catch (DateTimeParseException e) {
-      System.out.println("Bad format to parse: " + e);
+      AppLog.info("Bad format to parse", e);
       response.sendError(HttpServletResponse.SC_BAD_REQUEST);
       return;
     } catch (NumberFormatException e) {
-      System.out.println("The string is not a parsable float: " + e);
+      AppLog.info("The string is not a parsable float", e);
       response.sendError(HttpServletResponse.SC_BAD_REQUEST);
       return;
     } catch (IllegalArgumentException e) {
-      System.out.println("Latitude and/or longitude outside legal range: " + e);
+      AppLog.info("Latitude and/or longitude outside legal range", e);
       response.sendError(HttpServletResponse.SC_BAD_REQUEST);
       return;
     }
@@ -114,71 +127,133 @@ public class UpdateSaleCardServlet extends HttpServlet {
     }
 
     // Check values are not empty or outside range
-    if (businessName.isEmpty() || description.isEmpty() || geoHash.isEmpty() || altText.isEmpty() ||
-        imageBlobKey == null || radius < COMMONS.MIN_DISTANCE || radius > COMMONS.MAX_DISTANCE_VENDOR) {
+    if (!InputValidator.hasText(businessName) || !InputValidator.hasText(description) ||
+        !InputValidator.hasText(altText) || geoHash.isEmpty() || imageBlobKey == null ||
+        !InputValidator.isDistance(radius, COMMONS.MIN_DISTANCE, COMMONS.MAX_DISTANCE_VENDOR)) {
       // Delete from blobstore if the uploaded file was a new one
       if (imageBlobKey != null && !currentBlobKey.equals(imageBlobKey.toString())) {
-        BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+        BlobstoreService blobstoreService = HttpServletUtils.BLOBSTORE;
         blobstoreService.delete(imageBlobKey);
       }
-      System.out.println("The values do not exist and/or are outside the range.");
+      AppLog.info("The values do not exist and/or are outside the range.");
       response.sendError(HttpServletResponse.SC_BAD_REQUEST);
       return;
     }
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-
-    Entity saleCard, picture, locationData;
-    // If the vendor doesn't have a saleCard, create completely new Entities (datastore.put(...) to generate Key)
-    // Else, use the already existing Entities
-    if (vendorObject.getSaleCard() == null) {
-      saleCard = new Entity("SaleCard", vendorKey);
-      datastore.put(saleCard);
-
-      picture = new Entity("Picture", saleCard.getKey());
-      locationData = new Entity("LocationData", saleCard.getKey());
-    } else {
-      saleCard = new Entity("SaleCard",
-          vendorObject.getSaleCard().getId(), vendorKey);
-      picture = new Entity("Picture",
-          vendorObject.getSaleCard().getPicture().getId(), saleCard.getKey());
-      locationData = new Entity("LocationData",
-          vendorObject.getSaleCard().getLocation().getId(), saleCard.getKey());
-    }
+    DatastoreService datastore = HttpServletUtils.DATASTORE;
+    BlobKey newBlobKey = imageBlobKey;
+    GeoPt salePoint = vendorLocation;
+    boolean isUploaded = !currentBlobKey.equals(imageBlobKey.toString());
 
-    // If not the same, delete previous blob from blobstore
-    if (vendorObject.getSaleCard() != null &&
-        imageBlobKey.compareTo(vendorObject.getSaleCard().getPicture().getBlobKey()) != 0) {
-      BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-      blobstoreService.delete(vendorObject.getSaleCard().getPicture().getBlobKey());
-    }
-    picture.setProperty("blobKey", imageBlobKey);
-    picture.setProperty("altText", altText);
-    datastore.put(picture);
+    // All or nothing, a request dying here leaves the previous salecard as it was. The vendor is
+    // read in the transaction, a write made since then makes the commit fail and the salecard is
+    // set again on the new vendor. If the picture changed, the previous blob is deleted by a task
+    // added only if the salecard commits.
+    SaleCardWrite saleCardWrite;
+    try {
+      saleCardWrite = HttpServletUtils.runInTransaction(datastore, transaction -> {
+        Entity vendorEntity = HttpServletUtils.getVendorEntity(datastore, transaction, vendorId);
+        if (vendorEntity == null) return null;
+        Vendor vendorObject = new Vendor(vendorEntity);
+
+        Entity saleCard, picture, locationData;
+        // If the vendor doesn't have a saleCard, allocate the Key of a new one. Its picture and location
+        // are the only children of a new Key, so they take a fixed id instead of allocating one each.
+        // Else, use the already existing Entities
+        if (vendorObject.getSaleCard() == null) {
+          Key saleCardKey = datastore.allocateIds(vendorKey, "SaleCard", 1).getStart();
+          saleCard = new Entity(saleCardKey);
+          picture = new Entity("Picture", NEW_CHILD_ID, saleCardKey);
+          locationData = new Entity("LocationData", NEW_CHILD_ID, saleCardKey);
+        } else {
+          saleCard = new Entity("SaleCard",
+              vendorObject.getSaleCard().getId(), vendorKey);
+          picture = new Entity("Picture",
+              vendorObject.getSaleCard().getPicture().getId(), saleCard.getKey());
+          locationData = new Entity("LocationData",
+              vendorObject.getSaleCard().getLocation().getId(), saleCard.getKey());
+        }
+
+        picture.setProperty("blobKey", newBlobKey);
+        picture.setProperty("altText", altText);
 
-    locationData.setProperty("salePoint", vendorLocation);
-    locationData.setProperty("geoHash", geoHash);
-    locationData.setProperty("radius", radius);
-    datastore.put(locationData);
+        locationData.setProperty("salePoint", salePoint);
+        locationData.setProperty("geoHash", geoHash);
+        locationData.setProperty("radius", radius);
 
-    EmbeddedEntity picInfo = HttpServletUtils.createEmbeddedEntity(picture);
-    EmbeddedEntity locInfo = HttpServletUtils.createEmbeddedEntity(locationData);
+        EmbeddedEntity picInfo = HttpServletUtils.createEmbeddedEntity(picture);
+        EmbeddedEntity locInfo = HttpServletUtils.createEmbeddedEntity(locationData);
 
-    saleCard.setProperty("businessName", businessName);
-    saleCard.setProperty("description", description);
-    saleCard.setProperty("hasDelivery", hasDelivery);
-    saleCard.setProperty("isTemporarilyClosed", isTemporarilyClosed);
-    saleCard.setProperty("startTime", startTime);
-    saleCard.setProperty("endTime", endTime);
-    saleCard.setProperty("picture", picInfo);
-    saleCard.setIndexedProperty("location", locInfo);
-    datastore.put(saleCard);
+        saleCard.setProperty("businessName", businessName);
+        saleCard.setProperty("description", description);
+        saleCard.setProperty("hasDelivery", hasDelivery);
+        saleCard.setProperty("isTemporarilyClosed", isTemporarilyClosed);
+        OpeningHours.setOpeningHours(saleCard, start, end);
+        saleCard.setProperty("picture", picInfo);
+        saleCard.setIndexedProperty("location", locInfo);
+
+        EmbeddedEntity saleInfo = HttpServletUtils.createEmbeddedEntity(saleCard);
+
+        vendorEntity.setIndexedProperty("saleCard", saleInfo);
+        VendorVersion.bump(vendorEntity);
+
+        datastore.put(transaction, Arrays.asList(picture, locationData, saleCard, vendorEntity));
+        BlobKey previousBlobKey = (vendorObject.getSaleCard() == null) ? null
+            : vendorObject.getSaleCard().getPicture().getBlobKey();
+        if (previousBlobKey != null && newBlobKey.compareTo(previousBlobKey) != 0) {
+          DeleteBlobServlet.enqueue(transaction, previousBlobKey);
+        }
+        return new SaleCardWrite(vendorObject, vendorEntity);
+      });
+    } catch (ConcurrentModificationException e) {
+      AppLog.warning("The salecard could not be saved", e);
+      // Every attempt collided and was rolled back. Delete from blobstore if the uploaded file was
+      // a new one, nothing references it
+      if (isUploaded) {
+        HttpServletUtils.BLOBSTORE.delete(newBlobKey);
+      }
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    } catch (DatastoreFailureException | DatastoreTimeoutException e) {
+      // The commit may have been applied, the new blob is kept. If it was not, nothing references
+      // it and OrphanBlobSweeper deletes it.
+      AppLog.warning("The salecard may not have been saved", e);
+      VendorCache.getInstance().invalidate(vendorId);
+      RangeResultCache.getInstance().invalidate(geoHash);
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    }
 
-    EmbeddedEntity saleInfo = HttpServletUtils.createEmbeddedEntity(saleCard);
+    if (saleCardWrite == null) {
+      // Deleted since the check above
+      if (isUploaded) {
+        HttpServletUtils.BLOBSTORE.delete(newBlobKey);
+      }
+      AppLog.info("User is not registered.");
+      response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "User is not registered.");
+      return;
+    }
 
-    vendorEntity.setIndexedProperty("saleCard", saleInfo);
-    datastore.put(vendorEntity);
+    Vendor vendorObject = saleCardWrite.previousVendor;
+    VendorCache.getInstance().invalidate(vendorId);
+    VendorIndex.getInstance().update(saleCardWrite.vendorEntity);
+    // Searches where the salecard was and where it is now
+    if (vendorObject.getSaleCard() != null) {
+      RangeResultCache.getInstance().invalidate(vendorObject.getSaleCard().getLocation().getGeoHash());
+    }
+    RangeResultCache.getInstance().invalidate(geoHash);
 
     response.sendRedirect("/views/editCard.html");
   }
+
+  /** The vendor as the transaction read it, and as it wrote it. */
+  private static final class SaleCardWrite {
+    private final Vendor previousVendor;
+    private final Entity vendorEntity;
+
+    SaleCardWrite(Vendor previousVendor, Entity vendorEntity) {
+      this.previousVendor = previousVendor;
+      this.vendorEntity = vendorEntity;
+    }
+  }
 }
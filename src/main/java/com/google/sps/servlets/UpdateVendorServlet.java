@@ -16,9 +16,9 @@ package com.google.sps.servlets;
 
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreFailureException;
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.appengine.api.datastore.EmbeddedEntity;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
@@ -26,8 +26,15 @@ import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.sps.data.HttpServletUtils;
+import com.google.sps.data.InputValidator;
 import com.google.sps.data.Vendor;
+import com.google.sps.data.VendorCache;
+import com.google.sps.data.VendorVersion;
+import com.google.sps.utility.AppLog;
+import com.google.sps.utility.ImageVariantCache;
+import com.google.sps.utility.RangeResultCache;
 import java.io.IOException;
+import java.util.ConcurrentModificationException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -43,10 +50,10 @@ public class UpdateVendorServlet extends HttpServlet {
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     UserService userService = UserServiceFactory.getUserService();
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    DatastoreService datastore = HttpServletUtils.DATASTORE;
     
     if (!userService.isUserLoggedIn()) {
-      System.out.println("User is not logged in.");
+      AppLog.info("User is not logged in.");
       response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "User is not logged in.");
       return;
     }
@@ -66,70 +73,106 @@ public class UpdateVendorServlet extends HttpServlet {
 
     // Check values are not empty and valid
     if (invalidInputs(firstName, lastName, phoneNumber)) {
-      System.out.println("bad Inputs");
       // Delete from blobstore if the uploaded file was a new one
       if (imageBlobKey != null && !currentBlobKey.equals(imageBlobKey.toString())) {
-        BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+        BlobstoreService blobstoreService = HttpServletUtils.BLOBSTORE;
         blobstoreService.delete(imageBlobKey);
       }
-      System.out.println("The values do not exist and/or the format is incorrect.");
+      AppLog.info("The values do not exist and/or the format is incorrect.");
       response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Inputs do not exist and/or the format is incorrect.");
       return;
     }
 
     String vendorId = userService.getCurrentUser().getUserId();
     Key vendorKey = KeyFactory.createKey("Vendor", vendorId);
-    Entity vendorEntity = HttpServletUtils.getVendorEntity(vendorId);
-    if (vendorEntity == null) {
-      vendorEntity = new Entity(vendorKey);
-      datastore.put(vendorEntity);      
-    }
-    Vendor vendorObject = new Vendor(vendorEntity);
+    String email = userService.getCurrentUser().getEmail();
+    BlobKey newBlobKey = imageBlobKey;
+
+    // The vendor is read in the transaction, a write made since then makes the commit fail and
+    // the work runs again on the new vendor. The work returns the vendor as it was. If the picture
+    // changed, the previous blob and its image variants are deleted by a task added only if the
+    // vendor commits.
+    Vendor vendorObject;
+    try {
+      vendorObject = HttpServletUtils.runInTransaction(datastore, transaction -> {
+        Entity vendorEntity = HttpServletUtils.getVendorEntity(datastore, transaction, vendorId);
+        if (vendorEntity == null) {
+          vendorEntity = new Entity(vendorKey);
+        }
+        Vendor previousVendor = new Vendor(vendorEntity);
+
+        // If there is a picture with alt text, set properties
+        if (newBlobKey != null && !altText.isEmpty()) {
+          // If the vendor doesn't have a picture, create completely new entity
+          // Else, use the already existing entity
+          Entity picture = (previousVendor.getProfilePic() == null)
+              ? new Entity("Picture", vendorKey)
+              : new Entity("Picture", previousVendor.getProfilePic().getId(), vendorKey);
+          picture.setProperty("blobKey", newBlobKey);
+          picture.setProperty("altText", altText);
+          datastore.put(transaction, picture);
+
+          EmbeddedEntity picInfo = new EmbeddedEntity();
+          picInfo.setKey(picture.getKey());
+          picInfo.setPropertiesFrom(picture);
 
-    // If the vendor doesn't have a picture, create completely new entity
-    // Else, use the already existing entity
-    Entity picture = (vendorObject.getProfilePic() == null)
-        ? new Entity("Picture", vendorKey)
-        : new Entity("Picture", vendorObject.getProfilePic().getId(), vendorKey);
+          vendorEntity.setProperty("profilePic", picInfo);
 
-    // If not the same, delete previous blob from blobstore
-    if (vendorObject.getProfilePic() != null && imageBlobKey != null &&
+          if (previousVendor.getProfilePic() != null &&
+              newBlobKey.compareTo(previousVendor.getProfilePic().getBlobKey()) != 0) {
+            DeleteBlobServlet.enqueue(transaction, previousVendor.getProfilePic().getBlobKey());
+          }
+        }
+
+        vendorEntity.setProperty("firstName", firstName);
+        vendorEntity.setProperty("lastName", lastName);
+        vendorEntity.setProperty("phoneNumber", phoneNumber);
+        vendorEntity.setProperty("email", email);
+        VendorVersion.bump(vendorEntity);
+        datastore.put(transaction, vendorEntity);
+        return previousVendor;
+      });
+    } catch (ConcurrentModificationException e) {
+      AppLog.warning("The vendor could not be saved", e);
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    } catch (DatastoreFailureException | DatastoreTimeoutException e) {
+      // The commit may have been applied, the location of the salecard is not changed here
+      AppLog.warning("The vendor may not have been saved", e);
+      Entity cachedVendorEntity = HttpServletUtils.getVendorEntity(vendorId);
+      VendorCache.getInstance().invalidate(vendorId);
+      Vendor cachedVendor = (cachedVendorEntity == null) ? null : new Vendor(cachedVendorEntity);
+      if (cachedVendor != null && cachedVendor.getSaleCard() != null) {
+        RangeResultCache.getInstance().invalidate(cachedVendor.getSaleCard().getLocation().getGeoHash());
+      }
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    }
+    VendorCache.getInstance().invalidate(vendorId);
+    // The task deletes them too, this stops them being served until it runs
+    if (vendorObject.getProfilePic() != null && imageBlobKey != null && !altText.isEmpty() &&
         imageBlobKey.compareTo(vendorObject.getProfilePic().getBlobKey()) != 0) {
-      BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-      blobstoreService.delete(vendorObject.getProfilePic().getBlobKey());
+      ImageVariantCache.getInstance().invalidate(vendorObject.getProfilePic().getBlobKey());
     }
-    
-    // If there is a picture with alt text, set properties; 
-    if (imageBlobKey != null && !altText.isEmpty()) {
-      picture.setProperty("blobKey", imageBlobKey);
-      picture.setProperty("altText", altText);
-      datastore.put(picture);
 
-      EmbeddedEntity picInfo = new EmbeddedEntity();
-      picInfo.setKey(picture.getKey());
-      picInfo.setPropertiesFrom(picture);
-
-      vendorEntity.setProperty("profilePic", picInfo);
-    } else if (imageBlobKey != null) {
-      // If only picture, delete from blobstore 
-      BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+    if (imageBlobKey != null && altText.isEmpty()) {
+      // If only picture, delete from blobstore
+      BlobstoreService blobstoreService = HttpServletUtils.BLOBSTORE;
       blobstoreService.delete(imageBlobKey);
     }
-
-    vendorEntity.setProperty("firstName", firstName);
-    vendorEntity.setProperty("lastName", lastName);
-    vendorEntity.setProperty("phoneNumber", phoneNumber);
-    vendorEntity.setProperty("email", userService.getCurrentUser().getEmail());
-    datastore.put(vendorEntity);
+    // Searches return the names of the vendor with its salecard
+    if (vendorObject.getSaleCard() != null) {
+      RangeResultCache.getInstance().invalidate(vendorObject.getSaleCard().getLocation().getGeoHash());
+    }
       
     response.sendRedirect("/");
   }
 
   public boolean invalidInputs(String firstName, String lastName, String phoneNumber) {
     return (
-      !HttpServletUtils.hasOnlyLetters(firstName) || 
-      !HttpServletUtils.hasOnlyLetters(lastName) || 
-      !HttpServletUtils.hasOnlyNumbers(phoneNumber)
+      !InputValidator.hasOnlyLetters(firstName) || 
+      !InputValidator.hasOnlyLetters(lastName) || 
+      !InputValidator.hasOnlyNumbers(phoneNumber)
     );
   }
 }
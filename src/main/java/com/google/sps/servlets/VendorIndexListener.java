@@ -0,0 +1,72 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.COMMONS;
+import com.google.sps.utility.AppLog;
+import com.google.sps.utility.VendorIndex;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Loads the in-memory vendor index when the instance starts, if it is enabled, and reloads it
+ * every COMMONS.VENDOR_INDEX_MAX_AGE_MILLIS. The loads run on a daemon thread of their own, so
+ * no request waits for the scan of the Vendor kind; searches go to datastore until the first
+ * load is done.
+ */
+@WebListener
+public class VendorIndexListener implements ServletContextListener {
+  private ScheduledExecutorService refresher;
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    if (!VendorIndex.isEnabled()) return;
+
+    refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "sps-vendor-index");
+      thread.setDaemon(true);
+      return thread;
+    });
+    refresher.scheduleWithFixedDelay(VendorIndexListener::refresh,
+        0, COMMONS.VENDOR_INDEX_MAX_AGE_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /** Reloads the index if it is stale. Never throws, that would cancel the next reloads. */
+  private static void refresh() {
+    try {
+      boolean wasLoaded = VendorIndex.getInstance().isLoaded();
+      VendorIndex.getInstance().refreshIfStale();
+      if (!wasLoaded) {
+        AppLog.info("Vendor index loaded with " + VendorIndex.getInstance().size() + " vendors.");
+      }
+    } catch (RuntimeException e) {
+      // The next run will try again
+      AppLog.warning("Vendor index could not be loaded", e);
+    }
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    if (refresher != null) {
+      refresher.shutdownNow();
+      refresher = null;
+    }
+    VendorIndex.getInstance().clear();
+  }
+}
@@ -0,0 +1,142 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.sps.COMMONS;
+
+/**
+ * Logging of the servlets. Events below the level set by COMMONS.LOG_LEVEL_PROPERTY are dropped
+ * right away, the others carry the id and endpoint of the request logging them and are written
+ * by AsyncLogAppender, away from the request thread.
+ */
+public final class AppLog {
+  /** Severity of an event, from the most verbose. */
+  public enum Level {
+    DEBUG,   // Details only needed while looking into a problem
+    INFO,    // Requests turned down for their inputs or their user
+    WARNING, // Failures the request recovered from or reported to the client
+    ERROR    // Failures of the server
+  }
+
+  private static final Level THRESHOLD = threshold();
+
+  private AppLog() {
+    throw new java.lang.UnsupportedOperationException("Utility class cannot be instantiated");
+  }
+
+  /** Returns true if events of the level are written, to skip building costly messages. */
+  public static boolean isLoggable(Level level) {
+    return level.compareTo(THRESHOLD) >= 0;
+  }
+
+  public static void debug(String message) {
+    log(Level.DEBUG, message, null);
+  }
+
+  public static void info(String message) {
+    log(Level.INFO, message, null);
+  }
+
+  public static void info(String message, Throwable thrown) {
+    log(Level.INFO, message, thrown);
+  }
+
+  public static void warning(String message) {
+    log(Level.WARNING, message, null);
+  }
+
+  public static void warning(String message, Throwable thrown) {
+    log(Level.WARNING, message, thrown);
+  }
+
+  public static void error(String message, Throwable thrown) {
+    log(Level.ERROR, message, thrown);
+  }
+
+  /**
+   * Logs an event of a request with extra fields, also once the trace of the request has ended.
+   * @param fields JSON members added to the line as they are, e.g. "\"status\":200"
+   */
+  public static void log(Level level, RequestTrace trace, String message, String fields) {
+    if (!isLoggable(level)) return;
+    AsyncLogAppender.getInstance().append(new Event(level, message, null, fields, trace));
+  }
+
+  private static void log(Level level, String message, Throwable thrown) {
+    if (!isLoggable(level)) return;
+    AsyncLogAppender.getInstance().append(
+        new Event(level, message, thrown, null, RequestTrace.current()));
+  }
+
+  private static Level threshold() {
+    String level = System.getProperty(COMMONS.LOG_LEVEL_PROPERTY);
+    if (level == null) return Level.INFO;
+    try {
+      return Level.valueOf(level.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      return Level.INFO;
+    }
+  }
+
+  /** A log event, formatted on the writer thread. */
+  public static final class Event {
+    private final Level level;
+    private final long timeMillis;
+    private final String requestId;
+    private final String endpoint;
+    private final String message;
+    private final Throwable thrown;
+    private final String fields;
+
+    Event(Level level, String message, Throwable thrown, String fields, RequestTrace trace) {
+      this.level = level;
+      this.timeMillis = System.currentTimeMillis();
+      this.requestId = (trace == null) ? null : trace.getRequestId();
+      this.endpoint = (trace == null) ? null : trace.getEndpoint();
+      this.message = message;
+      this.thrown = thrown;
+      this.fields = fields;
+    }
+
+    public Level getLevel() {
+      return level;
+    }
+
+    public long getTimeMillis() {
+      return timeMillis;
+    }
+
+    /** Returns the id of the request logging the event, or null if logged outside a request. */
+    public String getRequestId() {
+      return requestId;
+    }
+
+    public String getEndpoint() {
+      return endpoint;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    public Throwable getThrown() {
+      return thrown;
+    }
+
+    public String getFields() {
+      return fields;
+    }
+  }
+}
@@ -0,0 +1,240 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.sps.COMMONS;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes log events one JSON line each, on a background thread. Request threads only offer the
+ * event to a bounded queue: when the writer falls behind and the queue is full the event is
+ * dropped and counted, so logging never blocks a request. The writer reports the drops in a line
+ * of their own once it catches up.
+ *
+ * <p>The writer is a plain daemon thread started by LogWriterListener, instances with automatic
+ * scaling allow them. Until it is started, or if it can't be, each appending thread writes the
+ * queued events itself, without a lock of its own. A line written by the background thread is
+ * not attached to the request in the platform's request log, the requestId field is what ties
+ * them. Events still queued when the instance is stopped without the listener being told are
+ * lost, at most the capacity.
+ */
+public final class AsyncLogAppender {
+  private static final AsyncLogAppender INSTANCE =
+      new AsyncLogAppender(COMMONS.LOG_QUEUE_CAPACITY, System.out, System.err, Thread::new);
+  private static final int WRITE_BATCH = 64;
+  private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+  private final BlockingQueue<AppLog.Event> queue;
+  private final PrintStream out;
+  private final PrintStream err;
+  private final ThreadFactory threadFactory;
+  private final AtomicInteger unwritten = new AtomicInteger();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong droppedReported = new AtomicLong();
+  private volatile Thread writer;
+
+  AsyncLogAppender(int capacity, PrintStream out, PrintStream err, ThreadFactory threadFactory) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.out = out;
+    this.err = err;
+    this.threadFactory = threadFactory;
+  }
+
+  public static AsyncLogAppender getInstance() {
+    return INSTANCE;
+  }
+
+  /** Starts the writer thread, the events are written on the appending threads if it can't be. */
+  public synchronized void start() {
+    if (writer != null) return;
+    Thread thread;
+    try {
+      thread = threadFactory.newThread(this::writeForever);
+    } catch (RuntimeException | LinkageError e) {
+      thread = null;
+    }
+    if (thread == null) {
+      AppLog.warning("No log writer thread, events are written on the request threads");
+      return;
+    }
+    thread.setName("sps-log-writer");
+    thread.setDaemon(true);
+    writer = thread;
+    thread.start();
+  }
+
+  /**
+   * Stops the writer thread and writes the events it left on the calling thread, e.g. at shutdown.
+   * The events appended after are written on the appending threads.
+   */
+  public synchronized void stop() {
+    Thread thread = writer;
+    writer = null;
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        // Once it is done the events left are written in order
+        thread.join(STOP_TIMEOUT_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    drain();
+  }
+
+  /** Queues the event, or drops it if the queue is full. Never blocks. */
+  public void append(AppLog.Event event) {
+    unwritten.incrementAndGet();
+    if (!queue.offer(event)) {
+      unwritten.decrementAndGet();
+      dropped.incrementAndGet();
+      return;
+    }
+    Thread thread = writer;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    } else {
+      drain();
+    }
+  }
+
+  /** Returns the events dropped so far because the queue was full. */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /** Returns the events queued and not written yet. */
+  public int getPendingCount() {
+    return unwritten.get();
+  }
+
+  private void writeForever() {
+    Thread thread = Thread.currentThread();
+    while (!thread.isInterrupted()) {
+      // An unpark after the check makes park return at once, so no event waits for the next one
+      if (queue.isEmpty()) {
+        LockSupport.park(this);
+      }
+      drain();
+    }
+  }
+
+  /**
+   * Takes the queued events and writes them. The writer thread is the only one draining while it
+   * runs, so the events are written in the order they were queued.
+   */
+  private void drain() {
+    List<AppLog.Event> batch = new ArrayList<>(WRITE_BATCH);
+    while (queue.drainTo(batch, WRITE_BATCH) > 0) {
+      write(batch);
+      batch.clear();
+    }
+  }
+
+  private void write(List<AppLog.Event> batch) {
+    for (AppLog.Event event : batch) {
+      PrintStream stream = (event.getLevel().compareTo(AppLog.Level.WARNING) >= 0) ? err : out;
+      stream.println(format(event));
+    }
+    unwritten.addAndGet(-batch.size());
+    long droppedNow = dropped.get();
+    long reported = droppedReported.get();
+    if (droppedNow > reported && droppedReported.compareAndSet(reported, droppedNow)) {
+      err.println("{\"severity\":\"WARNING\",\"time\":\"" + Instant.now()
+          + "\",\"message\":\"" + (droppedNow - reported)
+          + " log events dropped, the log queue was full\"}");
+    }
+    out.flush();
+    err.flush();
+  }
+
+  /** Returns the event as one line of JSON. */
+  static String format(AppLog.Event event) {
+    StringBuilder line = new StringBuilder(128)
+        .append("{\"severity\":\"").append(event.getLevel())
+        .append("\",\"time\":\"").append(Instant.ofEpochMilli(event.getTimeMillis())).append('"');
+    if (event.getRequestId() != null) {
+      line.append(",\"requestId\":");
+      appendString(line, event.getRequestId());
+      line.append(",\"endpoint\":");
+      appendString(line, event.getEndpoint());
+    }
+    line.append(",\"message\":");
+    appendString(line, event.getMessage());
+    Throwable thrown = event.getThrown();
+    if (thrown != null) {
+      line.append(",\"exception\":");
+      if (event.getLevel() == AppLog.Level.ERROR) {
+        // Failures of the server get their whole stack, the rest only what went wrong
+        StringWriter stackTrace = new StringWriter();
+        thrown.printStackTrace(new PrintWriter(stackTrace));
+        appendString(line, stackTrace.toString());
+      } else {
+        appendString(line, thrown.toString());
+      }
+    }
+    if (event.getFields() != null) {
+      line.append(',').append(event.getFields());
+    }
+    return line.append('}').toString();
+  }
+
+  /** Appends the text as a JSON string. */
+  static void appendString(StringBuilder line, String text) {
+    if (text == null) {
+      line.append("null");
+      return;
+    }
+    line.append('"');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '"':
+          line.append("\\\"");
+          break;
+        case '\\':
+          line.append("\\\\");
+          break;
+        case '\n':
+          line.append("\\n");
+          break;
+        case '\r':
+          line.append("\\r");
+          break;
+        case '\t':
+          line.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            line.append(String.format("\\u%04x", (int) c));
+          } else {
+            line.append(c);
+          }
+      }
+    }
+    line.append('"');
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import java.util.List;
+
+/** What a page of the orphan blob sweep found, and where the next page starts. */
+public final class BlobSweepReport {
+  private final boolean dryRun;
+  private final int scanned;
+  private final int referenced;
+  private final int tooRecent;
+  private final List<String> orphans;
+  private final String nextBlobKey;
+
+  public BlobSweepReport(boolean dryRun, int scanned, int referenced, int tooRecent,
+      List<String> orphans, String nextBlobKey) {
+    this.dryRun = dryRun;
+    this.scanned = scanned;
+    this.referenced = referenced;
+    this.tooRecent = tooRecent;
+    this.orphans = orphans;
+    this.nextBlobKey = nextBlobKey;
+  }
+
+  /** Returns true if the orphans were only reported, not deleted. */
+  public boolean isDryRun() {
+    return dryRun;
+  }
+
+  /** Returns the blobs read in this page. */
+  public int getScanned() {
+    return scanned;
+  }
+
+  /** Returns the blobs a picture still references. */
+  public int getReferenced() {
+    return referenced;
+  }
+
+  /** Returns the blobs left alone because they were uploaded within the grace period. */
+  public int getTooRecent() {
+    return tooRecent;
+  }
+
+  /** Returns the keys of the blobs no picture references, deleted unless this is a dry run. */
+  public List<String> getOrphans() {
+    return orphans;
+  }
+
+  /** Returns the key of the last blob read if there are more to read, or null if this is the last page. */
+  public String getNextBlobKey() {
+    return nextBlobKey;
+  }
+}
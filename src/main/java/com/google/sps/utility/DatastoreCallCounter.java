@@ -0,0 +1,172 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.apphosting.api.ApiProxy;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Delegate of the App Engine API calls that counts the datastore calls of the traced request
+ * making them, with their bytes and the time the request waited on them, and passes every
+ * call on unchanged. The time of an async call only counts while the request blocks on it.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public final class DatastoreCallCounter implements ApiProxy.Delegate<ApiProxy.Environment> {
+  private static final String DATASTORE_PACKAGE = "datastore_v3";
+
+  private final ApiProxy.Delegate delegate;
+
+  private DatastoreCallCounter(ApiProxy.Delegate delegate) {
+    this.delegate = delegate;
+  }
+
+  /** Puts the counter in front of the current delegate, once. */
+  public static synchronized void install() {
+    ApiProxy.Delegate current = ApiProxy.getDelegate();
+    if (current != null && !(current instanceof DatastoreCallCounter)) {
+      ApiProxy.setDelegate(new DatastoreCallCounter(current));
+    }
+  }
+
+  /** Puts back the delegate the counter was installed in front of. */
+  public static synchronized void uninstall() {
+    ApiProxy.Delegate current = ApiProxy.getDelegate();
+    if (current instanceof DatastoreCallCounter) {
+      ApiProxy.setDelegate(((DatastoreCallCounter) current).delegate);
+    }
+  }
+
+  @Override
+  public byte[] makeSyncCall(ApiProxy.Environment environment, String packageName, String methodName,
+      byte[] request) {
+    RequestTrace trace = traceOf(packageName);
+    if (trace == null) {
+      return delegate.makeSyncCall(environment, packageName, methodName, request);
+    }
+    long startNanos = System.nanoTime();
+    byte[] response = delegate.makeSyncCall(environment, packageName, methodName, request);
+    trace.recordDatastoreCall(bytesWritten(methodName, request), bytesRead(methodName, response),
+        System.nanoTime() - startNanos);
+    return response;
+  }
+
+  @Override
+  public Future<byte[]> makeAsyncCall(ApiProxy.Environment environment, String packageName,
+      String methodName, byte[] request, ApiProxy.ApiConfig apiConfig) {
+    Future<byte[]> response =
+        delegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+    RequestTrace trace = traceOf(packageName);
+    if (trace == null) {
+      return response;
+    }
+    return new CountedFuture(response, trace, methodName, bytesWritten(methodName, request));
+  }
+
+  @Override
+  public void log(ApiProxy.Environment environment, ApiProxy.LogRecord record) {
+    delegate.log(environment, record);
+  }
+
+  @Override
+  public void flushLogs(ApiProxy.Environment environment) {
+    delegate.flushLogs(environment);
+  }
+
+  @Override
+  public List<Thread> getRequestThreads(ApiProxy.Environment environment) {
+    return delegate.getRequestThreads(environment);
+  }
+
+  /** Returns the trace to count a call in, null if it is not a datastore call of a traced request. */
+  private static RequestTrace traceOf(String packageName) {
+    return DATASTORE_PACKAGE.equals(packageName) ? RequestTrace.current() : null;
+  }
+
+  /** Returns the bytes of the entities a call writes, the size of a Put. */
+  private static long bytesWritten(String methodName, byte[] request) {
+    return ("Put".equals(methodName) && request != null) ? request.length : 0;
+  }
+
+  /** Returns the bytes of the entities a call reads, the size of the results of a Get or a query. */
+  private static long bytesRead(String methodName, byte[] response) {
+    if (response == null) return 0;
+    switch (methodName) {
+      case "Get":
+      case "RunQuery":
+      case "Next":
+        return response.length;
+      default:
+        return 0;
+    }
+  }
+
+  /** Counts the call the first time its response is taken, with the time spent blocked on it. */
+  private static final class CountedFuture implements Future<byte[]> {
+    private final Future<byte[]> response;
+    private final RequestTrace trace;
+    private final String methodName;
+    private final long bytesWritten;
+    private boolean counted;
+
+    CountedFuture(Future<byte[]> response, RequestTrace trace, String methodName, long bytesWritten) {
+      this.response = response;
+      this.trace = trace;
+      this.methodName = methodName;
+      this.bytesWritten = bytesWritten;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return response.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return response.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return response.isDone();
+    }
+
+    @Override
+    public byte[] get() throws InterruptedException, ExecutionException {
+      long startNanos = System.nanoTime();
+      byte[] result = response.get();
+      count(result, System.nanoTime() - startNanos);
+      return result;
+    }
+
+    @Override
+    public byte[] get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      long startNanos = System.nanoTime();
+      byte[] result = response.get(timeout, unit);
+      count(result, System.nanoTime() - startNanos);
+      return result;
+    }
+
+    private synchronized void count(byte[] result, long waitNanos) {
+      if (counted) return;
+      counted = true;
+      trace.recordDatastoreCall(bytesWritten, bytesRead(methodName, result), waitNanos);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.datastore.GeoPt;
+
+/**
+ * Distance check of the vendors read by a search, built once per search. Most vendors of the
+ * corner cells of a cover are far outside the circle, mayContain rejects them with a few
+ * multiplications: a latitude/longitude box around the circle, then a flat-earth distance using
+ * the smallest cosine of latitude inside the box, which never exceeds the real distance. Only
+ * the vendors it keeps need distanceTo, the Haversine distance of
+ * HttpServletUtils.computeGeoDistance to the float, with the cosine of the center computed once.
+ */
+public final class GeoDistanceFilter {
+  private static final double METERS_PER_DEGREE = GeoPt.EARTH_RADIUS_METERS * Math.PI / 180;
+  // Extra distance kept by the prefilter: the flat distance is short of the real one by under
+  // 0.2% for the longitude spans of a 20km box near the poles, floats are off by centimeters
+  private static final double SLACK_RATIO = 0.01;
+  private static final double SLACK_METERS = 1;
+  // Past this latitude the box reaches the pole and only the latitude check is done
+  private static final double MAX_BOX_LATITUDE = 89;
+
+  private final float centerLatitude;
+  private final float centerLongitude;
+  private final double cosCenterLatitude;
+  private final double reachDegrees;
+  private final double reachDegreesSquared;
+  private final double cosMinLatitude;
+  private final boolean checksLongitude;
+
+  /**
+   * @param center the location of the search
+   * @param radius the radius of the search in meters
+   */
+  public GeoDistanceFilter(GeoPt center, int radius) {
+    this.centerLatitude = center.getLatitude();
+    this.centerLongitude = center.getLongitude();
+    this.cosCenterLatitude = Math.cos(Math.toRadians(centerLatitude));
+    this.reachDegrees = (radius * (1 + SLACK_RATIO) + SLACK_METERS) / METERS_PER_DEGREE;
+    this.reachDegreesSquared = reachDegrees * reachDegrees;
+    double maxLatitude = Math.abs(centerLatitude) + reachDegrees;
+    this.checksLongitude = maxLatitude < MAX_BOX_LATITUDE;
+    this.cosMinLatitude = Math.cos(Math.toRadians(Math.min(maxLatitude, MAX_BOX_LATITUDE)));
+  }
+
+  /**
+   * Returns false if the point is surely farther than the radius, true if it may be within it.
+   * Exact for no point, distanceTo tells them apart.
+   */
+  public boolean mayContain(float latitude, float longitude) {
+    // No point is closer than its latitude difference
+    double latitudeDifference = latitude - centerLatitude;
+    if (latitudeDifference > reachDegrees || latitudeDifference < -reachDegrees) return false;
+    if (!checksLongitude) return true;
+
+    double longitudeDifference = longitude - centerLongitude;
+    if (longitudeDifference > 180) {
+      longitudeDifference -= 360;
+    } else if (longitudeDifference < -180) {
+      longitudeDifference += 360;
+    }
+    double eastWest = longitudeDifference * cosMinLatitude;
+    if (eastWest > reachDegrees || eastWest < -reachDegrees) return false;
+    return latitudeDifference * latitudeDifference + eastWest * eastWest <= reachDegreesSquared;
+  }
+
+  public boolean mayContain(GeoPt point) {
+    return mayContain(point.getLatitude(), point.getLongitude());
+  }
+
+  /** Returns the distance in meters from the center, the same as HttpServletUtils.computeGeoDistance. */
+  public float distanceTo(float latitude, float longitude) {
+    // Same operations in the same order, differences are taken on floats like GeoPt getters give
+    double latitudeDifference = Math.toRadians(latitude - centerLatitude);
+    double longitudeDifference = Math.toRadians(longitude - centerLongitude);
+    double sinLatitude = Math.sin(latitudeDifference / 2);
+    double sinLongitude = Math.sin(longitudeDifference / 2);
+
+    double a = sinLatitude * sinLatitude +
+        cosCenterLatitude * Math.cos(Math.toRadians(latitude)) * (sinLongitude * sinLongitude);
+    double c = 2 * Math.asin(Math.sqrt(a));
+
+    return (float) (GeoPt.EARTH_RADIUS_METERS * c);
+  }
+
+  public float distanceTo(GeoPt point) {
+    return distanceTo(point.getLatitude(), point.getLongitude());
+  }
+}
@@ -24,29 +24,45 @@ import com.google.sps.COMMONS;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 
 public class GeoHash {
   /**
    * Encodes latitude and longitude to geoHash given determined distance to set the
    * precision of the hash and creates a list of geohashed neighbour cells in order
-   * to create a valid query list.
+   * to create a valid query list. Near the poles, or with very short geohashes, some
+   * neighbours are the same cell, each cell is only listed once.
    * @param lat {double} Latitude in degrees.
    * @param lng {double} longitude in degrees.
    * @param distance {int} distance to determine precision in meters
-   * @return {List<String>} List of adjacent geohashes of supplied latitude/longitude.
+   * @return {List<String>} List of distinct adjacent geohashes of supplied latitude/longitude.
    */
   public static List<String> getHashesToQuery(double lat, double lng, int distance) {
-    String geohash = encode(lat, lng, distance);
-    List<String> hashesToQuery = getNeighbourCells(geohash);
+    int precision = determinePrecision(distance);
+    long cell = LongGeoHash.encode(lat, lng, precision);
+    long[] neighbourCells = LongGeoHash.neighbours(cell, precision);
 
-    // Append center geohash cell (current).
-    hashesToQuery.add(geohash);
+    // In the order of COMMONS.GEOHASH_DIRECTIONS, then the center geohash cell (current).
+    long[] cells = Arrays.copyOf(neighbourCells, neighbourCells.length + 1);
+    cells[neighbourCells.length] = cell;
 
+    List<String> hashesToQuery = new ArrayList<>(cells.length);
+    for (int i = 0; i < cells.length; i++) {
+      if (!containsBefore(cells, i)) {
+        hashesToQuery.add(LongGeoHash.toBase32(cells[i], precision));
+      }
+    }
     return hashesToQuery;
   }
 
+  /** Returns true if the cell at position end is also in cells[0, end), never more than 8 cells. */
+  private static boolean containsBefore(long[] cells, int end) {
+    for (int i = 0; i < end; i++) {
+      if (cells[i] == cells[end]) return true;
+    }
+    return false;
+  }
+
   /**
    * Calls the function encode with distance of 0 that will set the precision
    * to the maximum (9). That value will be stored on datastore.
@@ -67,57 +83,8 @@ public class GeoHash {
    * @return {string} Geohash of supplied latitude/longitude.
    */
   private static String encode(double lat, double lng, int distance) {
-    String geoHash = "";
     int precision = determinePrecision(distance);
-    int index = 0; // Index into BASE32 map.
-    int bit = 0; // Each char holds 5 bits.
-    boolean evenBit = true;
-    double latMin = -90, latMax = 90;
-    double lngMin = -180, lngMax = 180;
-
-    /**
-     * Calculates the geohash by appending characters to the final string.
-     * evenBit helps to identify if we are analyzing West-East or North-South
-     * (latitude or longitude). By bisecting (binary search) both lines we
-     * aproximate the hash to a desired little square (the size of that square is
-     * determined by the precision). Index helps us to determine in what position
-     * of the BASE32 Map we are standing.
-     * See more at: https://en.wikipedia.org/wiki/Geohash.
-     */
-    while (geoHash.length() < precision) {
-      if (evenBit) {
-        // Bisects W-E
-        double lngMid = (lngMin + lngMax) / 2;
-        if (lng >= lngMid) {
-          index = index * 2 + 1;
-          lngMin = lngMid;
-        } else {
-          index = index * 2;
-          lngMax = lngMid;
-        }
-      } else {
-        // Bisects N-S
-        double latMid = (latMin + latMax) / 2;
-        if (lat >= latMid) {
-          index = index * 2 + 1;
-          latMin = latMid;
-        } else {
-          index = index * 2;
-          latMax = latMid;
-        }
-      }
-
-      evenBit = !evenBit;
-
-      // 5 bits gives us a character: append it and start over.
-      if (++bit == 5) {
-        geoHash += COMMONS.BASE32.charAt(index);
-        bit = 0;
-        index = 0;
-      }
-    }
-
-    return geoHash;
+    return LongGeoHash.toBase32(LongGeoHash.encode(lat, lng, precision), precision);
   }
 
   /**
@@ -136,71 +103,19 @@ public class GeoHash {
     return precision;
   }
 
-  /**
-   * Determines adjacent cell in given direction,
-   * @param {string} geohash - Cell to which adjacent cell is required,
-   * @param {char} direction - Direction from geohash (N/S/E/W).
-   * @return {String} GeoHash of adjacent cell,
-   */
-  private static String adjacentCell(String geohash, char direction) {
-    geohash = geohash.toLowerCase();
-    direction = Character.toLowerCase(direction);
-
-    if (geohash.length() == 0) return "";
-    if ("nsew".indexOf(direction) == -1) return "";
-
-    HashMap<Character, List<String>> neighbour = new HashMap<Character, List<String>>();
-    neighbour.put('n', Arrays.asList("p0r21436x8zb9dcf5h7kjnmqesgutwvy",
-            "bc01fg45238967deuvhjyznpkmstqrwx"));
-    neighbour.put('s', Arrays.asList("14365h7k9dcfesgujnmqp0r2twvyx8zb",
-            "238967debc01fg45kmstqrwxuvhjyznp"));
-    neighbour.put('e', Arrays.asList("bc01fg45238967deuvhjyznpkmstqrwx",
-            "p0r21436x8zb9dcf5h7kjnmqesgutwvy"));
-    neighbour.put('w', Arrays.asList("238967debc01fg45kmstqrwxuvhjyznp",
-            "14365h7k9dcfesgujnmqp0r2twvyx8zb"));
-
-    HashMap<Character, List<String>> border = new HashMap<Character, List<String>>();
-    border.put('n', Arrays.asList("prxz","bcfguvyz"));
-    border.put('s', Arrays.asList("028b","0145hjnp"));
-    border.put('e', Arrays.asList("bcfguvyz","prxz"));
-    border.put('w', Arrays.asList("0145hjnp","028b"));
-
-    // Last character of hash.
-    char lastChar = geohash.charAt(geohash.length() - 1);
-    // Hash without last character.
-    String parent = geohash.substring(0, geohash.length() - 1);
-
-    int type = geohash.length() % 2;
-
-    // Check for edge-cases which don't share common prefix.
-    if (border.get(direction).get(type).indexOf(lastChar) != -1 && !parent.equals("")) {
-      parent = adjacentCell(parent, direction);
-    }
-
-    // Append letter for direction to parent.
-    return parent +
-            COMMONS.BASE32.charAt(neighbour
-                    .get(direction)
-                    .get(type)
-                    .indexOf(lastChar));
-  }
-
   /**
    * Returns all 8 adjacent cells to specified geohash.
    * @param geohash {String} Geohash neighbours are required of.
    * @return List of neighbours from a geohashed cell.
    */
   public static List<String> getNeighbourCells(String geohash) {
-    List<String> neighbours = new ArrayList<>();
+    int precision = geohash.length();
+    long[] neighbourCells = LongGeoHash.neighbours(LongGeoHash.fromBase32(geohash), precision);
 
-    for (String direction : COMMONS.GEOHASH_DIRECTIONS) {
-      if (direction.length() == 2) {
-        neighbours.add(adjacentCell(
-                adjacentCell(geohash, direction.charAt(0)),
-                direction.charAt(1)));
-      } else {
-        neighbours.add(adjacentCell(geohash, direction.charAt(0)));
-      }
+    // In the order of COMMONS.GEOHASH_DIRECTIONS.
+    List<String> neighbours = new ArrayList<>(neighbourCells.length);
+    for (long neighbourCell : neighbourCells) {
+      neighbours.add(LongGeoHash.toBase32(neighbourCell, precision));
     }
     return neighbours;
   }
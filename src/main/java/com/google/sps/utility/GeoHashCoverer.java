@@ -0,0 +1,189 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.sps.COMMONS;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Covers a circle with a small set of geohash cells of mixed precision. Starting from the 32
+ * cells of precision 1, the largest cells touching the circle are split into their children
+ * that still touch it, as long as the cover stays within the cell budget. Adjacent cells are
+ * then merged into ranges, each one becomes a single datastore query.
+ */
+public final class GeoHashCoverer {
+  private static final int CHILDREN = 32;
+  // Extra distance allowed when deciding if a cell touches the circle. Measuring to the closest
+  // corner/edge point of a cell is off by centimeters at search radii, this keeps it safe.
+  private static final double SLACK_RATIO = 0.01;
+  private static final double SLACK_METERS = 1;
+
+  private GeoHashCoverer() {
+    throw new java.lang.UnsupportedOperationException("Utility class cannot be instantiated");
+  }
+
+  /**
+   * Returns the geohash ranges covering the circle, with at most
+   * COMMONS.GEOHASH_MAX_COVER_CELLS cells.
+   * @param lat latitude of the center in degrees
+   * @param lng longitude of the center in degrees
+   * @param radius radius of the circle in meters, up to COMMONS.MAX_DISTANCE_CLIENT
+   * @return the ranges sorted by geohash, no two of them overlap or touch, each one with a safe
+   *     lower bound of its distance to the center
+   */
+  public static List<GeoHashRange> cover(double lat, double lng, int radius) {
+    return cover(lat, lng, radius, COMMONS.GEOHASH_MAX_COVER_CELLS);
+  }
+
+  /**
+   * Returns the geohash ranges covering the circle, with at most maxCells cells.
+   * @throws IllegalArgumentException if the center or the radius are out of range
+   */
+  public static List<GeoHashRange> cover(double lat, double lng, int radius, int maxCells) {
+    if (lat < -90 || lat > 90 || lng < -180 || lng > 180) {
+      throw new IllegalArgumentException("Latitude and/or longitude outside legal range");
+    }
+    if (radius < COMMONS.MIN_DISTANCE || radius > COMMONS.MAX_DISTANCE_CLIENT) {
+      throw new IllegalArgumentException("Radius outside legal range");
+    }
+    double reach = radius * (1 + SLACK_RATIO) + SLACK_METERS;
+
+    // Largest cells are split first, the closest ones first among the same size.
+    PriorityQueue<Candidate> candidates = new PriorityQueue<>(
+        Comparator.comparingInt((Candidate candidate) -> candidate.precision)
+            .thenComparingDouble(candidate -> candidate.minDistance));
+    candidates.addAll(children(0, 0, lat, lng, reach));
+
+    List<Candidate> cover = new ArrayList<>();
+    while (!candidates.isEmpty()) {
+      Candidate candidate = candidates.poll();
+      if (candidate.precision == COMMONS.MAX_GEOHASH_PRECISION
+          || candidate.maxDistance(lat, lng) <= radius) {
+        // Cannot be split further or it is completely inside the circle.
+        cover.add(candidate);
+        continue;
+      }
+
+      List<Candidate> children = children(candidate.cell, candidate.precision, lat, lng, reach);
+      if (cover.size() + candidates.size() + children.size() <= maxCells) {
+        candidates.addAll(children);
+      } else {
+        cover.add(candidate);
+      }
+    }
+
+    return toRanges(cover);
+  }
+
+  /** Returns the children of a cell that touch the circle. */
+  private static List<Candidate> children(long cell, int precision, double lat, double lng,
+      double reach) {
+    List<Candidate> children = new ArrayList<>();
+    for (int i = 0; i < CHILDREN; i++) {
+      Candidate child = new Candidate((cell << 5) | i, precision + 1, lat, lng);
+      if (child.minDistance <= reach) {
+        children.add(child);
+      }
+    }
+    return children;
+  }
+
+  /**
+   * Merges the cells into sorted ranges, joining the ones that are next to each other. A merged
+   * range keeps the smallest distance of its cells, lowered by the slack to stay a safe bound.
+   */
+  private static List<GeoHashRange> toRanges(List<Candidate> cells) {
+    List<GeoHashRange> cellRanges = new ArrayList<>(cells.size());
+    for (Candidate cell : cells) {
+      GeoHashRange cellRange = GeoHashRange.ofCell(cell.cell, cell.precision);
+      double minDistance = (cell.minDistance - SLACK_METERS) / (1 + SLACK_RATIO);
+      cellRanges.add(new GeoHashRange(cellRange.getStart(), cellRange.getEnd(), minDistance));
+    }
+    return GeoHashRange.normalize(cellRanges);
+  }
+
+  /** Returns the distance in meters between two points using Haversine formula. */
+  private static double distance(double latA, double lngA, double latB, double lngB) {
+    double latitudeDifference = Math.toRadians(latB - latA);
+    double longitudeDifference = Math.toRadians(lngB - lngA);
+    double sinLat = Math.sin(latitudeDifference / 2);
+    double sinLng = Math.sin(longitudeDifference / 2);
+
+    double a = sinLat * sinLat +
+        Math.cos(Math.toRadians(latA)) * Math.cos(Math.toRadians(latB)) * sinLng * sinLng;
+    return 2 * GeoPt.EARTH_RADIUS_METERS * Math.asin(Math.sqrt(Math.min(1, a)));
+  }
+
+  /** A cell with its closest distance to the center of the circle. */
+  private static final class Candidate {
+    private final long cell;
+    private final int precision;
+    private final double[] bounds;
+    private final double minDistance;
+
+    Candidate(long cell, int precision, double lat, double lng) {
+      this.cell = cell;
+      this.precision = precision;
+
+      this.bounds = LongGeoHash.bounds(cell, precision);
+      double latMin = bounds[0], latMax = bounds[1], lngMin = bounds[2], lngMax = bounds[3];
+
+      if (lng >= lngMin && lng <= lngMax) {
+        // Between the meridians of the cell the closest point is on the meridian of the center.
+        this.minDistance = distance(lat, lng, Math.max(latMin, Math.min(latMax, lat)), lng);
+      } else {
+        // Otherwise it is on a meridian edge. Clamping the center into the cell is not enough:
+        // away from the equator the closest point of an edge is on a parallel nearer the pole.
+        this.minDistance = Math.min(distanceToMeridian(lat, lng, lngMin, latMin, latMax),
+            distanceToMeridian(lat, lng, lngMax, latMin, latMax));
+      }
+    }
+
+    /** Returns the distance to the farthest corner, only needed for the cells being split. */
+    double maxDistance(double lat, double lng) {
+      double farthest = 0;
+      for (int latBound = 0; latBound <= 1; latBound++) {
+        for (int lngBound = 2; lngBound <= 3; lngBound++) {
+          farthest = Math.max(farthest, distance(lat, lng, bounds[latBound], bounds[lngBound]));
+        }
+      }
+      return farthest;
+    }
+
+    /**
+     * Returns the distance in meters from a point to the part [latMin, latMax] of a meridian. The
+     * closest point of the whole meridian is where the great circle through the point crosses
+     * it at a right angle. Distances only grow or shrink away from it along the meridian, so if
+     * it falls outside the part, the closest point is one of its ends.
+     */
+    private static double distanceToMeridian(double lat, double lng, double meridianLng,
+        double latMin, double latMax) {
+      double longitudeDifference = Math.toRadians(meridianLng - lng);
+      double cosDifference = Math.cos(longitudeDifference);
+      if (cosDifference > 0) {
+        double latRadians = Math.toRadians(lat);
+        double crossingLat = Math.toDegrees(Math.atan(Math.tan(latRadians) / cosDifference));
+        if (crossingLat >= latMin && crossingLat <= latMax) {
+          return distance(lat, lng, crossingLat, meridianLng);
+        }
+      }
+      return Math.min(distance(lat, lng, latMin, meridianLng), distance(lat, lng, latMax, meridianLng));
+    }
+  }
+}
@@ -0,0 +1,142 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.sps.COMMONS;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A contiguous range [start, end) of the geohash cells stored in datastore (precision
+ * COMMONS.MAX_GEOHASH_PRECISION). Base32 geohashes of the same length sort like their cells,
+ * so a range maps to a single inequality filter on the stored geohash.
+ *
+ * A range may also carry a lower bound of the distance from the search center to any point
+ * inside it, used to read the closest ranges first. It is a hint of the search that built the
+ * range, not part of the range itself, so it is left out of equals.
+ */
+public final class GeoHashRange {
+  private static final int PRECISION = COMMONS.MAX_GEOHASH_PRECISION;
+  private static final long END_OF_MAP = 1L << (5 * PRECISION);
+
+  private final long start;
+  private final long end;
+  private final double minDistance;
+
+  public GeoHashRange(long start, long end) {
+    this(start, end, 0);
+  }
+
+  /**
+   * @param start first stored cell of the range
+   * @param end first stored cell after the range
+   * @param minDistance meters from the search center to the closest point of the range, or 0
+   */
+  public GeoHashRange(long start, long end, double minDistance) {
+    if (start < 0 || end > END_OF_MAP || start >= end) {
+      throw new IllegalArgumentException("Invalid geohash range [" + start + ", " + end + ")");
+    }
+    this.start = start;
+    this.end = end;
+    this.minDistance = Math.max(0, minDistance);
+  }
+
+  /** Returns the range of all the stored geohashes inside a cell of the given precision. */
+  public static GeoHashRange ofCell(long cell, int precision) {
+    if (precision > PRECISION) {
+      throw new IllegalArgumentException("Geohash precision must be at most " + PRECISION);
+    }
+    int shift = 5 * (PRECISION - precision);
+    return new GeoHashRange(cell << shift, (cell + 1) << shift);
+  }
+
+  /** Returns the range of all the stored geohashes starting with the given prefix. */
+  public static GeoHashRange ofPrefix(String prefixGeoHash) {
+    return ofCell(LongGeoHash.fromBase32(prefixGeoHash), prefixGeoHash.length());
+  }
+
+  /**
+   * Returns the same geohashes as the given ranges, sorted and with no two of them overlapping
+   * or touching, so every stored geohash is read once. Merged ranges keep the smallest distance.
+   */
+  public static List<GeoHashRange> normalize(List<GeoHashRange> geoHashRanges) {
+    List<GeoHashRange> sortedRanges = new ArrayList<>(geoHashRanges);
+    sortedRanges.sort(Comparator.comparingLong(GeoHashRange::getStart));
+
+    List<GeoHashRange> ranges = new ArrayList<>(sortedRanges.size());
+    for (GeoHashRange range : sortedRanges) {
+      int last = ranges.size() - 1;
+      if (last >= 0 && ranges.get(last).getEnd() >= range.getStart()) {
+        GeoHashRange previous = ranges.remove(last);
+        range = new GeoHashRange(previous.getStart(), Math.max(previous.getEnd(), range.getEnd()),
+            Math.min(previous.getMinDistance(), range.getMinDistance()));
+      }
+      ranges.add(range);
+    }
+    return ranges;
+  }
+
+  public long getStart() {
+    return start;
+  }
+
+  public long getEnd() {
+    return end;
+  }
+
+  /** Returns the meters no vendor of the range can be closer than, 0 if unknown. */
+  public double getMinDistance() {
+    return minDistance;
+  }
+
+  /** Returns the first geohash of the range. */
+  public String getStartGeoHash() {
+    return LongGeoHash.toBase32(start, PRECISION);
+  }
+
+  /** Returns the first geohash after the range, or null if the range reaches the end of the map. */
+  public String getEndGeoHash() {
+    return (end == END_OF_MAP) ? null : LongGeoHash.toBase32(end, PRECISION);
+  }
+
+  /** Returns true if a stored geohash falls inside the range. */
+  public boolean contains(String geoHash) {
+    if (geoHash == null || geoHash.length() != PRECISION) return false;
+    long cell = LongGeoHash.fromBase32(geoHash);
+    return cell >= start && cell < end;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) return true;
+    if (!(obj instanceof GeoHashRange)) {
+      return false;
+    }
+    GeoHashRange range = (GeoHashRange) obj;
+    return start == range.start && end == range.end;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(start) * 31 + Long.hashCode(end);
+  }
+
+  @Override
+  public String toString() {
+    String endGeoHash = getEndGeoHash();
+    return "[" + getStartGeoHash() + ", " + ((endGeoHash == null) ? "end" : endGeoHash) + ")";
+  }
+}
@@ -0,0 +1,43 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import java.util.Locale;
+
+/** Sizes a picture can be served at, named after where the client shows it. */
+public enum ImageVariant {
+  THUMBNAIL(160), // Cards of the nearby vendors list
+  CARD(640), // A single salecard
+  FULL(0); // The uploaded blob as it is
+
+  private final int maxSide;
+
+  ImageVariant(int maxSide) {
+    this.maxSide = maxSide;
+  }
+
+  /** Returns the pixels the longest side of the picture is resized to, 0 if it is not resized. */
+  public int getMaxSide() {
+    return maxSide;
+  }
+
+  /**
+   * Returns the variant named by a request parameter, e.g. "thumbnail".
+   * @throws IllegalArgumentException if no variant has that name
+   */
+  public static ImageVariant fromParameter(String name) {
+    return valueOf(name.toUpperCase(Locale.ROOT));
+  }
+}
@@ -0,0 +1,105 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.OutputSettings;
+import com.google.appengine.api.images.Transform;
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.sps.COMMONS;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Resized and recompressed variants of the uploaded pictures, produced once with the
+ * ImagesService and kept in memcache by (blobKey, variant, encoding). A blob never changes, a new
+ * picture gets a new blobKey, so variants never go stale, they are only dropped with their blob.
+ */
+public final class ImageVariantCache {
+  private static final ImageVariantCache INSTANCE = new ImageVariantCache();
+  private static final String MEMCACHE_NAMESPACE = "imageVariants";
+
+  private ImageVariantCache() {}
+
+  public static ImageVariantCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the picture resized to fit the variant, encoded as asked.
+   * @param blobKey an uploaded picture
+   * @param variant any variant but ImageVariant.FULL, which is served from blobstore as it is
+   * @param encoding the format to recompress the picture to
+   * @return the bytes of the encoded variant
+   * @throws IllegalArgumentException if the variant is ImageVariant.FULL
+   * @throws com.google.appengine.api.images.ImagesServiceFailureException if the blob is not a
+   *     picture or the ImagesService failed
+   */
+  public byte[] get(BlobKey blobKey, ImageVariant variant, ImagesService.OutputEncoding encoding) {
+    if (variant == ImageVariant.FULL) {
+      throw new IllegalArgumentException("Full pictures are not resized");
+    }
+
+    String memcacheKey = memcacheKey(blobKey, variant, encoding);
+    MemcacheService memcache = memcache();
+    byte[] imageData = (byte[]) memcache.get(memcacheKey);
+    if (imageData != null) {
+      return imageData;
+    }
+
+    Transform resize = ImagesServiceFactory.makeResize(variant.getMaxSide(), variant.getMaxSide());
+    OutputSettings outputSettings = new OutputSettings(encoding);
+    if (encoding != ImagesService.OutputEncoding.PNG) {
+      outputSettings.setQuality(COMMONS.IMAGE_VARIANT_QUALITY);
+    }
+    Image variantImage = ImagesServiceFactory.getImagesService().applyTransform(
+        resize, ImagesServiceFactory.makeImageFromBlob(blobKey), outputSettings);
+    imageData = variantImage.getImageData();
+
+    if (imageData.length <= COMMONS.IMAGE_VARIANT_MAX_BYTES) {
+      memcache.put(memcacheKey, imageData);
+    }
+    return imageData;
+  }
+
+  /** Drops every variant of the picture, called when its blob is deleted. */
+  public void invalidate(BlobKey blobKey) {
+    List<String> memcacheKeys = new ArrayList<>();
+    for (ImageVariant variant : ImageVariant.values()) {
+      if (variant == ImageVariant.FULL) continue;
+      for (ImagesService.OutputEncoding encoding : ImagesService.OutputEncoding.values()) {
+        memcacheKeys.add(memcacheKey(blobKey, variant, encoding));
+      }
+    }
+    memcache().deleteAll(memcacheKeys);
+  }
+
+  private static String memcacheKey(BlobKey blobKey, ImageVariant variant,
+      ImagesService.OutputEncoding encoding) {
+    return blobKey.getKeyString() + "/" + variant + "/" + encoding;
+  }
+
+  private static MemcacheService memcache() {
+    MemcacheService memcache = MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE);
+    memcache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.WARNING));
+    return memcache;
+  }
+}
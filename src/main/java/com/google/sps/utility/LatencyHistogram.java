@@ -0,0 +1,90 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latencies counted in fixed buckets, from 1ms to a minute. Recording is a few atomic adds, no
+ * lock and no allocation, so every request can be recorded. Percentiles are the upper bound of
+ * the bucket they fall in.
+ */
+public final class LatencyHistogram {
+  // Upper bounds of the buckets, the last bucket takes everything slower
+  private static final long[] BOUNDS_MILLIS =
+      {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000};
+
+  private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  public void record(long nanos) {
+    long millis = nanos / 1000000;
+    int bucket = 0;
+    while (bucket < BOUNDS_MILLIS.length && millis >= BOUNDS_MILLIS[bucket]) {
+      bucket++;
+    }
+    counts.incrementAndGet(bucket);
+    count.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    maxNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public double getMeanMillis() {
+    long requests = count.get();
+    return (requests == 0) ? 0 : totalNanos.get() / 1e6 / requests;
+  }
+
+  public double getMaxMillis() {
+    return maxNanos.get() / 1e6;
+  }
+
+  /**
+   * Returns the upper bound in milliseconds of the bucket holding the percentile, or the max
+   * latency if it falls in the last bucket. 0 if nothing was recorded.
+   * @param percentile between 0 and 100
+   */
+  public double getPercentileMillis(double percentile) {
+    long requests = count.get();
+    if (requests == 0) return 0;
+    long rank = (long) Math.ceil(percentile / 100 * requests);
+    long seen = 0;
+    for (int bucket = 0; bucket < BOUNDS_MILLIS.length; bucket++) {
+      seen += counts.get(bucket);
+      if (seen >= rank) {
+        return Math.min(BOUNDS_MILLIS[bucket], getMaxMillis());
+      }
+    }
+    return getMaxMillis();
+  }
+
+  /** Returns the count of every bucket by its upper bound, "+Inf" for the last one. */
+  public Map<String, Long> getBuckets() {
+    Map<String, Long> buckets = new LinkedHashMap<>();
+    for (int bucket = 0; bucket < BOUNDS_MILLIS.length; bucket++) {
+      buckets.put(Long.toString(BOUNDS_MILLIS[bucket]), counts.get(bucket));
+    }
+    buckets.put("+Inf", counts.get(BOUNDS_MILLIS.length));
+    return buckets;
+  }
+}
@@ -0,0 +1,201 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.sps.COMMONS;
+import java.util.Arrays;
+
+/**
+ * Geohash cells as bit-interleaved longs. A cell of precision p is stored in the lowest 5 * p
+ * bits of a long, most significant bit first, exactly in the order the base32 characters spell
+ * them (longitude bit, latitude bit, longitude bit...). Nothing here allocates except the
+ * conversion to and from Strings, which GeoHash does only at the edge.
+ */
+public final class LongGeoHash {
+  /** Max precision that fits in a long (12 characters, 60 bits). */
+  public static final int MAX_PRECISION = 12;
+
+  private static final int BITS_PER_CHAR = 5;
+  private static final int MAX_BITS = MAX_PRECISION * BITS_PER_CHAR;
+  // Each axis is quantized once with 30 bits, every shorter cell is a prefix of it.
+  private static final int AXIS_BITS = MAX_BITS / 2;
+  private static final long AXIS_CELLS = 1L << AXIS_BITS;
+  private static final long AXIS_MASK = AXIS_CELLS - 1;
+
+  private static final char[] BASE32 = COMMONS.BASE32.toCharArray();
+  private static final byte[] BASE32_INDEX = new byte[128];
+
+  static {
+    Arrays.fill(BASE32_INDEX, (byte) -1);
+    for (int i = 0; i < BASE32.length; i++) {
+      BASE32_INDEX[BASE32[i]] = (byte) i;
+      BASE32_INDEX[Character.toUpperCase(BASE32[i])] = (byte) i;
+    }
+  }
+
+  private LongGeoHash() {
+    throw new java.lang.UnsupportedOperationException("Utility class cannot be instantiated");
+  }
+
+  /**
+   * Encodes latitude and longitude to a geohash cell.
+   * @param lat latitude in degrees, values outside [-90, 90] are clamped
+   * @param lng longitude in degrees, values outside [-180, 180] are clamped
+   * @param precision number of base32 characters of the cell, between 0 and MAX_PRECISION
+   * @return the cell in the lowest 5 * precision bits
+   */
+  public static long encode(double lat, double lng, int precision) {
+    checkPrecision(precision);
+    long latCell = quantize(lat, -90, 180);
+    long lngCell = quantize(lng, -180, 360);
+    long cell = (spread(lngCell) << 1) | spread(latCell);
+    return cell >>> (MAX_BITS - BITS_PER_CHAR * precision);
+  }
+
+  /**
+   * Returns the cell next to the given one, moving a number of cells north/south and east/west.
+   * Both axes wrap around, like the original geohash neighbour tables.
+   * @param cell a geohash cell
+   * @param precision the precision of the cell
+   * @param latSteps cells to move north (negative moves south)
+   * @param lngSteps cells to move east (negative moves west)
+   * @return the adjacent cell with the same precision
+   */
+  public static long adjacent(long cell, int precision, int latSteps, int lngSteps) {
+    checkPrecision(precision);
+    int bits = BITS_PER_CHAR * precision;
+    int lngBits = (bits + 1) / 2;
+    int latBits = bits / 2;
+    long aligned = cell << (MAX_BITS - bits);
+
+    long lngCell = compact(aligned >>> 1) + ((long) lngSteps << (AXIS_BITS - lngBits));
+    long latCell = compact(aligned) + ((long) latSteps << (AXIS_BITS - latBits));
+    aligned = (spread(lngCell & AXIS_MASK) << 1) | spread(latCell & AXIS_MASK);
+    return aligned >>> (MAX_BITS - bits);
+  }
+
+  /**
+   * Returns the 8 adjacent cells in the order of COMMONS.GEOHASH_DIRECTIONS
+   * (n, ne, e, se, s, sw, w, nw).
+   */
+  public static long[] neighbours(long cell, int precision) {
+    return new long[] {
+      adjacent(cell, precision, 1, 0),
+      adjacent(cell, precision, 1, 1),
+      adjacent(cell, precision, 0, 1),
+      adjacent(cell, precision, -1, 1),
+      adjacent(cell, precision, -1, 0),
+      adjacent(cell, precision, -1, -1),
+      adjacent(cell, precision, 0, -1),
+      adjacent(cell, precision, 1, -1)
+    };
+  }
+
+  /**
+   * Returns the area covered by a cell.
+   * @return {latMin, latMax, lngMin, lngMax} in degrees
+   */
+  public static double[] bounds(long cell, int precision) {
+    checkPrecision(precision);
+    int bits = BITS_PER_CHAR * precision;
+    int lngBits = (bits + 1) / 2;
+    int latBits = bits / 2;
+    long aligned = cell << (MAX_BITS - bits);
+
+    double latHeight = 180.0 / (1L << latBits);
+    double lngWidth = 360.0 / (1L << lngBits);
+    long latCell = compact(aligned) >>> (AXIS_BITS - latBits);
+    long lngCell = compact(aligned >>> 1) >>> (AXIS_BITS - lngBits);
+    double latMin = -90 + latCell * latHeight;
+    double lngMin = -180 + lngCell * lngWidth;
+    return new double[] { latMin, latMin + latHeight, lngMin, lngMin + lngWidth };
+  }
+
+  /** Returns the base32 String of a cell. */
+  public static String toBase32(long cell, int precision) {
+    checkPrecision(precision);
+    char[] geoHash = new char[precision];
+    for (int i = precision - 1; i >= 0; i--) {
+      geoHash[i] = BASE32[(int) (cell & 0x1F)];
+      cell >>>= BITS_PER_CHAR;
+    }
+    return new String(geoHash);
+  }
+
+  /**
+   * Returns the cell of a base32 geohash, its precision is the length of the String.
+   * @throws IllegalArgumentException if the geohash is too long or has non base32 characters
+   */
+  public static long fromBase32(String geoHash) {
+    checkPrecision(geoHash.length());
+    long cell = 0;
+    for (int i = 0; i < geoHash.length(); i++) {
+      char character = geoHash.charAt(i);
+      int index = (character < BASE32_INDEX.length) ? BASE32_INDEX[character] : -1;
+      if (index < 0) {
+        throw new IllegalArgumentException("Invalid geohash character '" + character + "'");
+      }
+      cell = (cell << BITS_PER_CHAR) | index;
+    }
+    return cell;
+  }
+
+  /**
+   * Returns the 30 bits cell index of a coordinate within [min, min + range). The estimate from
+   * the division is corrected against the exact cell bounds, so the result is always the same
+   * as bisecting the range bit by bit.
+   */
+  private static long quantize(double value, double min, double range) {
+    long index = (long) Math.floor((value - min) / range * AXIS_CELLS);
+    if (index < 0) return 0;
+    if (index >= AXIS_CELLS) return AXIS_MASK;
+
+    // Cell bounds are dyadic fractions of the range, so they are exact in a double.
+    if (value < min + range * index / AXIS_CELLS) {
+      index--;
+    } else if (index < AXIS_MASK && value >= min + range * (index + 1) / AXIS_CELLS) {
+      index++;
+    }
+    return index;
+  }
+
+  /** Spreads the lowest 32 bits of x to the even bits of a long. */
+  private static long spread(long x) {
+    x &= 0xFFFFFFFFL;
+    x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+    x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+    x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+    x = (x | (x << 2)) & 0x3333333333333333L;
+    x = (x | (x << 1)) & 0x5555555555555555L;
+    return x;
+  }
+
+  /** Gathers the even bits of x into the lowest 32 bits, the inverse of spread. */
+  private static long compact(long x) {
+    x &= 0x5555555555555555L;
+    x = (x | (x >>> 1)) & 0x3333333333333333L;
+    x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+    x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+    x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+    x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+    return x;
+  }
+
+  private static void checkPrecision(int precision) {
+    if (precision < 0 || precision > MAX_PRECISION) {
+      throw new IllegalArgumentException("Geohash precision must be between 0 and " + MAX_PRECISION);
+    }
+  }
+}
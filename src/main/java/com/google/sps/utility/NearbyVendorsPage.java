@@ -0,0 +1,38 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.sps.data.Vendor;
+import java.util.List;
+
+/** A page of nearby vendors and the token to ask for the next one. */
+public final class NearbyVendorsPage {
+  private final List<Vendor> vendors;
+  private final String nextPageToken;
+
+  public NearbyVendorsPage(List<Vendor> vendors, String nextPageToken) {
+    this.vendors = vendors;
+    this.nextPageToken = nextPageToken;
+  }
+
+  public List<Vendor> getVendors() {
+    return vendors;
+  }
+
+  /** Returns the token of the next page, or null if this is the last one. */
+  public String getNextPageToken() {
+    return nextPageToken;
+  }
+}
@@ -14,25 +14,52 @@
 
 package com.google.sps.utility;
 
+import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.EmbeddedEntity;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.CompositeFilter;
 import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
 import com.google.appengine.api.datastore.Query.Filter;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.sps.COMMONS;
 import com.google.sps.data.HttpServletUtils;
+import com.google.sps.data.OpeningHours;
 import com.google.sps.data.Vendor;
+import com.google.sps.data.VendorPin;
 import java.time.LocalTime;
-import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 
 /** Query to find all the vendors with the requested parameters */
 public final class NearbyVendorsQuery {
+  // Ties are broken by id so equally distant vendors always come in the same order
+  private static final Comparator<Vendor> CLOSEST_FIRST =
+      Comparator.comparingDouble(NearbyVendorsQuery::distanceOf).thenComparing(Vendor::getId);
+  private static final Comparator<VendorPin> CLOSEST_PIN_FIRST =
+      Comparator.comparingDouble(VendorPin::getDistanceFromClient).thenComparing(VendorPin::getId);
+
   /**
    * Returns the vendors found with the requested parameters
    * @param prefixGeoHash a String representing a geohash
@@ -44,23 +71,532 @@ public final class NearbyVendorsQuery {
    */
   public List<Vendor> query(String prefixGeoHash, boolean hasDelivery, boolean onlyOpenNow, 
       GeoPt requestLocation, int distanceLimit, LocalTime requestTime) {
-    Query datastoreQuery = buildGeoQuery(prefixGeoHash, hasDelivery, onlyOpenNow);
+    return query(GeoHashRange.ofPrefix(prefixGeoHash), hasDelivery, onlyOpenNow, requestLocation,
+        distanceLimit, requestTime);
+  }
+
+  /**
+   * Returns the vendors found with the requested parameters
+   * @param geoHashRange the range of geohashes to look into
+   * @param hasDelivery a boolean to show only vendors with delivery service
+   * @param onlyOpenNow a boolean to show only vendors currently open
+   * @param requestLocation a GeoPoint representing the location where the request was made
+   * @param distanceLimit the max allowed distance a vendor can be
+   * @param requestTime the time when the request was made
+   */
+  public List<Vendor> query(GeoHashRange geoHashRange, boolean hasDelivery, boolean onlyOpenNow,
+      GeoPt requestLocation, int distanceLimit, LocalTime requestTime) {
+    Query datastoreQuery = buildGeoQuery(geoHashRange, hasDelivery, onlyOpenNow, requestTime);
     Iterable<Entity> vendorsRetrieved = fetchVendors(datastoreQuery);
     return createVendorsList(vendorsRetrieved, requestLocation, distanceLimit, onlyOpenNow, requestTime);
   }
 
-  /** 
-   * Returns a query for a Vendor with a filter to match a substring (the prefix of a geoHash) and
-   * if needed add filters for only vendors with delivery service and only currently open
+  /**
+   * Returns the vendors found with the requested parameters in all the given geohash ranges.
+   * Every range query is started before any result is read, so the search waits for about one
+   * Datastore round trip instead of one per range. The whole search has one deadline,
+   * COMMONS.SEARCH_DEADLINE_SECONDS, a DatastoreTimeoutException is thrown if the ranges could
+   * not be read before it.
+   * @param geoHashRanges the ranges of geohashes to look into, e.g. from GeoHashCoverer
+   * @param hasDelivery a boolean to show only vendors with delivery service
+   * @param onlyOpenNow a boolean to show only vendors currently open
+   * @param requestLocation a GeoPoint representing the location where the request was made
+   * @param distanceLimit the max allowed distance a vendor can be
+   * @param requestTime the time when the request was made
+   */
+  public List<Vendor> queryAll(List<GeoHashRange> geoHashRanges, boolean hasDelivery, boolean onlyOpenNow,
+      GeoPt requestLocation, int distanceLimit, LocalTime requestTime) {
+    List<Vendor> nearbyVendors = new ArrayList<>();
+    queryAll(geoHashRanges, hasDelivery, onlyOpenNow, requestLocation, distanceLimit, requestTime, nearbyVendors::add);
+    return nearbyVendors;
+  }
+
+  /**
+   * Passes the vendors found with the requested parameters to the consumer as they are read, in
+   * the same order queryAll returns them, without keeping them in memory.
+   * @param vendorConsumer receives every vendor found
+   * @see #queryAll(List, boolean, boolean, GeoPt, int, LocalTime)
+   */
+  public void queryAll(List<GeoHashRange> geoHashRanges, boolean hasDelivery, boolean onlyOpenNow,
+      GeoPt requestLocation, int distanceLimit, LocalTime requestTime, Consumer<Vendor> vendorConsumer) {
+    queryAll(geoHashRanges, hasDelivery, onlyOpenNow, requestLocation, distanceLimit, requestTime, vendorConsumer,
+        SearchDeadline.start());
+  }
+
+  private void queryAll(List<GeoHashRange> geoHashRanges, boolean hasDelivery, boolean onlyOpenNow,
+      GeoPt requestLocation, int distanceLimit, LocalTime requestTime, Consumer<Vendor> vendorConsumer,
+      SearchDeadline deadline) {
+    List<Iterator<Entity>> pendingRanges =
+        startRangeQueries(geoHashRanges, hasDelivery, onlyOpenNow, requestTime, false, deadline);
+    GeoDistanceFilter distanceFilter = new GeoDistanceFilter(requestLocation, distanceLimit);
+    mergeRanges(pendingRanges, vendorEntity -> createNearbyVendor(
+        vendorEntity, distanceFilter, distanceLimit, onlyOpenNow, requestTime), vendorConsumer);
+  }
+
+  /**
+   * Passes the map pins of the vendors found with the requested parameters to the consumer as
+   * they are read, in the same order as queryAll. The range queries are projection queries, so
+   * only the few indexed properties a pin needs are read, never the pictures, description or
+   * contact details of the vendors. The full vendor is read through /get-vendor.
+   * @param geoHashRanges the ranges of geohashes to look into, e.g. from GeoHashCoverer
+   * @param hasDelivery a boolean to show only vendors with delivery service
+   * @param onlyOpenNow a boolean to show only vendors currently open
+   * @param requestLocation a GeoPoint representing the location where the request was made
+   * @param distanceLimit the max allowed distance a vendor can be
+   * @param requestTime the time when the request was made
+   * @param pinConsumer receives the pin of every vendor found
+   */
+  public void queryPins(List<GeoHashRange> geoHashRanges, boolean hasDelivery, boolean onlyOpenNow,
+      GeoPt requestLocation, int distanceLimit, LocalTime requestTime, Consumer<VendorPin> pinConsumer) {
+    queryPins(geoHashRanges, hasDelivery, onlyOpenNow, requestLocation, distanceLimit, requestTime, pinConsumer,
+        SearchDeadline.start());
+  }
+
+  private void queryPins(List<GeoHashRange> geoHashRanges, boolean hasDelivery, boolean onlyOpenNow,
+      GeoPt requestLocation, int distanceLimit, LocalTime requestTime, Consumer<VendorPin> pinConsumer,
+      SearchDeadline deadline) {
+    List<Iterator<Entity>> pendingRanges =
+        startRangeQueries(geoHashRanges, hasDelivery, onlyOpenNow, requestTime, true, deadline);
+    GeoDistanceFilter distanceFilter = new GeoDistanceFilter(requestLocation, distanceLimit);
+    mergeRanges(pendingRanges, pinEntity -> createNearbyPin(
+        pinEntity, distanceFilter, distanceLimit, onlyOpenNow, requestTime), pinConsumer);
+  }
+
+  /**
+   * Returns one page of the vendors found with the requested parameters, in the same order as
+   * queryAll. The ranges left are started at once like queryAll, but each one only fetches a page
+   * worth of entities ahead, so a page holds at most pageSize entities per range left in memory,
+   * COMMONS.GEOHASH_MAX_COVER_CELLS times pageSize for a cover, whatever the density of the area. A
+   * vendor moved while the page is read is only returned once, but one moved between the requests
+   * of two pages can show up on both.
+   * @param geoHashRanges the ranges of geohashes to look into, e.g. from GeoHashCoverer
+   * @param hasDelivery a boolean to show only vendors with delivery service
+   * @param onlyOpenNow a boolean to show only vendors currently open
+   * @param requestLocation a GeoPoint representing the location where the request was made
+   * @param distanceLimit the max allowed distance a vendor can be
+   * @param requestTime the time when the request was made
+   * @param pageSize the max number of vendors of the page
+   * @param pageToken the token returned with the previous page, or null for the first page
+   * @throws IllegalArgumentException if the token belongs to another search or its cursor is not valid
+   */
+  public NearbyVendorsPage queryPage(List<GeoHashRange> geoHashRanges, boolean hasDelivery, boolean onlyOpenNow,
+      GeoPt requestLocation, int distanceLimit, LocalTime requestTime, int pageSize, PageToken pageToken) {
+    if (pageToken != null && !pageToken.belongsTo(geoHashRanges, hasDelivery, onlyOpenNow, requestTime)) {
+      throw new IllegalArgumentException("Page token does not belong to this search");
+    }
+    int fingerprint = PageToken.fingerprint(geoHashRanges, hasDelivery, onlyOpenNow, requestTime);
+    PageToken token = (pageToken == null) ? new PageToken(fingerprint, 0, null) : pageToken;
+    // The range index of the token points into the merged ranges
+    List<GeoHashRange> pageRanges = GeoHashRange.normalize(geoHashRanges);
+
+    SearchDeadline deadline = SearchDeadline.start();
+    AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService(deadline.datastoreConfig());
+    List<QueryResultIterator<Entity>> pendingRanges = new ArrayList<>();
+    for (int i = token.getRangeIndex(); i < pageRanges.size(); i++) {
+      FetchOptions fetchOptions = FetchOptions.Builder.withPrefetchSize(pageSize).chunkSize(pageSize);
+      if (i == token.getRangeIndex() && token.getCursor() != null) {
+        fetchOptions.startCursor(token.getCursor());
+      }
+      Query datastoreQuery = buildGeoQuery(pageRanges.get(i), hasDelivery, onlyOpenNow, requestTime);
+      pendingRanges.add(datastore.prepare(datastoreQuery).asQueryResultIterator(fetchOptions));
+    }
+    if (token.getCursor() != null && !pendingRanges.isEmpty()) {
+      // Datastore only rejects a forged cursor once its first batch is read
+      try {
+        hasNext(pendingRanges.get(0), deadline);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Page token is not valid", e);
+      }
+    }
+
+    GeoDistanceFilter distanceFilter = new GeoDistanceFilter(requestLocation, distanceLimit);
+    List<Vendor> nearbyVendors = new ArrayList<>(pageSize);
+    // Like mergeRanges, a vendor moved while the ranges are read only counts once
+    Set<Key> vendorsSeen = new HashSet<>();
+    for (int i = 0; i < pendingRanges.size(); i++) {
+      QueryResultIterator<Entity> vendorsRetrieved = pendingRanges.get(i);
+      while (hasNext(vendorsRetrieved, deadline)) {
+        Entity vendorEntity = vendorsRetrieved.next();
+        RequestTrace.addEntitiesRead(1);
+        if (!vendorsSeen.add(vendorEntity.getKey())) continue;
+
+        Vendor vendor = createNearbyVendor(vendorEntity, distanceFilter, distanceLimit, onlyOpenNow, requestTime);
+        if (vendor == null) continue;
+
+        nearbyVendors.add(vendor);
+        if (nearbyVendors.size() == pageSize) {
+          // The next page goes on right after this vendor
+          PageToken nextToken =
+              new PageToken(fingerprint, token.getRangeIndex() + i, vendorsRetrieved.getCursor());
+          return new NearbyVendorsPage(nearbyVendors, nextToken.encode());
+        }
+      }
+    }
+
+    return new NearbyVendorsPage(nearbyVendors, null);
+  }
+
+  /**
+   * Returns the vendors found with the requested parameters, searching the in-memory index and
+   * reading from datastore only the vendors it found, with a single batch get. The index may be
+   * behind datastore, so the filters are checked again on the vendors read.
+   * @param vendorIndex a loaded index of the vendors
+   * @param geoHashRanges the ranges of geohashes to look into, e.g. from GeoHashCoverer
+   * @param hasDelivery a boolean to show only vendors with delivery service
+   * @param onlyOpenNow a boolean to show only vendors currently open
+   * @param requestLocation a GeoPoint representing the location where the request was made
+   * @param distanceLimit the max allowed distance a vendor can be
+   * @param requestTime the time when the request was made
+   */
+  public List<Vendor> queryIndex(VendorIndex vendorIndex, List<GeoHashRange> geoHashRanges, boolean hasDelivery,
+      boolean onlyOpenNow, GeoPt requestLocation, int distanceLimit, LocalTime requestTime) {
+    List<String> vendorIds = vendorIndex.search(
+        geoHashRanges, hasDelivery, onlyOpenNow, requestLocation, distanceLimit, requestTime);
+    return fetchVendorsById(vendorIds, hasDelivery, onlyOpenNow, requestLocation, distanceLimit, requestTime);
+  }
+
+  /**
+   * Returns the closest vendors found with the requested parameters, sorted by distance.
+   * The ranges are read in rings of doubling radius, each ring fanned out like queryAll, and
+   * the search stops as soon as the limit is reached with vendors closer than every range left.
+   * Only the closest vendors are kept in memory at any time.
+   * @param geoHashRanges the ranges of geohashes to look into, from GeoHashCoverer so they know
+   *     their distance to the request location
+   * @param hasDelivery a boolean to show only vendors with delivery service
+   * @param onlyOpenNow a boolean to show only vendors currently open
+   * @param requestLocation a GeoPoint representing the location where the request was made
+   * @param distanceLimit the max allowed distance a vendor can be
+   * @param requestTime the time when the request was made
+   * @param limit the max number of vendors returned
+   */
+  public List<Vendor> queryNearest(List<GeoHashRange> geoHashRanges, boolean hasDelivery, boolean onlyOpenNow,
+      GeoPt requestLocation, int distanceLimit, LocalTime requestTime, int limit) {
+    // The rings share the deadline of the search
+    SearchDeadline deadline = SearchDeadline.start();
+    return searchNearest(geoHashRanges, distanceLimit, limit, CLOSEST_FIRST, NearbyVendorsQuery::distanceOf,
+        (ringRanges, ringConsumer) -> queryAll(ringRanges, hasDelivery, onlyOpenNow, requestLocation,
+            distanceLimit, requestTime, ringConsumer, deadline));
+  }
+
+  /**
+   * Returns the map pins of the closest vendors found with the requested parameters, sorted by
+   * distance, searching the rings like queryNearest with projection queries like queryPins.
+   * @param limit the max number of pins returned
+   * @see #queryNearest(List, boolean, boolean, GeoPt, int, LocalTime, int)
    */
-  private Query buildGeoQuery(String prefixGeoHash, boolean hasDelivery, boolean onlyOpenNow) {
-    Filter lowerBound = new FilterPredicate("saleCard.location.geoHash",
-        FilterOperator.GREATER_THAN_OR_EQUAL, prefixGeoHash);
-    Filter upperBound = new FilterPredicate("saleCard.location.geoHash",
-        FilterOperator.LESS_THAN, prefixGeoHash + "\ufffd");
+  public List<VendorPin> queryNearestPins(List<GeoHashRange> geoHashRanges, boolean hasDelivery,
+      boolean onlyOpenNow, GeoPt requestLocation, int distanceLimit, LocalTime requestTime, int limit) {
+    SearchDeadline deadline = SearchDeadline.start();
+    return searchNearest(geoHashRanges, distanceLimit, limit, CLOSEST_PIN_FIRST, VendorPin::getDistanceFromClient,
+        (ringRanges, ringConsumer) -> queryPins(ringRanges, hasDelivery, onlyOpenNow, requestLocation,
+            distanceLimit, requestTime, ringConsumer, deadline));
+  }
+
+  /**
+   * Returns the closest vendors found with the requested parameters, sorted by distance,
+   * searching the in-memory index and reading from datastore only the closest ones.
+   * @param vendorIndex a loaded index of the vendors
+   * @param geoHashRanges the ranges of geohashes to look into, e.g. from GeoHashCoverer
+   * @param hasDelivery a boolean to show only vendors with delivery service
+   * @param onlyOpenNow a boolean to show only vendors currently open
+   * @param requestLocation a GeoPoint representing the location where the request was made
+   * @param distanceLimit the max allowed distance a vendor can be
+   * @param requestTime the time when the request was made
+   * @param limit the max number of vendors returned
+   */
+  public List<Vendor> queryIndexNearest(VendorIndex vendorIndex, List<GeoHashRange> geoHashRanges,
+      boolean hasDelivery, boolean onlyOpenNow, GeoPt requestLocation, int distanceLimit,
+      LocalTime requestTime, int limit) {
+    List<String> vendorIds = vendorIndex.searchNearest(
+        geoHashRanges, hasDelivery, onlyOpenNow, requestLocation, distanceLimit, requestTime, limit);
+    List<Vendor> nearestVendors =
+        fetchVendorsById(vendorIds, hasDelivery, onlyOpenNow, requestLocation, distanceLimit, requestTime);
+    // Distances are measured again on the vendors read, which may have moved since indexed
+    nearestVendors.sort(CLOSEST_FIRST);
+    return nearestVendors;
+  }
+
+  /** Reads the vendors with the given ids in one batch get and keeps the ones matching the request */
+  private List<Vendor> fetchVendorsById(List<String> vendorIds, boolean hasDelivery, boolean onlyOpenNow,
+      GeoPt requestLocation, int distanceLimit, LocalTime requestTime) {
+    if (vendorIds.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    List<Key> vendorKeys = new ArrayList<>(vendorIds.size());
+    for (String vendorId : vendorIds) {
+      vendorKeys.add(KeyFactory.createKey("Vendor", vendorId));
+    }
+    // A single RPC, its own deadline is the deadline of the search
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService(SearchDeadline.start().datastoreConfig());
+    Map<Key, Entity> vendorsRetrieved = datastore.get(vendorKeys);
+    RequestTrace.addEntitiesRead(vendorsRetrieved.size());
+
+    // Keep the order of the ids
+    List<Entity> vendorsHydrated = new ArrayList<>(vendorsRetrieved.size());
+    for (Key vendorKey : vendorKeys) {
+      Entity vendorEntity = vendorsRetrieved.get(vendorKey);
+      if (vendorEntity != null && matchesFilters(vendorEntity, hasDelivery, onlyOpenNow)) {
+        vendorsHydrated.add(vendorEntity);
+      }
+    }
+    return createVendorsList(vendorsHydrated, requestLocation, distanceLimit, onlyOpenNow, requestTime);
+  }
+
+  /**
+   * Reads the ranges in rings of doubling radius and keeps the closest results, stopping as soon
+   * as the limit is reached with results closer than every range left.
+   * @param closestFirst orders the results by distance, ties broken so the order is stable
+   * @param distance the distance of a result to the request location
+   * @param ringQuery passes every result of the given ranges to the consumer
+   */
+  private static <T> List<T> searchNearest(List<GeoHashRange> geoHashRanges, int distanceLimit, int limit,
+      Comparator<T> closestFirst, ToDoubleFunction<T> distance, BiConsumer<List<GeoHashRange>, Consumer<T>> ringQuery) {
+    List<GeoHashRange> pendingRanges = GeoHashRange.normalize(geoHashRanges);
+    pendingRanges.sort(Comparator.comparingDouble(GeoHashRange::getMinDistance));
+
+    Comparator<T> farthestFirst = closestFirst.reversed();
+    PriorityQueue<T> nearestResults = new PriorityQueue<>(farthestFirst);
+    Consumer<T> offerNearest = result -> offerNearest(nearestResults, farthestFirst, result, limit);
+    double ringRadius = distanceLimit / Math.pow(2, COMMONS.SEARCH_RINGS - 1);
+    int next = 0;
+    while (next < pendingRanges.size()) {
+      int ringEnd = next;
+      while (ringEnd < pendingRanges.size() && pendingRanges.get(ringEnd).getMinDistance() <= ringRadius) {
+        ringEnd++;
+      }
+      ringRadius *= 2;
+      if (ringEnd == next) continue;
+
+      ringQuery.accept(pendingRanges.subList(next, ringEnd), offerNearest);
+      next = ringEnd;
+
+      // Every result left is at least as far as the closest range left
+      if (nearestResults.size() == limit && next < pendingRanges.size() &&
+          distance.applyAsDouble(nearestResults.peek()) <= pendingRanges.get(next).getMinDistance()) {
+        break;
+      }
+    }
+
+    List<T> sortedResults = new ArrayList<>(nearestResults);
+    sortedResults.sort(closestFirst);
+    return sortedResults;
+  }
+
+  /** Adds the result to the heap if it is among the closest, the heap never holds more than limit */
+  private static <T> void offerNearest(PriorityQueue<T> nearestResults, Comparator<T> farthestFirst, T result,
+      int limit) {
+    if (nearestResults.size() < limit) {
+      nearestResults.add(result);
+    } else if (farthestFirst.compare(result, nearestResults.peek()) > 0) {
+      nearestResults.poll();
+      nearestResults.add(result);
+    }
+  }
+
+  private static float distanceOf(Vendor vendor) {
+    return vendor.getSaleCard().getDistanceFromClient();
+  }
+
+  /** Returns true if a vendor has a salecard and passes the filters the datastore query would apply */
+  private boolean matchesFilters(Entity vendorEntity, boolean hasDelivery, boolean onlyOpenNow) {
+    EmbeddedEntity saleCard = (EmbeddedEntity) vendorEntity.getProperty("saleCard");
+    if (saleCard == null) return false;
+    if (hasDelivery && !Boolean.TRUE.equals(saleCard.getProperty("hasDelivery"))) return false;
+    return !onlyOpenNow || Boolean.FALSE.equals(saleCard.getProperty("isTemporarilyClosed"));
+  }
+
+  /**
+   * Sends the query of every range and returns their results without waiting for any of them.
+   * Overlapping ranges are merged first, so no geohash is read twice. When the RangeResultCache
+   * is enabled and the ranges fit in its cells, the cells are read instead, from the cache if
+   * they were read recently, and only the vendors inside the ranges are returned. A cell known to
+   * be too large to cache is not read whole, the ranges inside it are queried.
+   * @param pinsOnly true to read only the properties of a pin with projection queries
+   * @param deadline deadline of the search, checked before every entity read from datastore
+   */
+  private List<Iterator<Entity>> startRangeQueries(List<GeoHashRange> geoHashRanges, boolean hasDelivery,
+      boolean onlyOpenNow, LocalTime requestTime, boolean pinsOnly, SearchDeadline deadline) {
+    AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService(deadline.datastoreConfig());
+
+    // asIterator() sends the query and returns without waiting for its first batch (asIterable()
+    // would only send it when iterated), so preparing every range first puts all the round trips
+    // in flight at the same time. The later batches are only fetched while reading, so they are
+    // made large to be few.
+    FetchOptions fetchOptions = FetchOptions.Builder
+        .withPrefetchSize(COMMONS.SEARCH_BATCH_SIZE).chunkSize(COMMONS.SEARCH_BATCH_SIZE);
+    List<GeoHashRange> queryRanges = GeoHashRange.normalize(geoHashRanges);
+    List<GeoHashRange> cachedCells =
+        (RangeResultCache.isEnabled()) ? RangeResultCache.cellsCovering(queryRanges) : null;
+    RangeResultCache rangeResultCache = (cachedCells == null) ? null : RangeResultCache.getInstance();
+    List<Iterator<Entity>> pendingRanges = new ArrayList<>();
+    for (GeoHashRange geoHashRange : (cachedCells == null) ? queryRanges : cachedCells) {
+      List<Entity> cachedVendors = (rangeResultCache == null) ? null
+          : rangeResultCache.get(geoHashRange, hasDelivery, onlyOpenNow, requestTime, pinsOnly);
+      if (cachedVendors != null) {
+        pendingRanges.add(insideRanges(cachedVendors.iterator(), queryRanges));
+        continue;
+      }
+      if (rangeResultCache != null &&
+          rangeResultCache.isOversize(geoHashRange, hasDelivery, onlyOpenNow, requestTime, pinsOnly)) {
+        for (GeoHashRange rangeInCell : rangesInside(queryRanges, geoHashRange)) {
+          Query datastoreQuery = (pinsOnly)
+              ? buildPinQuery(rangeInCell, hasDelivery, onlyOpenNow, requestTime)
+              : buildGeoQuery(rangeInCell, hasDelivery, onlyOpenNow, requestTime);
+          pendingRanges.add(deadline.guard(datastore.prepare(datastoreQuery).asIterator(fetchOptions)));
+        }
+        continue;
+      }
+
+      long startedAtNanos = System.nanoTime();
+      Query datastoreQuery = (pinsOnly)
+          ? buildPinQuery(geoHashRange, hasDelivery, onlyOpenNow, requestTime)
+          : buildGeoQuery(geoHashRange, hasDelivery, onlyOpenNow, requestTime);
+      Iterator<Entity> vendorsRetrieved = deadline.guard(datastore.prepare(datastoreQuery).asIterator(fetchOptions));
+      pendingRanges.add((rangeResultCache == null) ? vendorsRetrieved : insideRanges(rangeResultCache.caching(
+          vendorsRetrieved, geoHashRange, hasDelivery, onlyOpenNow, requestTime, pinsOnly, startedAtNanos),
+          queryRanges));
+    }
+    return pendingRanges;
+  }
 
-    // Mandatory GeoHash Filters
-    List<Filter> filtersList = new ArrayList<>(Arrays.asList(lowerBound, upperBound));
+  /** Returns the parts of the sorted, disjoint ranges inside the cell. */
+  private static List<GeoHashRange> rangesInside(List<GeoHashRange> geoHashRanges, GeoHashRange cell) {
+    List<GeoHashRange> rangesInside = new ArrayList<>();
+    for (GeoHashRange geoHashRange : geoHashRanges) {
+      long start = Math.max(geoHashRange.getStart(), cell.getStart());
+      long end = Math.min(geoHashRange.getEnd(), cell.getEnd());
+      if (start < end) {
+        rangesInside.add(new GeoHashRange(start, end));
+      }
+    }
+    return rangesInside;
+  }
+
+  /**
+   * Returns the entities of a cell whose geohash is inside one of the sorted, disjoint ranges.
+   * The ones left out still count as read by the request.
+   */
+  private static Iterator<Entity> insideRanges(Iterator<Entity> cellEntities, List<GeoHashRange> geoHashRanges) {
+    long[] starts = new long[geoHashRanges.size()];
+    for (int i = 0; i < starts.length; i++) {
+      starts[i] = geoHashRanges.get(i).getStart();
+    }
+    return new Iterator<Entity>() {
+      private Entity nextEntity;
+      private int leftOut;
+
+      @Override
+      public boolean hasNext() {
+        while (nextEntity == null && cellEntities.hasNext()) {
+          Entity entity = cellEntities.next();
+          long cell = LongGeoHash.fromBase32(geoHashOf(entity));
+          // The last range starting at or before the geohash is the only one that can hold it
+          int position = Arrays.binarySearch(starts, cell);
+          int candidate = (position >= 0) ? position : -position - 2;
+          if (candidate >= 0 && cell < geoHashRanges.get(candidate).getEnd()) {
+            nextEntity = entity;
+          } else {
+            leftOut++;
+          }
+        }
+        if (nextEntity == null && leftOut > 0) {
+          RequestTrace.addEntitiesRead(leftOut);
+          leftOut = 0;
+        }
+        return nextEntity != null;
+      }
+
+      @Override
+      public Entity next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Entity entity = nextEntity;
+        nextEntity = null;
+        return entity;
+      }
+    };
+  }
+
+  /** Returns the stored geohash of a vendor entity, or of the projection of a pin. */
+  private static String geoHashOf(Entity vendorEntity) {
+    if (vendorEntity.hasProperty("saleCard.location.geoHash")) {
+      return (String) vendorEntity.getProperty("saleCard.location.geoHash");
+    }
+    EmbeddedEntity saleCard = (EmbeddedEntity) vendorEntity.getProperty("saleCard");
+    EmbeddedEntity location = (EmbeddedEntity) saleCard.getProperty("location");
+    return (String) location.getProperty("geoHash");
+  }
+
+  /** Returns true if the range has more vendors, the next batch is only fetched before the deadline. */
+  private static boolean hasNext(QueryResultIterator<Entity> vendorsRetrieved, SearchDeadline deadline) {
+    deadline.check();
+    return vendorsRetrieved.hasNext();
+  }
+
+  /**
+   * Reads the ranges in order and passes the results built from them to the consumer, the ranges
+   * after the first are usually ready by the time we get to them. The ranges do not overlap, but
+   * a vendor moved while they are read can still show up in two of them, only the first one
+   * counts.
+   * @param create builds the result of an entity, or returns null if it does not match the search
+   */
+  private static <T> void mergeRanges(List<Iterator<Entity>> pendingRanges, Function<Entity, T> create,
+      Consumer<T> consumer) {
+    Set<Key> vendorsSeen = new HashSet<>();
+    int entitiesRead = 0;
+    for (Iterator<Entity> entitiesRetrieved : pendingRanges) {
+      while (entitiesRetrieved.hasNext()) {
+        Entity entity = entitiesRetrieved.next();
+        entitiesRead++;
+        if (!vendorsSeen.add(entity.getKey())) continue;
+
+        T result = create.apply(entity);
+        if (result != null) {
+          consumer.accept(result);
+        }
+      }
+    }
+    RequestTrace.addEntitiesRead(entitiesRead);
+  }
+
+  /**
+   * Returns the range query of buildGeoQuery projected to the properties of a pin. Properties
+   * filtered by equality cannot be projected, a vendor read with onlyOpenNow is never closed.
+   * A projection skips the entities without one of its properties, so the hours are read from
+   * the "HH:mm" Strings every salecard has, not from the minutes older salecards lack.
+   */
+  private Query buildPinQuery(GeoHashRange geoHashRange, boolean hasDelivery, boolean onlyOpenNow,
+      LocalTime requestTime) {
+    Query pinQuery = buildGeoQuery(geoHashRange, hasDelivery, onlyOpenNow, requestTime)
+        .addProjection(new PropertyProjection("saleCard.businessName", String.class))
+        .addProjection(new PropertyProjection("saleCard.location.salePoint", GeoPt.class))
+        .addProjection(new PropertyProjection("saleCard.location.geoHash", String.class))
+        .addProjection(new PropertyProjection("saleCard.startTime", String.class))
+        .addProjection(new PropertyProjection("saleCard.endTime", String.class));
+    if (!onlyOpenNow) {
+      pinQuery.addProjection(new PropertyProjection("saleCard.isTemporarilyClosed", Boolean.class));
+    }
+    return pinQuery;
+  }
+
+  /** 
+   * Returns a query for a Vendor with a filter to match a range of geoHashes and
+   * if needed add filters for only vendors with delivery service and only currently open.
+   * With the system property COMMONS.OPEN_HOURS_FILTER_PROPERTY, open vendors are the ones open
+   * at some point of the hour of the request. Salecards without openHours are missed by that
+   * filter until OpeningHoursBackfill rewrites them, so without the property every salecard not
+   * temporarily closed is read. The exact minute is checked on the results either way.
+   */
+  private Query buildGeoQuery(GeoHashRange geoHashRange, boolean hasDelivery, boolean onlyOpenNow,
+      LocalTime requestTime) {
+    // Mandatory GeoHash Filters, the last range of the map has no upper bound
+    List<Filter> filtersList = new ArrayList<>();
+    filtersList.add(new FilterPredicate("saleCard.location.geoHash",
+        FilterOperator.GREATER_THAN_OR_EQUAL, geoHashRange.getStartGeoHash()));
+    String endGeoHash = geoHashRange.getEndGeoHash();
+    if (endGeoHash != null) {
+      filtersList.add(new FilterPredicate("saleCard.location.geoHash", FilterOperator.LESS_THAN, endGeoHash));
+    }
 
     // Only with delivery
     if (hasDelivery) {
@@ -71,47 +607,78 @@ public final class NearbyVendorsQuery {
     if (onlyOpenNow) {
       filtersList.add(
           new FilterPredicate("saleCard.isTemporarilyClosed", FilterOperator.EQUAL, !onlyOpenNow));
+      if (Boolean.getBoolean(COMMONS.OPEN_HOURS_FILTER_PROPERTY)) {
+        filtersList.add(
+            new FilterPredicate("saleCard.openHours", FilterOperator.EQUAL, (long) requestTime.getHour()));
+      }
     }
 
-    Filter geoFilter = CompositeFilterOperator.and(filtersList);
+    // A composite filter needs at least two of them
+    Filter geoFilter = (filtersList.size() == 1) ? filtersList.get(0) : CompositeFilterOperator.and(filtersList);
     return new Query("Vendor").setFilter(geoFilter);
   }
 
   /** Returns an iterable with the results retrieved from Datastore */
   private Iterable<Entity> fetchVendors(Query query) {
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    DatastoreService datastore = HttpServletUtils.DATASTORE;
     return datastore.prepare(query).asIterable();
   }
 
-  /** Returns a list with the retrieved vendors and check they are within the requested distance*/
-  private List<Vendor> createVendorsList(Iterable<Entity> vendors, GeoPt requestLocation, int distanceLimit,
+  /**
+   * Returns a list with the retrieved vendors and check they are within the requested distance.
+   * Package-private for SearchPathBenchmark.
+   */
+  List<Vendor> createVendorsList(Iterable<Entity> vendors, GeoPt requestLocation, int distanceLimit,
       boolean onlyOpenNow, LocalTime requestTime) {
+    GeoDistanceFilter distanceFilter = new GeoDistanceFilter(requestLocation, distanceLimit);
     List<Vendor> nearbyVendors = new ArrayList<>();
     for (Entity vendorEntity : vendors) {
-      Vendor vendor = new Vendor(vendorEntity);
-      GeoPt vendorLocation = vendor.getSaleCard().getLocation().getSalePoint();
-      float distanceClientVendor = HttpServletUtils.computeGeoDistance(requestLocation, vendorLocation);
-      boolean timeCheck = (onlyOpenNow) 
-          ? isBetweenOpeningHours(vendor.getSaleCard().getStartTime(), vendor.getSaleCard().getEndTime(), requestTime)
-          : true;
-
-      if (distanceClientVendor <= distanceLimit && timeCheck) {
-        vendor.getSaleCard().setDistanceFromClient(distanceClientVendor);
+      Vendor vendor = createNearbyVendor(vendorEntity, distanceFilter, distanceLimit, onlyOpenNow, requestTime);
+      if (vendor != null) {
         nearbyVendors.add(vendor);
-      }    
+      }
     }
 
     return nearbyVendors;
   }
 
-  /**
-   * Returns true if the time is between the salecard's opening hours
-   * E.g. if startTime after endTime, requestTime between (startTime, 23:59] or [00:00, endTime)
-   * else, requestTime between (startTime, endTime)
-   */
-  private boolean isBetweenOpeningHours(LocalTime start, LocalTime end, LocalTime requestTime) {
-    return (start.isAfter(end))
-        ? requestTime.isAfter(start) || requestTime.isBefore(end)
-        : requestTime.isAfter(start) && requestTime.isBefore(end);
+  /** Returns the retrieved vendor with its distance if it is within the requested distance and hours, else null */
+  private Vendor createNearbyVendor(Entity vendorEntity, GeoDistanceFilter distanceFilter, int distanceLimit,
+      boolean onlyOpenNow, LocalTime requestTime) {
+    // Both checks are done on the entity, a Vendor is only built for the ones kept
+    EmbeddedEntity saleCard = (EmbeddedEntity) vendorEntity.getProperty("saleCard");
+    EmbeddedEntity location = (EmbeddedEntity) saleCard.getProperty("location");
+    GeoPt vendorLocation = (GeoPt) location.getProperty("salePoint");
+    if (!distanceFilter.mayContain(vendorLocation)) return null;
+    float distanceClientVendor = distanceFilter.distanceTo(vendorLocation);
+    if (distanceClientVendor > distanceLimit) return null;
+    if (onlyOpenNow && !OpeningHours.isOpen(
+        OpeningHours.getStartMinute(saleCard), OpeningHours.getEndMinute(saleCard), requestTime)) {
+      return null;
+    }
+
+    Vendor vendor = new Vendor(vendorEntity);
+    vendor.getSaleCard().setDistanceFromClient(distanceClientVendor);
+    return vendor;
+  }
+
+  /** Returns the pin of a projected vendor if it is within the requested distance and hours, else null */
+  private VendorPin createNearbyPin(Entity pinEntity, GeoDistanceFilter distanceFilter, int distanceLimit,
+      boolean onlyOpenNow, LocalTime requestTime) {
+    GeoPt vendorLocation = (GeoPt) pinEntity.getProperty("saleCard.location.salePoint");
+    if (!distanceFilter.mayContain(vendorLocation)) return null;
+    float distanceClientVendor = distanceFilter.distanceTo(vendorLocation);
+    if (distanceClientVendor > distanceLimit) return null;
+
+    int startMinute =
+        OpeningHours.toMinuteOfDay(LocalTime.parse((String) pinEntity.getProperty("saleCard.startTime")));
+    int endMinute =
+        OpeningHours.toMinuteOfDay(LocalTime.parse((String) pinEntity.getProperty("saleCard.endTime")));
+    boolean isOpenNow = OpeningHours.isOpen(startMinute, endMinute, requestTime) &&
+        (onlyOpenNow || Boolean.FALSE.equals(pinEntity.getProperty("saleCard.isTemporarilyClosed")));
+    if (onlyOpenNow && !isOpenNow) return null;
+
+    return new VendorPin(pinEntity.getKey().getName(), (String) pinEntity.getProperty("saleCard.businessName"),
+        vendorLocation, distanceClientVendor, isOpenNow);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.sps.COMMONS;
+import com.google.sps.data.HttpServletUtils;
+import com.google.sps.data.OpeningHours;
+import com.google.sps.data.VendorCache;
+import com.google.sps.data.VendorVersion;
+import java.time.LocalTime;
+
+/**
+ * Rewrites the opening hours of the salecards written before the minutes and openHours were
+ * stored, so the openHours filter of a nearby search finds them. The hours are set again from
+ * their "HH:mm" Strings with OpeningHours.setOpeningHours, on the vendor and on its SaleCard.
+ *
+ * Vendors are read in key order one page at a time. Each legacy vendor is rewritten in its own
+ * transaction, read again inside it, so a salecard saved in the meantime is left as it is.
+ */
+public final class OpeningHoursBackfill {
+  private final DatastoreService datastore;
+
+  public OpeningHoursBackfill() {
+    this.datastore = HttpServletUtils.DATASTORE;
+  }
+
+  /** Returns true if the salecard of the vendor entity lacks the hours a search filters on. */
+  public static boolean needsBackfill(Entity vendorEntity) {
+    EmbeddedEntity saleCard = (EmbeddedEntity) vendorEntity.getProperty("saleCard");
+    return saleCard != null && !saleCard.hasProperty("openHours");
+  }
+
+  /**
+   * Backfills one page of at most COMMONS.OPENING_HOURS_BACKFILL_PAGE_SIZE vendors.
+   * @param after the cursor the previous page returned, or null to start from the first vendor
+   * @return what the page did and the cursor to continue from
+   */
+  public Page backfill(Cursor after) {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(COMMONS.OPENING_HOURS_BACKFILL_PAGE_SIZE);
+    if (after != null) {
+      fetchOptions.startCursor(after);
+    }
+    QueryResultList<Entity> vendorEntities =
+        datastore.prepare(new Query("Vendor")).asQueryResultList(fetchOptions);
+
+    int rewritten = 0;
+    for (Entity vendorEntity : vendorEntities) {
+      if (needsBackfill(vendorEntity) && rewrite(vendorEntity.getKey())) {
+        rewritten++;
+      }
+    }
+    String nextCursor = (vendorEntities.size() < COMMONS.OPENING_HOURS_BACKFILL_PAGE_SIZE)
+        ? null : vendorEntities.getCursor().toWebSafeString();
+    return new Page(vendorEntities.size(), rewritten, nextCursor);
+  }
+
+  /** Sets the hours of a legacy vendor again. Returns false if it no longer needed it. */
+  private boolean rewrite(Key vendorKey) {
+    Entity written = HttpServletUtils.runInTransaction(datastore, transaction -> {
+      Entity vendorEntity = HttpServletUtils.getVendorEntity(datastore, transaction, vendorKey.getName());
+      if (vendorEntity == null || !needsBackfill(vendorEntity)) return null;
+
+      EmbeddedEntity saleCard = (EmbeddedEntity) vendorEntity.getProperty("saleCard");
+      LocalTime start = LocalTime.parse((CharSequence) saleCard.getProperty("startTime"));
+      LocalTime end = LocalTime.parse((CharSequence) saleCard.getProperty("endTime"));
+      OpeningHours.setOpeningHours(saleCard, start, end);
+      vendorEntity.setIndexedProperty("saleCard", saleCard);
+      VendorVersion.bump(vendorEntity);
+
+      try {
+        if (saleCard.getKey() != null) {
+          Entity saleCardEntity = datastore.get(transaction, saleCard.getKey());
+          OpeningHours.setOpeningHours(saleCardEntity, start, end);
+          datastore.put(transaction, saleCardEntity);
+        }
+      } catch (EntityNotFoundException e) {
+        // Only the embedded salecard is read by searches
+      }
+      datastore.put(transaction, vendorEntity);
+      return vendorEntity;
+    });
+    if (written == null) return false;
+
+    VendorCache.getInstance().invalidate(vendorKey.getName());
+    VendorIndex.getInstance().update(written);
+    EmbeddedEntity location =
+        (EmbeddedEntity) ((EmbeddedEntity) written.getProperty("saleCard")).getProperty("location");
+    RangeResultCache.getInstance().invalidate((String) location.getProperty("geoHash"));
+    return true;
+  }
+
+  /** What a page of the backfill did, and where the next page starts. */
+  public static final class Page {
+    private final int scanned;
+    private final int rewritten;
+    private final String nextCursor;
+
+    Page(int scanned, int rewritten, String nextCursor) {
+      this.scanned = scanned;
+      this.rewritten = rewritten;
+      this.nextCursor = nextCursor;
+    }
+
+    /** Returns the vendors read in this page. */
+    public int getScanned() {
+      return scanned;
+    }
+
+    /** Returns the vendors whose hours were written again. */
+    public int getRewritten() {
+      return rewritten;
+    }
+
+    /** Returns the web-safe cursor after this page, or null if it was the last one. */
+    public String getNextCursor() {
+      return nextCursor;
+    }
+  }
+}
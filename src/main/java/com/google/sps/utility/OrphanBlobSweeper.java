@@ -0,0 +1,127 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.blobstore.BlobInfo;
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.sps.COMMONS;
+import com.google.sps.data.HttpServletUtils;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the blobs no Picture entity references and deletes them. A failure between an upload and
+ * the put of its picture, or a lost cleanup task, leaves such blobs behind.
+ *
+ * Blobs are read in key order one page at a time, and checked against the pictures in batches
+ * of COMMONS.BLOB_SWEEP_BATCH_SIZE keys per query. Blobs uploaded within the grace period are
+ * skipped, their picture may not be written yet.
+ */
+public final class OrphanBlobSweeper {
+  private final DatastoreService datastore;
+  private final BlobstoreService blobstoreService;
+  private final BlobInfoFactory blobInfoFactory;
+
+  public OrphanBlobSweeper() {
+    this.datastore = HttpServletUtils.DATASTORE;
+    this.blobstoreService = HttpServletUtils.BLOBSTORE;
+    this.blobInfoFactory = new BlobInfoFactory(datastore);
+  }
+
+  /**
+   * Sweeps one page of at most COMMONS.BLOB_SWEEP_PAGE_SIZE blobs. The page ends early once it
+   * holds COMMONS.BLOB_SWEEP_MAX_DELETES orphans, to bound the deletes of a single run.
+   * @param after the key of the last blob of the previous page, or null to start from the first
+   * @param uploadedBefore blobs uploaded at or after this date are never deleted
+   * @param dryRun if true the orphans are only reported
+   * @return what the page found and the key to continue from
+   */
+  public BlobSweepReport sweep(BlobKey after, Date uploadedBefore, boolean dryRun) {
+    Iterator<BlobInfo> blobInfos = (after == null)
+        ? blobInfoFactory.queryBlobInfos()
+        : blobInfoFactory.queryBlobInfosAfter(after);
+
+    int scanned = 0, tooRecent = 0;
+    Set<BlobKey> referenced = new HashSet<>();
+    List<BlobKey> orphans = new ArrayList<>();
+    List<BlobKey> batch = new ArrayList<>(COMMONS.BLOB_SWEEP_BATCH_SIZE);
+    BlobKey last = after;
+    while (scanned < COMMONS.BLOB_SWEEP_PAGE_SIZE
+        && orphans.size() + batch.size() < COMMONS.BLOB_SWEEP_MAX_DELETES && blobInfos.hasNext()) {
+      BlobInfo blobInfo = blobInfos.next();
+      scanned++;
+      last = blobInfo.getBlobKey();
+      if (!blobInfo.getCreation().before(uploadedBefore)) {
+        tooRecent++;
+        continue;
+      }
+
+      batch.add(blobInfo.getBlobKey());
+      if (batch.size() == COMMONS.BLOB_SWEEP_BATCH_SIZE) {
+        sweepBatch(batch, referenced, orphans, dryRun);
+        batch.clear();
+      }
+    }
+    sweepBatch(batch, referenced, orphans, dryRun);
+
+    List<String> orphanKeys = new ArrayList<>(orphans.size());
+    for (BlobKey orphan : orphans) {
+      orphanKeys.add(orphan.getKeyString());
+    }
+    String nextBlobKey = (blobInfos.hasNext()) ? last.getKeyString() : null;
+    return new BlobSweepReport(dryRun, scanned, referenced.size(), tooRecent, orphanKeys, nextBlobKey);
+  }
+
+  /** Splits the batch into referenced and orphan blobs, deleting the orphans with one call. */
+  private void sweepBatch(List<BlobKey> batch, Set<BlobKey> referenced, List<BlobKey> orphans,
+      boolean dryRun) {
+    if (batch.isEmpty()) return;
+
+    // The blobKey filter can't be projected, the pictures are small enough to read whole
+    Query query = new Query("Picture")
+        .setFilter(new FilterPredicate("blobKey", FilterOperator.IN, batch));
+    Set<BlobKey> batchReferenced = new HashSet<>();
+    for (Entity picture : datastore.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(batch.size()))) {
+      batchReferenced.add((BlobKey) picture.getProperty("blobKey"));
+    }
+
+    List<BlobKey> batchOrphans = new ArrayList<>();
+    for (BlobKey blobKey : batch) {
+      if (!batchReferenced.contains(blobKey)) {
+        batchOrphans.add(blobKey);
+      }
+    }
+    if (!dryRun && !batchOrphans.isEmpty()) {
+      blobstoreService.delete(batchOrphans.toArray(new BlobKey[0]));
+      for (BlobKey orphan : batchOrphans) {
+        ImageVariantCache.getInstance().invalidate(orphan);
+      }
+    }
+    referenced.addAll(batchReferenced);
+    orphans.addAll(batchOrphans);
+  }
+}
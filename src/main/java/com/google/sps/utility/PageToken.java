@@ -0,0 +1,116 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.datastore.Cursor;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Where a paged nearby search stopped. Ranges are read one after another in geohash order, so
+ * the position is the range being read and the datastore cursor inside it, the ranges after it
+ * start from their beginning. The token also keeps a fingerprint of the search it belongs to,
+ * a cursor is only valid for the same query.
+ */
+public final class PageToken {
+  private static final String VERSION = "1";
+  private static final String SEPARATOR = ":";
+
+  private final int fingerprint;
+  private final int rangeIndex;
+  private final Cursor cursor;
+
+  public PageToken(int fingerprint, int rangeIndex, Cursor cursor) {
+    this.fingerprint = fingerprint;
+    this.rangeIndex = rangeIndex;
+    this.cursor = cursor;
+  }
+
+  /**
+   * Returns the fingerprint of a search, the parts that change its datastore queries. Only open
+   * vendors are filtered by the hour of the request, so the hour is part of those searches.
+   */
+  public static int fingerprint(List<GeoHashRange> geoHashRanges, boolean hasDelivery, boolean onlyOpenNow,
+      LocalTime requestTime) {
+    int openHour = (onlyOpenNow) ? requestTime.getHour() : -1;
+    return Objects.hash(geoHashRanges, hasDelivery, onlyOpenNow, openHour);
+  }
+
+  /**
+   * Returns the token read from its opaque String.
+   * @throws IllegalArgumentException if the String is not a valid token
+   */
+  public static PageToken decode(String token) {
+    String[] parts;
+    try {
+      parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Page token is not valid", e);
+    }
+    if (parts.length != 4 || !parts[0].equals(VERSION)) {
+      throw new IllegalArgumentException("Page token is not valid");
+    }
+
+    int fingerprint;
+    int rangeIndex;
+    Cursor cursor;
+    try {
+      fingerprint = Integer.parseInt(parts[1]);
+      rangeIndex = Integer.parseInt(parts[2]);
+      // Anything the cursor parser throws on a forged token is a bad request, not a failure
+      cursor = parts[3].isEmpty() ? null : Cursor.fromWebSafeString(parts[3]);
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Page token is not valid", e);
+    }
+    if (rangeIndex < 0) {
+      throw new IllegalArgumentException("Page token is not valid");
+    }
+    return new PageToken(fingerprint, rangeIndex, cursor);
+  }
+
+  /**
+   * Returns true if the token was created by a search with the same datastore queries. The range
+   * index points into the normalized ranges, past the last one only once they are all read.
+   */
+  public boolean belongsTo(List<GeoHashRange> geoHashRanges, boolean hasDelivery, boolean onlyOpenNow,
+      LocalTime requestTime) {
+    int rangeCount = GeoHashRange.normalize(geoHashRanges).size();
+    return fingerprint == fingerprint(geoHashRanges, hasDelivery, onlyOpenNow, requestTime) &&
+        (rangeIndex < rangeCount || (rangeIndex == rangeCount && cursor == null));
+  }
+
+  /** Returns the opaque String sent to the client. */
+  public String encode() {
+    String token = String.join(SEPARATOR, VERSION, Integer.toString(fingerprint), Integer.toString(rangeIndex),
+        (cursor == null) ? "" : cursor.toWebSafeString());
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public int getFingerprint() {
+    return fingerprint;
+  }
+
+  public int getRangeIndex() {
+    return rangeIndex;
+  }
+
+  /** Returns the cursor inside the range, or null to start at its beginning. */
+  public Cursor getCursor() {
+    return cursor;
+  }
+}
@@ -0,0 +1,274 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.COMMONS;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short-lived cache of the vendors a query of a geohash cell returned, before the distance and
+ * minute checks that depend on each client. The covers of two clients are never quite the same,
+ * so a search is not cached by its own ranges: they are widened to the fixed cells of one
+ * precision, between COMMONS.SEARCH_CACHE_MIN_PRECISION and COMMONS.SEARCH_CACHE_MAX_PRECISION,
+ * that contain them. Clients in the same area searching with the same filters read the same
+ * cells, only the first one of them within COMMONS.SEARCH_CACHE_TTL_MILLIS goes to datastore.
+ * Only cells with up to COMMONS.SEARCH_BATCH_SIZE vendors are kept. A larger cell is remembered
+ * as oversize for COMMONS.SEARCH_CACHE_OVERSIZE_TTL_MILLIS, searches in it query their own ranges
+ * instead of the whole cell, so only the search that found it out reads more than it needs.
+ *
+ * The servlets writing a salecard invalidate the cells containing its geohash, writes on other
+ * instances are only seen once the entries expire. It is enabled with the system property
+ * COMMONS.SEARCH_CACHE_PROPERTY. The cached entities are shared, they must not be modified.
+ */
+public final class RangeResultCache {
+  private static final RangeResultCache INSTANCE = new RangeResultCache();
+  private static final long TTL_NANOS = TimeUnit.MILLISECONDS.toNanos(COMMONS.SEARCH_CACHE_TTL_MILLIS);
+  private static final long OVERSIZE_TTL_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(COMMONS.SEARCH_CACHE_OVERSIZE_TTL_MILLIS);
+
+  // Access ordered, the eldest entry is the least recently used one
+  private final Map<Key, CachedRange> cachedRanges = new LinkedHashMap<Key, CachedRange>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, CachedRange> eldest) {
+      return size() > COMMONS.SEARCH_CACHE_MAX_RANGES;
+    }
+  };
+  // Cells that held too many vendors to be kept, with when that was found. Guarded by cachedRanges
+  private final Map<Key, Long> oversizeCells = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+      return size() > COMMONS.SEARCH_CACHE_MAX_RANGES;
+    }
+  };
+  // Results of queries sent before the last invalidation may miss it, they are not kept
+  private long invalidatedAtNanos;
+
+  private RangeResultCache() {}
+
+  public static RangeResultCache getInstance() {
+    return INSTANCE;
+  }
+
+  /** Returns true if range results should be cached. */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(COMMONS.SEARCH_CACHE_PROPERTY);
+  }
+
+  /**
+   * Returns the cells of the finest precision that contain the ranges, at most
+   * COMMONS.SEARCH_CACHE_MAX_CELLS of them, sorted. Every geohash of the ranges is in one of
+   * them, but they also hold geohashes around the ranges.
+   * @return the cells, or null if the ranges need more cells even at the coarsest precision
+   */
+  public static List<GeoHashRange> cellsCovering(List<GeoHashRange> geoHashRanges) {
+    for (int precision = COMMONS.SEARCH_CACHE_MAX_PRECISION; precision >= COMMONS.SEARCH_CACHE_MIN_PRECISION;
+        precision--) {
+      int shift = 5 * (COMMONS.MAX_GEOHASH_PRECISION - precision);
+      SortedSet<Long> cells = new TreeSet<>();
+      for (GeoHashRange geoHashRange : geoHashRanges) {
+        long lastCell = (geoHashRange.getEnd() - 1) >> shift;
+        for (long cell = geoHashRange.getStart() >> shift;
+            cell <= lastCell && cells.size() <= COMMONS.SEARCH_CACHE_MAX_CELLS; cell++) {
+          cells.add(cell);
+        }
+      }
+      if (cells.size() <= COMMONS.SEARCH_CACHE_MAX_CELLS) {
+        List<GeoHashRange> cellRanges = new ArrayList<>(cells.size());
+        for (long cell : cells) {
+          cellRanges.add(GeoHashRange.ofCell(cell, precision));
+        }
+        return cellRanges;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the vendors of a cell query if they were read recently, else null.
+   * @param geoHashRange a cell from cellsCovering
+   * @param pinsOnly true for the projected entities of a pin query
+   */
+  public List<Entity> get(GeoHashRange geoHashRange, boolean hasDelivery, boolean onlyOpenNow,
+      LocalTime requestTime, boolean pinsOnly) {
+    Key key = new Key(geoHashRange, hasDelivery, onlyOpenNow, requestTime, pinsOnly);
+    synchronized (cachedRanges) {
+      CachedRange cachedRange = cachedRanges.get(key);
+      if (cachedRange == null) return null;
+      if (System.nanoTime() - cachedRange.cachedAtNanos > TTL_NANOS) {
+        cachedRanges.remove(key);
+        return null;
+      }
+      return cachedRange.vendorEntities;
+    }
+  }
+
+  /**
+   * Returns true if a query of the cell recently found more vendors than are kept, the search
+   * should query its own ranges inside the cell instead.
+   * @param geoHashRange a cell from cellsCovering
+   */
+  public boolean isOversize(GeoHashRange geoHashRange, boolean hasDelivery, boolean onlyOpenNow,
+      LocalTime requestTime, boolean pinsOnly) {
+    Key key = new Key(geoHashRange, hasDelivery, onlyOpenNow, requestTime, pinsOnly);
+    synchronized (cachedRanges) {
+      Long foundAtNanos = oversizeCells.get(key);
+      if (foundAtNanos == null) return false;
+      if (System.nanoTime() - foundAtNanos > OVERSIZE_TTL_NANOS) {
+        oversizeCells.remove(key);
+        return false;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Returns the results of a cell query that are kept once they have all been read. Nothing is
+   * kept if the reading stops early, fails, or finds more than COMMONS.SEARCH_BATCH_SIZE vendors,
+   * the cell is then remembered as oversize.
+   * @param geoHashRange a cell from cellsCovering
+   * @param startedAtNanos System.nanoTime() when the query was sent, a write invalidated after it
+   *     is not missed
+   */
+  public Iterator<Entity> caching(Iterator<Entity> vendorsRetrieved, GeoHashRange geoHashRange,
+      boolean hasDelivery, boolean onlyOpenNow, LocalTime requestTime, boolean pinsOnly, long startedAtNanos) {
+    Key key = new Key(geoHashRange, hasDelivery, onlyOpenNow, requestTime, pinsOnly);
+    return new Iterator<Entity>() {
+      private List<Entity> vendorEntities = new ArrayList<>();
+
+      @Override
+      public boolean hasNext() {
+        boolean hasNext = vendorsRetrieved.hasNext();
+        if (!hasNext && vendorEntities != null) {
+          put(key, new CachedRange(Collections.unmodifiableList(vendorEntities), startedAtNanos));
+          vendorEntities = null;
+        }
+        return hasNext;
+      }
+
+      @Override
+      public Entity next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Entity vendorEntity = vendorsRetrieved.next();
+        if (vendorEntities != null) {
+          vendorEntities.add(vendorEntity);
+          if (vendorEntities.size() > COMMONS.SEARCH_BATCH_SIZE) {
+            vendorEntities = null;
+            synchronized (cachedRanges) {
+              oversizeCells.put(key, System.nanoTime());
+            }
+          }
+        }
+        return vendorEntity;
+      }
+    };
+  }
+
+  /**
+   * Drops every cell containing the geohash, called after a salecard there is written. The keys
+   * are built from the geohash, one per precision and filters, nothing else is looked at. Oversize
+   * cells are kept, one write does not make a crowded cell small.
+   */
+  public void invalidate(String geoHash) {
+    synchronized (cachedRanges) {
+      invalidatedAtNanos = System.nanoTime();
+      if (geoHash == null || geoHash.length() < COMMONS.SEARCH_CACHE_MAX_PRECISION) return;
+      for (int precision = COMMONS.SEARCH_CACHE_MIN_PRECISION; precision <= COMMONS.SEARCH_CACHE_MAX_PRECISION;
+          precision++) {
+        GeoHashRange cell = GeoHashRange.ofPrefix(geoHash.substring(0, precision));
+        for (int openHour = -1; openHour < 24; openHour++) {
+          for (int filters = 0; filters < 4; filters++) {
+            cachedRanges.remove(new Key(cell, (filters & 1) != 0, openHour, (filters & 2) != 0));
+          }
+        }
+      }
+    }
+  }
+
+  /** Drops every range, and forgets the oversize cells. */
+  public void clear() {
+    synchronized (cachedRanges) {
+      cachedRanges.clear();
+      oversizeCells.clear();
+      invalidatedAtNanos = System.nanoTime();
+    }
+  }
+
+  private void put(Key key, CachedRange cachedRange) {
+    synchronized (cachedRanges) {
+      if (cachedRange.cachedAtNanos - invalidatedAtNanos > 0) {
+        cachedRanges.put(key, cachedRange);
+      }
+    }
+  }
+
+  /** The query a cached cell answers: the cell, the filters and which entities were read. */
+  private static final class Key {
+    private final GeoHashRange geoHashRange;
+    private final boolean hasDelivery;
+    // Open vendors are filtered by the hour of the request, -1 if not filtered
+    private final int openHour;
+    private final boolean pinsOnly;
+
+    Key(GeoHashRange geoHashRange, boolean hasDelivery, boolean onlyOpenNow, LocalTime requestTime,
+        boolean pinsOnly) {
+      this(geoHashRange, hasDelivery, (onlyOpenNow) ? requestTime.getHour() : -1, pinsOnly);
+    }
+
+    Key(GeoHashRange geoHashRange, boolean hasDelivery, int openHour, boolean pinsOnly) {
+      this.geoHashRange = geoHashRange;
+      this.hasDelivery = hasDelivery;
+      this.openHour = openHour;
+      this.pinsOnly = pinsOnly;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) return true;
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) obj;
+      return geoHashRange.equals(key.geoHashRange) && hasDelivery == key.hasDelivery &&
+          openHour == key.openHour && pinsOnly == key.pinsOnly;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(geoHashRange, hasDelivery, openHour, pinsOnly);
+    }
+  }
+
+  private static final class CachedRange {
+    private final List<Entity> vendorEntities;
+    private final long cachedAtNanos;
+
+    CachedRange(List<Entity> vendorEntities, long cachedAtNanos) {
+      this.vendorEntities = vendorEntities;
+      this.cachedAtNanos = cachedAtNanos;
+    }
+  }
+}
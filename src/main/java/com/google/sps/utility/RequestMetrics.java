@@ -0,0 +1,108 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Totals of the traced requests of this instance by endpoint, since it started or was last
+ * cleared: a latency histogram, the errors, the datastore calls and the time of each stage.
+ * Served by MetricsServlet. Every instance keeps its own, they are not added across instances.
+ */
+public final class RequestMetrics {
+  private static final RequestMetrics INSTANCE = new RequestMetrics();
+
+  private final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+  private RequestMetrics() {}
+
+  public static RequestMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /** Adds a finished request. */
+  public void record(RequestTrace trace, int status) {
+    endpoints.computeIfAbsent(trace.getEndpoint(), endpoint -> new EndpointMetrics()).record(trace, status);
+  }
+
+  /** Returns the totals of every endpoint, sorted by endpoint, ready to be written as JSON. */
+  public Map<String, Object> snapshot() {
+    Map<String, Object> snapshot = new TreeMap<>();
+    endpoints.forEach((endpoint, metrics) -> snapshot.put(endpoint, metrics.snapshot()));
+    return snapshot;
+  }
+
+  public void clear() {
+    endpoints.clear();
+  }
+
+  /** The totals of one endpoint. */
+  private static final class EndpointMetrics {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong datastoreCalls = new AtomicLong();
+    private final AtomicLong datastoreBytesRead = new AtomicLong();
+    private final AtomicLong datastoreBytesWritten = new AtomicLong();
+    private final AtomicLong entitiesRead = new AtomicLong();
+    private final AtomicLongArray stageNanos = new AtomicLongArray(RequestTrace.Stage.values().length);
+
+    void record(RequestTrace trace, int status) {
+      latency.record(trace.getLatencyNanos());
+      if (status >= 500) {
+        errors.incrementAndGet();
+      }
+      datastoreCalls.addAndGet(trace.getDatastoreCalls());
+      datastoreBytesRead.addAndGet(trace.getDatastoreBytesRead());
+      datastoreBytesWritten.addAndGet(trace.getDatastoreBytesWritten());
+      entitiesRead.addAndGet(trace.getEntitiesRead());
+      for (RequestTrace.Stage stage : RequestTrace.Stage.values()) {
+        stageNanos.addAndGet(stage.ordinal(), trace.getStageNanos(stage));
+      }
+    }
+
+    Map<String, Object> snapshot() {
+      long requests = latency.getCount();
+      Map<String, Object> snapshot = new LinkedHashMap<>();
+      snapshot.put("requests", requests);
+      snapshot.put("serverErrors", errors.get());
+      snapshot.put("meanMillis", latency.getMeanMillis());
+      snapshot.put("p50Millis", latency.getPercentileMillis(50));
+      snapshot.put("p95Millis", latency.getPercentileMillis(95));
+      snapshot.put("p99Millis", latency.getPercentileMillis(99));
+      snapshot.put("maxMillis", latency.getMaxMillis());
+      snapshot.put("latencyBuckets", latency.getBuckets());
+      snapshot.put("datastoreCallsPerRequest", perRequest(datastoreCalls.get(), requests));
+      snapshot.put("datastoreBytesReadPerRequest", perRequest(datastoreBytesRead.get(), requests));
+      snapshot.put("datastoreBytesWrittenPerRequest", perRequest(datastoreBytesWritten.get(), requests));
+      snapshot.put("entitiesReadPerRequest", perRequest(entitiesRead.get(), requests));
+      Map<String, Double> meanStageMillis = new LinkedHashMap<>();
+      for (RequestTrace.Stage stage : RequestTrace.Stage.values()) {
+        meanStageMillis.put(stage.name().toLowerCase(),
+            perRequest(stageNanos.get(stage.ordinal()), requests) / 1e6);
+      }
+      snapshot.put("meanStageMillis", meanStageMillis);
+      return snapshot;
+    }
+
+    private static double perRequest(long total, long requests) {
+      return (requests == 0) ? 0 : (double) total / requests;
+    }
+  }
+}
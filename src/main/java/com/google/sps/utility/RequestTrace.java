@@ -0,0 +1,166 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * What a request spent its time on: its datastore calls, the entities it read and the time of
+ * each stage. MetricsFilter starts one for every request on the thread serving it, the code
+ * along the way adds to it through the static methods, which do nothing when no request is
+ * traced (tests, tasks started outside a request). Counters are atomic since async datastore
+ * calls may complete on other threads.
+ */
+public final class RequestTrace {
+  /** Stages of a request, their times add up to at most the latency of the request. */
+  public enum Stage {
+    COVER,     // Geohash ranges of a search
+    DATASTORE, // Waiting on datastore calls
+    FILTER,    // Building and filtering the vendors read, time of a search not spent in the others
+    SERIALIZE  // Writing the JSON response
+  }
+
+  private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+  private final String requestId;
+  private final String endpoint;
+  private final long startNanos;
+  private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+  private final AtomicLong datastoreCalls = new AtomicLong();
+  private final AtomicLong datastoreBytesRead = new AtomicLong();
+  private final AtomicLong datastoreBytesWritten = new AtomicLong();
+  private final AtomicLong entitiesRead = new AtomicLong();
+  private long latencyNanos;
+
+  private RequestTrace(String requestId, String endpoint) {
+    this.requestId = requestId;
+    this.endpoint = endpoint;
+    this.startNanos = System.nanoTime();
+  }
+
+  /**
+   * Starts the trace of the request served by the current thread.
+   * @param requestId id shared by the log lines of the request
+   */
+  public static RequestTrace begin(String requestId, String endpoint) {
+    RequestTrace trace = new RequestTrace(requestId, endpoint);
+    CURRENT.set(trace);
+    return trace;
+  }
+
+  /** Returns the trace of the request served by the current thread, or null if none. */
+  public static RequestTrace current() {
+    return CURRENT.get();
+  }
+
+  /** Adds time to a stage of the current request. */
+  public static void addNanos(Stage stage, long nanos) {
+    RequestTrace trace = CURRENT.get();
+    if (trace != null) {
+      trace.stageNanos.addAndGet(stage.ordinal(), nanos);
+    }
+  }
+
+  /**
+   * Returns the time of every stage of the current request together, 0 if none. A stage made of
+   * what is left of a span once the others are taken out, like FILTER, reads it before and after.
+   */
+  public static long totalStageNanos() {
+    RequestTrace trace = CURRENT.get();
+    if (trace == null) return 0;
+    long total = 0;
+    for (int stage = 0; stage < trace.stageNanos.length(); stage++) {
+      total += trace.stageNanos.get(stage);
+    }
+    return total;
+  }
+
+  /** Adds entities read from datastore or from a cache of its results to the current request. */
+  public static void addEntitiesRead(int entities) {
+    RequestTrace trace = CURRENT.get();
+    if (trace != null) {
+      trace.entitiesRead.addAndGet(entities);
+    }
+  }
+
+  /** Records a datastore call of this request, see DatastoreCallCounter. */
+  void recordDatastoreCall(long bytesWritten, long bytesRead, long waitNanos) {
+    datastoreCalls.incrementAndGet();
+    datastoreBytesWritten.addAndGet(bytesWritten);
+    datastoreBytesRead.addAndGet(bytesRead);
+    stageNanos.addAndGet(Stage.DATASTORE.ordinal(), waitNanos);
+  }
+
+  /** Stops the trace, the thread may serve another request after this. */
+  public void end() {
+    latencyNanos = System.nanoTime() - startNanos;
+    CURRENT.remove();
+  }
+
+  public String getRequestId() {
+    return requestId;
+  }
+
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  public long getLatencyNanos() {
+    return latencyNanos;
+  }
+
+  public long getStageNanos(Stage stage) {
+    return stageNanos.get(stage.ordinal());
+  }
+
+  public long getDatastoreCalls() {
+    return datastoreCalls.get();
+  }
+
+  public long getDatastoreBytesRead() {
+    return datastoreBytesRead.get();
+  }
+
+  public long getDatastoreBytesWritten() {
+    return datastoreBytesWritten.get();
+  }
+
+  public long getEntitiesRead() {
+    return entitiesRead.get();
+  }
+
+  /** Returns the trace as JSON members of a log line, see AppLog. */
+  public String toLogFields(int status) {
+    StringBuilder line = new StringBuilder(256)
+        .append("\"status\":").append(status)
+        .append(",\"latencyMillis\":").append(toMillis(latencyNanos))
+        .append(",\"datastoreCalls\":").append(getDatastoreCalls())
+        .append(",\"datastoreBytesRead\":").append(getDatastoreBytesRead())
+        .append(",\"datastoreBytesWritten\":").append(getDatastoreBytesWritten())
+        .append(",\"entitiesRead\":").append(getEntitiesRead())
+        .append(",\"stageMillis\":{");
+    for (Stage stage : Stage.values()) {
+      if (stage.ordinal() > 0) line.append(',');
+      line.append('"').append(stage.name().toLowerCase()).append("\":").append(toMillis(getStageNanos(stage)));
+    }
+    return line.append('}').toString();
+  }
+
+  private static double toMillis(long nanos) {
+    // Microsecond precision is plenty for a log line
+    return Math.round(nanos / 1000.0) / 1000.0;
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.datastore.DatastoreServiceConfig;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.COMMONS;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline of a whole nearby search. The deadline of a datastore config only bounds each RPC,
+ * and every batch of every range query is an RPC of its own, so the search checks its own
+ * deadline between the entities it reads. A batch already in flight when the deadline passes
+ * is still waited for, bounded by the time that was left when its query was sent.
+ */
+final class SearchDeadline {
+  private final long deadlineNanos;
+
+  SearchDeadline(long deadlineNanos) {
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /** Starts the deadline of a search, COMMONS.SEARCH_DEADLINE_SECONDS from now. */
+  static SearchDeadline start() {
+    return new SearchDeadline(System.nanoTime()
+        + (long) (COMMONS.SEARCH_DEADLINE_SECONDS * TimeUnit.SECONDS.toNanos(1)));
+  }
+
+  /** Returns a datastore config whose RPCs cannot outlive the time left. */
+  DatastoreServiceConfig datastoreConfig() {
+    check();
+    double secondsLeft = (deadlineNanos - System.nanoTime()) / (double) TimeUnit.SECONDS.toNanos(1);
+    return DatastoreServiceConfig.Builder.withDeadline(Math.max(secondsLeft, 0.001));
+  }
+
+  /** @throws DatastoreTimeoutException if the deadline has passed */
+  void check() {
+    if (System.nanoTime() - deadlineNanos > 0) {
+      throw new DatastoreTimeoutException("Nearby vendors search exceeded its deadline");
+    }
+  }
+
+  /** Returns the entities of the iterator, checking the deadline before each one. */
+  Iterator<Entity> guard(Iterator<Entity> entities) {
+    return new Iterator<Entity>() {
+      @Override
+      public boolean hasNext() {
+        check();
+        return entities.hasNext();
+      }
+
+      @Override
+      public Entity next() {
+        return entities.next();
+      }
+    };
+  }
+}
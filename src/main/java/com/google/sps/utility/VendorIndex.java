@@ -0,0 +1,462 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.api.datastore.Query;
+import com.google.sps.COMMONS;
+import com.google.sps.data.HttpServletUtils;
+import com.google.sps.data.SaleCard;
+import com.google.sps.data.Vendor;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory index of the vendors with a salecard, holding only the fields a nearby search
+ * filters on. Vendors are packed in parallel arrays sorted by their geohash cell, so every
+ * GeoHashRange is a binary search followed by a sequential scan.
+ *
+ * The arrays are never modified once published: writes build a new snapshot and swap it in,
+ * searches keep reading the one they started with and never wait for a lock. The index only
+ * knows about the writes made on this instance, so VendorIndexListener reloads it from datastore
+ * on a background thread every COMMONS.VENDOR_INDEX_MAX_AGE_MILLIS. Searches only read the
+ * snapshot and never wait for a reload, writes made during the reload are replayed on the new
+ * one. It is enabled with the system property COMMONS.VENDOR_INDEX_PROPERTY.
+ */
+public final class VendorIndex {
+  private static final VendorIndex INSTANCE = new VendorIndex();
+
+  private static final byte HAS_DELIVERY = 1;
+  private static final byte IS_TEMPORARILY_CLOSED = 2;
+  private static final int LOAD_CHUNK_SIZE = 500;
+
+  // Null until the first load
+  private volatile Snapshot snapshot;
+
+  // Held while reading datastore, so only one load runs at a time
+  private final ReentrantLock loadLock = new ReentrantLock();
+
+  // Guards the swaps of the snapshot and the writes made during a load
+  private final Object writeLock = new Object();
+
+  // Writes made while a load reads datastore, null when no load runs
+  private Map<String, Entry> writesDuringLoad;
+
+  private VendorIndex() {}
+
+  public static VendorIndex getInstance() {
+    return INSTANCE;
+  }
+
+  /** Returns true if nearby searches should be answered from the index. */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(COMMONS.VENDOR_INDEX_PROPERTY);
+  }
+
+  /** Returns true if the index has been loaded and is not older than the max age. */
+  public boolean isFresh() {
+    Snapshot current = snapshot;
+    return current != null &&
+        System.currentTimeMillis() - current.loadedAtMillis <= COMMONS.VENDOR_INDEX_MAX_AGE_MILLIS;
+  }
+
+  /** Returns true if the index has been loaded and can be searched. */
+  public boolean isLoaded() {
+    return snapshot != null;
+  }
+
+  /** Returns the number of vendors in the index. */
+  public int size() {
+    Snapshot current = snapshot;
+    return (current == null) ? 0 : current.ids.length;
+  }
+
+  /**
+   * Reads every vendor with a salecard from datastore and replaces the index with them. Waits
+   * for a load already running to finish first.
+   */
+  public void load() {
+    loadLock.lock();
+    try {
+      readDatastore();
+    } finally {
+      loadLock.unlock();
+    }
+  }
+
+  /**
+   * Reloads the index if it was never loaded or it is older than the max age, unless another
+   * thread is already doing it. Never waits for that thread. Called off the request path, the
+   * reload scans the whole Vendor kind.
+   * @return true if the index can be searched, false if its first load is still running
+   */
+  public boolean refreshIfStale() {
+    if (!isFresh() && loadLock.tryLock()) {
+      try {
+        if (!isFresh()) {
+          readDatastore();
+        }
+      } finally {
+        loadLock.unlock();
+      }
+    }
+    return snapshot != null;
+  }
+
+  /** Scans the Vendor kind into a new snapshot. Must hold the load lock. */
+  private void readDatastore() {
+    synchronized (writeLock) {
+      writesDuringLoad = new LinkedHashMap<>();
+    }
+    try {
+      Snapshot loaded = scanVendors();
+      synchronized (writeLock) {
+        // The scan may have missed writes made after it started, they are applied again
+        for (Map.Entry<String, Entry> write : writesDuringLoad.entrySet()) {
+          loaded = loaded.replace(write.getKey(), write.getValue());
+        }
+        snapshot = loaded;
+      }
+    } finally {
+      synchronized (writeLock) {
+        writesDuringLoad = null;
+      }
+    }
+  }
+
+  private static Snapshot scanVendors() {
+    long loadedAtMillis = System.currentTimeMillis();
+    DatastoreService datastore = HttpServletUtils.DATASTORE;
+    Iterable<Entity> vendorEntities = datastore.prepare(new Query("Vendor"))
+        .asIterable(FetchOptions.Builder.withChunkSize(LOAD_CHUNK_SIZE));
+
+    List<Entry> entries = new ArrayList<>();
+    for (Entity vendorEntity : vendorEntities) {
+      Entry entry = Entry.of(new Vendor(vendorEntity));
+      if (entry != null) {
+        entries.add(entry);
+      }
+    }
+    entries.sort(Comparator.comparingLong(entry -> entry.cell));
+
+    Map<String, Long> cellsById = new HashMap<>();
+    for (Entry entry : entries) {
+      cellsById.put(entry.id, entry.cell);
+    }
+    return new Snapshot(entries, cellsById, loadedAtMillis);
+  }
+
+  /**
+   * Replaces the indexed fields of a vendor after it was written to datastore. A vendor
+   * without a salecard is removed. Does nothing if the index was never loaded.
+   */
+  public void update(Entity vendorEntity) {
+    Vendor vendor = new Vendor(vendorEntity);
+    write(vendor.getId(), Entry.of(vendor));
+  }
+
+  /** Removes a vendor after its salecard was deleted. Does nothing if the index was never loaded. */
+  public void remove(String vendorId) {
+    write(vendorId, null);
+  }
+
+  /** Drops the index, the next search will load it again. */
+  public void clear() {
+    synchronized (writeLock) {
+      snapshot = null;
+    }
+  }
+
+  /** Swaps in a copy of the snapshot with the new entry, null to remove the vendor. */
+  private void write(String vendorId, Entry entry) {
+    synchronized (writeLock) {
+      if (writesDuringLoad != null) {
+        writesDuringLoad.put(vendorId, entry);
+      }
+      if (snapshot != null) {
+        snapshot = snapshot.replace(vendorId, entry);
+      }
+    }
+  }
+
+  /**
+   * Returns the ids of the indexed vendors matching the requested parameters, sorted by geohash
+   * like the datastore range queries. The index must be loaded.
+   * @param geoHashRanges the ranges of geohashes to look into, e.g. from GeoHashCoverer
+   * @param hasDelivery a boolean to show only vendors with delivery service
+   * @param onlyOpenNow a boolean to show only vendors currently open
+   * @param requestLocation a GeoPoint representing the location where the request was made
+   * @param distanceLimit the max allowed distance a vendor can be
+   * @param requestTime the time when the request was made
+   */
+  public List<String> search(List<GeoHashRange> geoHashRanges, boolean hasDelivery, boolean onlyOpenNow,
+      GeoPt requestLocation, int distanceLimit, LocalTime requestTime) {
+    Snapshot current = loadedSnapshot();
+    List<String> vendorIds = new ArrayList<>();
+    scan(current, geoHashRanges, hasDelivery, onlyOpenNow, requestLocation, distanceLimit, requestTime,
+        (position, distance) -> vendorIds.add(current.ids[position]));
+    return vendorIds;
+  }
+
+  /**
+   * Returns the ids of the closest indexed vendors matching the requested parameters, sorted by
+   * distance (ties by id). The index must be loaded.
+   * @param limit the max number of ids returned
+   * @see #search
+   */
+  public List<String> searchNearest(List<GeoHashRange> geoHashRanges, boolean hasDelivery, boolean onlyOpenNow,
+      GeoPt requestLocation, int distanceLimit, LocalTime requestTime, int limit) {
+    Snapshot current = loadedSnapshot();
+    Comparator<Hit> closestFirst = Comparator.comparingDouble((Hit hit) -> hit.distance)
+        .thenComparing(hit -> current.ids[hit.position]);
+    PriorityQueue<Hit> nearest = new PriorityQueue<>(closestFirst.reversed());
+    scan(current, geoHashRanges, hasDelivery, onlyOpenNow, requestLocation, distanceLimit, requestTime,
+        (position, distance) -> {
+          Hit hit = new Hit(position, distance);
+          if (nearest.size() < limit) {
+            nearest.add(hit);
+          } else if (closestFirst.compare(hit, nearest.peek()) < 0) {
+            nearest.poll();
+            nearest.add(hit);
+          }
+        });
+
+    List<Hit> hits = new ArrayList<>(nearest);
+    hits.sort(closestFirst);
+    List<String> vendorIds = new ArrayList<>(hits.size());
+    for (Hit hit : hits) {
+      vendorIds.add(current.ids[hit.position]);
+    }
+    return vendorIds;
+  }
+
+  private Snapshot loadedSnapshot() {
+    Snapshot current = snapshot;
+    if (current == null) {
+      throw new IllegalStateException("Vendor index is not loaded");
+    }
+    return current;
+  }
+
+  /** Passes every vendor of the ranges matching the request to the consumer, in geohash order. */
+  private static void scan(Snapshot current, List<GeoHashRange> geoHashRanges, boolean hasDelivery,
+      boolean onlyOpenNow, GeoPt requestLocation, int distanceLimit, LocalTime requestTime, HitConsumer hits) {
+    long requestNanos = requestTime.toNanoOfDay();
+    GeoDistanceFilter distanceFilter = new GeoDistanceFilter(requestLocation, distanceLimit);
+    // Overlapping ranges would find the same vendors twice
+    for (GeoHashRange geoHashRange : GeoHashRange.normalize(geoHashRanges)) {
+      int i = current.firstAtOrAfter(geoHashRange.getStart());
+      for (; i < current.cells.length && current.cells[i] < geoHashRange.getEnd(); i++) {
+        byte flags = current.flags[i];
+        if (hasDelivery && (flags & HAS_DELIVERY) == 0) continue;
+        if (onlyOpenNow && ((flags & IS_TEMPORARILY_CLOSED) != 0 ||
+            !isBetweenOpeningHours(current.startNanos[i], current.endNanos[i], requestNanos))) {
+          continue;
+        }
+
+        float latitude = current.latitudes[i];
+        float longitude = current.longitudes[i];
+        if (!distanceFilter.mayContain(latitude, longitude)) continue;
+        float distance = distanceFilter.distanceTo(latitude, longitude);
+        if (distance <= distanceLimit) {
+          hits.accept(i, distance);
+        }
+      }
+    }
+  }
+
+  /** Same check as OpeningHours.isOpen, on nanos of the day: (start, end), wrapping at midnight. */
+  private static boolean isBetweenOpeningHours(long start, long end, long requestTime) {
+    return (start > end)
+        ? requestTime > start || requestTime < end
+        : requestTime > start && requestTime < end;
+  }
+
+  /** Receives the position in the snapshot and the distance of every vendor found. */
+  private interface HitConsumer {
+    void accept(int position, float distance);
+  }
+
+  /** A vendor found by a nearest search. */
+  private static final class Hit {
+    private final int position;
+    private final float distance;
+
+    Hit(int position, float distance) {
+      this.position = position;
+      this.distance = distance;
+    }
+  }
+
+  /** The indexed fields of a vendor. */
+  private static final class Entry {
+    private final long cell;
+    private final String id;
+    private final float latitude;
+    private final float longitude;
+    private final byte flags;
+    private final long startNanos;
+    private final long endNanos;
+
+    private Entry(long cell, String id, float latitude, float longitude, byte flags,
+        long startNanos, long endNanos) {
+      this.cell = cell;
+      this.id = id;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.flags = flags;
+      this.startNanos = startNanos;
+      this.endNanos = endNanos;
+    }
+
+    /** Returns the entry of a vendor, or null if it has no salecard to be found by. */
+    static Entry of(Vendor vendor) {
+      SaleCard saleCard = vendor.getSaleCard();
+      if (saleCard == null || saleCard.getLocation() == null) return null;
+
+      GeoPt salePoint = saleCard.getLocation().getSalePoint();
+      byte flags = 0;
+      if (saleCard.hasDelivery()) flags |= HAS_DELIVERY;
+      if (saleCard.isTemporarilyClosed()) flags |= IS_TEMPORARILY_CLOSED;
+      return new Entry(LongGeoHash.fromBase32(saleCard.getLocation().getGeoHash()), vendor.getId(),
+          salePoint.getLatitude(), salePoint.getLongitude(), flags,
+          saleCard.getStartTime().toNanoOfDay(), saleCard.getEndTime().toNanoOfDay());
+    }
+  }
+
+  /** An immutable set of entries as parallel arrays sorted by cell. */
+  private static final class Snapshot {
+    private final long[] cells;
+    private final String[] ids;
+    private final float[] latitudes;
+    private final float[] longitudes;
+    private final byte[] flags;
+    private final long[] startNanos;
+    private final long[] endNanos;
+    private final long loadedAtMillis;
+
+    // The cell of every vendor, to find it without scanning the ids. Only read and written by
+    // replace(), under the write lock, and handed over to the copy it returns.
+    private final Map<String, Long> cellsById;
+
+    /** Creates the snapshot of entries already sorted by cell. */
+    Snapshot(List<Entry> entries, Map<String, Long> cellsById, long loadedAtMillis) {
+      this(entries.size(), cellsById, loadedAtMillis);
+      for (int i = 0; i < entries.size(); i++) {
+        set(i, entries.get(i));
+      }
+    }
+
+    private Snapshot(int size, Map<String, Long> cellsById, long loadedAtMillis) {
+      this.cellsById = cellsById;
+      this.cells = new long[size];
+      this.ids = new String[size];
+      this.latitudes = new float[size];
+      this.longitudes = new float[size];
+      this.flags = new byte[size];
+      this.startNanos = new long[size];
+      this.endNanos = new long[size];
+      this.loadedAtMillis = loadedAtMillis;
+    }
+
+    /**
+     * Returns a copy without the vendor with the given id and with the new entry, if any, in
+     * its sorted position. The load time is kept, local writes do not make the index fresher.
+     */
+    Snapshot replace(String vendorId, Entry entry) {
+      int removed = positionOf(vendorId);
+      int inserted = (entry == null) ? ids.length : firstAtOrAfter(entry.cell);
+      int size = ids.length - ((removed < 0) ? 0 : 1) + ((entry == null) ? 0 : 1);
+      if (entry == null) {
+        cellsById.remove(vendorId);
+      } else {
+        cellsById.put(vendorId, entry.cell);
+      }
+      Snapshot copy = new Snapshot(size, cellsById, loadedAtMillis);
+
+      int target = copy.copySkipping(0, this, 0, inserted, removed);
+      if (entry != null) {
+        copy.set(target++, entry);
+      }
+      copy.copySkipping(target, this, inserted, ids.length, removed);
+      return copy;
+    }
+
+    /** Returns the position of the vendor, -1 if it is not in the snapshot. */
+    private int positionOf(String vendorId) {
+      Long cell = cellsById.get(vendorId);
+      if (cell == null) return -1;
+      for (int i = firstAtOrAfter(cell); i < cells.length && cells[i] == cell; i++) {
+        if (ids[i].equals(vendorId)) return i;
+      }
+      return -1;
+    }
+
+    /** Returns the position of the first cell at or after the given one. */
+    int firstAtOrAfter(long cell) {
+      int low = 0;
+      int high = cells.length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (cells[middle] < cell) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    private void set(int i, Entry entry) {
+      cells[i] = entry.cell;
+      ids[i] = entry.id;
+      latitudes[i] = entry.latitude;
+      longitudes[i] = entry.longitude;
+      flags[i] = entry.flags;
+      startNanos[i] = entry.startNanos;
+      endNanos[i] = entry.endNanos;
+    }
+
+    /**
+     * Copies the positions [from, to) of the source but the skipped one to this snapshot,
+     * starting at target. Returns the position after the last one copied.
+     */
+    private int copySkipping(int target, Snapshot source, int from, int to, int skipped) {
+      if (skipped >= from && skipped < to) {
+        target = copySkipping(target, source, from, skipped, -1);
+        return copySkipping(target, source, skipped + 1, to, -1);
+      }
+      int length = to - from;
+      System.arraycopy(source.cells, from, cells, target, length);
+      System.arraycopy(source.ids, from, ids, target, length);
+      System.arraycopy(source.latitudes, from, latitudes, target, length);
+      System.arraycopy(source.longitudes, from, longitudes, target, length);
+      System.arraycopy(source.flags, from, flags, target, length);
+      System.arraycopy(source.startNanos, from, startNanos, target, length);
+      System.arraycopy(source.endNanos, from, endNanos, target, length);
+      return target + length;
+    }
+  }
+}
@@ -21,6 +21,9 @@ const HOVER_MARKER = 'https://mt.google.com/vt/icon?psize=30&font=fonts/arialuni
 // Vendor's default dot mark for the map.
 const DEFAULT_MARKER = 'http://mt.googleapis.com/vt/icon/name=icons/spotlight/spotlight-poi.png';
 
+// Max vendors shown on the map, the closest ones are requested.
+const MAX_VENDORS_SHOWN = 100;
+
 /**
  * Function that queries salecards from servlet.
  */
@@ -50,6 +53,8 @@ async function querySalecard() {
  */
 const fetchVendors = (map) => {
   const params = getQueryParams();
+  params.append('sortBy', 'distance');
+  params.append('limit', MAX_VENDORS_SHOWN);
 
   fetch('/get-nearby-vendors', {
     method: 'POST',
@@ -69,10 +74,20 @@ const fetchVendors = (map) => {
         }
       })
       .then(nearbyVendors => {
+        if (!nearbyVendors) return;
+        // A search cut short by its deadline ends with an error element instead of a vendor
+        const last = nearbyVendors[nearbyVendors.length - 1];
+        if (last && last.error) {
+          nearbyVendors.pop();
+          alert('The search took too long, only some vendors are shown.');
+        }
         displayNumberOfVendors(nearbyVendors.length);
 
         // Add vendor's marker and modal to the map.
         addVendorsToMap(map, nearbyVendors);
+      })
+      .catch(() => {
+        alert('The vendors could not be loaded, please try again.');
       });
 };
 
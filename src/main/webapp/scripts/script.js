@@ -135,7 +135,7 @@ function insertVendorInfo(container, template, vendor, isModal) {
   }
   
   template.getElementById(`${prefix}-business-picture`).src
-      = `/serve-blob?blobKey=${vendor.saleCard.picture.blobKey.blobKey}`;
+      = `/serve-blob?blobKey=${vendor.saleCard.picture.blobKey.blobKey}&size=${(isModal) ? 'card' : 'thumbnail'}`;
   template.getElementById(`${prefix}-business-picture`).alt = vendor.saleCard.picture.altText;
   template.getElementById(`${prefix}-business-name`).textContent = salecard.businessName;
   template.getElementById(`${prefix}-business-description`).textContent = salecard.description;
@@ -20,8 +20,6 @@ async function querySalecard() {
 
   const params = new URLSearchParams();
   params.append('vendorId', getVendorId());
-  params.append('lat', document.getElementById('lat').value);
-  params.append('lng', document.getElementById('lng').value);
 
   let vendor;
   await fetch('/get-vendor?' + params)
@@ -59,14 +57,18 @@ const showVendorInfo = (vendor) => {
   let salecardCloned = salecardTemplate.content.cloneNode(true);
 
   salecardCloned.getElementById('business-picture').src
-      = `/serve-blob?blobKey=${vendor.saleCard.picture.blobKey.blobKey}`;
+      = `/serve-blob?blobKey=${vendor.saleCard.picture.blobKey.blobKey}&size=card`;
   salecardCloned.getElementById('business-picture').alt = vendor.saleCard.picture.altText;
   salecardCloned.getElementById('salecard-id').textContent = salecard.id;
   salecardCloned.getElementById('business-name').textContent = salecard.businessName;
   salecardCloned.getElementById('business-description').textContent = salecard.description;
   salecardCloned.getElementById('openedFrom').textContent = parseTime(salecard.startTime);
   salecardCloned.getElementById('openedTo').textContent = parseTime(salecard.endTime);
-  salecardCloned.getElementById('vendor-distance').textContent = `${salecard.distanceFromClient.toFixed(2)}m`;
+  const distanceFromClient = computeDistance(
+      parseFloat(document.getElementById('lat').value),
+      parseFloat(document.getElementById('lng').value),
+      salecard.location.salePoint.latitude, salecard.location.salePoint.longitude);
+  salecardCloned.getElementById('vendor-distance').textContent = `${distanceFromClient.toFixed(2)}m`;
   salecardCloned.getElementById('vendor-name').textContent = `${vendor.firstName} ${vendor.lastName}`;
   salecardCloned.getElementById('vendor-phone').textContent = vendor.phoneNumber;
   salecardCloned.getElementById('business-lat').value = salecard.location.salePoint.latitude;
@@ -85,6 +87,25 @@ const showVendorInfo = (vendor) => {
   salecardContainer.appendChild(salecardCloned);
 };
 
+/**
+ * Computes the distance between two geographical points using Haversine formula,
+ * the same way the servlets do.
+ * @param {number} latA Latitude of A in degrees.
+ * @param {number} lngA Longitude of A in degrees.
+ * @param {number} latB Latitude of B in degrees.
+ * @param {number} lngB Longitude of B in degrees.
+ * @return {number} The distance between A and B in meters.
+ */
+const computeDistance = (latA, lngA, latB, lngB) => {
+  const EARTH_RADIUS_METERS = 6371010;
+  const toRadians = (degrees) => degrees * Math.PI / 180;
+  const sinLat = Math.sin(toRadians(latB - latA) / 2);
+  const sinLng = Math.sin(toRadians(lngB - lngA) / 2);
+  const a = sinLat * sinLat +
+      Math.cos(toRadians(latA)) * Math.cos(toRadians(latB)) * sinLng * sinLng;
+  return 2 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(a));
+};
+
 /**
  * When window.load retrieve the card
  */
@@ -67,6 +67,7 @@ public final class HttpServletUtilsTest {
     @BeforeClass
     public static void setUpDatastore() {
         datastoreHelper.setUp();
+        VendorCache.getInstance().clear();
         fillDatastore();
     }
 
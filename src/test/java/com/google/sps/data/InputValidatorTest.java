@@ -0,0 +1,115 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.sps.COMMONS;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Pattern;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class InputValidatorTest {
+
+  // The patterns the validators replaced
+  private static final Pattern ONLY_LETTERS = Pattern.compile("\\p{L}+");
+  private static final Pattern ONLY_NUMBERS = Pattern.compile("[0-9]+");
+
+  private static final String[] STRINGS = {
+    "", "A", "José", "Ñandú", "Łódź", "東京", "𝐀bc", "\uD835", "a\uDC00",
+    "Two Words", "O'Brien", "Jean-Luc", "abc1", "123", "٣٤٥", "12 34", "+52", "0", "\t", "x\n"
+  };
+
+  @Test
+  public void hasOnlyLettersMatchesPattern() {
+    for (String string : STRINGS) {
+      Assert.assertEquals(string, ONLY_LETTERS.matcher(string).matches(),
+          InputValidator.hasOnlyLetters(string));
+    }
+    Assert.assertFalse(InputValidator.hasOnlyLetters(null));
+  }
+
+  @Test
+  public void hasOnlyNumbersMatchesPattern() {
+    for (String string : STRINGS) {
+      Assert.assertEquals(string, ONLY_NUMBERS.matcher(string).matches(),
+          InputValidator.hasOnlyNumbers(string));
+    }
+    Assert.assertFalse(InputValidator.hasOnlyNumbers(null));
+  }
+
+  @Test
+  public void hasText() {
+    Assert.assertTrue(InputValidator.hasText(" "));
+    Assert.assertFalse(InputValidator.hasText(""));
+    Assert.assertFalse(InputValidator.hasText(null));
+  }
+
+  @Test
+  public void parseTimeMatchesLocalTime() {
+    // Every hour and minute, including the invalid ones
+    for (int hour = 0; hour < 100; hour++) {
+      for (int minute = 0; minute < 100; minute++) {
+        assertParsesLike(String.format("%02d:%02d", hour, minute));
+      }
+    }
+    for (String time : new String[]{"08:00:30", "23:59:59.999", "8:00", "08-00", "0a:00", "08:0a",
+        "0800", "", "08:00 "}) {
+      assertParsesLike(time);
+    }
+  }
+
+  @Test
+  public void coordinates() {
+    Assert.assertTrue(InputValidator.isLatitude(-90));
+    Assert.assertTrue(InputValidator.isLatitude(90));
+    Assert.assertFalse(InputValidator.isLatitude(90.01));
+    Assert.assertFalse(InputValidator.isLatitude(Float.NaN));
+    Assert.assertTrue(InputValidator.isLongitude(-180));
+    Assert.assertTrue(InputValidator.isLongitude(180));
+    Assert.assertFalse(InputValidator.isLongitude(-180.01));
+    Assert.assertFalse(InputValidator.isLongitude(Float.NaN));
+  }
+
+  @Test
+  public void distance() {
+    int min = COMMONS.MIN_DISTANCE;
+    int max = COMMONS.MAX_DISTANCE_VENDOR;
+    Assert.assertTrue(InputValidator.isDistance(min, min, max));
+    Assert.assertTrue(InputValidator.isDistance(max, min, max));
+    Assert.assertFalse(InputValidator.isDistance(max + 0.5, min, max));
+    Assert.assertFalse(InputValidator.isDistance(-1, min, max));
+    Assert.assertFalse(InputValidator.isDistance(Float.NaN, min, max));
+  }
+
+  private static void assertParsesLike(String time) {
+    LocalTime expected;
+    try {
+      expected = LocalTime.parse(time);
+    } catch (DateTimeParseException e) {
+      try {
+        InputValidator.parseTime(time);
+        Assert.fail("Parsed " + time);
+      } catch (DateTimeParseException expectedException) {
+        // Rejected like LocalTime.parse
+      }
+      return;
+    }
+    Assert.assertEquals(time, expected, InputValidator.parseTime(time));
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class OpeningHoursTest {
+
+  private static final LocalTime TIME_0000 = LocalTime.parse("00:00");
+  private static final LocalTime TIME_0130 = LocalTime.parse("01:30");
+  private static final LocalTime TIME_0800 = LocalTime.parse("08:00");
+  private static final LocalTime TIME_1015 = LocalTime.parse("10:15");
+  private static final LocalTime TIME_2200 = LocalTime.parse("22:00");
+
+  @Test
+  public void openHoursSameDay() {
+    Assert.assertEquals(Arrays.asList(8L, 9L, 10L), OpeningHours.openHours(
+        OpeningHours.toMinuteOfDay(TIME_0800), OpeningHours.toMinuteOfDay(TIME_1015)));
+  }
+
+  @Test
+  public void openHoursSplitAtMidnight() {
+    Assert.assertEquals(Arrays.asList(22L, 23L, 0L, 1L), OpeningHours.openHours(
+        OpeningHours.toMinuteOfDay(TIME_2200), OpeningHours.toMinuteOfDay(TIME_0130)));
+    Assert.assertEquals(Arrays.asList(22L, 23L), OpeningHours.openHours(
+        OpeningHours.toMinuteOfDay(TIME_2200), OpeningHours.toMinuteOfDay(TIME_0000)));
+  }
+
+  @Test
+  public void openHoursNeverOpen() {
+    int minute = OpeningHours.toMinuteOfDay(TIME_0800);
+    Assert.assertEquals(Collections.emptyList(), OpeningHours.openHours(minute, minute));
+  }
+
+  @Test
+  public void isOpenMatchesLocalTimes() {
+    // Every window and time on a 7 minutes grid, with a few seconds on the times
+    for (int start = 0; start < OpeningHours.MINUTES_PER_DAY; start += 7) {
+      for (int end = 0; end < OpeningHours.MINUTES_PER_DAY; end += 7) {
+        LocalTime startTime = OpeningHours.toLocalTime(start);
+        LocalTime endTime = OpeningHours.toLocalTime(end);
+        List<Long> openHours = OpeningHours.openHours(start, end);
+        for (int minute = 0; minute < OpeningHours.MINUTES_PER_DAY; minute += 7) {
+          for (LocalTime time : new LocalTime[]{
+              OpeningHours.toLocalTime(minute), OpeningHours.toLocalTime(minute).plusSeconds(30) }) {
+            boolean expected = (startTime.isAfter(endTime))
+                ? time.isAfter(startTime) || time.isBefore(endTime)
+                : time.isAfter(startTime) && time.isBefore(endTime);
+            Assert.assertEquals(expected, OpeningHours.isOpen(start, end, time));
+            // The hour filter never leaves out an open vendor
+            if (expected) {
+              Assert.assertTrue(openHours.contains((long) time.getHour()));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void setOpeningHours() {
+    EmbeddedEntity saleCard = new EmbeddedEntity();
+    OpeningHours.setOpeningHours(saleCard, TIME_2200, TIME_0130);
+
+    Assert.assertEquals("22:00", saleCard.getProperty("startTime"));
+    Assert.assertEquals("01:30", saleCard.getProperty("endTime"));
+    Assert.assertEquals(22 * 60, OpeningHours.getStartMinute(saleCard));
+    Assert.assertEquals(90, OpeningHours.getEndMinute(saleCard));
+    Assert.assertEquals(Arrays.asList(22L, 23L, 0L, 1L), saleCard.getProperty("openHours"));
+  }
+
+  @Test
+  public void minutesOfSaleCardWithoutThem() {
+    // Salecards written before the minutes were stored
+    EmbeddedEntity saleCard = new EmbeddedEntity();
+    saleCard.setProperty("startTime", "08:00");
+    saleCard.setProperty("endTime", "10:15");
+
+    Assert.assertEquals(8 * 60, OpeningHours.getStartMinute(saleCard));
+    Assert.assertEquals(10 * 60 + 15, OpeningHours.getEndMinute(saleCard));
+  }
+}
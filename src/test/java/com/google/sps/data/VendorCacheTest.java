@@ -0,0 +1,160 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.COMMONS;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class VendorCacheTest {
+
+  private static final String VENDOR_ID = "1";
+  private static final String MISSING_VENDOR_ID = "2";
+  private static final String PHONE_NUMBER = "8118022347";
+  private static final String NEW_PHONE_NUMBER = "8118022348";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+  private final VendorCache vendorCache = VendorCache.getInstance();
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    vendorCache.clear();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.put(createVendorEntity(VENDOR_ID, PHONE_NUMBER));
+  }
+
+  @After
+  public void tearDown() {
+    vendorCache.clear();
+    helper.tearDown();
+  }
+
+  @Test
+  public void readFromDatastoreOnce() {
+    Assert.assertEquals(PHONE_NUMBER, vendorCache.get(VENDOR_ID).getProperty("phoneNumber"));
+    Assert.assertEquals(PHONE_NUMBER, vendorCache.get(VENDOR_ID).getProperty("phoneNumber"));
+
+    Assert.assertEquals(1, vendorCache.getMisses());
+    Assert.assertEquals(1, vendorCache.getLocalHits());
+  }
+
+  @Test
+  public void sharedThroughMemcache() {
+    // Another instance has nothing in memory, but finds the vendor in memcache
+    vendorCache.get(VENDOR_ID);
+    vendorCache.clear();
+
+    Assert.assertEquals(PHONE_NUMBER, vendorCache.get(VENDOR_ID).getProperty("phoneNumber"));
+    Assert.assertEquals(1, vendorCache.getMemcacheHits());
+    Assert.assertEquals(0, vendorCache.getMisses());
+  }
+
+  @Test
+  public void invalidateAfterWrite() {
+    vendorCache.get(VENDOR_ID);
+
+    datastore.put(createVendorEntity(VENDOR_ID, NEW_PHONE_NUMBER));
+    vendorCache.invalidate(VENDOR_ID);
+
+    Assert.assertEquals(NEW_PHONE_NUMBER, vendorCache.get(VENDOR_ID).getProperty("phoneNumber"));
+    Assert.assertEquals(2, vendorCache.getMisses());
+  }
+
+  @Test
+  public void fillReadBeforeWriteIsDropped() {
+    // A read gets the vendor, then a write invalidates it before the read caches what it got
+    long invalidationsBeforeRead = vendorCache.getInvalidations();
+    Entity staleEntity = createVendorEntity(VENDOR_ID, PHONE_NUMBER);
+    datastore.put(createVendorEntity(VENDOR_ID, NEW_PHONE_NUMBER));
+    vendorCache.invalidate(VENDOR_ID);
+    vendorCache.fill(VENDOR_ID, staleEntity, invalidationsBeforeRead);
+
+    Assert.assertEquals(NEW_PHONE_NUMBER, vendorCache.get(VENDOR_ID).getProperty("phoneNumber"));
+    // Another instance has nothing in memory and does not find the stale vendor in memcache
+    vendorCache.clear();
+    Assert.assertEquals(NEW_PHONE_NUMBER, vendorCache.get(VENDOR_ID).getProperty("phoneNumber"));
+  }
+
+  @Test
+  public void fillKeepsNewerEntry() {
+    vendorCache.get(VENDOR_ID);
+    vendorCache.clear();
+
+    vendorCache.fill(VENDOR_ID, createVendorEntity(VENDOR_ID, NEW_PHONE_NUMBER), vendorCache.getInvalidations());
+    vendorCache.clear();
+    Assert.assertEquals(PHONE_NUMBER, vendorCache.get(VENDOR_ID).getProperty("phoneNumber"));
+  }
+
+  @Test
+  public void callersGetTheirOwnCopy() {
+    Entity vendorEntity = vendorCache.get(VENDOR_ID);
+    vendorEntity.setProperty("phoneNumber", NEW_PHONE_NUMBER);
+
+    Assert.assertEquals(PHONE_NUMBER, vendorCache.get(VENDOR_ID).getProperty("phoneNumber"));
+  }
+
+  @Test
+  public void missingVendorIsNotCached() {
+    Assert.assertNull(vendorCache.get(MISSING_VENDOR_ID));
+
+    // Registered right after, without going through a servlet
+    datastore.put(createVendorEntity(MISSING_VENDOR_ID, PHONE_NUMBER));
+    Assert.assertNotNull(vendorCache.get(MISSING_VENDOR_ID));
+  }
+
+  @Test
+  public void leastRecentlyUsedEvicted() {
+    List<Entity> vendorEntities = new ArrayList<>();
+    for (int i = 0; i < COMMONS.VENDOR_CACHE_MAX_ENTRIES; i++) {
+      vendorEntities.add(createVendorEntity("vendor" + i, PHONE_NUMBER));
+    }
+    datastore.put(vendorEntities);
+
+    vendorCache.get(VENDOR_ID);
+    for (int i = 0; i < COMMONS.VENDOR_CACHE_MAX_ENTRIES; i++) {
+      vendorCache.get("vendor" + i);
+    }
+    Assert.assertEquals(1, vendorCache.getEvictions());
+
+    // The first one was dropped from memory, memcache still has it
+    vendorCache.get(VENDOR_ID);
+    Assert.assertEquals(0, vendorCache.getLocalHits());
+    Assert.assertEquals(1, vendorCache.getMemcacheHits());
+  }
+
+  private static Entity createVendorEntity(String vendorId, String phoneNumber) {
+    Entity vendorEntity = new Entity("Vendor", vendorId);
+    vendorEntity.setProperty("firstName", "Vendor");
+    vendorEntity.setProperty("phoneNumber", phoneNumber);
+    return vendorEntity;
+  }
+}
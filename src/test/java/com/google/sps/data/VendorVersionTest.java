@@ -0,0 +1,71 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class VendorVersionTest {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void vendorWithoutVersion() {
+    Entity vendorEntity = new Entity("Vendor", "1");
+
+    Assert.assertEquals(0, VendorVersion.get(vendorEntity));
+    Assert.assertEquals("\"0\"", VendorVersion.getETag(vendorEntity));
+  }
+
+  @Test
+  public void everyBumpChangesTheETag() {
+    Entity vendorEntity = new Entity("Vendor", "1");
+    VendorVersion.bump(vendorEntity);
+    long version = VendorVersion.get(vendorEntity);
+    String eTag = VendorVersion.getETag(vendorEntity);
+
+    // Within the same millisecond too
+    VendorVersion.bump(vendorEntity);
+    Assert.assertTrue(VendorVersion.get(vendorEntity) > version);
+    Assert.assertNotEquals(eTag, VendorVersion.getETag(vendorEntity));
+  }
+
+  @Test
+  public void versionAheadOfTheClock() {
+    Entity vendorEntity = new Entity("Vendor", "1");
+    vendorEntity.setProperty("version", Long.MAX_VALUE - 1);
+
+    VendorVersion.bump(vendorEntity);
+    Assert.assertEquals(Long.MAX_VALUE, VendorVersion.get(vendorEntity));
+  }
+}
@@ -0,0 +1,262 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static com.google.sps.utility.NearbyVendorsQueryTest.createEntityFromVendor;
+import static com.google.sps.utility.NearbyVendorsQueryTest.createLocation;
+import static com.google.sps.utility.NearbyVendorsQueryTest.createSaleCard;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.COMMONS;
+import com.google.sps.data.HttpServletUtils;
+import com.google.sps.data.SaleCard;
+import com.google.sps.data.Vendor;
+import com.google.sps.data.VendorCache;
+import com.google.sps.data.VendorVersion;
+import com.google.sps.utility.RangeResultCache;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs searches, vendor reads and salecard writes from many threads at once, the way an instance
+ * with threadsafe enabled serves them. Every answer must be the one the same request gets alone.
+ */
+@RunWith(JUnit4.class)
+public final class ConcurrentRequestsTest {
+  private static final int THREADS = 8;
+  private static final int ROUNDS = 24;
+  private static final int STABLE_VENDORS = 20;
+  private static final String USER_ID_KEY = "com.google.appengine.api.users.UserService.user_id_key";
+  private static final String UPLOADED_BLOBKEYS = "com.google.appengine.api.blobstore.upload.blobkeys";
+
+  // Search centers around Null Island, where the stable vendors are
+  private static final String[][] SEARCH_CENTERS = {{"0", "0"}, {"0.001", "0.001"}, {"0.004", "0.002"}};
+
+  private static final GetNearbyVendorsServlet getNearbyVendorsServlet = new GetNearbyVendorsServlet();
+  private static final GetVendorServlet getVendorServlet = new GetVendorServlet();
+  private static final UpdateSaleCardServlet updateSaleCardServlet = new UpdateSaleCardServlet();
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalMemcacheServiceTestConfig(),
+          new LocalUserServiceTestConfig())
+          .setEnvIsLoggedIn(true)
+          .setEnvEmail("test@gmail.com")
+          .setEnvAuthDomain("gmail.com");
+
+  private final Map<String, String> stableETags = new HashMap<>();
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    System.setProperty(COMMONS.SEARCH_CACHE_PROPERTY, "true");
+    VendorCache.getInstance().clear();
+    RangeResultCache.getInstance().clear();
+    fillDatastore();
+  }
+
+  @After
+  public void tearDown() {
+    System.clearProperty(COMMONS.SEARCH_CACHE_PROPERTY);
+    RangeResultCache.getInstance().clear();
+    helper.tearDown();
+  }
+
+  @Test
+  public void concurrentRequestsGetTheirOwnAnswers() throws Exception {
+    // Answers of the searches made one at a time
+    List<String> expectedPins = new ArrayList<>();
+    for (String[] center : SEARCH_CENTERS) {
+      expectedPins.add(searchPins(center));
+    }
+    Assert.assertNotEquals("[]", expectedPins.get(0));
+
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    List<Future<Void>> workers = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      final int writer = thread;
+      workers.add(executor.submit(() -> {
+        ApiProxy.setEnvironmentForCurrentThread(asUser(environment, writerId(writer)));
+        try {
+          for (int round = 0; round < ROUNDS; round++) {
+            switch ((writer + round) % 3) {
+              case 0:
+                int center = round % SEARCH_CENTERS.length;
+                Assert.assertEquals(expectedPins.get(center), searchPins(SEARCH_CENTERS[center]));
+                break;
+              case 1:
+                assertNotModified("s" + (round % STABLE_VENDORS));
+                break;
+              default:
+                updateSaleCard(writer, round);
+            }
+          }
+        } finally {
+          ApiProxy.clearEnvironmentForCurrentThread();
+        }
+        return null;
+      }));
+    }
+    executor.shutdown();
+    for (Future<Void> worker : workers) {
+      // Rethrows the assertion errors of the worker
+      worker.get(1, TimeUnit.MINUTES);
+    }
+
+    // The last salecard of every writer was saved whole
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (int writer = 0; writer < THREADS; writer++) {
+      int lastRound = ROUNDS - 1;
+      while ((writer + lastRound) % 3 != 2) lastRound--;
+
+      Vendor vendor = new Vendor(datastore.get(KeyFactory.createKey("Vendor", writerId(writer))));
+      SaleCard saleCard = vendor.getSaleCard();
+      Assert.assertEquals(businessName(writer, lastRound), saleCard.getBusinessName());
+      Entity saleCardEntity = datastore.get(KeyFactory.createKey(
+          KeyFactory.createKey("Vendor", writerId(writer)), "SaleCard", saleCard.getId()));
+      Assert.assertEquals(businessName(writer, lastRound), saleCardEntity.getProperty("businessName"));
+      Assert.assertEquals(vendor, new Vendor(HttpServletUtils.getVendorEntity(writerId(writer))));
+    }
+  }
+
+  private static String searchPins(String[] center) throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(request.getParameter("hasDelivery")).thenReturn("false");
+    when(request.getParameter("onlyOpenNow")).thenReturn("false");
+    when(request.getParameter("currentTime")).thenReturn("12:00");
+    when(request.getParameter("distance")).thenReturn("1000");
+    when(request.getParameter("lat")).thenReturn(center[0]);
+    when(request.getParameter("lng")).thenReturn(center[1]);
+    when(request.getParameter("view")).thenReturn("pins");
+    StringWriter responseBody = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(responseBody));
+
+    getNearbyVendorsServlet.doPost(request, response);
+
+    verify(response, never()).sendError(anyInt());
+    return responseBody.toString().trim();
+  }
+
+  private void assertNotModified(String vendorId) throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(request.getParameter("vendorId")).thenReturn(vendorId);
+    when(request.getHeader("If-None-Match")).thenReturn(stableETags.get(vendorId));
+
+    getVendorServlet.doGet(request, response);
+
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+  }
+
+  private static void updateSaleCard(int writer, int round) throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(request.getParameter("businessName")).thenReturn(businessName(writer, round));
+    when(request.getParameter("description")).thenReturn("xyz");
+    when(request.getParameter("startTime")).thenReturn("08:00");
+    when(request.getParameter("endTime")).thenReturn("16:00");
+    when(request.getParameter("radius")).thenReturn("100");
+    // Far from the searches, each writer moving a bit on every round
+    when(request.getParameter("lat")).thenReturn(Float.toString(10 + writer * 0.01f + round * 0.0001f));
+    when(request.getParameter("lng")).thenReturn("10");
+    when(request.getParameter("altText")).thenReturn("A");
+    when(request.getParameter("blobKey")).thenReturn("picture-" + writerId(writer));
+    // Nothing uploaded, the current picture is kept
+    when(request.getAttribute(UPLOADED_BLOBKEYS)).thenReturn(Collections.emptyMap());
+
+    updateSaleCardServlet.doPost(request, response);
+
+    verify(response, never()).sendError(anyInt());
+    verify(response, never()).sendError(anyInt(), anyString());
+    verify(response).sendRedirect("/views/editCard.html");
+  }
+
+  private static String writerId(int writer) {
+    return "w" + writer;
+  }
+
+  private static String businessName(int writer, int round) {
+    return "Business " + writer + " " + round;
+  }
+
+  /** Returns the environment of the test, logged in as another user. */
+  private static ApiProxy.Environment asUser(ApiProxy.Environment environment, String userId) {
+    Map<String, Object> attributes = new HashMap<>(environment.getAttributes());
+    attributes.put(USER_ID_KEY, userId);
+    return (ApiProxy.Environment) Proxy.newProxyInstance(
+        ApiProxy.Environment.class.getClassLoader(), new Class<?>[] {ApiProxy.Environment.class},
+        (proxy, method, args) -> method.getName().equals("getAttributes")
+            ? attributes
+            : method.invoke(environment, args));
+  }
+
+  private void fillDatastore() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    LocalTime start = LocalTime.parse("08:00");
+    LocalTime end = LocalTime.parse("16:00");
+    for (int i = 0; i < STABLE_VENDORS; i++) {
+      SaleCard saleCard = createSaleCard(i + 1, "S" + i, i % 2 == 0, false, start, end,
+          createLocation(i + 1, i * 0.0004f));
+      Entity vendorEntity = createEntityFromVendor(
+          new Vendor("s" + i, "Vendor", "S" + i, null, null, null, saleCard));
+      VendorVersion.bump(vendorEntity);
+      datastore.put(vendorEntity);
+      stableETags.put("s" + i, VendorVersion.getETag(vendorEntity));
+    }
+    for (int writer = 0; writer < THREADS; writer++) {
+      Entity vendorEntity = new Entity("Vendor", writerId(writer));
+      vendorEntity.setProperty("firstName", "Vendor");
+      vendorEntity.setProperty("lastName", "W" + writer);
+      datastore.put(vendorEntity);
+    }
+  }
+}
@@ -0,0 +1,150 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.sps.data.HttpServletUtils;
+import com.google.sps.data.VendorCache;
+import com.google.sps.utility.GeoHash;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class DeleteSaleCardServletTest {
+  private static final String VENDOR_ID = "1";
+  private static final String BLOBKEY = "picture_blobkey";
+
+  private static HttpServletRequest mockedRequest;
+  private static HttpServletResponse mockedResponse;
+
+  private static final DeleteSaleCardServlet deleteSaleCardServlet = new DeleteSaleCardServlet();
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalUserServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true))
+          .setEnvIsLoggedIn(true)
+          .setEnvEmail("test@gmail.com")
+          .setEnvAuthDomain("gmail.com")
+          .setEnvAttributes(new HashMap<String, Object>(){{
+            put("com.google.appengine.api.users.UserService.user_id_key", VENDOR_ID);
+          }});
+
+  private Key saleCardKey;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    VendorCache.getInstance().clear();
+    fillDatastore();
+    mockedRequest = mock(HttpServletRequest.class);
+    mockedResponse = mock(HttpServletResponse.class);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void deleteSaleCard() throws IOException, EntityNotFoundException {
+    deleteSaleCardServlet.doPost(mockedRequest, mockedResponse);
+
+    verify(mockedResponse).sendRedirect("/");
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Assert.assertNull(datastore.get(KeyFactory.createKey("Vendor", VENDOR_ID)).getProperty("saleCard"));
+    Assert.assertEquals(0, datastore.prepare(new Query(saleCardKey)).countEntities());
+
+    // The picture is deleted later by the queue
+    List<QueueStateInfo.TaskStateInfo> tasks = getDefaultQueueTasks();
+    Assert.assertEquals(1, tasks.size());
+    Assert.assertEquals(DeleteBlobServlet.PATH, tasks.get(0).getUrl());
+    Assert.assertEquals("blobKey=" + BLOBKEY, tasks.get(0).getBody());
+  }
+
+  @Test
+  public void vendorWithoutSaleCard() throws IOException {
+    deleteSaleCardServlet.doPost(mockedRequest, mockedResponse);
+    deleteSaleCardServlet.doPost(mockedRequest, mockedResponse);
+
+    verify(mockedResponse).sendError(HttpServletResponse.SC_BAD_REQUEST, "Vendor does not have a salecard.");
+    Assert.assertEquals(1, getDefaultQueueTasks().size());
+  }
+
+  private static List<QueueStateInfo.TaskStateInfo> getDefaultQueueTasks() {
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    return taskQueue.getQueueStateInfo().get(QueueFactory.getDefaultQueue().getQueueName()).getTaskInfo();
+  }
+
+  private void fillDatastore() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key vendorKey = KeyFactory.createKey("Vendor", VENDOR_ID);
+    saleCardKey = KeyFactory.createKey(vendorKey, "SaleCard", 1);
+
+    Entity picture = new Entity("Picture", 1, saleCardKey);
+    picture.setProperty("blobKey", new BlobKey(BLOBKEY));
+    picture.setProperty("altText", "A");
+
+    Entity location = new Entity("LocationData", 1, saleCardKey);
+    location.setProperty("salePoint", new GeoPt(0, 0));
+    location.setProperty("geoHash", GeoHash.encodeVendor(0, 0));
+    location.setProperty("radius", 0f);
+
+    Entity saleCard = new Entity(saleCardKey);
+    saleCard.setProperty("businessName", "A");
+    saleCard.setProperty("description", "xyz");
+    saleCard.setProperty("hasDelivery", false);
+    saleCard.setProperty("isTemporarilyClosed", false);
+    saleCard.setProperty("startTime", "08:00");
+    saleCard.setProperty("endTime", "16:00");
+    saleCard.setProperty("picture", HttpServletUtils.createEmbeddedEntity(picture));
+    saleCard.setProperty("location", HttpServletUtils.createEmbeddedEntity(location));
+
+    Entity vendor = new Entity(vendorKey);
+    vendor.setProperty("firstName", "Vendor");
+    vendor.setProperty("saleCard", HttpServletUtils.createEmbeddedEntity(saleCard));
+
+    datastore.put(Arrays.asList(picture, location, saleCard, vendor));
+  }
+}
@@ -22,12 +22,17 @@ import static org.mockito.Mockito.when;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.sps.COMMONS;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
 import com.google.sps.servlets.GetNearbyVendorsServlet;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.AfterClass;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -44,6 +49,11 @@ public final class GetNearbyVendorsTest {
   private static final String PARAM_DISTANCE = "distance";
   private static final String PARAM_LATITUDE = "lat";
   private static final String PARAM_LONGITUDE = "lng";
+  private static final String PARAM_LIMIT = "limit";
+  private static final String PARAM_SORT_BY = "sortBy";
+  private static final String PARAM_PAGE_SIZE = "pageSize";
+  private static final String PARAM_PAGE_TOKEN = "pageToken";
+  private static final String PARAM_VIEW = "view";
 
   // Delivery and open values
   private static final String TRUE = "true";
@@ -58,6 +68,16 @@ public final class GetNearbyVendorsTest {
   private static final String DISTANCE_MORE_THAN_MAX = Integer.toString(COMMONS.MAX_DISTANCE_CLIENT + 1);
   private static final String DISTANCE_LESS_THAN_MIN = Integer.toString(COMMONS.MIN_DISTANCE - 1);
 
+  // Limit and sort values
+  private static final String LIMIT_10 = "10";
+  private static final String LIMIT_MORE_THAN_MAX = Integer.toString(COMMONS.MAX_NEARBY_LIMIT + 1);
+  private static final String SORT_BY_DISTANCE = "distance";
+  private static final String SORT_BY_BAD_VALUE = "name";
+  private static final String PAGE_SIZE_10 = "10";
+  private static final String PAGE_TOKEN_BAD_VALUE = "not a token";
+  private static final String VIEW_PINS = "pins";
+  private static final String VIEW_BAD_VALUE = "list";
+
   // Latitude and longitude values (NL = NULL ISLAND {lat: 0, lng: 0})
   private static final String LAT_LNG_NULL_ISLAND = "0";
   private static final String LAT_BAD_VALUE = "95";
@@ -103,34 +123,34 @@ public final class GetNearbyVendorsTest {
     verify(mockedResponse, only()).sendError(HttpServletResponse.SC_BAD_REQUEST);
   }
 
-  private void verifyGoodResponse(HttpServletResponse mockedResponse, PrintWriter mockedWriter) {
+  private void verifyGoodResponse(HttpServletResponse mockedResponse, StringWriter responseBody) {
     verify(mockedResponse).setContentType(CONTENT_JSON);
     verify(mockedResponse).setCharacterEncoding(UTF_8);
-    verify(mockedWriter).println(EMPTY_GSON);
+    Assert.assertEquals(EMPTY_GSON, responseBody.toString().trim());
   }
 
   @Test
   public void emptyParamDelivery() throws IOException {
     // Empty parameter delivery is set to an arbitrary default value (true | false)
     when(mockedRequest.getParameter(PARAM_DELIVERY)).thenReturn(EMPTY_STRING);
-    PrintWriter mockedWriter = mock(PrintWriter.class);
-    when(mockedResponse.getWriter()).thenReturn(mockedWriter);
+    StringWriter responseBody = new StringWriter();
+    when(mockedResponse.getWriter()).thenReturn(new PrintWriter(responseBody));
 
     servlet.doPost(mockedRequest, mockedResponse);
 
-    verifyGoodResponse(mockedResponse, mockedWriter);
+    verifyGoodResponse(mockedResponse, responseBody);
   }
 
   @Test
   public void emptyParamOpen() throws IOException {
     // Empty parameter open now is set to an arbitrary default value (true | false)
     when(mockedRequest.getParameter(PARAM_OPEN)).thenReturn(EMPTY_STRING);
-    PrintWriter mockedWriter = mock(PrintWriter.class);
-    when(mockedResponse.getWriter()).thenReturn(mockedWriter);
+    StringWriter responseBody = new StringWriter();
+    when(mockedResponse.getWriter()).thenReturn(new PrintWriter(responseBody));
 
     servlet.doPost(mockedRequest, mockedResponse);
 
-    verifyGoodResponse(mockedResponse, mockedWriter);
+    verifyGoodResponse(mockedResponse, responseBody);
   }
 
   @Test
@@ -144,12 +164,12 @@ public final class GetNearbyVendorsTest {
   public void emptyParamDistance() throws IOException {
     // Empty parameter distance is set to an arbitrary default value
     when(mockedRequest.getParameter(PARAM_DISTANCE)).thenReturn(EMPTY_STRING);
-    PrintWriter mockedWriter = mock(PrintWriter.class);
-    when(mockedResponse.getWriter()).thenReturn(mockedWriter);
+    StringWriter responseBody = new StringWriter();
+    when(mockedResponse.getWriter()).thenReturn(new PrintWriter(responseBody));
 
     servlet.doPost(mockedRequest, mockedResponse);
 
-    verifyGoodResponse(mockedResponse, mockedWriter);
+    verifyGoodResponse(mockedResponse, responseBody);
   }
 
   @Test
@@ -202,13 +222,134 @@ public final class GetNearbyVendorsTest {
     verifyBadRequest(mockedResponse);
   }
 
+  @Test
+  public void badParamLimit() throws IOException {
+    when(mockedRequest.getParameter(PARAM_LIMIT)).thenReturn(DISTANCE_BAD_FORMAT);
+    servlet.doPost(mockedRequest, mockedResponse);
+    verifyBadRequest(mockedResponse);
+  }
+
+  @Test
+  public void moreThanMaxLimit() throws IOException {
+    when(mockedRequest.getParameter(PARAM_LIMIT)).thenReturn(LIMIT_MORE_THAN_MAX);
+    servlet.doPost(mockedRequest, mockedResponse);
+    verifyBadRequest(mockedResponse);
+  }
+
+  @Test
+  public void badParamSortBy() throws IOException {
+    when(mockedRequest.getParameter(PARAM_SORT_BY)).thenReturn(SORT_BY_BAD_VALUE);
+    servlet.doPost(mockedRequest, mockedResponse);
+    verifyBadRequest(mockedResponse);
+  }
+
+  @Test
+  public void nearestGoodParams() throws IOException {
+    when(mockedRequest.getParameter(PARAM_LIMIT)).thenReturn(LIMIT_10);
+    when(mockedRequest.getParameter(PARAM_SORT_BY)).thenReturn(SORT_BY_DISTANCE);
+    StringWriter responseBody = new StringWriter();
+    when(mockedResponse.getWriter()).thenReturn(new PrintWriter(responseBody));
+
+    servlet.doPost(mockedRequest, mockedResponse);
+
+    verifyGoodResponse(mockedResponse, responseBody);
+  }
+
+  @Test
+  public void badParamPageToken() throws IOException {
+    when(mockedRequest.getParameter(PARAM_PAGE_SIZE)).thenReturn(PAGE_SIZE_10);
+    when(mockedRequest.getParameter(PARAM_PAGE_TOKEN)).thenReturn(PAGE_TOKEN_BAD_VALUE);
+    servlet.doPost(mockedRequest, mockedResponse);
+    verifyBadRequest(mockedResponse);
+  }
+
+  @Test
+  public void moreThanMaxPageSize() throws IOException {
+    when(mockedRequest.getParameter(PARAM_PAGE_SIZE)).thenReturn(LIMIT_MORE_THAN_MAX);
+    servlet.doPost(mockedRequest, mockedResponse);
+    verifyBadRequest(mockedResponse);
+  }
+
+  @Test
+  public void pageSizeSortedByDistance() throws IOException {
+    // Pages follow the geohash order, they cannot be sorted
+    when(mockedRequest.getParameter(PARAM_PAGE_SIZE)).thenReturn(PAGE_SIZE_10);
+    when(mockedRequest.getParameter(PARAM_SORT_BY)).thenReturn(SORT_BY_DISTANCE);
+    servlet.doPost(mockedRequest, mockedResponse);
+    verifyBadRequest(mockedResponse);
+  }
+
+  @Test
+  public void pagedGoodParams() throws IOException {
+    when(mockedRequest.getParameter(PARAM_PAGE_SIZE)).thenReturn(PAGE_SIZE_10);
+    StringWriter responseBody = new StringWriter();
+    when(mockedResponse.getWriter()).thenReturn(new PrintWriter(responseBody));
+
+    servlet.doPost(mockedRequest, mockedResponse);
+
+    verifyGoodResponse(mockedResponse, responseBody);
+  }
+
+  @Test
+  public void badParamView() throws IOException {
+    when(mockedRequest.getParameter(PARAM_VIEW)).thenReturn(VIEW_BAD_VALUE);
+    servlet.doPost(mockedRequest, mockedResponse);
+    verifyBadRequest(mockedResponse);
+  }
+
+  @Test
+  public void pinsPaged() throws IOException {
+    when(mockedRequest.getParameter(PARAM_VIEW)).thenReturn(VIEW_PINS);
+    when(mockedRequest.getParameter(PARAM_PAGE_SIZE)).thenReturn(PAGE_SIZE_10);
+    servlet.doPost(mockedRequest, mockedResponse);
+    verifyBadRequest(mockedResponse);
+  }
+
+  @Test
+  public void pinsGoodParams() throws IOException {
+    when(mockedRequest.getParameter(PARAM_VIEW)).thenReturn(VIEW_PINS);
+    StringWriter responseBody = new StringWriter();
+    when(mockedResponse.getWriter()).thenReturn(new PrintWriter(responseBody));
+
+    servlet.doPost(mockedRequest, mockedResponse);
+
+    verifyGoodResponse(mockedResponse, responseBody);
+  }
+
+  @Test
+  public void nearestPinsGoodParams() throws IOException {
+    when(mockedRequest.getParameter(PARAM_VIEW)).thenReturn(VIEW_PINS);
+    when(mockedRequest.getParameter(PARAM_LIMIT)).thenReturn(LIMIT_10);
+    StringWriter responseBody = new StringWriter();
+    when(mockedResponse.getWriter()).thenReturn(new PrintWriter(responseBody));
+
+    servlet.doPost(mockedRequest, mockedResponse);
+
+    verifyGoodResponse(mockedResponse, responseBody);
+  }
+
   @Test
   public void allGoodParams() throws IOException {
-    PrintWriter mockedWriter = mock(PrintWriter.class);
-    when(mockedResponse.getWriter()).thenReturn(mockedWriter);
+    StringWriter responseBody = new StringWriter();
+    when(mockedResponse.getWriter()).thenReturn(new PrintWriter(responseBody));
 
     servlet.doPost(mockedRequest, mockedResponse);
 
-    verifyGoodResponse(mockedResponse, mockedWriter);
+    verifyGoodResponse(mockedResponse, responseBody);
+  }
+
+  @Test
+  public void incompleteResponseIsValidJson() throws IOException {
+    StringWriter responseBody = new StringWriter();
+    JsonWriter jsonWriter = new JsonWriter(responseBody);
+    jsonWriter.beginArray();
+    jsonWriter.beginObject().name("id").value("1").endObject();
+
+    GetNearbyVendorsServlet.endIncomplete(jsonWriter);
+
+    JsonArray vendors = JsonParser.parseString(responseBody.toString()).getAsJsonArray();
+    Assert.assertEquals(2, vendors.size());
+    Assert.assertEquals(GetNearbyVendorsServlet.INCOMPLETE_ERROR,
+        vendors.get(1).getAsJsonObject().get("error").getAsString());
   }
-}
\ No newline at end of file
+}
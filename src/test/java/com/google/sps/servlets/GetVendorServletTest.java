@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.VendorCache;
+import com.google.sps.data.VendorVersion;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class GetVendorServletTest {
+  private static final String VENDOR_ID = "1";
+
+  private static HttpServletRequest mockedRequest;
+  private static HttpServletResponse mockedResponse;
+  private static PrintWriter mockedWriter;
+
+  private static final GetVendorServlet getVendorServlet = new GetVendorServlet();
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalMemcacheServiceTestConfig());
+
+  private Entity vendorEntity;
+
+  @Before
+  public void setUp() throws IOException {
+    helper.setUp();
+    VendorCache.getInstance().clear();
+    vendorEntity = new Entity("Vendor", VENDOR_ID);
+    vendorEntity.setProperty("firstName", "Vendor");
+    vendorEntity.setProperty("lastName", "A");
+    VendorVersion.bump(vendorEntity);
+    DatastoreServiceFactory.getDatastoreService().put(vendorEntity);
+
+    mockedRequest = mock(HttpServletRequest.class);
+    mockedResponse = mock(HttpServletResponse.class);
+    mockedWriter = mock(PrintWriter.class);
+    when(mockedResponse.getWriter()).thenReturn(mockedWriter);
+    when(mockedRequest.getParameter("vendorId")).thenReturn(VENDOR_ID);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void notModified() throws IOException {
+    when(mockedRequest.getHeader("If-None-Match")).thenReturn(VendorVersion.getETag(vendorEntity));
+
+    getVendorServlet.doGet(mockedRequest, mockedResponse);
+
+    verify(mockedResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(mockedResponse, never()).getWriter();
+  }
+
+  @Test
+  public void notModifiedAnyVersion() throws IOException {
+    when(mockedRequest.getHeader("If-None-Match")).thenReturn("*");
+
+    getVendorServlet.doGet(mockedRequest, mockedResponse);
+
+    verify(mockedResponse).setHeader("ETag", VendorVersion.getETag(vendorEntity));
+    verify(mockedResponse).setHeader("Cache-Control", "private, no-cache");
+    verify(mockedResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+  }
+
+  @Test
+  public void distanceIsNotTagged() throws IOException {
+    when(mockedRequest.getParameter("lat")).thenReturn("0");
+    when(mockedRequest.getParameter("lng")).thenReturn("0");
+    when(mockedRequest.getHeader("If-None-Match")).thenReturn(VendorVersion.getETag(vendorEntity));
+
+    getVendorServlet.doGet(mockedRequest, mockedResponse);
+
+    verify(mockedResponse, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(mockedResponse, never()).setHeader(eq("ETag"), anyString());
+    verify(mockedWriter).println(anyString());
+  }
+
+  @Test
+  public void badParamLatitude() throws IOException {
+    when(mockedRequest.getParameter("lng")).thenReturn("0");
+
+    getVendorServlet.doGet(mockedRequest, mockedResponse);
+
+    verify(mockedResponse).sendError(HttpServletResponse.SC_BAD_REQUEST, "Latitude and/or longitude outside range");
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.sps.COMMONS;
+import com.google.sps.utility.RequestMetrics;
+import com.google.sps.utility.RequestTrace;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class MetricsFilterTest {
+  private static final String ENDPOINT = "/get-vendor";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+          .setEnvIsLoggedIn(true)
+          .setEnvIsAdmin(true)
+          .setEnvEmail("test@gmail.com")
+          .setEnvAuthDomain("gmail.com");
+
+  private MetricsFilter metricsFilter;
+
+  @Before
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public void setUp() {
+    helper.setUp();
+    RequestMetrics.getInstance().clear();
+
+    ServletRegistration registration = mock(ServletRegistration.class);
+    when(registration.getMappings()).thenReturn(Arrays.asList(ENDPOINT, "/static/*"));
+    ServletContext servletContext = mock(ServletContext.class);
+    when(servletContext.getServletRegistrations())
+        .thenReturn((Map) Collections.singletonMap("GetVendorServlet", registration));
+    FilterConfig filterConfig = mock(FilterConfig.class);
+    when(filterConfig.getServletContext()).thenReturn(servletContext);
+    metricsFilter = new MetricsFilter();
+    metricsFilter.init(filterConfig);
+  }
+
+  @After
+  public void tearDown() {
+    // The helper expects its own delegate back to stop it
+    metricsFilter.destroy();
+    RequestMetrics.getInstance().clear();
+    helper.tearDown();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void countsDatastoreCallsOfRequest() throws IOException, ServletException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    FilterChain chain = (request, response) -> {
+      Entity vendorEntity = new Entity("Vendor", "1");
+      vendorEntity.setProperty("firstName", "Vendor");
+      datastore.put(vendorEntity);
+      datastore.prepare(new Query("Vendor")).asList(FetchOptions.Builder.withDefaults()).size();
+      RequestTrace.addEntitiesRead(1);
+      RequestTrace.addNanos(RequestTrace.Stage.SERIALIZE, 1000);
+    };
+
+    metricsFilter.doFilter(request(ENDPOINT), response(HttpServletResponse.SC_OK), chain);
+
+    Map<String, Object> endpointMetrics = endpointMetrics(ENDPOINT);
+    Assert.assertEquals(1L, endpointMetrics.get("requests"));
+    Assert.assertEquals(0L, endpointMetrics.get("serverErrors"));
+    Assert.assertTrue((Double) endpointMetrics.get("datastoreCallsPerRequest") >= 2);
+    Assert.assertTrue((Double) endpointMetrics.get("datastoreBytesWrittenPerRequest") > 0);
+    Assert.assertTrue((Double) endpointMetrics.get("datastoreBytesReadPerRequest") > 0);
+    Assert.assertEquals(1.0, endpointMetrics.get("entitiesReadPerRequest"));
+    Map<String, Double> stages = (Map<String, Double>) endpointMetrics.get("meanStageMillis");
+    Assert.assertEquals(0.001, stages.get("serialize"), 1e-9);
+    Assert.assertTrue(stages.get("datastore") > 0);
+    // The trace ends with the request
+    Assert.assertNull(RequestTrace.current());
+  }
+
+  @Test
+  public void countsUnmappedPathsTogether() throws IOException, ServletException {
+    metricsFilter.doFilter(request("/static/a.png"), response(HttpServletResponse.SC_OK), (request, response) -> {});
+    metricsFilter.doFilter(request("/no-such-page"), response(HttpServletResponse.SC_NOT_FOUND), (request, response) -> {});
+
+    Assert.assertEquals(2L, endpointMetrics(COMMONS.METRICS_OTHER_ENDPOINT).get("requests"));
+    Assert.assertFalse(RequestMetrics.getInstance().snapshot().containsKey("/no-such-page"));
+  }
+
+  @Test
+  public void requestIdFromTraceHeader() throws IOException, ServletException {
+    HttpServletRequest tracedRequest = request(ENDPOINT);
+    when(tracedRequest.getHeader("X-Cloud-Trace-Context")).thenReturn("105445aa7843bc8bf206b1200/1;o=1");
+    String[] requestIds = new String[2];
+
+    metricsFilter.doFilter(tracedRequest, response(HttpServletResponse.SC_OK),
+        (request, response) -> requestIds[0] = RequestTrace.current().getRequestId());
+    metricsFilter.doFilter(request(ENDPOINT), response(HttpServletResponse.SC_OK),
+        (request, response) -> requestIds[1] = RequestTrace.current().getRequestId());
+
+    Assert.assertEquals("105445aa7843bc8bf206b1200", requestIds[0]);
+    Assert.assertNotNull(requestIds[1]);
+  }
+
+  @Test
+  public void countsFailedRequestAsServerError() throws IOException, ServletException {
+    try {
+      metricsFilter.doFilter(request(ENDPOINT), response(HttpServletResponse.SC_OK), (request, response) -> {
+        throw new IllegalStateException("Failed");
+      });
+      Assert.fail();
+    } catch (IllegalStateException expected) {
+      // Thrown on to the container
+    }
+
+    Assert.assertEquals(1L, endpointMetrics(ENDPOINT).get("serverErrors"));
+    Assert.assertNull(RequestTrace.current());
+  }
+
+  @Test
+  public void adminEndpoint() throws IOException, ServletException {
+    metricsFilter.doFilter(request(ENDPOINT), response(HttpServletResponse.SC_OK), (request, response) -> {});
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    StringWriter responseBody = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(responseBody));
+
+    new MetricsServlet().doGet(mock(HttpServletRequest.class), response);
+
+    Assert.assertTrue(responseBody.toString().contains("\"" + ENDPOINT + "\":{\"requests\":1,"));
+  }
+
+  @Test
+  public void adminEndpointNotAdmin() throws IOException {
+    helper.setEnvIsAdmin(false);
+    helper.tearDown();
+    helper.setUp();
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    new MetricsServlet().doGet(mock(HttpServletRequest.class), response);
+
+    verify(response).sendError(HttpServletResponse.SC_FORBIDDEN);
+  }
+
+  private static HttpServletRequest request(String servletPath) {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getServletPath()).thenReturn(servletPath);
+    return request;
+  }
+
+  private static HttpServletResponse response(int status) {
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getStatus()).thenReturn(status);
+    return response;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> endpointMetrics(String endpoint) {
+    return (Map<String, Object>) RequestMetrics.getInstance().snapshot().get(endpoint);
+  }
+}
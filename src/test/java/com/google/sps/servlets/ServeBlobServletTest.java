@@ -0,0 +1,209 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalImagesServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.utility.ImageVariant;
+import com.google.sps.utility.ImageVariantCache;
+import com.google.sps.utility.ImageVariantCacheTest;
+import java.io.IOException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ServeBlobServletTest {
+  private static final String BLOBKEY = "picture";
+  private static final String THUMBNAIL_ETAG = "\"picture/THUMBNAIL/JPEG\"";
+
+  private static HttpServletRequest mockedRequest;
+  private static HttpServletResponse mockedResponse;
+  private static ServletOutputStream mockedOutput;
+
+  private static final ServeBlobServlet serveBlobServlet = new ServeBlobServlet();
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalBlobstoreServiceTestConfig(),
+          new LocalImagesServiceTestConfig(),
+          new LocalMemcacheServiceTestConfig());
+
+  @Before
+  public void setUp() throws IOException {
+    helper.setUp();
+    ImageVariantCacheTest.putPicture(new BlobKey(BLOBKEY), 1200, 800);
+    mockedRequest = mock(HttpServletRequest.class);
+    mockedResponse = mock(HttpServletResponse.class);
+    mockedOutput = mock(ServletOutputStream.class);
+    when(mockedResponse.getOutputStream()).thenReturn(mockedOutput);
+    when(mockedRequest.getParameter("blobKey")).thenReturn(BLOBKEY);
+    when(mockedRequest.getParameter("size")).thenReturn("thumbnail");
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void variantIsCachedForGood() throws IOException {
+    serveBlobServlet.doGet(mockedRequest, mockedResponse);
+
+    byte[] thumbnail = thumbnail();
+    verify(mockedResponse).setHeader("ETag", THUMBNAIL_ETAG);
+    verify(mockedResponse).setHeader("Cache-Control", "public, max-age=31536000, immutable");
+    verify(mockedResponse).setContentType("image/jpeg");
+    verify(mockedResponse).setContentLength(thumbnail.length);
+    verify(mockedOutput).write(thumbnail);
+  }
+
+  @Test
+  public void notModified() throws IOException {
+    when(mockedRequest.getHeader("If-None-Match")).thenReturn("\"other\", " + THUMBNAIL_ETAG);
+
+    serveBlobServlet.doGet(mockedRequest, mockedResponse);
+
+    verify(mockedResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(mockedResponse, never()).getOutputStream();
+  }
+
+  @Test
+  public void modified() throws IOException {
+    when(mockedRequest.getHeader("If-None-Match")).thenReturn("\"picture/CARD/JPEG\"");
+
+    serveBlobServlet.doGet(mockedRequest, mockedResponse);
+
+    verify(mockedResponse, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(mockedOutput).write(thumbnail());
+  }
+
+  @Test
+  public void rangeOfVariant() throws IOException {
+    when(mockedRequest.getHeader("Range")).thenReturn("bytes=10-19");
+
+    serveBlobServlet.doGet(mockedRequest, mockedResponse);
+
+    byte[] thumbnail = thumbnail();
+    verify(mockedResponse).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    verify(mockedResponse).setHeader("Content-Range", "bytes 10-19/" + thumbnail.length);
+    verify(mockedResponse).setContentLength(10);
+    verify(mockedOutput).write(thumbnail, 10, 10);
+  }
+
+  @Test
+  public void suffixRangeOfVariant() throws IOException {
+    when(mockedRequest.getHeader("Range")).thenReturn("bytes=-5");
+
+    serveBlobServlet.doGet(mockedRequest, mockedResponse);
+
+    byte[] thumbnail = thumbnail();
+    int start = thumbnail.length - 5;
+    verify(mockedResponse).setHeader("Content-Range",
+        "bytes " + start + "-" + (thumbnail.length - 1) + "/" + thumbnail.length);
+    verify(mockedOutput).write(thumbnail, start, 5);
+  }
+
+  @Test
+  public void unsatisfiableRange() throws IOException {
+    when(mockedRequest.getHeader("Range")).thenReturn("bytes=100000-");
+
+    serveBlobServlet.doGet(mockedRequest, mockedResponse);
+
+    verify(mockedResponse).sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    verify(mockedResponse).setHeader("Cache-Control", "no-store");
+  }
+
+  @Test
+  public void malformedRangeIsIgnored() throws IOException {
+    when(mockedRequest.getHeader("Range")).thenReturn("bytes=ten-");
+
+    serveBlobServlet.doGet(mockedRequest, mockedResponse);
+
+    byte[] thumbnail = thumbnail();
+    verify(mockedResponse, never()).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    verify(mockedResponse, never()).sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    verify(mockedResponse).setContentLength(thumbnail.length);
+    verify(mockedOutput).write(thumbnail);
+  }
+
+  @Test
+  public void missingVariantIsNotCached() throws IOException {
+    when(mockedRequest.getParameter("blobKey")).thenReturn("missing");
+
+    serveBlobServlet.doGet(mockedRequest, mockedResponse);
+
+    verify(mockedResponse).sendError(HttpServletResponse.SC_NOT_FOUND);
+    verify(mockedResponse).setHeader("Cache-Control", "no-store");
+    verify(mockedResponse, never()).setHeader("Cache-Control", "public, max-age=31536000, immutable");
+    verify(mockedResponse, never()).setHeader(eq("ETag"), anyString());
+  }
+
+  @Test
+  public void anyTagOfMissingBlobIsNotFound() throws IOException {
+    when(mockedRequest.getParameter("blobKey")).thenReturn("missing");
+    when(mockedRequest.getParameter("size")).thenReturn(null);
+    when(mockedRequest.getHeader("If-None-Match")).thenReturn("*");
+
+    serveBlobServlet.doGet(mockedRequest, mockedResponse);
+
+    verify(mockedResponse, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(mockedResponse).sendError(HttpServletResponse.SC_NOT_FOUND);
+    verify(mockedResponse, never()).setHeader(eq("ETag"), anyString());
+  }
+
+  @Test
+  public void quoteInBlobKey() throws IOException {
+    when(mockedRequest.getParameter("blobKey")).thenReturn("pic\"ture");
+
+    serveBlobServlet.doGet(mockedRequest, mockedResponse);
+
+    verify(mockedResponse).sendError(HttpServletResponse.SC_BAD_REQUEST);
+    verify(mockedResponse, never()).setHeader(eq("ETag"), anyString());
+  }
+
+  @Test
+  public void badParamSize() throws IOException {
+    when(mockedRequest.getParameter("size")).thenReturn("huge");
+
+    serveBlobServlet.doGet(mockedRequest, mockedResponse);
+
+    verify(mockedResponse).sendError(HttpServletResponse.SC_BAD_REQUEST);
+  }
+
+  private static byte[] thumbnail() {
+    return ImageVariantCache.getInstance()
+        .get(new BlobKey(BLOBKEY), ImageVariant.THUMBNAIL, ImagesService.OutputEncoding.JPEG);
+  }
+}
@@ -38,6 +38,7 @@ import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig
 
 import com.google.sps.data.AuthStatus;
 import com.google.sps.data.Vendor;
+import com.google.sps.data.VendorCache;
 import com.google.sps.servlets.UpdateVendorServlet;
 
 import com.google.gson.Gson;
@@ -95,6 +96,7 @@ public final class UpdateVendorServletTest {
   @Before
   public void setUp() {
     helper.setUp();
+    VendorCache.getInstance().clear();
     mockedRequest = mock(HttpServletRequest.class);
     mockedResponse = mock(HttpServletResponse.class);
     when(mockedRequest.getParameter(PARAM_FIRST_NAME)).thenReturn(FIRST_NAME);
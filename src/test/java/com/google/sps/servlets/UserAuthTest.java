@@ -33,6 +33,7 @@ import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig
 import com.google.gson.Gson;
 import com.google.sps.data.AuthStatus;
 import com.google.sps.data.Vendor;
+import com.google.sps.data.VendorCache;
 import com.google.sps.servlets.AuthServlet;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -97,6 +98,7 @@ public final class UserAuthTest {
   @Before
   public void setUp() {
     helper.setUp();
+    VendorCache.getInstance().clear();
     fillDatastore();
     mockedRequest = mock(HttpServletRequest.class);
     mockedResponse = mock(HttpServletResponse.class);
@@ -0,0 +1,220 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class AsyncLogAppenderTest {
+  private ByteArrayOutputStream out;
+  private ByteArrayOutputStream err;
+
+  @Before
+  public void setUp() {
+    out = new ByteArrayOutputStream();
+    err = new ByteArrayOutputStream();
+  }
+
+  @Test
+  public void formatsEventOfRequest() {
+    RequestTrace trace = RequestTrace.begin("trace-1", "/get-vendor");
+    AppLog.Event event = new AppLog.Event(AppLog.Level.INFO, "Bad \"id\"\n", null, null, trace);
+    trace.end();
+
+    String line = AsyncLogAppender.format(event);
+
+    Assert.assertTrue(line.startsWith("{\"severity\":\"INFO\",\"time\":\""));
+    Assert.assertTrue(line.endsWith(
+        ",\"requestId\":\"trace-1\",\"endpoint\":\"/get-vendor\",\"message\":\"Bad \\\"id\\\"\\n\"}"));
+  }
+
+  @Test
+  public void formatsEventOutsideRequest() {
+    AppLog.Event event = new AppLog.Event(AppLog.Level.WARNING, "Index not loaded",
+        new IllegalStateException("Timeout"), "\"vendors\":0", null);
+
+    String line = AsyncLogAppender.format(event);
+
+    Assert.assertFalse(line.contains("requestId"));
+    Assert.assertTrue(line.endsWith(",\"message\":\"Index not loaded\","
+        + "\"exception\":\"java.lang.IllegalStateException: Timeout\",\"vendors\":0}"));
+  }
+
+  @Test
+  public void errorsKeepTheirStack() {
+    AppLog.Event event = new AppLog.Event(AppLog.Level.ERROR, "Failed",
+        new IllegalStateException("Timeout"), null, null);
+
+    String line = AsyncLogAppender.format(event);
+
+    Assert.assertTrue(line.contains("\"exception\":\"java.lang.IllegalStateException: Timeout\\n\\tat "));
+    Assert.assertTrue(line.contains("AsyncLogAppenderTest.errorsKeepTheirStack"));
+  }
+
+  @Test
+  public void dropsEventsWhenFull() throws InterruptedException {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    // A stdout stuck on the first line, like a slow log pipe
+    PrintStream slowOut = new PrintStream(out, true) {
+      @Override
+      public void println(String line) {
+        writing.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.println(line);
+      }
+    };
+    AsyncLogAppender appender = new AsyncLogAppender(2, slowOut, new PrintStream(err, true), Thread::new);
+    appender.start();
+
+    appender.append(event(AppLog.Level.INFO, "Event 0"));
+    writing.await();
+    for (int i = 1; i <= 5; i++) {
+      appender.append(event(AppLog.Level.INFO, "Event " + i));
+    }
+    // Appending did not wait for the writer
+    Assert.assertEquals(3, appender.getDroppedCount());
+    release.countDown();
+    waitForWriter(appender);
+
+    Assert.assertEquals(3, countLines(out()));
+    Assert.assertTrue(out().contains("Event 2"));
+    Assert.assertFalse(out().contains("Event 3"));
+    Assert.assertTrue(err().contains("\"message\":\"3 log events dropped, the log queue was full\""));
+  }
+
+  @Test
+  public void writesOnItsOwnThread() {
+    AsyncLogAppender appender = newAppender(16);
+
+    appender.append(event(AppLog.Level.INFO, "Loaded"));
+    appender.append(event(AppLog.Level.ERROR, "Failed"));
+    waitForWriter(appender);
+
+    Assert.assertTrue(out().contains("\"message\":\"Loaded\""));
+    Assert.assertFalse(out().contains("Failed"));
+    Assert.assertTrue(err().contains("\"severity\":\"ERROR\""));
+    Assert.assertEquals(0, appender.getDroppedCount());
+  }
+
+  @Test
+  public void writesOnRequestThreadWithoutWriter() {
+    AsyncLogAppender appender = new AsyncLogAppender(16, new PrintStream(out, true),
+        new PrintStream(err, true), runnable -> {
+          throw new IllegalStateException("Threads are not allowed");
+        });
+    appender.start();
+
+    appender.append(event(AppLog.Level.INFO, "Loaded"));
+
+    Assert.assertEquals(0, appender.getPendingCount());
+    Assert.assertTrue(out().contains("\"message\":\"Loaded\""));
+  }
+
+  @Test
+  public void requestThreadsWithoutWriterDoNotWaitForEachOther() throws InterruptedException {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    // A stdout stuck on the line of the first request
+    PrintStream slowOut = new PrintStream(out, true) {
+      @Override
+      public void println(String line) {
+        if (line.contains("Slow")) {
+          writing.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        super.println(line);
+      }
+    };
+    AsyncLogAppender appender = new AsyncLogAppender(16, slowOut, new PrintStream(err, true), null);
+    Thread slowRequest = new Thread(() -> appender.append(event(AppLog.Level.INFO, "Slow")));
+    slowRequest.start();
+    writing.await();
+
+    appender.append(event(AppLog.Level.INFO, "Fast"));
+
+    Assert.assertTrue(out().contains("\"message\":\"Fast\""));
+    release.countDown();
+    slowRequest.join();
+    Assert.assertEquals(0, appender.getPendingCount());
+  }
+
+  @Test
+  public void stopKeepsOrder() {
+    AsyncLogAppender appender = newAppender(1024);
+
+    for (int i = 0; i < 1000; i++) {
+      appender.append(event(AppLog.Level.INFO, "Event " + i));
+      if (i == 500) {
+        appender.stop();
+      }
+    }
+
+    Assert.assertEquals(0, appender.getPendingCount());
+    String[] lines = out().split("\n");
+    Assert.assertEquals(1000, lines.length);
+    for (int i = 0; i < lines.length; i++) {
+      Assert.assertTrue(lines[i].contains("\"message\":\"Event " + i + "\""));
+    }
+  }
+
+  private AsyncLogAppender newAppender(int capacity) {
+    AsyncLogAppender appender = new AsyncLogAppender(
+        capacity, new PrintStream(out, true), new PrintStream(err, true), Thread::new);
+    appender.start();
+    return appender;
+  }
+
+  private static AppLog.Event event(AppLog.Level level, String message) {
+    return new AppLog.Event(level, message, null, null, null);
+  }
+
+  /** Waits until the writer thread has written every event. */
+  private static void waitForWriter(AsyncLogAppender appender) {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (appender.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.yield();
+    }
+    Assert.assertEquals(0, appender.getPendingCount());
+  }
+
+  private String out() {
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private String err() {
+    return new String(err.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static long countLines(String text) {
+    return text.chars().filter(c -> c == '\n').count();
+  }
+}
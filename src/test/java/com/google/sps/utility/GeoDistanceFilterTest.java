@@ -0,0 +1,133 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import static com.google.sps.data.HttpServletUtils.computeGeoDistance;
+
+import com.google.appengine.api.datastore.GeoPt;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class GeoDistanceFilterTest {
+
+  // Distance values
+  private static final int DIST_0_M = 0;
+  private static final int DIST_100_M = 100;
+  private static final int DIST_1_KM = 1 * 1000;
+  private static final int DIST_20_KM = 20 * 1000;
+  private static final int[] RADII = { DIST_0_M, DIST_100_M, DIST_1_KM, DIST_20_KM };
+
+  // Search centers (NL = NULL ISLAND {lat: 0, lng: 0})
+  private static final GeoPt GEO_PT_NL = new GeoPt(0, 0);
+  private static final GeoPt GEO_PT_CDMX = new GeoPt(19.4326f, -99.1332f);
+  private static final GeoPt GEO_PT_ANTIMERIDIAN = new GeoPt(-17.7134f, 179.9999f);
+  private static final GeoPt GEO_PT_SVALBARD = new GeoPt(78.2232f, 15.6267f);
+  private static final GeoPt GEO_PT_NEAR_POLE = new GeoPt(88.9f, -45f);
+  private static final GeoPt GEO_PT_POLE = new GeoPt(-90f, 0f);
+  private static final GeoPt[] CENTERS = { GEO_PT_NL, GEO_PT_CDMX, GEO_PT_ANTIMERIDIAN,
+      GEO_PT_SVALBARD, GEO_PT_NEAR_POLE, GEO_PT_POLE };
+
+  // Random points checked around every circle, on a square twice as wide as the circle
+  private static final int POINTS_PER_CIRCLE = 5000;
+
+  @Test
+  public void sameDistanceAsHaversine() {
+    Random random = new Random(42);
+    for (GeoPt center : CENTERS) {
+      for (int radius : RADII) {
+        GeoDistanceFilter distanceFilter = new GeoDistanceFilter(center, Math.max(radius, DIST_100_M));
+        for (int i = 0; i < POINTS_PER_CIRCLE; i++) {
+          GeoPt point = randomPointAround(random, center, 2 * Math.max(radius, DIST_100_M));
+          Assert.assertEquals(center + " to " + point,
+              computeGeoDistance(center, point), distanceFilter.distanceTo(point), 0f);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void keepsEveryPointInside() {
+    Random random = new Random(42);
+    for (GeoPt center : CENTERS) {
+      for (int radius : RADII) {
+        GeoDistanceFilter distanceFilter = new GeoDistanceFilter(center, radius);
+        for (int i = 0; i < POINTS_PER_CIRCLE; i++) {
+          GeoPt point = randomPointAround(random, center, 2 * Math.max(radius, DIST_100_M));
+          if (computeGeoDistance(center, point) <= radius) {
+            Assert.assertTrue(point + " is within " + radius + "m of " + center, distanceFilter.mayContain(point));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void keepsPointsOnTheCircle() {
+    Random random = new Random(42);
+    for (GeoPt center : CENTERS) {
+      GeoDistanceFilter distanceFilter = new GeoDistanceFilter(center, DIST_20_KM);
+      int onCircle = 0;
+      while (onCircle < 200) {
+        GeoPt point = randomPointAround(random, center, 2 * DIST_20_KM);
+        float distance = computeGeoDistance(center, point);
+        if (distance > DIST_20_KM || distance < DIST_20_KM * 0.99) continue;
+        Assert.assertTrue(point + " is within " + DIST_20_KM + "m of " + center, distanceFilter.mayContain(point));
+        onCircle++;
+      }
+    }
+  }
+
+  @Test
+  public void rejectsMostPointsOutside() {
+    Random random = new Random(42);
+    for (GeoPt center : new GeoPt[]{ GEO_PT_NL, GEO_PT_CDMX, GEO_PT_ANTIMERIDIAN, GEO_PT_SVALBARD }) {
+      GeoDistanceFilter distanceFilter = new GeoDistanceFilter(center, DIST_1_KM);
+      int outside = 0;
+      int kept = 0;
+      for (int i = 0; i < POINTS_PER_CIRCLE; i++) {
+        GeoPt point = randomPointAround(random, center, 2 * DIST_1_KM);
+        if (computeGeoDistance(center, point) <= DIST_1_KM * 1.05) continue;
+        outside++;
+        if (distanceFilter.mayContain(point)) kept++;
+      }
+      // Only the ones in the slack around the circle may be kept
+      Assert.assertTrue(center + " kept " + kept + " of " + outside, kept * 100 < outside);
+    }
+  }
+
+  @Test
+  public void longitudeWrapsAround() {
+    GeoDistanceFilter distanceFilter = new GeoDistanceFilter(GEO_PT_ANTIMERIDIAN, DIST_1_KM);
+
+    Assert.assertTrue(distanceFilter.mayContain(-17.7134f, -179.9999f));
+    Assert.assertFalse(distanceFilter.mayContain(-17.7134f, 0f));
+    Assert.assertFalse(distanceFilter.mayContain(17.7134f, 179.9999f));
+  }
+
+  private static GeoPt randomPointAround(Random random, GeoPt center, int halfSide) {
+    double latDelta = halfSide / 111000.0 * (2 * random.nextDouble() - 1);
+    double lngDelta = halfSide / (111000.0 * Math.max(0.001, Math.cos(Math.toRadians(center.getLatitude()))))
+        * (2 * random.nextDouble() - 1);
+    double lat = Math.max(-90, Math.min(90, center.getLatitude() + latDelta));
+    double lng = center.getLongitude() + Math.max(-180, Math.min(180, lngDelta));
+    if (lng > 180) lng -= 360;
+    if (lng < -180) lng += 360;
+    return new GeoPt((float) lat, (float) lng);
+  }
+}
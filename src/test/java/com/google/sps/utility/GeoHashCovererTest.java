@@ -0,0 +1,171 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import static com.google.sps.data.HttpServletUtils.computeGeoDistance;
+
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.sps.COMMONS;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class GeoHashCovererTest {
+
+  // Distance values
+  private static final int DIST_100_M = 100;
+  private static final int DIST_1_KM = 1 * 1000;
+  private static final int DIST_20_KM = 20 * 1000;
+
+  // Search centers (NL = NULL ISLAND {lat: 0, lng: 0})
+  private static final GeoPt GEO_PT_NL = new GeoPt(0, 0);
+  private static final GeoPt GEO_PT_CDMX = new GeoPt(19.4326f, -99.1332f);
+  private static final GeoPt GEO_PT_ANTIMERIDIAN = new GeoPt(-17.7134f, 179.9999f);
+  private static final GeoPt GEO_PT_TROMSO = new GeoPt(69.6492f, 18.9553f);
+  private static final GeoPt GEO_PT_LONGYEARBYEN = new GeoPt(78.2232f, 15.6267f);
+  private static final GeoPt GEO_PT_NEAR_POLE = new GeoPt(89.95f, -45.0f);
+
+  // Random points checked inside every circle
+  private static final int POINTS_PER_CIRCLE = 2000;
+
+  // Cells of the stored precision inside a cell of the given precision
+  private static long storedCellsIn(int precision) {
+    return 1L << (5 * (COMMONS.MAX_GEOHASH_PRECISION - precision));
+  }
+
+  @Test
+  public void coversEveryPointInside() {
+    Random random = new Random(42);
+    for (GeoPt center : new GeoPt[]{ GEO_PT_NL, GEO_PT_CDMX, GEO_PT_ANTIMERIDIAN }) {
+      for (int radius : new int[]{ DIST_100_M, DIST_1_KM, DIST_20_KM }) {
+        List<GeoHashRange> cover = GeoHashCoverer.cover(center.getLatitude(), center.getLongitude(), radius);
+        for (int i = 0; i < POINTS_PER_CIRCLE; i++) {
+          GeoPt point = randomPointAround(random, center, radius);
+          if (computeGeoDistance(center, point) <= radius) {
+            Assert.assertTrue(point + " is not covered", isCovered(cover, point));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void minDistanceIsLowerBound() {
+    // No point of a range is closer to the center than the distance the range carries
+    Random random = new Random(7);
+    for (GeoPt center : new GeoPt[]{ GEO_PT_NL, GEO_PT_CDMX, GEO_PT_ANTIMERIDIAN }) {
+      List<GeoHashRange> cover = GeoHashCoverer.cover(center.getLatitude(), center.getLongitude(), DIST_20_KM);
+      for (int i = 0; i < POINTS_PER_CIRCLE; i++) {
+        GeoPt point = randomPointAround(random, center, DIST_20_KM);
+        String geoHash = GeoHash.encodeVendor(point.getLatitude(), point.getLongitude());
+        for (GeoHashRange range : cover) {
+          if (range.contains(geoHash)) {
+            Assert.assertTrue(computeGeoDistance(center, point) >= range.getMinDistance());
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void coversEveryPointInsideAtHighLatitude() {
+    // Far from the equator the closest point of a cell is not the center clamped into it
+    Random random = new Random(60);
+    for (GeoPt center : new GeoPt[]{ GEO_PT_TROMSO, GEO_PT_LONGYEARBYEN, GEO_PT_NEAR_POLE }) {
+      for (int radius : new int[]{ DIST_1_KM, DIST_20_KM }) {
+        List<GeoHashRange> cover = GeoHashCoverer.cover(center.getLatitude(), center.getLongitude(), radius);
+        for (int i = 0; i < POINTS_PER_CIRCLE; i++) {
+          GeoPt point = randomPointWithin(random, center, radius);
+          Assert.assertTrue(point + " is not covered", isCovered(cover, point));
+          String geoHash = GeoHash.encodeVendor(point.getLatitude(), point.getLongitude());
+          for (GeoHashRange range : cover) {
+            if (range.contains(geoHash)) {
+              Assert.assertTrue(computeGeoDistance(center, point) >= range.getMinDistance());
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void boundedNumberOfRanges() {
+    List<GeoHashRange> cover = GeoHashCoverer.cover(GEO_PT_CDMX.getLatitude(), GEO_PT_CDMX.getLongitude(), DIST_20_KM);
+    Assert.assertTrue(cover.size() <= COMMONS.GEOHASH_MAX_COVER_CELLS);
+  }
+
+  @Test
+  public void rangesAreSortedAndDisjoint() {
+    List<GeoHashRange> cover = GeoHashCoverer.cover(GEO_PT_NL.getLatitude(), GEO_PT_NL.getLongitude(), DIST_1_KM);
+    for (int i = 1; i < cover.size(); i++) {
+      Assert.assertTrue(cover.get(i - 1).getEnd() < cover.get(i).getStart());
+    }
+  }
+
+  @Test
+  public void smallerThanFixedGrid() {
+    // The 3x3 grid at the precision picked for the distance reads more land than the cover
+    List<GeoHashRange> cover = GeoHashCoverer.cover(GEO_PT_CDMX.getLatitude(), GEO_PT_CDMX.getLongitude(), DIST_20_KM);
+    long coveredCells = 0;
+    for (GeoHashRange range : cover) {
+      coveredCells += range.getEnd() - range.getStart();
+    }
+
+    long gridCells = 9 * storedCellsIn(GeoHash.determinePrecision(DIST_20_KM));
+    Assert.assertTrue(coveredCells < gridCells);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void radiusMoreThanMax() {
+    GeoHashCoverer.cover(0, 0, COMMONS.MAX_DISTANCE_CLIENT + 1);
+  }
+
+  private static GeoPt randomPointAround(Random random, GeoPt center, int radius) {
+    // A square slightly larger than the circle, in degrees
+    double latDelta = radius / 111000.0 * (2 * random.nextDouble() - 1);
+    double lngDelta = radius / (111000.0 * Math.cos(Math.toRadians(center.getLatitude())))
+        * (2 * random.nextDouble() - 1);
+    double lng = center.getLongitude() + lngDelta;
+    if (lng > 180) lng -= 360;
+    if (lng < -180) lng += 360;
+    return new GeoPt((float) (center.getLatitude() + latDelta), (float) lng);
+  }
+
+  private static GeoPt randomPointWithin(Random random, GeoPt center, int radius) {
+    // A random bearing and distance from the center, walked along a great circle
+    double angle = radius * random.nextDouble() / GeoPt.EARTH_RADIUS_METERS;
+    double bearing = 2 * Math.PI * random.nextDouble();
+    double lat = Math.toRadians(center.getLatitude());
+    double lng = Math.toRadians(center.getLongitude());
+    double pointLat = Math.asin(Math.sin(lat) * Math.cos(angle)
+        + Math.cos(lat) * Math.sin(angle) * Math.cos(bearing));
+    double pointLng = lng + Math.atan2(Math.sin(bearing) * Math.sin(angle) * Math.cos(lat),
+        Math.cos(angle) - Math.sin(lat) * Math.sin(pointLat));
+    pointLng = Math.IEEEremainder(pointLng, 2 * Math.PI);
+    return new GeoPt((float) Math.toDegrees(pointLat), (float) Math.toDegrees(pointLng));
+  }
+
+  private static boolean isCovered(List<GeoHashRange> cover, GeoPt point) {
+    String geoHash = GeoHash.encodeVendor(point.getLatitude(), point.getLongitude());
+    for (GeoHashRange range : cover) {
+      if (range.contains(geoHash)) return true;
+    }
+    return false;
+  }
+}
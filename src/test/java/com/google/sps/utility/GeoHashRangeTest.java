@@ -0,0 +1,55 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class GeoHashRangeTest {
+
+  @Test
+  public void normalizeMergesRepeatedAndOverlappingRanges() {
+    List<GeoHashRange> ranges = Arrays.asList(
+        new GeoHashRange(40, 50, 300), new GeoHashRange(10, 20, 100), new GeoHashRange(15, 30, 50),
+        new GeoHashRange(10, 20, 100), new GeoHashRange(30, 35, 200));
+
+    List<GeoHashRange> normalized = GeoHashRange.normalize(ranges);
+
+    Assert.assertEquals(Arrays.asList(new GeoHashRange(10, 35), new GeoHashRange(40, 50)), normalized);
+    Assert.assertEquals(50, normalized.get(0).getMinDistance(), 0);
+    Assert.assertEquals(300, normalized.get(1).getMinDistance(), 0);
+  }
+
+  @Test
+  public void normalizeKeepsCellsOfTheCoverer() {
+    List<GeoHashRange> ranges = GeoHashCoverer.cover(0, 0, 20000);
+
+    Assert.assertEquals(ranges, GeoHashRange.normalize(ranges));
+  }
+
+  @Test
+  public void prefixOfNeighbourCellsTwice() {
+    // A cell listed twice, or inside another one, is read once
+    List<GeoHashRange> ranges = Arrays.asList(
+        GeoHashRange.ofPrefix("s0000"), GeoHashRange.ofPrefix("s0000"), GeoHashRange.ofPrefix("s00001"));
+
+    Assert.assertEquals(Arrays.asList(GeoHashRange.ofPrefix("s0000")), GeoHashRange.normalize(ranges));
+  }
+}
@@ -31,6 +31,7 @@ public final class GeoHashTest {
     private final int DISTANCE_1KM = 1000;
     private final int DISTANCE_MAX = 5000 * 1000;
     private final int DISTANCE_MIN = 0;
+    private final int DISTANCE_MORE_THAN_MAX = DISTANCE_MAX + 1;
 
     // Geohash precision
     private final int GEOHASH_MAX_PRECISION = 9;
@@ -127,4 +128,11 @@ public final class GeoHashTest {
                         geoHash.getHashesToQuery(PLACE_INITIAL.getLatitude(), PLACE_INITIAL.getLongitude(), DISTANCE_MIN).toArray()
                 ));
     }
-}
\ No newline at end of file
+
+    // Test that a cell repeated among the neighbours is only queried once (precision 0, the whole map).
+    @Test
+    public void getGeohashesToQueryDistinct() {
+        Assert.assertEquals(Arrays.asList(""),
+                geoHash.getHashesToQuery(PLACE_INITIAL.getLatitude(), PLACE_INITIAL.getLongitude(), DISTANCE_MORE_THAN_MAX));
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.dev.BlobStorageFactory;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalImagesServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ImageVariantCacheTest {
+  private static final BlobKey PICTURE = new BlobKey("picture");
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalBlobstoreServiceTestConfig(),
+          new LocalImagesServiceTestConfig(),
+          new LocalMemcacheServiceTestConfig());
+
+  @Before
+  public void setUp() throws IOException {
+    helper.setUp();
+    putPicture(PICTURE, 1200, 800);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void resizesToTheVariant() {
+    Image thumbnail = ImagesServiceFactory.makeImage(ImageVariantCache.getInstance()
+        .get(PICTURE, ImageVariant.THUMBNAIL, ImagesService.OutputEncoding.JPEG));
+    Assert.assertEquals(Image.Format.JPEG, thumbnail.getFormat());
+    Assert.assertEquals(160, thumbnail.getWidth());
+    Assert.assertEquals(107, thumbnail.getHeight());
+
+    Image card = ImagesServiceFactory.makeImage(ImageVariantCache.getInstance()
+        .get(PICTURE, ImageVariant.CARD, ImagesService.OutputEncoding.PNG));
+    Assert.assertEquals(Image.Format.PNG, card.getFormat());
+    Assert.assertEquals(640, card.getWidth());
+  }
+
+  @Test
+  public void variantsAreProducedOnce() throws IOException {
+    byte[] thumbnail = ImageVariantCache.getInstance()
+        .get(PICTURE, ImageVariant.THUMBNAIL, ImagesService.OutputEncoding.JPEG);
+
+    // Served from memcache even once the blob changed under the same key
+    putPicture(PICTURE, 300, 300);
+    Assert.assertArrayEquals(thumbnail, ImageVariantCache.getInstance()
+        .get(PICTURE, ImageVariant.THUMBNAIL, ImagesService.OutputEncoding.JPEG));
+
+    ImageVariantCache.getInstance().invalidate(PICTURE);
+    Image resized = ImagesServiceFactory.makeImage(ImageVariantCache.getInstance()
+        .get(PICTURE, ImageVariant.THUMBNAIL, ImagesService.OutputEncoding.JPEG));
+    Assert.assertEquals(160, resized.getHeight());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fullIsNotResized() {
+    ImageVariantCache.getInstance().get(PICTURE, ImageVariant.FULL, ImagesService.OutputEncoding.JPEG);
+  }
+
+  @Test
+  public void variantFromParameter() {
+    Assert.assertEquals(ImageVariant.THUMBNAIL, ImageVariant.fromParameter("thumbnail"));
+    Assert.assertEquals(ImageVariant.CARD, ImageVariant.fromParameter("Card"));
+  }
+
+  public static void putPicture(BlobKey blobKey, int width, int height) throws IOException {
+    try (OutputStream content = BlobStorageFactory.getBlobStorage().storeBlob(blobKey)) {
+      ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", content);
+    }
+    Entity blobInfo = new Entity(KeyFactory.createKey(BlobInfoFactory.KIND, blobKey.getKeyString()));
+    blobInfo.setProperty(BlobInfoFactory.CONTENT_TYPE, "image/png");
+    blobInfo.setProperty(BlobInfoFactory.CREATION, new Date());
+    blobInfo.setProperty(BlobInfoFactory.FILENAME, "picture.png");
+    blobInfo.setProperty(BlobInfoFactory.SIZE, 1L);
+    blobInfo.setProperty(BlobInfoFactory.MD5_HASH, "");
+    DatastoreServiceFactory.getDatastoreService().put(blobInfo);
+  }
+}
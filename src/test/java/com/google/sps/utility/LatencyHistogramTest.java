@@ -0,0 +1,68 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class LatencyHistogramTest {
+  private static final double DELTA = 1e-9;
+
+  @Test
+  public void empty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals(0, histogram.getCount());
+    Assert.assertEquals(0, histogram.getMeanMillis(), DELTA);
+    Assert.assertEquals(0, histogram.getPercentileMillis(99), DELTA);
+  }
+
+  @Test
+  public void percentilesAreBucketBounds() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // 90 fast requests, 9 slower ones and one very slow
+    for (int i = 0; i < 90; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(3500));
+    }
+    for (int i = 0; i < 9; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(150));
+    }
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(1234));
+
+    Assert.assertEquals(100, histogram.getCount());
+    Assert.assertEquals(5, histogram.getPercentileMillis(50), DELTA);
+    Assert.assertEquals(200, histogram.getPercentileMillis(95), DELTA);
+    Assert.assertEquals(200, histogram.getPercentileMillis(99), DELTA);
+    // The slowest request is past the bound of its bucket
+    Assert.assertEquals(1234, histogram.getPercentileMillis(100), DELTA);
+    Assert.assertEquals(1234, histogram.getMaxMillis(), DELTA);
+    Assert.assertEquals((90 * 3.5 + 9 * 150 + 1234) / 100, histogram.getMeanMillis(), DELTA);
+    Assert.assertEquals(Long.valueOf(90), histogram.getBuckets().get("5"));
+    Assert.assertEquals(Long.valueOf(9), histogram.getBuckets().get("200"));
+    Assert.assertEquals(Long.valueOf(1), histogram.getBuckets().get("2000"));
+  }
+
+  @Test
+  public void slowerThanEveryBound() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(TimeUnit.MINUTES.toNanos(2));
+
+    Assert.assertEquals(Long.valueOf(1), histogram.getBuckets().get("+Inf"));
+    Assert.assertEquals(120000, histogram.getPercentileMillis(50), DELTA);
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class LongGeoHashTest {
+
+  // Distances covering every precision used by the String API
+  private static final int[] DISTANCES = { 0, 100, 1000, 5000, 20 * 1000, 100 * 1000, 5000 * 1000 };
+
+  // Random points compared against the legacy encoder
+  private static final int RANDOM_POINTS = 20000;
+
+  // Points on the edges of the map and on exact cell borders
+  private static final double[][] EDGE_POINTS = {
+    { 0, 0 }, { 90, 180 }, { -90, -180 }, { 90, -180 }, { -90, 180 }, { 0, -180 }, { 0, 180 },
+    { 45, 90 }, { -1e-20, -1e-20 }, { 89.99999, 179.99999 }
+  };
+
+  private static final String GEOHASH_PLACE_INITIAL = "s00000000";
+
+  @Test
+  public void encodeInitialPlace() {
+    Assert.assertEquals(GEOHASH_PLACE_INITIAL, LongGeoHash.toBase32(LongGeoHash.encode(0, 0, 9), 9));
+  }
+
+  @Test
+  public void base32RoundTrip() {
+    long cell = LongGeoHash.fromBase32(GEOHASH_PLACE_INITIAL);
+    Assert.assertEquals(GEOHASH_PLACE_INITIAL, LongGeoHash.toBase32(cell, GEOHASH_PLACE_INITIAL.length()));
+  }
+
+  @Test
+  public void shorterCellIsPrefix() {
+    // A cell of lower precision is the same cell with the last characters removed
+    long cell = LongGeoHash.encode(19.4326, -99.1332, 9);
+    Assert.assertEquals(cell >>> 15, LongGeoHash.encode(19.4326, -99.1332, 6));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidCharacter() {
+    LongGeoHash.fromBase32("s0a");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void precisionTooLarge() {
+    LongGeoHash.encode(0, 0, LongGeoHash.MAX_PRECISION + 1);
+  }
+
+  @Test
+  public void sameCellsAsLegacyOnEdges() {
+    for (double[] point : EDGE_POINTS) {
+      assertSameCells(point[0], point[1]);
+    }
+  }
+
+  @Test
+  public void sameCellsAsLegacyOnRandomPoints() {
+    Random random = new Random(42);
+    for (int i = 0; i < RANDOM_POINTS; i++) {
+      // GeoPt stores floats, so most real coordinates come from a float
+      float lat = random.nextFloat() * 180 - 90;
+      float lng = random.nextFloat() * 360 - 180;
+      assertSameCells(lat, lng);
+    }
+  }
+
+  private void assertSameCells(double lat, double lng) {
+    for (int distance : DISTANCES) {
+      Assert.assertEquals(LegacyGeoHash.getHashesToQuery(lat, lng, distance),
+          GeoHash.getHashesToQuery(lat, lng, distance));
+    }
+  }
+}
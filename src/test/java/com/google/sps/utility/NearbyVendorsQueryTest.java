@@ -19,20 +19,26 @@ import static com.google.sps.data.HttpServletUtils.computeGeoDistance;
 import static com.google.sps.data.HttpServletUtils.createEmbeddedEntity;
 import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.EmbeddedEntity;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.GeoPt;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.sps.data.LocationData;
+import com.google.sps.data.OpeningHours;
 import com.google.sps.data.SaleCard;
 import com.google.sps.data.Vendor;
+import com.google.sps.data.VendorPin;
 import com.google.sps.utility.GeoHash;
 import com.google.sps.utility.NearbyVendorsQuery;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import org.junit.Assert;
 import org.junit.AfterClass;
@@ -234,6 +240,211 @@ public final class NearbyVendorsQueryTest {
     Assert.assertThat(actual, containsInAnyOrder(expected));
   }
 
+  @Test
+  public void queryAllMatchesCellByCellQuery() {
+    // Querying the cells of the circle cover at once returns the same vendors as querying the
+    // 3x3 grid of cells one after another
+    List<String> geoHashesToQuery = GeoHash.getHashesToQuery(0, 0, DIST_1_KM);
+    List<Vendor> expected = new ArrayList<>();
+    for(String prefixGeoHash : geoHashesToQuery) {
+      expected.addAll(nearbyVendorsQuery.query(prefixGeoHash, false, false, GEO_PT_NL, DIST_1_KM, TIME_1200));
+    }
+    List<GeoHashRange> geoHashRanges = GeoHashCoverer.cover(0, 0, DIST_1_KM);
+    List<Vendor> actual =
+        nearbyVendorsQuery.queryAll(geoHashRanges, false, false, GEO_PT_NL, DIST_1_KM, TIME_1200);
+
+    Assert.assertThat(actual, containsInAnyOrder(expected.toArray()));
+  }
+
+  @Test
+  public void queryAll20KilometersNoFilters() {
+    // Vendors within 20 kilometers are retrieved from the circle cover
+    List<GeoHashRange> geoHashRanges = GeoHashCoverer.cover(0, 0, DIST_20_KM);
+    Vendor[] expected = new Vendor[]{ VENDOR_50M, VENDOR_250M, VENDOR_500M, VENDOR_750M, VENDOR_15KM,
+        VENDOR_DLV, VENDOR_CLOSED, VENDOR_DLV_CLOSED, VENDOR_NIGHT_TIME};
+    List<Vendor> actual =
+        nearbyVendorsQuery.queryAll(geoHashRanges, false, false, GEO_PT_NL, DIST_20_KM, TIME_1200);
+
+    Assert.assertThat(actual, containsInAnyOrder(expected));
+  }
+
+  @Test
+  public void queryAllOverlappingRanges() {
+    // Every vendor is found once, even with the ranges repeated and overlapping each other
+    List<GeoHashRange> geoHashRanges = GeoHashCoverer.cover(0, 0, DIST_20_KM);
+    List<GeoHashRange> overlappingRanges = new ArrayList<>(geoHashRanges);
+    overlappingRanges.addAll(geoHashRanges);
+    overlappingRanges.add(GeoHashRange.ofPrefix(GeoHash.encodeVendor(0, 0).substring(0, 4)));
+
+    List<Vendor> expected =
+        nearbyVendorsQuery.queryAll(geoHashRanges, false, false, GEO_PT_NL, DIST_20_KM, TIME_1200);
+    List<Vendor> found =
+        nearbyVendorsQuery.queryAll(overlappingRanges, false, false, GEO_PT_NL, DIST_20_KM, TIME_1200);
+    Assert.assertThat(found, containsInAnyOrder(expected.toArray()));
+    Assert.assertEquals(expected.size(), found.size());
+  }
+
+  @Test
+  public void queryIndexMatchesQueryAll() {
+    // The in-memory index finds the same vendors as the datastore range queries, in the same order
+    VendorIndex vendorIndex = VendorIndex.getInstance();
+    vendorIndex.load();
+    try {
+      for (int distance : new int[]{ DIST_100_M, DIST_500_M, DIST_1_KM, DIST_20_KM }) {
+        List<GeoHashRange> geoHashRanges = GeoHashCoverer.cover(0, 0, distance);
+        for (LocalTime time : new LocalTime[]{ TIME_0000, TIME_1200 }) {
+          for (int filters = 0; filters < 4; filters++) {
+            boolean hasDelivery = (filters & 1) != 0;
+            boolean onlyOpenNow = (filters & 2) != 0;
+            List<Vendor> expected =
+                nearbyVendorsQuery.queryAll(geoHashRanges, hasDelivery, onlyOpenNow, GEO_PT_NL, distance, time);
+            List<Vendor> actual = nearbyVendorsQuery.queryIndex(
+                vendorIndex, geoHashRanges, hasDelivery, onlyOpenNow, GEO_PT_NL, distance, time);
+
+            Assert.assertEquals(expected, actual);
+          }
+        }
+      }
+    } finally {
+      vendorIndex.clear();
+    }
+  }
+
+  @Test
+  public void queryNearest1KilometerLimit3() {
+    // The 3 closest vendors within 1 kilometer, closest first, equally distant ones by id
+    List<GeoHashRange> geoHashRanges = GeoHashCoverer.cover(0, 0, DIST_1_KM);
+    List<Vendor> expected = Arrays.asList(VENDOR_50M, VENDOR_250M, VENDOR_500M);
+    List<Vendor> actual =
+        nearbyVendorsQuery.queryNearest(geoHashRanges, false, false, GEO_PT_NL, DIST_1_KM, TIME_1200, 3);
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void queryNearestMatchesSortedQueryAll() {
+    // The closest vendors are the first ones of the whole result sorted by distance, from datastore and from the index
+    VendorIndex vendorIndex = VendorIndex.getInstance();
+    vendorIndex.load();
+    try {
+      for (int distance : new int[]{ DIST_500_M, DIST_1_KM, DIST_20_KM }) {
+        List<GeoHashRange> geoHashRanges = GeoHashCoverer.cover(0, 0, distance);
+        for (int filters = 0; filters < 4; filters++) {
+          boolean hasDelivery = (filters & 1) != 0;
+          boolean onlyOpenNow = (filters & 2) != 0;
+          List<Vendor> all =
+              nearbyVendorsQuery.queryAll(geoHashRanges, hasDelivery, onlyOpenNow, GEO_PT_NL, distance, TIME_1200);
+          all.sort(Comparator.comparingDouble((Vendor vendor) -> vendor.getSaleCard().getDistanceFromClient())
+              .thenComparing(Vendor::getId));
+
+          for (int limit = 1; limit <= all.size() + 1; limit++) {
+            List<Vendor> expected = all.subList(0, Math.min(limit, all.size()));
+            Assert.assertEquals(expected, nearbyVendorsQuery.queryNearest(
+                geoHashRanges, hasDelivery, onlyOpenNow, GEO_PT_NL, distance, TIME_1200, limit));
+            Assert.assertEquals(expected, nearbyVendorsQuery.queryIndexNearest(
+                vendorIndex, geoHashRanges, hasDelivery, onlyOpenNow, GEO_PT_NL, distance, TIME_1200, limit));
+          }
+        }
+      }
+    } finally {
+      vendorIndex.clear();
+    }
+  }
+
+  @Test
+  public void queryPinsMatchQueryAll() {
+    // Pins are the projection of the vendors found by queryAll, in the same order
+    for (int distance : new int[]{ DIST_500_M, DIST_1_KM, DIST_20_KM }) {
+      List<GeoHashRange> geoHashRanges = GeoHashCoverer.cover(0, 0, distance);
+      for (int filters = 0; filters < 4; filters++) {
+        boolean hasDelivery = (filters & 1) != 0;
+        boolean onlyOpenNow = (filters & 2) != 0;
+        List<VendorPin> expected = new ArrayList<>();
+        for (Vendor vendor :
+            nearbyVendorsQuery.queryAll(geoHashRanges, hasDelivery, onlyOpenNow, GEO_PT_NL, distance, TIME_1200)) {
+          expected.add(createPinFromVendor(vendor, TIME_1200));
+        }
+
+        List<VendorPin> pins = new ArrayList<>();
+        nearbyVendorsQuery.queryPins(
+            geoHashRanges, hasDelivery, onlyOpenNow, GEO_PT_NL, distance, TIME_1200, pins::add);
+        Assert.assertEquals(expected, pins);
+
+        expected.sort(Comparator.comparingDouble(VendorPin::getDistanceFromClient).thenComparing(VendorPin::getId));
+        for (int limit = 1; limit <= expected.size() + 1; limit++) {
+          Assert.assertEquals(expected.subList(0, Math.min(limit, expected.size())),
+              nearbyVendorsQuery.queryNearestPins(
+                  geoHashRanges, hasDelivery, onlyOpenNow, GEO_PT_NL, distance, TIME_1200, limit));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void queryPagesMatchQueryAll() {
+    // Following the page tokens returns the same vendors as a single search, in the same order
+    List<GeoHashRange> geoHashRanges = GeoHashCoverer.cover(0, 0, DIST_20_KM);
+    List<Vendor> expected =
+        nearbyVendorsQuery.queryAll(geoHashRanges, false, true, GEO_PT_NL, DIST_20_KM, TIME_1200);
+
+    for (int pageSize = 1; pageSize <= expected.size() + 1; pageSize++) {
+      List<Vendor> actual = new ArrayList<>();
+      PageToken pageToken = null;
+      for (int page = 0; page <= expected.size(); page++) {
+        NearbyVendorsPage nearbyVendorsPage = nearbyVendorsQuery.queryPage(
+            geoHashRanges, false, true, GEO_PT_NL, DIST_20_KM, TIME_1200, pageSize, pageToken);
+        Assert.assertTrue(nearbyVendorsPage.getVendors().size() <= pageSize);
+        actual.addAll(nearbyVendorsPage.getVendors());
+        if (nearbyVendorsPage.getNextPageToken() == null) break;
+        pageToken = PageToken.decode(nearbyVendorsPage.getNextPageToken());
+      }
+
+      Assert.assertEquals(expected, actual);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void queryPageTokenFromAnotherSearch() {
+    List<GeoHashRange> geoHashRanges = GeoHashCoverer.cover(0, 0, DIST_20_KM);
+    NearbyVendorsPage firstPage = nearbyVendorsQuery.queryPage(
+        geoHashRanges, false, false, GEO_PT_NL, DIST_20_KM, TIME_1200, 1, null);
+    PageToken pageToken = PageToken.decode(firstPage.getNextPageToken());
+
+    // Same place, but only vendors with delivery
+    nearbyVendorsQuery.queryPage(geoHashRanges, true, false, GEO_PT_NL, DIST_20_KM, TIME_1200, 1, pageToken);
+  }
+
+  @Test
+  public void queryPinsOfSaleCardWithoutMinutes() {
+    // Salecards written before the minutes were stored only have the "HH:mm" Strings
+    Vendor legacyVendor = new Vendor("10", "Vendor", "J", null, null, null,
+        createSaleCard(10, "J", false, false, TIME_0800, TIME_1600, LOC_250_M_FROM_NL));
+    Entity legacyEntity = createEntityFromVendor(legacyVendor);
+    EmbeddedEntity saleCard = (EmbeddedEntity) legacyEntity.getProperty("saleCard");
+    saleCard.removeProperty("startMinute");
+    saleCard.removeProperty("endMinute");
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.put(legacyEntity);
+
+    try {
+      List<VendorPin> pins = new ArrayList<>();
+      nearbyVendorsQuery.queryPins(
+          GeoHashCoverer.cover(0, 0, DIST_1_KM), false, false, GEO_PT_NL, DIST_1_KM, TIME_1200, pins::add);
+      Assert.assertTrue(pins.contains(createPinFromVendor(legacyVendor, TIME_1200)));
+    } finally {
+      datastore.delete(legacyEntity.getKey());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void queryPageForgedCursor() {
+    List<GeoHashRange> geoHashRanges = GeoHashCoverer.cover(0, 0, DIST_20_KM);
+    PageToken pageToken = new PageToken(PageToken.fingerprint(geoHashRanges, false, false, TIME_1200), 0,
+        Cursor.fromWebSafeString("zzzzzzzzzz"));
+
+    nearbyVendorsQuery.queryPage(geoHashRanges, false, false, GEO_PT_NL, DIST_20_KM, TIME_1200, 1, pageToken);
+  }
+
   private static void fillDatastore() {
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     datastore.put(createEntityFromVendor(VENDOR_50M));
@@ -261,8 +472,7 @@ public final class NearbyVendorsQueryTest {
     salecardEntity.setProperty("description", salecard.getDescription());
     salecardEntity.setProperty("hasDelivery", salecard.hasDelivery());
     salecardEntity.setProperty("isTemporarilyClosed", salecard.isTemporarilyClosed());
-    salecardEntity.setProperty("startTime", salecard.getStartTime().toString());
-    salecardEntity.setProperty("endTime", salecard.getEndTime().toString());
+    OpeningHours.setOpeningHours(salecardEntity, salecard.getStartTime(), salecard.getEndTime());
     salecardEntity.setProperty("picture", salecard.getPicture());
     salecardEntity.setIndexedProperty("location", createEmbeddedEntity(locationEntity));
 
@@ -276,6 +486,18 @@ public final class NearbyVendorsQueryTest {
     return vendorEntity;
   }
 
+  /** Returns the pin of a vendor found by a query, open if it is not closed and inside its hours */
+  private static VendorPin createPinFromVendor(Vendor vendor, LocalTime time) {
+    SaleCard saleCard = vendor.getSaleCard();
+    LocalTime start = saleCard.getStartTime();
+    LocalTime end = saleCard.getEndTime();
+    boolean inHours = (start.isAfter(end))
+        ? time.isAfter(start) || time.isBefore(end)
+        : time.isAfter(start) && time.isBefore(end);
+    return new VendorPin(vendor.getId(), saleCard.getBusinessName(), saleCard.getLocation().getSalePoint(),
+        saleCard.getDistanceFromClient(), inHours && !saleCard.isTemporarilyClosed());
+  }
+
   public static LocationData createLocation(long id, float latLng) {
     return new LocationData(id, new GeoPt(latLng, latLng), GeoHash.encodeVendor(latLng, latLng), 0f);
   }
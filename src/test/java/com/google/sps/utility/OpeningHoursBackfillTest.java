@@ -0,0 +1,118 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import static com.google.sps.utility.NearbyVendorsQueryTest.createEntityFromVendor;
+import static com.google.sps.utility.NearbyVendorsQueryTest.createLocation;
+import static com.google.sps.utility.NearbyVendorsQueryTest.createSaleCard;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.COMMONS;
+import com.google.sps.data.Vendor;
+import java.time.LocalTime;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class OpeningHoursBackfillTest {
+  private static final LocalTime TIME_0800 = LocalTime.parse("08:00");
+  private static final LocalTime TIME_1200 = LocalTime.parse("12:00");
+  private static final LocalTime TIME_1600 = LocalTime.parse("16:00");
+  private static final int DIST_1_KM = 1 * 1000;
+  private static final GeoPt GEO_PT_NL = new GeoPt(0, 0);
+
+  private static final Vendor VENDOR = new Vendor("1", "Vendor", "A", null, null, null,
+      createSaleCard(1, "A", false, false, TIME_0800, TIME_1600, createLocation(1, 0.0003179f)));
+  private static final Vendor LEGACY_VENDOR = new Vendor("2", "Vendor", "B", null, null, null,
+      createSaleCard(2, "B", false, false, TIME_0800, TIME_1600, createLocation(2, 0.001589f)));
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalMemcacheServiceTestConfig());
+
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.put(createEntityFromVendor(VENDOR));
+    // Salecards written before the minutes were stored only have the "HH:mm" Strings
+    Entity legacyEntity = createEntityFromVendor(LEGACY_VENDOR);
+    EmbeddedEntity saleCard = (EmbeddedEntity) legacyEntity.getProperty("saleCard");
+    saleCard.removeProperty("startMinute");
+    saleCard.removeProperty("endMinute");
+    saleCard.removeProperty("openHours");
+    datastore.put(legacyEntity);
+  }
+
+  @After
+  public void tearDown() {
+    System.clearProperty(COMMONS.OPEN_HOURS_FILTER_PROPERTY);
+    helper.tearDown();
+  }
+
+  @Test
+  public void openNowFindsLegacySaleCardWithoutHourFilter() {
+    Assert.assertEquals(2, queryOpenNow().size());
+  }
+
+  @Test
+  public void hourFilterFindsLegacySaleCardOnceBackfilled() {
+    System.setProperty(COMMONS.OPEN_HOURS_FILTER_PROPERTY, "true");
+    Assert.assertEquals(1, queryOpenNow().size());
+
+    OpeningHoursBackfill.Page page = new OpeningHoursBackfill().backfill(null);
+
+    Assert.assertEquals(2, page.getScanned());
+    Assert.assertEquals(1, page.getRewritten());
+    Assert.assertNull(page.getNextCursor());
+    Assert.assertEquals(2, queryOpenNow().size());
+  }
+
+  @Test
+  public void backfillKeepsHoursAndBumpsVersion() throws EntityNotFoundException {
+    new OpeningHoursBackfill().backfill(null);
+
+    Entity backfilled = datastore.get(KeyFactory.createKey("Vendor", LEGACY_VENDOR.getId()));
+    Assert.assertFalse(OpeningHoursBackfill.needsBackfill(backfilled));
+    Assert.assertNotNull(backfilled.getProperty("version"));
+    Vendor vendor = new Vendor(backfilled);
+    Assert.assertEquals(TIME_0800, vendor.getSaleCard().getStartTime());
+    Assert.assertEquals(TIME_1600, vendor.getSaleCard().getEndTime());
+    // Nothing is left for a second run
+    Assert.assertEquals(0, new OpeningHoursBackfill().backfill(null).getRewritten());
+  }
+
+  private List<Vendor> queryOpenNow() {
+    return new NearbyVendorsQuery().queryAll(
+        GeoHashCoverer.cover(0, 0, DIST_1_KM), false, true, GEO_PT_NL, DIST_1_KM, TIME_1200);
+  }
+}
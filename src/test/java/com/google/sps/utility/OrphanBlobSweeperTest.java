@@ -0,0 +1,149 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.blobstore.BlobInfoFactory;
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.dev.BlobStorageFactory;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.COMMONS;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class OrphanBlobSweeperTest {
+  private static final Date UPLOADED_BEFORE = new Date(10 * 1000);
+  private static final Date OLD = new Date(0);
+  private static final Date RECENT = new Date(20 * 1000);
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalBlobstoreServiceTestConfig());
+
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void dryRunOnlyReports() throws IOException {
+    putBlob("a", OLD);
+    putBlob("b", OLD);
+    putBlob("c", RECENT);
+    putPicture("b");
+
+    BlobSweepReport report = new OrphanBlobSweeper().sweep(null, UPLOADED_BEFORE, true);
+
+    Assert.assertTrue(report.isDryRun());
+    Assert.assertEquals(3, report.getScanned());
+    Assert.assertEquals(1, report.getReferenced());
+    Assert.assertEquals(1, report.getTooRecent());
+    Assert.assertEquals(Arrays.asList("a"), report.getOrphans());
+    Assert.assertNull(report.getNextBlobKey());
+    Assert.assertNotNull(new BlobInfoFactory().loadBlobInfo(new BlobKey("a")));
+  }
+
+  @Test
+  public void deletesOrphansOnly() throws IOException {
+    putBlob("a", OLD);
+    putBlob("b", OLD);
+    putBlob("c", RECENT);
+    putPicture("b");
+
+    BlobSweepReport report = new OrphanBlobSweeper().sweep(null, UPLOADED_BEFORE, false);
+
+    Assert.assertEquals(Arrays.asList("a"), report.getOrphans());
+    BlobInfoFactory blobInfoFactory = new BlobInfoFactory();
+    Assert.assertNull(blobInfoFactory.loadBlobInfo(new BlobKey("a")));
+    Assert.assertNotNull(blobInfoFactory.loadBlobInfo(new BlobKey("b")));
+    Assert.assertNotNull(blobInfoFactory.loadBlobInfo(new BlobKey("c")));
+  }
+
+  @Test
+  public void pagesStopAtMaxDeletes() throws IOException {
+    // More orphans than a page can delete, in more than one batch
+    List<String> blobKeys = new ArrayList<>();
+    for (int i = 0; i < COMMONS.BLOB_SWEEP_MAX_DELETES + 10; i++) {
+      String blobKey = String.format("blob%04d", i);
+      blobKeys.add(blobKey);
+      putBlob(blobKey, OLD);
+    }
+
+    OrphanBlobSweeper sweeper = new OrphanBlobSweeper();
+    BlobSweepReport first = sweeper.sweep(null, UPLOADED_BEFORE, true);
+    Assert.assertEquals(blobKeys.subList(0, COMMONS.BLOB_SWEEP_MAX_DELETES), first.getOrphans());
+    Assert.assertEquals(blobKeys.get(COMMONS.BLOB_SWEEP_MAX_DELETES - 1), first.getNextBlobKey());
+
+    BlobSweepReport second = sweeper.sweep(new BlobKey(first.getNextBlobKey()), UPLOADED_BEFORE, true);
+    Assert.assertEquals(blobKeys.subList(COMMONS.BLOB_SWEEP_MAX_DELETES, blobKeys.size()), second.getOrphans());
+    Assert.assertNull(second.getNextBlobKey());
+  }
+
+  @Test
+  public void emptyBlobstore() {
+    BlobSweepReport report = new OrphanBlobSweeper().sweep(null, UPLOADED_BEFORE, false);
+
+    Assert.assertEquals(0, report.getScanned());
+    Assert.assertEquals(Collections.emptyList(), report.getOrphans());
+    Assert.assertNull(report.getNextBlobKey());
+  }
+
+  private void putBlob(String blobKey, Date creation) throws IOException {
+    // The local blobstore only deletes the blobs it holds content for
+    try (OutputStream content = BlobStorageFactory.getBlobStorage().storeBlob(new BlobKey(blobKey))) {
+      content.write(0);
+    }
+    Entity blobInfo = new Entity(KeyFactory.createKey(BlobInfoFactory.KIND, blobKey));
+    blobInfo.setProperty(BlobInfoFactory.CONTENT_TYPE, "image/png");
+    blobInfo.setProperty(BlobInfoFactory.CREATION, creation);
+    blobInfo.setProperty(BlobInfoFactory.FILENAME, blobKey + ".png");
+    blobInfo.setProperty(BlobInfoFactory.SIZE, 1L);
+    blobInfo.setProperty(BlobInfoFactory.MD5_HASH, "");
+    datastore.put(blobInfo);
+  }
+
+  private void putPicture(String blobKey) {
+    Entity picture = new Entity("Picture");
+    picture.setProperty("blobKey", new BlobKey(blobKey));
+    picture.setProperty("altText", "A");
+    datastore.put(picture);
+  }
+}
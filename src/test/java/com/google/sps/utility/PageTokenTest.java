@@ -0,0 +1,98 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class PageTokenTest {
+
+  private static final List<GeoHashRange> RANGES_1_KM = GeoHashCoverer.cover(0, 0, 1000);
+  private static final List<GeoHashRange> RANGES_2_KM = GeoHashCoverer.cover(0, 0, 2000);
+  private static final LocalTime TIME_1200 = LocalTime.parse("12:00");
+  private static final LocalTime TIME_1230 = LocalTime.parse("12:30");
+  private static final LocalTime TIME_1300 = LocalTime.parse("13:00");
+
+  @Test
+  public void encodeDecodeWithoutCursor() {
+    PageToken token = new PageToken(PageToken.fingerprint(RANGES_1_KM, true, false, TIME_1200), 2, null);
+    PageToken decoded = PageToken.decode(token.encode());
+
+    Assert.assertEquals(token.getFingerprint(), decoded.getFingerprint());
+    Assert.assertEquals(2, decoded.getRangeIndex());
+    Assert.assertNull(decoded.getCursor());
+  }
+
+  @Test
+  public void belongsToSameSearchOnly() {
+    PageToken token = new PageToken(PageToken.fingerprint(RANGES_1_KM, true, false, TIME_1200), 0, null);
+
+    Assert.assertTrue(token.belongsTo(RANGES_1_KM, true, false, TIME_1200));
+    Assert.assertFalse(token.belongsTo(RANGES_1_KM, false, false, TIME_1200));
+    Assert.assertFalse(token.belongsTo(RANGES_1_KM, true, true, TIME_1200));
+    Assert.assertFalse(token.belongsTo(RANGES_2_KM, true, false, TIME_1200));
+  }
+
+  @Test
+  public void openNowSearchesBelongToTheSameHourOnly() {
+    PageToken token = new PageToken(PageToken.fingerprint(RANGES_1_KM, false, true, TIME_1200), 0, null);
+
+    Assert.assertTrue(token.belongsTo(RANGES_1_KM, false, true, TIME_1230));
+    Assert.assertFalse(token.belongsTo(RANGES_1_KM, false, true, TIME_1300));
+  }
+
+  @Test
+  public void rangeIndexAfterLastRange() {
+    PageToken token = new PageToken(PageToken.fingerprint(RANGES_1_KM, false, false, TIME_1200), RANGES_1_KM.size() + 1, null);
+
+    Assert.assertFalse(token.belongsTo(RANGES_1_KM, false, false, TIME_1200));
+  }
+
+  @Test
+  public void rangeIndexOfNormalizedRanges() {
+    // The same ranges twice are read as one set of ranges
+    List<GeoHashRange> twice = new ArrayList<>(RANGES_1_KM);
+    twice.addAll(RANGES_1_KM);
+    int rangeCount = GeoHashRange.normalize(twice).size();
+    int fingerprint = PageToken.fingerprint(twice, false, false, TIME_1200);
+
+    Assert.assertTrue(new PageToken(fingerprint, rangeCount, null).belongsTo(twice, false, false, TIME_1200));
+    Assert.assertFalse(new PageToken(fingerprint, rangeCount + 1, null).belongsTo(twice, false, false, TIME_1200));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void decodeForgedCursor() {
+    String forged = "1:0:0:!!!!";
+    PageToken.decode(Base64.getUrlEncoder().encodeToString(forged.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void decodeNotBase64() {
+    PageToken.decode("not a token");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void decodeWrongFormat() {
+    PageToken.decode("MTox");
+  }
+}
@@ -0,0 +1,221 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import static com.google.sps.utility.NearbyVendorsQueryTest.createEntityFromVendor;
+import static com.google.sps.utility.NearbyVendorsQueryTest.createLocation;
+import static com.google.sps.utility.NearbyVendorsQueryTest.createSaleCard;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.COMMONS;
+import com.google.sps.data.LocationData;
+import com.google.sps.data.Vendor;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class RangeResultCacheTest {
+
+  // Time values
+  private static final LocalTime TIME_0800 = LocalTime.parse("08:00");
+  private static final LocalTime TIME_1200 = LocalTime.parse("12:00");
+  private static final LocalTime TIME_1300 = LocalTime.parse("13:00");
+  private static final LocalTime TIME_1600 = LocalTime.parse("16:00");
+
+  // Distance values
+  private static final int DIST_300_M = 300;
+  private static final int DIST_1_KM = 1 * 1000;
+
+  // Latitude and longitude values (NL = NULL ISLAND {lat: 0, lng: 0})
+  private static final GeoPt GEO_PT_NL = new GeoPt(0, 0);
+  private static final List<GeoHashRange> RANGES_1_KM_FROM_NL = GeoHashCoverer.cover(0, 0, DIST_1_KM);
+  // Away from the corner of the map at NL, where the cover and its cells are the same
+  private static final GeoPt GEO_PT_CROWD = new GeoPt(0.02f, 0.02f);
+  private static final List<GeoHashRange> RANGES_300_M_FROM_CROWD = GeoHashCoverer.cover(0.02, 0.02, DIST_300_M);
+
+  // Vendors
+  private static final Vendor VENDOR_50M = new Vendor("1", "Vendor", "A", null, null, null,
+      createSaleCard(1, "A", false, false, TIME_0800, TIME_1600, createLocation(1, 0.0003179f)));
+  private static final Vendor VENDOR_500M = new Vendor("2", "Vendor", "B", null, null, null,
+      createSaleCard(2, "B", false, false, TIME_0800, TIME_1600, createLocation(2, 0.003179f)));
+
+  private final LocalServiceTestHelper datastoreHelper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private final NearbyVendorsQuery nearbyVendorsQuery = new NearbyVendorsQuery();
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    datastoreHelper.setUp();
+    System.setProperty(COMMONS.SEARCH_CACHE_PROPERTY, "true");
+    RangeResultCache.getInstance().clear();
+
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.put(createEntityFromVendor(VENDOR_50M));
+    datastore.put(createEntityFromVendor(VENDOR_500M));
+  }
+
+  @After
+  public void tearDown() {
+    System.clearProperty(COMMONS.SEARCH_CACHE_PROPERTY);
+    RangeResultCache.getInstance().clear();
+    datastoreHelper.tearDown();
+  }
+
+  @Test
+  public void secondSearchReadsCachedRanges() {
+    Assert.assertEquals(2, search(false, TIME_1200).size());
+
+    // Deleted behind the back of the cache, the ranges are not read again
+    datastore.delete(KeyFactory.createKey("Vendor", VENDOR_500M.getId()));
+    Assert.assertEquals(2, search(false, TIME_1200).size());
+  }
+
+  @Test
+  public void invalidateDropsRangesOfTheGeoHash() {
+    search(false, TIME_1200);
+
+    datastore.delete(KeyFactory.createKey("Vendor", VENDOR_500M.getId()));
+    RangeResultCache.getInstance().invalidate(VENDOR_500M.getSaleCard().getLocation().getGeoHash());
+
+    Assert.assertEquals(ids(VENDOR_50M), ids(search(false, TIME_1200)));
+  }
+
+  @Test
+  public void filtersAreCachedSeparately() {
+    search(false, TIME_1200);
+    search(true, TIME_1200);
+    datastore.delete(KeyFactory.createKey("Vendor", VENDOR_500M.getId()));
+
+    // Open vendors are filtered by the hour of the request
+    Assert.assertEquals(2, search(true, TIME_1200).size());
+    Assert.assertEquals(ids(VENDOR_50M), ids(search(true, TIME_1300)));
+  }
+
+  @Test
+  public void nearbySearchesShareCells() {
+    search(false, TIME_1200);
+    datastore.delete(KeyFactory.createKey("Vendor", VENDOR_500M.getId()));
+
+    // Another client a hundred meters away has a different cover, but inside the same cells
+    List<GeoHashRange> nearbyCover = GeoHashCoverer.cover(0.001, 0.001, DIST_1_KM);
+    Assert.assertNotEquals(RANGES_1_KM_FROM_NL, nearbyCover);
+    Assert.assertEquals(
+        RangeResultCache.cellsCovering(RANGES_1_KM_FROM_NL), RangeResultCache.cellsCovering(nearbyCover));
+    Assert.assertEquals(2, nearbyVendorsQuery.queryAll(
+        nearbyCover, false, false, new GeoPt(0.001f, 0.001f), DIST_1_KM, TIME_1200).size());
+  }
+
+  @Test
+  public void cellsContainEveryRange() {
+    List<GeoHashRange> cells = RangeResultCache.cellsCovering(RANGES_1_KM_FROM_NL);
+
+    Assert.assertTrue(cells.size() <= COMMONS.SEARCH_CACHE_MAX_CELLS);
+    for (GeoHashRange range : RANGES_1_KM_FROM_NL) {
+      Assert.assertTrue(cells.stream().anyMatch(cell -> cell.getStart() <= range.getStart()));
+      Assert.assertTrue(cells.stream().anyMatch(cell -> cell.getEnd() >= range.getEnd()));
+    }
+  }
+
+  @Test
+  public void largeSearchesAreNotCached() {
+    Assert.assertNull(RangeResultCache.cellsCovering(GeoHashCoverer.cover(0, 0, COMMONS.MAX_DISTANCE_CLIENT)));
+  }
+
+  @Test
+  public void oversizeCellIsQueriedByItsRanges() {
+    // More vendors than a cell keeps, in a cell of the search but outside its ranges
+    List<GeoHashRange> cells = RangeResultCache.cellsCovering(RANGES_300_M_FROM_CROWD);
+    GeoPt crowded = null;
+    for (float lat = 0.01f; lat < 0.03f && crowded == null; lat += 0.0002f) {
+      for (float lng = 0.01f; lng < 0.03f && crowded == null; lng += 0.0002f) {
+        String geoHash = GeoHash.encodeVendor(lat, lng);
+        if (cells.stream().anyMatch(cell -> cell.contains(geoHash)) &&
+            RANGES_300_M_FROM_CROWD.stream().noneMatch(range -> range.contains(geoHash))) {
+          crowded = new GeoPt(lat, lng);
+        }
+      }
+    }
+    Assert.assertNotNull(crowded);
+    String crowdedGeoHash = GeoHash.encodeVendor(crowded.getLatitude(), crowded.getLongitude());
+    List<Entity> crowd = new ArrayList<>();
+    for (int id = 100; id <= 100 + COMMONS.SEARCH_BATCH_SIZE; id++) {
+      LocationData location = new LocationData(id, crowded, crowdedGeoHash, 0f);
+      crowd.add(createEntityFromVendor(new Vendor(Integer.toString(id), "Vendor", "Z", null, null, null,
+          createSaleCard(id, "Z", false, false, TIME_0800, TIME_1600, location))));
+    }
+    datastore.put(crowd);
+
+    // The first search reads the whole cell and finds out it is too large
+    Assert.assertTrue(entitiesReadNearCrowd() > COMMONS.SEARCH_BATCH_SIZE);
+    // The next ones read only their ranges, as many entities as without the cache
+    long entitiesRead = entitiesReadNearCrowd();
+    System.clearProperty(COMMONS.SEARCH_CACHE_PROPERTY);
+    Assert.assertEquals(entitiesReadNearCrowd(), entitiesRead);
+    Assert.assertEquals(0, entitiesRead);
+  }
+
+  @Test
+  public void disabledReadsDatastore() {
+    System.clearProperty(COMMONS.SEARCH_CACHE_PROPERTY);
+    search(false, TIME_1200);
+
+    datastore.delete(KeyFactory.createKey("Vendor", VENDOR_500M.getId()));
+    Assert.assertEquals(ids(VENDOR_50M), ids(search(false, TIME_1200)));
+  }
+
+  private List<Vendor> search(boolean onlyOpenNow, LocalTime requestTime) {
+    return nearbyVendorsQuery.queryAll(
+        RANGES_1_KM_FROM_NL, false, onlyOpenNow, GEO_PT_NL, DIST_1_KM, requestTime);
+  }
+
+  /** Returns the entities read by a search next to the crowd of oversizeCellIsQueriedByItsRanges. */
+  private long entitiesReadNearCrowd() {
+    RequestTrace trace = RequestTrace.begin("test", "/get-nearby-vendors");
+    try {
+      Assert.assertEquals(0, nearbyVendorsQuery.queryAll(
+          RANGES_300_M_FROM_CROWD, false, false, GEO_PT_CROWD, DIST_300_M, TIME_1200).size());
+      return trace.getEntitiesRead();
+    } finally {
+      trace.end();
+    }
+  }
+
+  private static List<String> ids(Vendor... vendors) {
+    List<String> ids = new ArrayList<>();
+    for (Vendor vendor : vendors) {
+      ids.add(vendor.getId());
+    }
+    return ids;
+  }
+
+  private static List<String> ids(List<Vendor> vendors) {
+    return ids(vendors.toArray(new Vendor[0]));
+  }
+}
@@ -0,0 +1,76 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class SearchDeadlineTest {
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private Entity vendorA;
+  private Entity vendorB;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    vendorA = new Entity("Vendor", "a");
+    vendorB = new Entity("Vendor", "b");
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void readsBeforeDeadline() {
+    SearchDeadline deadline = SearchDeadline.start();
+
+    Iterator<Entity> vendors = deadline.guard(Arrays.asList(vendorA, vendorB).iterator());
+
+    Assert.assertTrue(vendors.hasNext());
+    Assert.assertEquals(vendorA, vendors.next());
+    Assert.assertEquals(vendorB, vendors.next());
+    Assert.assertFalse(vendors.hasNext());
+    Assert.assertTrue(deadline.datastoreConfig().getDeadline() <= 5.0);
+  }
+
+  @Test(expected = DatastoreTimeoutException.class)
+  public void stopsReadingAfterDeadline() {
+    SearchDeadline deadline = new SearchDeadline(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(1));
+
+    deadline.guard(Arrays.asList(vendorA, vendorB).iterator()).hasNext();
+  }
+
+  @Test(expected = DatastoreTimeoutException.class)
+  public void noQueryAfterDeadline() {
+    SearchDeadline deadline = new SearchDeadline(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(1));
+
+    deadline.datastoreConfig();
+  }
+}
@@ -0,0 +1,191 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.utility;
+
+import static com.google.sps.utility.NearbyVendorsQueryTest.createEntityFromVendor;
+import static com.google.sps.utility.NearbyVendorsQueryTest.createLocation;
+import static com.google.sps.utility.NearbyVendorsQueryTest.createSaleCard;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.GeoPt;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.Vendor;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class VendorIndexTest {
+
+  // Time values
+  private static final LocalTime TIME_0800 = LocalTime.parse("08:00");
+  private static final LocalTime TIME_1200 = LocalTime.parse("12:00");
+  private static final LocalTime TIME_1600 = LocalTime.parse("16:00");
+
+  // Distance values
+  private static final int DIST_1_KM = 1 * 1000;
+
+  // Latitude and longitude values (NL = NULL ISLAND {lat: 0, lng: 0})
+  private static final GeoPt GEO_PT_NL = new GeoPt(0, 0);
+  private static final List<GeoHashRange> RANGES_1_KM_FROM_NL = GeoHashCoverer.cover(0, 0, DIST_1_KM);
+
+  // Vendors
+  private static final Vendor VENDOR_50M = new Vendor("1", "Vendor", "A", null, null, null,
+      createSaleCard(1, "A", false, false, TIME_0800, TIME_1600, createLocation(1, 0.0003179f)));
+  private static final Vendor VENDOR_500M_DLV = new Vendor("2", "Vendor", "B", null, null, null,
+      createSaleCard(2, "B", true, false, TIME_0800, TIME_1600, createLocation(2, 0.003179f)));
+  private static final Vendor VENDOR_500M_CLOSED = new Vendor("3", "Vendor", "C", null, null, null,
+      createSaleCard(3, "C", false, true, TIME_0800, TIME_1600, createLocation(3, 0.003179f)));
+  private static final Vendor VENDOR_15KM = new Vendor("4", "Vendor", "D", null, null, null,
+      createSaleCard(4, "D", false, false, TIME_0800, TIME_1600, createLocation(4, 0.095299f)));
+  private static final Vendor VENDOR_NO_SALECARD = new Vendor("5", "Vendor", "E", null, null, null, null);
+
+  private final LocalServiceTestHelper datastoreHelper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private VendorIndex vendorIndex;
+
+  @Before
+  public void setUp() {
+    datastoreHelper.setUp();
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    datastore.put(createEntityFromVendor(VENDOR_50M));
+    datastore.put(createEntityFromVendor(VENDOR_500M_DLV));
+    datastore.put(createEntityFromVendor(VENDOR_500M_CLOSED));
+    datastore.put(createEntityFromVendor(VENDOR_15KM));
+    Entity noSaleCard = new Entity("Vendor", VENDOR_NO_SALECARD.getId());
+    noSaleCard.setProperty("firstName", VENDOR_NO_SALECARD.getFirstName());
+    datastore.put(noSaleCard);
+
+    vendorIndex = VendorIndex.getInstance();
+    vendorIndex.load();
+  }
+
+  @After
+  public void tearDown() {
+    vendorIndex.clear();
+    datastoreHelper.tearDown();
+  }
+
+  @Test
+  public void loadSkipsVendorsWithoutSaleCard() {
+    Assert.assertEquals(4, vendorIndex.size());
+    Assert.assertTrue(vendorIndex.isFresh());
+  }
+
+  @Test
+  public void searchNoFilters() {
+    List<String> actual = search(false, false);
+
+    Assert.assertEquals(3, actual.size());
+    Assert.assertTrue(actual.containsAll(Arrays.asList("1", "2", "3")));
+  }
+
+  @Test
+  public void searchWithFilters() {
+    Assert.assertEquals(Collections.singletonList("2"), search(true, false));
+    Assert.assertEquals(Arrays.asList("1", "2"), search(false, true));
+    Assert.assertEquals(Collections.singletonList("2"), search(true, true));
+  }
+
+  @Test
+  public void updateMovesVendor() {
+    Vendor moved = new Vendor("4", "Vendor", "D", null, null, null,
+        createSaleCard(4, "D", false, false, TIME_0800, TIME_1600, createLocation(4, 0.001589f)));
+    vendorIndex.update(createEntityFromVendor(moved));
+
+    Assert.assertEquals(4, vendorIndex.size());
+    Assert.assertTrue(search(false, false).contains("4"));
+  }
+
+  @Test
+  public void updateWithoutSaleCardRemovesVendor() {
+    Entity withoutSaleCard = createEntityFromVendor(VENDOR_50M);
+    withoutSaleCard.setProperty("saleCard", null);
+    vendorIndex.update(withoutSaleCard);
+
+    Assert.assertEquals(3, vendorIndex.size());
+    Assert.assertFalse(search(false, false).contains("1"));
+  }
+
+  @Test
+  public void removeVendor() {
+    vendorIndex.remove("2");
+
+    Assert.assertEquals(3, vendorIndex.size());
+    Assert.assertFalse(search(false, false).contains("2"));
+  }
+
+  @Test
+  public void updateVendorSharingItsCell() {
+    // Vendors 2 and 3 are at the same point, the vendor updated must be found among them
+    Vendor reopened = new Vendor("3", "Vendor", "C", null, null, null,
+        createSaleCard(3, "C", false, false, TIME_0800, TIME_1600, createLocation(3, 0.003179f)));
+    vendorIndex.update(createEntityFromVendor(reopened));
+    vendorIndex.update(createEntityFromVendor(reopened));
+    vendorIndex.remove("2");
+
+    Assert.assertEquals(3, vendorIndex.size());
+    Assert.assertEquals(Arrays.asList("1", "3"), search(false, true));
+  }
+
+  @Test
+  public void writesBeforeLoadAreIgnored() {
+    vendorIndex.clear();
+    vendorIndex.remove("1");
+    vendorIndex.update(createEntityFromVendor(VENDOR_50M));
+
+    Assert.assertEquals(0, vendorIndex.size());
+    Assert.assertFalse(vendorIndex.isFresh());
+  }
+
+  @Test
+  public void refreshLoadsClearedIndex() {
+    vendorIndex.clear();
+
+    Assert.assertTrue(vendorIndex.refreshIfStale());
+    Assert.assertEquals(4, vendorIndex.size());
+    Assert.assertTrue(vendorIndex.isFresh());
+  }
+
+  @Test
+  public void refreshKeepsFreshIndex() {
+    vendorIndex.remove("1");
+
+    // A reload would bring the vendor back
+    Assert.assertTrue(vendorIndex.refreshIfStale());
+    Assert.assertEquals(3, vendorIndex.size());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void searchBeforeLoad() {
+    vendorIndex.clear();
+    search(false, false);
+  }
+
+  private List<String> search(boolean hasDelivery, boolean onlyOpenNow) {
+    return vendorIndex.search(RANGES_1_KM_FROM_NL, hasDelivery, onlyOpenNow, GEO_PT_NL, DIST_1_KM, TIME_1200);
+  }
+}